@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.api;
+
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+/**
+ * Options for writing an archive entry.
+ * All options are optional: Archive file outputs which don't support an option or an archive file format which doesn't
+ * use it simply ignore it.
+ *
+ * @see ArchiveFileOutput#sink(String, ArchiveEntryOptions)
+ * @author Christian Schlichtherle
+ */
+@SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+public final class ArchiveEntryOptions {
+
+    private static final ArchiveEntryOptions NONE = builder().build();
+
+    private final Optional<Method> method;
+
+    private final OptionalInt level;
+
+    private final OptionalLong size, crc, time;
+
+    private ArchiveEntryOptions(final Builder b) {
+        this.method = b.method;
+        this.level = b.level;
+        this.size = b.size;
+        this.crc = b.crc;
+        this.time = b.time;
+    }
+
+    /** Returns the archive entry options where no option is set. */
+    public static ArchiveEntryOptions none() { return NONE; }
+
+    /** Returns a new builder for archive entry options. */
+    public static Builder builder() { return new Builder(); }
+
+    /** Returns the compression method, if set. */
+    public Optional<Method> method() { return method; }
+
+    /**
+     * Returns the compression level, if set.
+     * The value ranges from {@code -1} for the default compression level to {@code 9} for the best compression, like
+     * for a {@link java.util.zip.Deflater}.
+     */
+    public OptionalInt level() { return level; }
+
+    /** Returns the size of the content of the archive entry, if known in advance. */
+    public OptionalLong size() { return size; }
+
+    /** Returns the CRC-32 checksum of the content of the archive entry, if known in advance. */
+    public OptionalLong crc() { return crc; }
+
+    /** Returns the last modification time of the archive entry in milliseconds since the epoch, if set. */
+    public OptionalLong time() { return time; }
+
+    /** Defines the compression method for writing an archive entry. */
+    public enum Method {
+
+        /** Stores the content without compression. */
+        STORED,
+
+        /** Compresses the content with the DEFLATE algorithm. */
+        DEFLATED,
+
+        /**
+         * Compresses the first block of the content as a sample and stores the content without compression if the
+         * sample proves to be incompressible, e.g. for JPEG images, nested JAR files or other compressed data.
+         * Otherwise, the content gets compressed with the DEFLATE algorithm.
+         */
+        AUTO
+    }
+
+    /** A builder for archive entry options. */
+    public static final class Builder {
+
+        private Optional<Method> method = Optional.empty();
+
+        private OptionalInt level = OptionalInt.empty();
+
+        private OptionalLong size = OptionalLong.empty(), crc = OptionalLong.empty(), time = OptionalLong.empty();
+
+        private Builder() { }
+
+        /** Returns this builder with the given compression method. */
+        public Builder method(final Method method) {
+            this.method = Optional.of(method);
+            return this;
+        }
+
+        /** Returns this builder with the given compression level, ranging from {@code -1} to {@code 9}. */
+        public Builder level(final int level) {
+            if (level < -1 || 9 < level) {
+                throw new IllegalArgumentException("Invalid compression level: " + level);
+            }
+            this.level = OptionalInt.of(level);
+            return this;
+        }
+
+        /** Returns this builder with the given size of the content of the archive entry. */
+        public Builder size(final long size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("Invalid size: " + size);
+            }
+            this.size = OptionalLong.of(size);
+            return this;
+        }
+
+        /** Returns this builder with the given CRC-32 checksum of the content of the archive entry. */
+        public Builder crc(final long crc) {
+            if (crc < 0 || 0xffffffffL < crc) {
+                throw new IllegalArgumentException("Invalid CRC-32 checksum: " + crc);
+            }
+            this.crc = OptionalLong.of(crc);
+            return this;
+        }
+
+        /** Returns this builder with the given last modification time in milliseconds since the epoch. */
+        public Builder time(final long time) {
+            this.time = OptionalLong.of(time);
+            return this;
+        }
+
+        public ArchiveEntryOptions build() { return new ArchiveEntryOptions(this); }
+    }
+}
@@ -4,8 +4,13 @@
  */
 package global.namespace.archive.io.api;
 
+import global.namespace.fun.io.api.Socket;
 import global.namespace.fun.io.api.Source;
 
+import java.nio.channels.FileChannel;
+import java.util.Optional;
+import java.util.OptionalLong;
+
 /**
  * An abstraction for reading the content of an underlying archive entry.
  *
@@ -16,6 +21,42 @@ public abstract class ArchiveEntrySource<E> extends ArchiveEntry<E> implements S
     /** Copies all data of the underlying archive entry in this archive file to the given archive entry sink. */
     public abstract void copyTo(ArchiveEntrySink<?> sink) throws Exception;
 
+    /**
+     * Returns the size of the uncompressed data of the underlying archive entry, if known without reading it.
+     * The default implementation returns an empty optional.
+     */
+    public OptionalLong size() { return OptionalLong.empty(); }
+
+    /**
+     * Returns the CRC-32 checksum of the uncompressed data of the underlying archive entry, if known without reading
+     * it.
+     * The default implementation returns an empty optional.
+     */
+    public OptionalLong crc() { return OptionalLong.empty(); }
+
+    /**
+     * Returns the last modification time of the underlying archive entry in milliseconds since the epoch, if known
+     * without reading it.
+     * The default implementation returns an empty optional.
+     */
+    public OptionalLong time() { return OptionalLong.empty(); }
+
+    /**
+     * Returns a source for reading the raw data of the underlying archive entry, if supported.
+     * The raw data is the data as it is stored in the archive file, that is, without decompressing it.
+     * The default implementation returns an empty optional.
+     */
+    public Optional<Source> rawSource() { return Optional.empty(); }
+
+    /**
+     * Returns a socket for a file channel for reading the uncompressed data of the underlying archive entry, if
+     * supported.
+     * This allows to transfer or map the data without copying it to the heap, e.g. if the archive entry is a file in a
+     * directory.
+     * The default implementation returns an empty optional.
+     */
+    public Optional<Socket<FileChannel>> channel() { return Optional.empty(); }
+
     @Override
     public boolean canEqual(Object that) { return that instanceof ArchiveEntrySource; }
 }
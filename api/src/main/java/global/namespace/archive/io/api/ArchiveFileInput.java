@@ -6,9 +6,16 @@ package global.namespace.archive.io.api;
 
 import java.io.Closeable;
 import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * An abstraction for reading archive entries from an archive file.
+ * <p>
+ * Implementations should override {@link #spliterator()} to return a sized spliterator if the number of archive
+ * entries is known, e.g. from the central directory of a ZIP file.
+ * If the archive entry sources can get read concurrently without holding a lock for the entire read, then they should
+ * also override {@link #isConcurrent()}.
  *
  * @see ArchiveFileOutput
  * @author Christian Schlichtherle
@@ -17,4 +24,33 @@ public interface ArchiveFileInput<E> extends Iterable<ArchiveEntrySource<E>>, Cl
 
     /** Returns a source for reading the archive entry with the given name, if it exists. */
     Optional<ArchiveEntrySource<E>> source(String name);
+
+    /** Returns a sequential stream of the archive entry sources. */
+    default Stream<ArchiveEntrySource<E>> stream() { return StreamSupport.stream(spliterator(), false); }
+
+    /**
+     * Returns {@code true} if and only if the archive entry sources can get read concurrently without holding a lock
+     * for the entire read, e.g. because any lock only gets held while reading the raw data, but not while inflating it.
+     * The default implementation returns {@code false}.
+     */
+    default boolean isConcurrent() { return false; }
+
+    /**
+     * Returns {@code true} if and only if the archive entries can only get read sequentially, e.g. from a stream.
+     * If so, looking up an archive entry by its name only succeeds if it's the next archive entry and consumes it,
+     * iterating the archive entries starts at the next archive entry and the content of an archive entry can only get
+     * read until the next archive entry gets consumed.
+     * The default implementation returns {@code false}.
+     */
+    default boolean isSequential() { return false; }
+
+    /**
+     * Returns a parallel stream of the archive entry sources if this archive file input
+     * {@linkplain #isConcurrent() is concurrent}.
+     * Otherwise, reading the archive entry sources concurrently would not scale or is not safe, so a sequential stream
+     * gets returned.
+     */
+    default Stream<ArchiveEntrySource<E>> parallelStream() {
+        return StreamSupport.stream(spliterator(), isConcurrent());
+    }
 }
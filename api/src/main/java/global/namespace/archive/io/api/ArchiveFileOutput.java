@@ -19,4 +19,10 @@ public interface ArchiveFileOutput<E> extends Closeable {
 
     /** Returns a sink for writing the archive entry with the given name. */
     ArchiveEntrySink<E> sink(String name);
+
+    /**
+     * Returns a sink for writing the archive entry with the given name and options, e.g. the compression method.
+     * The default implementation ignores the options.
+     */
+    default ArchiveEntrySink<E> sink(String name, ArchiveEntryOptions options) { return sink(name); }
 }
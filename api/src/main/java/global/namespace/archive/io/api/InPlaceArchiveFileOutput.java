@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.api;
+
+import java.io.IOException;
+
+/**
+ * An abstraction for updating the archive entries of an existing archive file in place.
+ * Archive entries which are neither written nor deleted stay untouched.
+ * All changes get staged until they get {@linkplain #commit() committed}.
+ * Closing an in-place archive file output without committing it discards all changes.
+ *
+ * @see InPlaceArchiveFileStore
+ * @author Christian Schlichtherle
+ */
+public interface InPlaceArchiveFileOutput<E> extends ArchiveFileOutput<E> {
+
+    /** Deletes the archive entry with the given name upon commit. */
+    void delete(String name) throws IOException;
+
+    /** Commits all written and deleted archive entries to the archive file. */
+    void commit() throws IOException;
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.api;
+
+import global.namespace.fun.io.api.Socket;
+
+/**
+ * An archive file store which supports updating its archive file in place.
+ * In addition to the sockets of an archive file store, an in-place archive file store provides an
+ * {@linkplain #inPlaceOutput() in-place archive file output socket}.
+ *
+ * @author Christian Schlichtherle
+ */
+public interface InPlaceArchiveFileStore<E> extends ArchiveFileStore<E> {
+
+    /** Returns the underlying in-place archive file output socket for updating the archive entries. */
+    Socket<InPlaceArchiveFileOutput<E>> inPlaceOutput();
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.api;
+
+import global.namespace.fun.io.api.Store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Buffers the first {@value #SAMPLE_SIZE} bytes of the content of an archive entry as a sample before deciding how to
+ * write it.
+ * This supports archive file outputs in implementing the compression method {@link ArchiveEntryOptions.Method#AUTO}.
+ *
+ * @author Christian Schlichtherle
+ */
+public abstract class SamplingOutputStream extends OutputStream {
+
+    /** The size of the sample, which is {@value}. */
+    public static final int SAMPLE_SIZE = 1 << 16;
+
+    private final byte[] sample = new byte[SAMPLE_SIZE];
+
+    private int length;
+
+    private OutputStream out;
+
+    private boolean closed;
+
+    /**
+     * Returns {@code true} if and only if compressing the given data with the fastest compression level saves at least
+     * one sixteenth of its size.
+     */
+    public static boolean isCompressible(final byte[] b, final int off, final int len) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(b, off, len);
+            deflater.finish();
+            final byte[] buffer = new byte[Store.BUFSIZE];
+            final long max = len - (len >>> 4);
+            for (long total = 0; !deflater.finished(); ) {
+                if (max <= (total += deflater.deflate(buffer))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the output stream for writing the content, starting with the given sample.
+     *
+     * @param complete {@code true} if and only if the sample is the complete content.
+     */
+    protected abstract OutputStream target(byte[] sample, int length, boolean complete) throws IOException;
+
+    @Override
+    public void write(int b) throws IOException { write(new byte[] { (byte) b }, 0, 1); }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        if (null == out) {
+            final int copy = Math.min(len, sample.length - length);
+            System.arraycopy(b, off, sample, length, copy);
+            length += copy;
+            off += copy;
+            len -= copy;
+            if (0 == len) {
+                return;
+            }
+            decide(false);
+        }
+        out.write(b, off, len);
+    }
+
+    private void decide(final boolean complete) throws IOException {
+        out = target(sample, length, complete);
+        out.write(sample, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (null == out) {
+                decide(true);
+            }
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.api;
+
+import global.namespace.fun.io.api.Store;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipFile;
+
+/**
+ * Inflates the raw data of a deflated ZIP entry, like the input streams of {@link ZipFile}.
+ * Closing this stream ends its inflater, so that its native memory gets released without waiting for the garbage
+ * collector.
+ * This supports archive file stores in reading the raw data of ZIP entries which they hold themselves.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class ZipInflaterInputStream extends InflaterInputStream {
+
+    private boolean eof, closed;
+
+    public ZipInflaterInputStream(InputStream in) { super(in, new Inflater(true), Store.BUFSIZE); }
+
+    @Override
+    protected void fill() throws IOException {
+        if (eof) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        len = in.read(buf, 0, buf.length);
+        if (-1 == len) {
+            // The inflater may need an extra dummy byte when using the "nowrap" option:
+            buf[0] = 0;
+            len = 1;
+            eof = true;
+        }
+        inf.setInput(buf, 0, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            inf.end();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.api
+
+import java.io.{ByteArrayOutputStream, OutputStream}
+import java.util.Random
+
+import global.namespace.archive.io.api.SamplingOutputStream._
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+import org.scalatest.prop.TableDrivenPropertyChecks._
+
+/** @author Christian Schlichtherle */
+class SamplingOutputStreamSpec extends WordSpec {
+
+  private def random(length: Int) = {
+    val b = new Array[Byte](length)
+    new Random(0) nextBytes b
+    b
+  }
+
+  "A sampling output stream" should {
+    "pass the sample and then the rest of the content to its target" in {
+      val sizes = Table("size", 0, 1, SAMPLE_SIZE - 1, SAMPLE_SIZE, SAMPLE_SIZE + 1, 3 * SAMPLE_SIZE)
+      forAll(sizes) { size =>
+        val content = random(size)
+        val buffer = new ByteArrayOutputStream
+        var calls = 0
+        var sampleLength = -1
+        var isComplete = false
+        val out = new SamplingOutputStream {
+
+          def target(sample: Array[Byte], length: Int, complete: Boolean): OutputStream = {
+            calls += 1
+            sampleLength = length
+            isComplete = complete
+            buffer
+          }
+        }
+        out write (content, 0, size / 2)
+        out write (content, size / 2, size - size / 2)
+        out close ()
+        out close ()
+        calls shouldBe 1
+        sampleLength shouldBe (size min SAMPLE_SIZE)
+        isComplete shouldBe (size <= SAMPLE_SIZE)
+        buffer.toByteArray shouldBe content
+      }
+    }
+  }
+
+  "The compressibility test" should {
+    "accept repetitive content and reject random content" in {
+      val repetitive = ("Hello world!\n" * 1000).getBytes
+      isCompressible(repetitive, 0, repetitive.length) shouldBe true
+      val incompressible = random(SAMPLE_SIZE)
+      isCompressible(incompressible, 0, incompressible.length) shouldBe false
+    }
+  }
+}
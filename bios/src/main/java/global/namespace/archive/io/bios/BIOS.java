@@ -4,15 +4,24 @@
  */
 package global.namespace.archive.io.bios;
 
+import global.namespace.archive.io.api.ArchiveEntryOptions;
+import global.namespace.archive.io.api.ArchiveEntrySource;
 import global.namespace.archive.io.api.ArchiveFileInput;
 import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.archive.io.api.ArchiveFileSink;
+import global.namespace.archive.io.api.ArchiveFileSource;
 import global.namespace.archive.io.api.ArchiveFileStore;
+import global.namespace.archive.io.api.InPlaceArchiveFileStore;
+import global.namespace.fun.io.api.Sink;
 import global.namespace.fun.io.api.Socket;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Path;
 import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -30,14 +39,79 @@ public class BIOS {
 
     private BIOS() { }
 
-    /** Returns an archive file store for the given directory. */
+    /**
+     * Returns an archive file store for the given directory.
+     * To update the directory in place, use {@link #inPlaceDirectory(File)} instead.
+     */
     public static ArchiveFileStore<Path> directory(File directory) { return directory(directory.toPath()); }
 
-    /** Returns an archive file store for the given directory. */
-    public static ArchiveFileStore<Path> directory(Path directory) {
-        return new DirectoryStore(requireNonNull(directory));
+    /**
+     * Returns an archive file store for the given directory.
+     * To update the directory in place, use {@link #inPlaceDirectory(Path)} instead.
+     */
+    public static ArchiveFileStore<Path> directory(Path directory) { return directory(directory, false); }
+
+    /**
+     * Returns an archive file store for the given directory.
+     * If {@code link} is {@code true}, then files which get copied from another directory get hard-linked instead if
+     * possible, e.g. the unchanged files when patching with raw copying enabled.
+     * Then both directories share the content of these files, so they must not get modified in place.
+     */
+    public static ArchiveFileStore<Path> directory(File directory, boolean link) {
+        return directory(directory.toPath(), link);
+    }
+
+    /**
+     * Returns an archive file store for the given directory.
+     * If {@code link} is {@code true}, then files which get copied from another directory get hard-linked instead if
+     * possible, e.g. the unchanged files when patching with raw copying enabled.
+     * Then both directories share the content of these files, so they must not get modified in place.
+     */
+    public static ArchiveFileStore<Path> directory(Path directory, boolean link) {
+        return new DirectoryStore(requireNonNull(directory), link);
+    }
+
+    /** Returns an archive file store for the given directory which supports updating it in place. */
+    public static InPlaceArchiveFileStore<Path> inPlaceDirectory(File directory) {
+        return inPlaceDirectory(directory.toPath());
+    }
+
+    /** Returns an archive file store for the given directory which supports updating it in place. */
+    public static InPlaceArchiveFileStore<Path> inPlaceDirectory(Path directory) {
+        return new DirectoryStore(requireNonNull(directory), false);
     }
 
+    /**
+     * Returns an archive file store which holds the archive entries in memory outside of the heap and compresses them
+     * with the default compression level.
+     *
+     * @see #memory(int)
+     */
+    public static ArchiveFileStore<ZipEntry> memory() { return memory(Deflater.DEFAULT_COMPRESSION); }
+
+    /**
+     * Returns an archive file store which holds the archive entries in memory outside of the heap and compresses them
+     * with the given compression level for the {@link Deflater}.
+     * If the compression level is {@link Deflater#NO_COMPRESSION}, then the archive entries get stored without
+     * compression, which is the fastest option.
+     * The compression method and level and the last modification time of the
+     * {@linkplain ArchiveEntryOptions archive entry options} override these defaults.
+     * Archive entries which get copied from a JAR or ZIP file of this package or from another memory store get
+     * transferred without decompressing and compressing them again, and so do archive entries which get copied to a
+     * {@linkplain #parallelJar(File, int) parallel JAR} or {@linkplain #parallelZip(File, int) parallel ZIP file} or to
+     * another memory store.
+     * The plain {@linkplain #jar(File) JAR} and {@linkplain #zip(File) ZIP files} always compress archive entries again,
+     * because a {@link ZipOutputStream} cannot write raw data.
+     * <p>
+     * The archive entries written to an archive file output replace all previous archive entries when it gets closed.
+     * The archive file inputs see a snapshot of the archive entries which supports fast lookup by name and concurrent
+     * reads.
+     * This is useful for applying small deltas without any disk I/O.
+     * To take a snapshot of the archive entries, e.g. into a ZIP file, use
+     * {@link #copy(ArchiveFileSource, ArchiveFileSink)}.
+     */
+    public static ArchiveFileStore<ZipEntry> memory(int level) { return new MemoryStore(level); }
+
     /** Returns an archive file store for the given JAR file. */
     public static ArchiveFileStore<ZipEntry> jar(final File file) {
         requireNonNull(file);
@@ -67,4 +141,141 @@ public class BIOS {
             }
         };
     }
+
+    /**
+     * Returns an archive file sink for writing a JAR file to the given sink, e.g. the body of an HTTP response, without
+     * creating a temporary file.
+     */
+    public static ArchiveFileSink<ZipEntry> jar(final Sink sink) {
+        requireNonNull(sink);
+        return new ArchiveFileSink<ZipEntry>() {
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipEntry>> output() {
+                return () -> new JarOutputStreamAdapter(new JarOutputStream(sink.output().get()));
+            }
+        };
+    }
+
+    /**
+     * Returns an archive file sink for writing a JAR file to the given channel.
+     * Closing the archive file output closes the channel, so the archive file sink can only get used once.
+     */
+    public static ArchiveFileSink<ZipEntry> jar(WritableByteChannel channel) { return jar(sink(channel)); }
+
+    /**
+     * Returns an archive file sink for writing a ZIP file to the given sink, e.g. the body of an HTTP response, without
+     * creating a temporary file.
+     */
+    public static ArchiveFileSink<ZipEntry> zip(final Sink sink) {
+        requireNonNull(sink);
+        return new ArchiveFileSink<ZipEntry>() {
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipEntry>> output() {
+                return () -> new ZipOutputStreamAdapter(new ZipOutputStream(sink.output().get()));
+            }
+        };
+    }
+
+    /**
+     * Returns an archive file sink for writing a ZIP file to the given channel.
+     * Closing the archive file output closes the channel, so the archive file sink can only get used once.
+     */
+    public static ArchiveFileSink<ZipEntry> zip(WritableByteChannel channel) { return zip(sink(channel)); }
+
+    private static Sink sink(final WritableByteChannel channel) {
+        requireNonNull(channel);
+        return () -> () -> Channels.newOutputStream(channel);
+    }
+
+    /**
+     * Returns an archive file store for the given JAR file which compresses the archive entries in parallel using as
+     * many threads as there are available processors.
+     *
+     * @see #parallelJar(File, int)
+     */
+    public static ArchiveFileStore<ZipEntry> parallelJar(File file) {
+        return parallelJar(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns an archive file store for the given JAR file which compresses the archive entries in parallel using the
+     * given number of threads.
+     * The content of each archive entry gets spooled to memory or, if it is large, to a temporary file and compressed
+     * by a worker thread.
+     * The compressed archive entries get written in the same order as they have been written to the archive file
+     * output, so the manifest of the JAR file stays in front.
+     * Archive entries which get copied from a JAR or ZIP file of this package get transferred without decompressing
+     * and compressing them again.
+     */
+    public static ArchiveFileStore<ZipEntry> parallelJar(final File file, final int threads) {
+        requireNonNull(file);
+        requirePositive(threads);
+        return new ArchiveFileStore<ZipEntry>() {
+
+            @Override
+            public Socket<ArchiveFileInput<ZipEntry>> input() { return () -> new ZipFileAdapter(new ZipFile(file)); }
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipEntry>> output() {
+                return () -> new ParallelJarOutputStreamAdapter(
+                        new RawZipOutputStream(new FileOutputStream(file), true), threads);
+            }
+        };
+    }
+
+    /**
+     * Returns an archive file store for the given ZIP file which compresses the archive entries in parallel using as
+     * many threads as there are available processors.
+     *
+     * @see #parallelZip(File, int)
+     */
+    public static ArchiveFileStore<ZipEntry> parallelZip(File file) {
+        return parallelZip(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns an archive file store for the given ZIP file which compresses the archive entries in parallel using the
+     * given number of threads.
+     * The content of each archive entry gets spooled to memory or, if it is large, to a temporary file and compressed
+     * by a worker thread.
+     * The compressed archive entries get written in the same order as they have been written to the archive file
+     * output.
+     * Archive entries which get copied from a JAR or ZIP file of this package get transferred without decompressing
+     * and compressing them again.
+     */
+    public static ArchiveFileStore<ZipEntry> parallelZip(final File file, final int threads) {
+        requireNonNull(file);
+        requirePositive(threads);
+        return new ArchiveFileStore<ZipEntry>() {
+
+            @Override
+            public Socket<ArchiveFileInput<ZipEntry>> input() { return () -> new ZipFileAdapter(new ZipFile(file)); }
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipEntry>> output() {
+                return () -> new ParallelZipOutputStreamAdapter(
+                        new RawZipOutputStream(new FileOutputStream(file), false), threads);
+            }
+        };
+    }
+
+    /**
+     * Copies all archive entries from the given archive file source to the given archive file sink, e.g. to take a
+     * snapshot of a {@linkplain #memory() memory store} into a ZIP file.
+     */
+    public static void copy(final ArchiveFileSource<?> source, final ArchiveFileSink<?> sink) throws Exception {
+        source.acceptReader(input -> sink.acceptWriter(output -> {
+            for (final ArchiveEntrySource<?> entry : input) {
+                entry.copyTo(output.sink(entry.name()));
+            }
+        }));
+    }
+
+    private static void requirePositive(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(threads + " < 1");
+        }
+    }
 }
@@ -10,52 +10,113 @@ import global.namespace.fun.io.api.Socket;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.Optional;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
 import static global.namespace.fun.io.bios.BIOS.copy;
 import static java.nio.file.Files.*;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.Paths.get;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Spliterator.*;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
 
 /**
  * Provides access to directories as if they were archive files.
  * This is handy for testing purposes or if you want to diff/patch two directories.
+ * <p>
+ * The input scans the directory tree once when it gets opened, with subdirectories scanned in parallel.
+ * It indexes each file and directory with its basic file attributes, so that looking up archive entries and
+ * querying their metadata doesn't need any more system calls.
+ * Changes to the directory tree after opening the input are not reflected by it.
+ * The input {@linkplain ArchiveFileInput#isConcurrent() is concurrent}, so its parallel stream reads the files in
+ * parallel.
+ * <p>
+ * The in-place output stages all written files in a temporary directory within this directory, so that they can get
+ * moved to their target paths without copying.
+ * The name of the staging directory starts with {@value #STAGING_PREFIX} and the input ignores any such directory in
+ * the top level of this directory.
+ * Upon commit, the in-place output first moves the staged files to their target paths, using atomic moves where
+ * supported.
+ * Then it deletes the deleted files, children before their parents, and any parent directories which have become
+ * empty.
+ * Any replaced or deleted file gets moved to the staging directory first, which supports replacing a file with a
+ * directory of the same name and vice versa.
+ * If a step fails, then all previous steps get reverted, so the directory stays as it was before the commit.
+ * So each file gets replaced atomically, but not the directory as a whole.
+ * <p>
+ * An entry name which resolves to a path outside of this directory, e.g. {@code ../foo}, gets rejected with an
+ * {@link InvalidPathException}.
+ * <p>
+ * When copying a file from another directory store, e.g. when patching with raw copying enabled, the file gets
+ * transferred using file channels.
+ * If hard-linking is enabled, then the file gets hard-linked instead, so that both directories share its content.
+ * This falls back to copying if the file system doesn't support hard links or if the directories are on different
+ * file systems.
+ * Note that a hard-linked file must not get modified in place, or else the change shows in both directories.
+ * Therefore, writing a file to this directory always replaces it with a new file instead of overwriting it.
  *
  * @author Christian Schlichtherle
  */
-final class DirectoryStore implements ArchiveFileStore<Path> {
+final class DirectoryStore implements InPlaceArchiveFileStore<Path> {
+
+    /** The prefix of the name of the staging directory of the in-place output, which is {@value}. */
+    static final String STAGING_PREFIX = ".archive-io-staging-";
 
     private final Path directory;
 
-    DirectoryStore(final Path directory) { this.directory = directory; }
+    private final boolean link;
+
+    DirectoryStore(final Path directory, final boolean link) {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.link = link;
+    }
 
     @Override
     public Socket<ArchiveFileInput<Path>> input() {
-        return () -> new ArchiveFileInput<Path>() {
+        return () -> {
+            final Map<String, ArchiveEntrySource<Path>> index = index();
+            return new ArchiveFileInput<Path>() {
 
-            @Override
-            public Iterator<ArchiveEntrySource<Path>> iterator() {
-                try {
-                    return Files
-                            .walk(directory)
-                            .filter(p -> !p.equals(directory))
-                            .map(path -> pathSource(directory.relativize(path).toString()))
-                            .iterator();
-                } catch (IOException e) {
-                    throw new IllegalArgumentException(e);
+                @Override
+                public Iterator<ArchiveEntrySource<Path>> iterator() { return index.values().iterator(); }
+
+                @Override
+                public Spliterator<ArchiveEntrySource<Path>> spliterator() {
+                    return Spliterators.spliterator(index.values().toArray(),
+                            ORDERED | DISTINCT | NONNULL | IMMUTABLE);
                 }
-            }
 
-            public Optional<ArchiveEntrySource<Path>> source(final String name) {
-                final Path path = resolve(name);
-                return exists(path) ? of(pathSource(name)) : empty();
-            }
+                @Override
+                public boolean isConcurrent() { return true; }
 
-            public void close() { }
+                public Optional<ArchiveEntrySource<Path>> source(final String name) {
+                    final ArchiveEntrySource<Path> source = index.get(name);
+                    if (null != source) {
+                        return of(source);
+                    }
+                    try {
+                        return Optional.ofNullable(index.get(directory.relativize(resolve(name)).toString()));
+                    } catch (InvalidPathException e) {
+                        return empty();
+                    }
+                }
+
+                public void close() { }
+            };
         };
     }
 
@@ -71,25 +132,171 @@ final class DirectoryStore implements ArchiveFileStore<Path> {
         };
     }
 
-    private ArchiveEntrySource<Path> pathSource(String relativePath) {
+    @Override
+    public Socket<InPlaceArchiveFileOutput<Path>> inPlaceOutput() {
+        return () -> {
+            final Path staging = createTempDirectory(directory, STAGING_PREFIX);
+            return new InPlaceArchiveFileOutput<Path>() {
+
+                final Map<String, Path> staged = new LinkedHashMap<>();
+
+                final NavigableSet<String> deleted = new TreeSet<>();
+
+                final Deque<Undo> undos = new ArrayDeque<>();
+
+                final Set<Path> displaced = new HashSet<>();
+
+                int count;
+
+                public boolean isJar() { return false; }
+
+                public ArchiveEntrySink<Path> sink(final String name) {
+                    resolve(name);
+                    return stagingSink(name, this::stage);
+                }
+
+                Path stage(final String name) {
+                    final Path path = staging.resolve(Integer.toString(count++));
+                    staged.put(name, path);
+                    return path;
+                }
+
+                public void delete(final String name) {
+                    resolve(name);
+                    deleted.add(name);
+                }
+
+                public void commit() throws IOException {
+                    try {
+                        for (final Map.Entry<String, Path> entry : staged.entrySet()) {
+                            final String name = entry.getKey();
+                            final Path path = resolve(name);
+                            createParents(path);
+                            if (exists(path, NOFOLLOW_LINKS)
+                                    && (!Files.isDirectory(path, NOFOLLOW_LINKS) || deleted.contains(name))) {
+                                displace(path);
+                            }
+                            moveAtomically(entry.getValue(), path);
+                            undos.push(() -> deleteIfExists(path));
+                        }
+                        // Delete children before their parents, which sort first:
+                        for (final String name : deleted.descendingSet()) {
+                            final Path path = resolve(name);
+                            if (staged.containsKey(name) || displaced.contains(path)) {
+                                continue;
+                            }
+                            if (Files.isDirectory(path, NOFOLLOW_LINKS)) {
+                                Files.delete(path);
+                                undos.push(() -> createDirectory(path));
+                            } else if (exists(path, NOFOLLOW_LINKS)) {
+                                displace(path);
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        while (!undos.isEmpty()) {
+                            try {
+                                undos.pop().undo();
+                            } catch (IOException | RuntimeException e2) {
+                                e.addSuppressed(e2);
+                            }
+                        }
+                        throw e;
+                    } finally {
+                        undos.clear();
+                        displaced.clear();
+                    }
+                    for (final String name : deleted) {
+                        deleteEmptyParents(resolve(name));
+                    }
+                    deleted.clear();
+                    staged.clear();
+                }
+
+                /**
+                 * Creates the missing parent directories of the given path.
+                 * A parent which is a deleted file gets displaced by the directory.
+                 */
+                void createParents(final Path path) throws IOException {
+                    final Path parent = path.getParent();
+                    if (null != parent && !Files.isDirectory(parent)) {
+                        createParents(parent);
+                        if (exists(parent, NOFOLLOW_LINKS)
+                                && deleted.contains(directory.relativize(parent).toString())) {
+                            displace(parent);
+                        }
+                        createDirectory(parent);
+                        undos.push(() -> Files.delete(parent));
+                    }
+                }
+
+                /**
+                 * Moves the file or directory at the given path to the staging directory, so that it gets deleted when this output
+                 * gets closed or gets moved back if the commit fails.
+                 */
+                void displace(final Path path) throws IOException {
+                    final Path backup = staging.resolve(Integer.toString(count++));
+                    moveAtomically(path, backup);
+                    displaced.add(path);
+                    undos.push(() -> moveAtomically(backup, path));
+                }
+
+                public void close() throws IOException { deleteAll(staging); }
+            };
+        };
+    }
+
+    private ArchiveEntrySource<Path> pathSource(String relativePath, BasicFileAttributes attributes) {
         return new ArchiveEntrySource<Path>() {
 
             public String name() { return relativePath; }
 
-            public boolean isDirectory() { return Files.isDirectory(resolvedPath()); }
+            public boolean isDirectory() { return attributes.isDirectory(); }
 
             public Path entry() { return get(relativePath); }
 
             public Socket<InputStream> input() { return () -> newInputStream(resolvedPath()); }
 
-            public void copyTo(ArchiveEntrySink<?> sink) throws Exception { copy(this, sink); }
+            public void copyTo(final ArchiveEntrySink<?> sink) throws Exception {
+                if (sink instanceof PathSink) {
+                    ((PathSink) sink).copyFrom(resolvedPath());
+                } else {
+                    copy(this, sink);
+                }
+            }
+
+            @Override
+            public OptionalLong size() { return OptionalLong.of(attributes.size()); }
+
+            @Override
+            public OptionalLong time() { return OptionalLong.of(attributes.lastModifiedTime().toMillis()); }
+
+            @Override
+            public Optional<Socket<FileChannel>> channel() {
+                return attributes.isRegularFile() ? of(() -> FileChannel.open(resolvedPath(), READ)) : empty();
+            }
 
             Path resolvedPath() { return resolve(relativePath); }
         };
     }
 
-    private ArchiveEntrySink<Path> pathSink(String relativePath) {
-        return new ArchiveEntrySink<Path>() {
+    private ArchiveEntrySink<Path> stagingSink(String relativePath, Function<String, Path> stage) {
+        return new PathSink() {
+
+            public String name() { return relativePath; }
+
+            public boolean isDirectory() { return Files.isDirectory(resolve(relativePath)); }
+
+            public Path entry() { return get(name()); }
+
+            public Socket<OutputStream> output() { return () -> newOutputStream(stage.apply(relativePath)); }
+
+            void copyFrom(Path source) throws IOException { transfer(source, stage.apply(relativePath)); }
+        };
+    }
+
+    private ArchiveEntrySink<Path> pathSink(final String relativePath) {
+        resolve(relativePath);
+        return new PathSink() {
 
             public String name() { return relativePath; }
 
@@ -104,13 +311,181 @@ final class DirectoryStore implements ArchiveFileStore<Path> {
                     if (null != parent) {
                         createDirectories(parent);
                     }
-                    return newOutputStream(path);
+                    // Break any hard link rather than writing through it to the linked file:
+                    if (!Files.isDirectory(path, NOFOLLOW_LINKS)) {
+                        deleteIfExists(path);
+                    }
+                    return newOutputStream(path, CREATE_NEW, WRITE);
                 };
             }
 
+            void copyFrom(final Path source) throws IOException {
+                final Path path = resolvedPath();
+                final Path parent = path.getParent();
+                if (null != parent) {
+                    createDirectories(parent);
+                }
+                transfer(source, path);
+            }
+
             Path resolvedPath() { return resolve(relativePath); }
         };
     }
 
-    private Path resolve(String relativePath) { return directory.resolve(relativePath); }
+    /**
+     * Resolves the given relative path against this directory.
+     *
+     * @throws InvalidPathException if the resolved path is not within this directory.
+     */
+    private Path resolve(final String relativePath) {
+        final Path path = directory.resolve(relativePath).normalize();
+        if (!path.startsWith(directory)) {
+            throw new InvalidPathException(relativePath, "Not within the directory " + directory);
+        }
+        return path;
+    }
+
+    /**
+     * Returns an index of all files and directories in this directory, in depth-first order.
+     * The index captures the basic file attributes of each path, so that the archive entry sources don't need to query
+     * the file system again.
+     * Subdirectories get scanned in parallel.
+     */
+    private Map<String, ArchiveEntrySource<Path>> index() throws IOException {
+        final IndexTask task = new IndexTask(directory);
+        try {
+            task.invoke();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        final Map<String, ArchiveEntrySource<Path>> index = new LinkedHashMap<>();
+        task.addTo(index);
+        return index;
+    }
+
+    /** Scans a directory and forks a subtask for each of its subdirectories. */
+    private final class IndexTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 0L;
+
+        private final Path dir;
+
+        private final List<Path> paths = new ArrayList<>();
+
+        private final List<BasicFileAttributes> attributes = new ArrayList<>();
+
+        private final List<Optional<IndexTask>> subtasks = new ArrayList<>();
+
+        IndexTask(final Path dir) { this.dir = dir; }
+
+        @Override
+        protected void compute() {
+            try (DirectoryStream<Path> stream = newDirectoryStream(dir)) {
+                for (final Path path : stream) {
+                    if (dir.equals(directory) && path.getFileName().toString().startsWith(STAGING_PREFIX)) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs = readAttributes(path, BasicFileAttributes.class, NOFOLLOW_LINKS);
+                    Optional<IndexTask> subtask = empty();
+                    if (attrs.isDirectory()) {
+                        subtask = of(new IndexTask(path));
+                        subtask.get().fork();
+                    } else if (attrs.isSymbolicLink()) {
+                        attrs = followLink(path, attrs);
+                    }
+                    paths.add(path);
+                    attributes.add(attrs);
+                    subtasks.add(subtask);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            subtasks.forEach(subtask -> subtask.ifPresent(IndexTask::join));
+        }
+
+        void addTo(final Map<String, ArchiveEntrySource<Path>> index) {
+            for (int i = 0; i < paths.size(); i++) {
+                final String name = directory.relativize(paths.get(i)).toString();
+                index.put(name, pathSource(name, attributes.get(i)));
+                subtasks.get(i).ifPresent(subtask -> subtask.addTo(index));
+            }
+        }
+    }
+
+    /** Returns the attributes of the target of the given symbolic link or the given attributes if it's dangling. */
+    private static BasicFileAttributes followLink(final Path link, final BasicFileAttributes attributes) {
+        try {
+            return readAttributes(link, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return attributes;
+        }
+    }
+
+    /** Moves the given source file to the given target path, using an atomic move where supported. */
+    private static void moveAtomically(final Path source, final Path target) throws IOException {
+        try {
+            move(source, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            move(source, target, REPLACE_EXISTING);
+        }
+    }
+
+    /** Reverts a step of committing the in-place output. */
+    private interface Undo {
+
+        void undo() throws IOException;
+    }
+
+    /**
+     * Hard-links the given target file to the given source file if enabled and supported or copies it otherwise.
+     * Any existing target file gets replaced unless it's already the same file.
+     */
+    private void transfer(final Path source, final Path target) throws IOException {
+        if (exists(target) && isSameFile(source, target)) {
+            return;
+        }
+        deleteIfExists(target);
+        if (link) {
+            try {
+                createLink(target, source);
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // Fall back to copying, e.g. across file systems.
+            }
+        }
+        try (FileChannel in = FileChannel.open(source, READ);
+             FileChannel out = FileChannel.open(target, CREATE_NEW, WRITE)) {
+            for (long position = 0, size = in.size(); position < size; ) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    private void deleteEmptyParents(final Path path) throws IOException {
+        for (Path parent = path.getParent();
+             null != parent && !parent.equals(directory) && parent.startsWith(directory) && isEmpty(parent);
+             parent = parent.getParent()) {
+            delete(parent);
+        }
+    }
+
+    private static boolean isEmpty(final Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        try (DirectoryStream<Path> stream = newDirectoryStream(directory)) {
+            return !stream.iterator().hasNext();
+        }
+    }
+
+    private static void deleteAll(final Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> stream = newDirectoryStream(path)) {
+                for (final Path child : stream) {
+                    deleteAll(child);
+                }
+            }
+        }
+        deleteIfExists(path);
+    }
 }
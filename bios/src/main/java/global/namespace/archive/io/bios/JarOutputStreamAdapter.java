@@ -4,6 +4,7 @@
  */
 package global.namespace.archive.io.bios;
 
+import global.namespace.archive.io.api.ArchiveEntryOptions;
 import global.namespace.archive.io.api.ArchiveEntrySink;
 import global.namespace.archive.io.api.ArchiveFileOutput;
 
@@ -25,5 +26,7 @@ final class JarOutputStreamAdapter extends ZipOutputStreamAdapter {
     public boolean isJar() { return true; }
 
     @Override
-    public ArchiveEntrySink<ZipEntry> sink(String name) { return sink(new JarEntry(name)); }
+    public ArchiveEntrySink<ZipEntry> sink(String name, ArchiveEntryOptions options) {
+        return sink(new JarEntry(name), options);
+    }
 }
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import global.namespace.archive.io.api.ArchiveEntryOptions;
+import global.namespace.archive.io.api.ArchiveEntrySink;
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.archive.io.api.ArchiveFileInput;
+import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.archive.io.api.ArchiveFileStore;
+import global.namespace.archive.io.api.SamplingOutputStream;
+import global.namespace.archive.io.api.ZipInflaterInputStream;
+import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.*;
+
+import static global.namespace.archive.io.api.SamplingOutputStream.isCompressible;
+import static global.namespace.fun.io.bios.BIOS.copy;
+
+/**
+ * An archive file store which holds the archive entries in memory outside of the heap.
+ * The content of each archive entry gets stored in a list of direct byte buffers, optionally compressed.
+ * The archive entries written to an archive file output become visible to the archive file inputs when it gets
+ * closed, replacing all previous archive entries.
+ * Archive file inputs see a snapshot of the archive entries which can get read concurrently.
+ * The {@linkplain ArchiveEntryOptions archive entry options} override the compression method and level of this store
+ * and set the last modification time of an archive entry.
+ * Their size and CRC-32 checksum get ignored because the content of each archive entry gets buffered anyway.
+ *
+ * @author Christian Schlichtherle
+ */
+final class MemoryStore implements ArchiveFileStore<ZipEntry> {
+
+    /** The size of the first direct byte buffer for the content of an archive entry, which is {@value}. */
+    static final int MIN_SEGMENT_SIZE = 1 << 12;
+
+    /** The maximum size of a direct byte buffer for the content of an archive entry, which is {@value}. */
+    static final int MAX_SEGMENT_SIZE = 1 << 20;
+
+    private volatile Map<String, MemoryEntrySource> sources = Collections.emptyMap();
+
+    private final int level;
+
+    /**
+     * @param level the compression level for the {@link Deflater}.
+     *              If this is {@link Deflater#NO_COMPRESSION}, then the archive entries get stored without compression.
+     */
+    MemoryStore(final int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || Deflater.BEST_COMPRESSION < level) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+    }
+
+    @Override
+    public Socket<ArchiveFileInput<ZipEntry>> input() {
+        return () -> {
+            final Map<String, MemoryEntrySource> sources = this.sources;
+            return new ArchiveFileInput<ZipEntry>() {
+
+                @Override
+                public Iterator<ArchiveEntrySource<ZipEntry>> iterator() {
+                    return Collections.<ArchiveEntrySource<ZipEntry>>unmodifiableCollection(sources.values())
+                            .iterator();
+                }
+
+                @Override
+                public Spliterator<ArchiveEntrySource<ZipEntry>> spliterator() {
+                    return Spliterators.spliterator(sources.values().toArray(),
+                            Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL |
+                                    Spliterator.IMMUTABLE);
+                }
+
+                @Override
+                public boolean isConcurrent() { return true; }
+
+                @Override
+                public Optional<ArchiveEntrySource<ZipEntry>> source(String name) {
+                    return Optional.ofNullable(sources.get(name));
+                }
+
+                @Override
+                public void close() { }
+            };
+        };
+    }
+
+    @Override
+    public Socket<ArchiveFileOutput<ZipEntry>> output() {
+        return () -> new ArchiveFileOutput<ZipEntry>() {
+
+            final Map<String, MemoryEntrySource> sources = new LinkedHashMap<>();
+
+            boolean closed;
+
+            /** Returns {@code false}. */
+            public boolean isJar() { return false; }
+
+            public ArchiveEntrySink<ZipEntry> sink(String name) { return sink(name, ArchiveEntryOptions.none()); }
+
+            @Override
+            public ArchiveEntrySink<ZipEntry> sink(final String name, final ArchiveEntryOptions options) {
+                final ZipEntry entry = new ZipEntry(name);
+                return new ZipEntrySink() {
+
+                    public String name() { return name; }
+
+                    public boolean isDirectory() { return entry.isDirectory(); }
+
+                    public ZipEntry entry() { return entry; }
+
+                    public Socket<OutputStream> output() {
+                        return () -> {
+                            options.time().ifPresent(entry::setTime);
+                            if (entry.isDirectory()) {
+                                return stored(entry);
+                            }
+                            final int level = options.level().orElse(MemoryStore.this.level);
+                            switch (options.method().orElse(Deflater.NO_COMPRESSION == MemoryStore.this.level
+                                    ? ArchiveEntryOptions.Method.STORED
+                                    : ArchiveEntryOptions.Method.DEFLATED)) {
+                                case STORED:
+                                    return stored(entry);
+                                case AUTO:
+                                    return new SamplingOutputStream() {
+
+                                        protected OutputStream target(byte[] sample, int length, boolean complete) {
+                                            return isCompressible(sample, 0, length)
+                                                    ? deflated(entry, level)
+                                                    : stored(entry);
+                                        }
+                                    };
+                                default:
+                                    return deflated(entry, level);
+                            }
+                        };
+                    }
+
+                    void copyFrom(final ZipEntrySource source) throws Exception {
+                        final ZipEntry origin = source.entry();
+                        final int method = origin.getMethod();
+                        if (origin.getName().equals(name) &&
+                                (ZipEntry.STORED == method || ZipEntry.DEFLATED == method)) {
+                            entry.setMethod(method);
+                            entry.setTime(origin.getTime());
+                            entry.setExtra(origin.getExtra());
+                            entry.setComment(origin.getComment());
+                            final SegmentOutputStream segments = new SegmentOutputStream();
+                            copy(source::rawInput, () -> () -> segments);
+                            put(entry, origin.getSize(), origin.getCrc(), segments);
+                        } else {
+                            copy(source, this);
+                        }
+                    }
+                };
+            }
+
+            /** Returns an output stream which stores the content of the given archive entry. */
+            OutputStream stored(final ZipEntry entry) {
+                entry.setMethod(ZipEntry.STORED);
+                final SegmentOutputStream segments = new SegmentOutputStream();
+                final CRC32 crc = new CRC32();
+                return new CheckedOutputStream(segments, crc) {
+
+                    boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (!closed) {
+                            closed = true;
+                            super.close();
+                            put(entry, segments.size(), crc, segments);
+                        }
+                    }
+                };
+            }
+
+            /**
+             * Returns an output stream which deflates the content of the given archive entry with the given compression
+             * level.
+             */
+            OutputStream deflated(final ZipEntry entry, final int level) {
+                entry.setMethod(ZipEntry.DEFLATED);
+                final SegmentOutputStream segments = new SegmentOutputStream();
+                final CRC32 crc = new CRC32();
+                final Deflater deflater = new Deflater(level, true);
+                return new CheckedOutputStream(new DeflaterOutputStream(segments, deflater, Store.BUFSIZE), crc) {
+
+                    boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (!closed) {
+                            closed = true;
+                            final long size;
+                            try {
+                                super.close();
+                                size = deflater.getBytesRead();
+                            } finally {
+                                deflater.end();
+                            }
+                            put(entry, size, crc, segments);
+                        }
+                    }
+                };
+            }
+
+            void put(ZipEntry entry, long size, CRC32 crc, SegmentOutputStream segments) throws ZipException {
+                put(entry, size, crc.getValue(), segments);
+            }
+
+            synchronized void put(final ZipEntry entry, final long size, final long crc,
+                                  final SegmentOutputStream segments) throws ZipException {
+                if (closed) {
+                    throw new ZipException("Archive file output closed: " + entry.getName());
+                }
+                entry.setSize(size);
+                entry.setCompressedSize(segments.size());
+                entry.setCrc(crc);
+                if (-1 == entry.getTime()) {
+                    entry.setTime(System.currentTimeMillis());
+                }
+                if (null != sources.putIfAbsent(entry.getName(), new MemoryEntrySource(entry, segments.segments()))) {
+                    throw new ZipException("duplicate entry: " + entry.getName());
+                }
+            }
+
+            public synchronized void close() {
+                if (!closed) {
+                    closed = true;
+                    MemoryStore.this.sources = sources;
+                }
+            }
+        };
+    }
+
+    /** A source for an archive entry which has been stored in memory. */
+    private static final class MemoryEntrySource extends ZipEntrySource {
+
+        final ZipEntry entry;
+
+        final ByteBuffer[] segments;
+
+        MemoryEntrySource(final ZipEntry entry, final ByteBuffer[] segments) {
+            this.entry = entry;
+            this.segments = segments;
+        }
+
+        public String name() { return entry.getName(); }
+
+        public boolean isDirectory() { return entry.isDirectory(); }
+
+        public ZipEntry entry() { return entry; }
+
+        public Socket<InputStream> input() {
+            return ZipEntry.STORED == entry.getMethod()
+                    ? rawInput()
+                    : () -> new ZipInflaterInputStream(new SegmentInputStream(segments));
+        }
+
+        Socket<InputStream> rawInput() { return () -> new SegmentInputStream(segments); }
+
+        public void copyTo(final ArchiveEntrySink<?> sink) throws Exception {
+            if (sink instanceof ZipEntrySink) {
+                ((ZipEntrySink) sink).copyFrom(this);
+            } else {
+                copy(this, sink);
+            }
+        }
+    }
+
+    /**
+     * Writes to a list of direct byte buffers.
+     * The size of the buffers doubles from {@value #MIN_SEGMENT_SIZE} up to {@value #MAX_SEGMENT_SIZE} bytes, so that
+     * small archive entries don't waste much memory and large archive entries don't need to get copied.
+     */
+    private static final class SegmentOutputStream extends OutputStream {
+
+        private final List<ByteBuffer> segments = new ArrayList<>();
+
+        private ByteBuffer segment = ByteBuffer.allocateDirect(MIN_SEGMENT_SIZE);
+
+        private long size;
+
+        private void ensureRemaining() {
+            if (!segment.hasRemaining()) {
+                segment.flip();
+                segments.add(segment);
+                segment = ByteBuffer.allocateDirect(Math.min(segment.capacity() << 1, MAX_SEGMENT_SIZE));
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            ensureRemaining();
+            segment.put((byte) b);
+            size++;
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len) {
+            while (0 < len) {
+                ensureRemaining();
+                final int write = Math.min(len, segment.remaining());
+                segment.put(b, off, write);
+                off += write;
+                len -= write;
+                size += write;
+            }
+        }
+
+        long size() { return size; }
+
+        /** Returns the read-only segments, with the last one trimmed to its size. */
+        ByteBuffer[] segments() {
+            segment.flip();
+            final ByteBuffer last = ByteBuffer.allocateDirect(segment.remaining());
+            last.put(segment).flip();
+            segment = last;
+            segments.add(last);
+            final ByteBuffer[] result = new ByteBuffer[segments.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = segments.get(i).asReadOnlyBuffer();
+            }
+            return result;
+        }
+    }
+
+    /** Reads the given segments without changing their positions, so they can get read concurrently. */
+    private static final class SegmentInputStream extends InputStream {
+
+        private final ByteBuffer[] segments;
+
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        private int index;
+
+        SegmentInputStream(final ByteBuffer[] segments) { this.segments = segments; }
+
+        private boolean fill() {
+            while (!buffer.hasRemaining() && index < segments.length) {
+                buffer = segments[index++].duplicate();
+            }
+            return buffer.hasRemaining();
+        }
+
+        @Override
+        public int read() { return fill() ? buffer.get() & 0xff : -1; }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (0 == len) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) {
+            long skipped = 0;
+            while (skipped < n && fill()) {
+                final int skip = (int) Math.min(n - skipped, buffer.remaining());
+                buffer.position(buffer.position() + skip);
+                skipped += skip;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() { return buffer.remaining(); }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import global.namespace.archive.io.api.ArchiveEntryOptions;
+import global.namespace.archive.io.api.ArchiveEntrySink;
+import global.namespace.archive.io.api.ArchiveFileOutput;
+
+import java.util.jar.JarEntry;
+import java.util.zip.ZipEntry;
+
+/**
+ * Adapts a {@link RawZipOutputStream} for a JAR file to an {@link ArchiveFileOutput} which compresses the archive
+ * entries in parallel.
+ *
+ * @author Christian Schlichtherle
+ */
+final class ParallelJarOutputStreamAdapter extends ParallelZipOutputStreamAdapter {
+
+    ParallelJarOutputStreamAdapter(RawZipOutputStream jar, int threads) { super(jar, threads); }
+
+    /** Returns {@code true}. */
+    @Override
+    public boolean isJar() { return true; }
+
+    @Override
+    public ArchiveEntrySink<ZipEntry> sink(String name, ArchiveEntryOptions options) {
+        return sink(new JarEntry(name), options);
+    }
+}
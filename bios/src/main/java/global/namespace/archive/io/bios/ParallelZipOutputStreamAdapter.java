@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import global.namespace.archive.io.api.ArchiveEntryOptions;
+import global.namespace.archive.io.api.ArchiveEntrySink;
+import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.archive.io.api.SamplingOutputStream;
+import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static global.namespace.archive.io.api.ArchiveEntryOptions.Method.AUTO;
+import static global.namespace.archive.io.api.ArchiveEntryOptions.Method.STORED;
+import static global.namespace.archive.io.api.SamplingOutputStream.SAMPLE_SIZE;
+import static global.namespace.fun.io.bios.BIOS.copy;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Adapts a {@link RawZipOutputStream} to an {@link ArchiveFileOutput} which compresses the archive entries in
+ * parallel.
+ * The content of each archive entry gets {@linkplain Spool spooled} and compressed by a pool of worker threads into
+ * another spool.
+ * Each spool holds up to {@value Spool#THRESHOLD} bytes in memory and spills any more to a temporary file, so
+ * archive entries of any size can get written.
+ * The compressed archive entries get written to the raw ZIP output stream in the same order as they have been written
+ * to this archive file output, so that the manifest of a JAR file stays in front.
+ * To limit the memory and disk space consumption, the writing thread waits for the oldest archive entry whenever more
+ * than twice as many archive entries as there are worker threads or more than {@value #MAX_PENDING_SIZE} bytes of
+ * content are pending.
+ *
+ * @author Christian Schlichtherle
+ */
+class ParallelZipOutputStreamAdapter implements ArchiveFileOutput<ZipEntry> {
+
+    /** The maximum total size of the content of the pending archive entries, which is {@value}. */
+    static final long MAX_PENDING_SIZE = 64L << 20;
+
+    private final Deque<Pending> pending = new ArrayDeque<>();
+
+    private final Set<String> names = new HashSet<>();
+
+    private final RawZipOutputStream zip;
+
+    private final ExecutorService service;
+
+    private final int maxPending;
+
+    private long pendingSize;
+
+    ParallelZipOutputStreamAdapter(final RawZipOutputStream zip, final int threads) {
+        this.zip = requireNonNull(zip);
+        this.service = new ForkJoinPool(threads);
+        this.maxPending = 2 * threads;
+    }
+
+    /** Returns {@code false}. */
+    public boolean isJar() { return false; }
+
+    public ArchiveEntrySink<ZipEntry> sink(String name) { return sink(name, ArchiveEntryOptions.none()); }
+
+    @Override
+    public ArchiveEntrySink<ZipEntry> sink(String name, ArchiveEntryOptions options) {
+        return sink(new ZipEntry(name), options);
+    }
+
+    ZipEntrySink sink(final ZipEntry entry, final ArchiveEntryOptions options) {
+        return new ZipEntrySink() {
+
+            public String name() { return entry.getName(); }
+
+            public boolean isDirectory() { return entry.isDirectory(); }
+
+            public ZipEntry entry() { return entry; }
+
+            public Socket<OutputStream> output() {
+                return () -> {
+                    checkUnique(entry);
+                    options.time().ifPresent(entry::setTime);
+                    options.method().ifPresent(method ->
+                            entry.setMethod(STORED == method ? ZipEntry.STORED : ZipEntry.DEFLATED));
+                    if (entry.isDirectory() || -1 == entry.getMethod()) {
+                        entry.setMethod(entry.isDirectory() ? ZipEntry.STORED : ZipEntry.DEFLATED);
+                    }
+                    final int level = options.level().orElse(Deflater.DEFAULT_COMPRESSION);
+                    final boolean auto = options.method().filter(AUTO::equals).isPresent();
+                    return new Spool() {
+
+                        boolean closed;
+
+                        @Override
+                        public void close() throws IOException {
+                            if (!closed) {
+                                closed = true;
+                                super.close();
+                                enqueue(size(), service.submit(() -> compress(entry, level, auto, this)));
+                            }
+                        }
+                    };
+                };
+            }
+
+            void copyFrom(final ZipEntrySource source) throws Exception {
+                final ZipEntry origin = source.entry();
+                if (origin.getName().equals(entry.getName())) {
+                    checkUnique(entry);
+                    entry.setMethod(origin.getMethod());
+                    entry.setCrc(origin.getCrc());
+                    entry.setSize(origin.getSize());
+                    entry.setCompressedSize(origin.getCompressedSize());
+                    entry.setTime(origin.getTime());
+                    entry.setExtra(origin.getExtra());
+                    entry.setComment(origin.getComment());
+                    final Spool raw = new Spool();
+                    try {
+                        copy(source::rawInput, () -> () -> raw);
+                    } catch (Exception e) {
+                        raw.delete();
+                        throw e;
+                    }
+                    final Compressed compressed = new Compressed(entry, raw);
+                    enqueue(raw.size(), service.submit(() -> compressed));
+                } else {
+                    copy(source, this);
+                }
+            }
+        };
+    }
+
+    private void checkUnique(final ZipEntry entry) throws ZipException {
+        if (!names.add(entry.getName())) {
+            throw new ZipException("duplicate entry: " + entry.getName());
+        }
+    }
+
+    /**
+     * Compresses the given content of the given archive entry with the given compression level.
+     * If {@code auto} is {@code true} and a sample of the content proves to be incompressible, then the content gets
+     * stored instead.
+     */
+    private static Compressed compress(final ZipEntry entry, final int level, final boolean auto,
+                                       final Spool content) throws IOException {
+        boolean stored = false;
+        try {
+            if (auto && !isCompressible(content)) {
+                entry.setMethod(ZipEntry.STORED);
+            }
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[Store.BUFSIZE];
+            if (ZipEntry.STORED == entry.getMethod()) {
+                try (InputStream in = new CheckedInputStream(content.input(), crc)) {
+                    while (-1 != in.read(buffer)) {
+                        // Just update the checksum.
+                    }
+                }
+                entry.setCrc(crc.getValue());
+                entry.setSize(content.size());
+                entry.setCompressedSize(content.size());
+                stored = true;
+                return new Compressed(entry, content);
+            } else {
+                final Spool compressed = new Spool();
+                try {
+                    final Deflater deflater = new Deflater(level, true);
+                    try (InputStream in = new CheckedInputStream(content.input(), crc);
+                         OutputStream out = new DeflaterOutputStream(compressed, deflater, Store.BUFSIZE)) {
+                        for (int read; -1 != (read = in.read(buffer)); ) {
+                            out.write(buffer, 0, read);
+                        }
+                    } finally {
+                        deflater.end();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    compressed.delete();
+                    throw e;
+                }
+                entry.setCrc(crc.getValue());
+                entry.setSize(content.size());
+                entry.setCompressedSize(compressed.size());
+                return new Compressed(entry, compressed);
+            }
+        } finally {
+            if (!stored) {
+                content.delete();
+            }
+        }
+    }
+
+    /** Returns {@code true} if and only if a sample from the start of the given content is compressible. */
+    private static boolean isCompressible(final Spool content) throws IOException {
+        final byte[] sample = new byte[(int) Math.min(content.size(), SAMPLE_SIZE)];
+        int length = 0;
+        try (InputStream in = content.input()) {
+            for (int read; length < sample.length && -1 != (read = in.read(sample, length, sample.length - length)); ) {
+                length += read;
+            }
+        }
+        return SamplingOutputStream.isCompressible(sample, 0, length);
+    }
+
+    private void enqueue(final long size, final Future<Compressed> future) throws IOException {
+        pending.addLast(new Pending(size, future));
+        pendingSize += size;
+        while (!pending.isEmpty() && (maxPending < pending.size() || MAX_PENDING_SIZE < pendingSize ||
+                pending.getFirst().future.isDone())) {
+            gather();
+        }
+    }
+
+    private void gather() throws IOException {
+        final Pending p = pending.removeFirst();
+        pendingSize -= p.size;
+        try (Compressed compressed = p.get()) {
+            compressed.writeTo(zip);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            try {
+                while (!pending.isEmpty()) {
+                    gather();
+                }
+            } finally {
+                try {
+                    discard();
+                } finally {
+                    zip.close();
+                }
+            }
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
+    /** Waits for any pending archive entries after a failure and deletes their spools. */
+    private void discard() throws IOException {
+        for (Pending p; null != (p = pending.pollFirst()); ) {
+            final Compressed compressed;
+            try {
+                compressed = p.get();
+            } catch (IOException e) {
+                continue; // The worker thread has deleted its spools already.
+            }
+            compressed.close();
+        }
+    }
+
+    /** A pending archive entry with the given size of its content. */
+    private static final class Pending {
+
+        final long size;
+
+        final Future<Compressed> future;
+
+        Pending(final long size, final Future<Compressed> future) {
+            this.size = size;
+            this.future = future;
+        }
+
+        Compressed get() throws IOException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * An archive entry with its compressed content, ready to get written to the raw ZIP output stream.
+     * Closing it deletes its spool.
+     */
+    private static final class Compressed implements Closeable {
+
+        final ZipEntry entry;
+
+        final Spool content;
+
+        Compressed(final ZipEntry entry, final Spool content) {
+            this.entry = entry;
+            this.content = content;
+        }
+
+        void writeTo(final RawZipOutputStream zip) throws IOException {
+            try (InputStream in = content.input()) {
+                zip.write(entry, in);
+            }
+        }
+
+        @Override
+        public void close() throws IOException { content.delete(); }
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import global.namespace.archive.io.api.ArchiveEntrySink;
+
+import java.nio.file.Path;
+
+/**
+ * Supports writing the content of an underlying file by copying or linking another file.
+ *
+ * @author Christian Schlichtherle
+ */
+abstract class PathSink extends ArchiveEntrySink<Path> {
+
+    abstract void copyFrom(Path source) throws Exception;
+}
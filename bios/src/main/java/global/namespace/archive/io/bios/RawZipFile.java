@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Reads the raw data of ZIP entries, which is not supported by the {@link java.util.zip.ZipFile}.
+ * On construction, the central directory gets parsed to look up the offset of the local file header of each entry.
+ * Reading is thread-safe because it uses positional reads only.
+ *
+ * @author Christian Schlichtherle
+ */
+final class RawZipFile implements Closeable {
+
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    private static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int LOC_SIG = 0x04034b50, CEN_SIG = 0x02014b50, END_SIG = 0x06054b50;
+
+    private static final int ZIP64_END_SIG = 0x06064b50, ZIP64_LOC_SIG = 0x07064b50;
+
+    private static final int LOC_SIZE = 30, CEN_SIZE = 46, END_SIZE = 22, ZIP64_END_SIZE = 56, ZIP64_LOC_SIZE = 20;
+
+    private final Map<String, Long> offsets = new HashMap<>();
+
+    private final FileChannel channel;
+
+    RawZipFile(final Path path) throws IOException {
+        channel = FileChannel.open(path, READ);
+        try {
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void readCentralDirectory() throws IOException {
+        final long end = findEnd();
+        final ByteBuffer eocd = read(end, END_SIZE);
+        long count = eocd.getShort(10) & 0xffff;
+        long size = eocd.getInt(12) & ZIP64_MAGIC;
+        long offset = eocd.getInt(16) & ZIP64_MAGIC;
+        long position = end;
+        if (ZIP64_MAGIC_COUNT == count || ZIP64_MAGIC == size || ZIP64_MAGIC == offset) {
+            if (ZIP64_LOC_SIZE <= end) {
+                final ByteBuffer locator = read(end - ZIP64_LOC_SIZE, ZIP64_LOC_SIZE);
+                if (ZIP64_LOC_SIG == locator.getInt(0)) {
+                    position = locator.getLong(8);
+                    final ByteBuffer eocd64 = read(position, ZIP64_END_SIZE);
+                    if (ZIP64_END_SIG != eocd64.getInt(0)) {
+                        throw new ZipException("Invalid ZIP64 end of central directory record.");
+                    }
+                    count = eocd64.getLong(32);
+                    size = eocd64.getLong(40);
+                    offset = eocd64.getLong(48);
+                }
+            }
+        }
+        // Account for any preamble, e.g. for a self-extracting archive:
+        final long preamble = position - size - offset;
+        if (preamble < 0 || Integer.MAX_VALUE < size) {
+            throw new ZipException("Invalid central directory.");
+        }
+        final ByteBuffer cen = read(offset + preamble, (int) size);
+        for (long i = 0; i < count; i++) {
+            if (cen.remaining() < CEN_SIZE || CEN_SIG != cen.getInt(cen.position())) {
+                throw new ZipException("Invalid central directory header.");
+            }
+            final int start = cen.position();
+            final int nameLength = cen.getShort(start + 28) & 0xffff;
+            final int extraLength = cen.getShort(start + 30) & 0xffff;
+            final int commentLength = cen.getShort(start + 32) & 0xffff;
+            long local = cen.getInt(start + 42) & ZIP64_MAGIC;
+            final byte[] name = new byte[nameLength];
+            cen.position(start + CEN_SIZE);
+            cen.get(name);
+            if (ZIP64_MAGIC == local) {
+                local = zip64Offset(cen, start + CEN_SIZE + nameLength, extraLength,
+                        ZIP64_MAGIC == (cen.getInt(start + 24) & ZIP64_MAGIC),
+                        ZIP64_MAGIC == (cen.getInt(start + 20) & ZIP64_MAGIC));
+            }
+            offsets.put(new String(name, UTF_8), local + preamble);
+            cen.position(start + CEN_SIZE + nameLength + extraLength + commentLength);
+        }
+    }
+
+    /** Returns the position of the end of central directory record. */
+    private long findEnd() throws IOException {
+        final long length = channel.size();
+        final int max = (int) Math.min(length, END_SIZE + 0xffff);
+        final ByteBuffer tail = read(length - max, max);
+        for (int i = max - END_SIZE; 0 <= i; i--) {
+            if (END_SIG == tail.getInt(i)) {
+                return length - max + i;
+            }
+        }
+        throw new ZipException("End of central directory record not found.");
+    }
+
+    private static long zip64Offset(final ByteBuffer cen, final int extra, final int extraLength,
+                                    final boolean skipSize, final boolean skipCompressedSize) throws ZipException {
+        for (int i = extra, end = extra + extraLength; i + 4 <= end; ) {
+            final int id = cen.getShort(i) & 0xffff, length = cen.getShort(i + 2) & 0xffff;
+            if (ZIP64_EXTRA_ID == id) {
+                final int position = i + 4 + (skipSize ? 8 : 0) + (skipCompressedSize ? 8 : 0);
+                if (i + 4 + length < position + 8) {
+                    break;
+                }
+                return cen.getLong(position);
+            }
+            i += 4 + length;
+        }
+        throw new ZipException("Missing ZIP64 extended information.");
+    }
+
+    /** Returns an input stream for reading the raw data of the given ZIP entry. */
+    InputStream input(final ZipEntry entry) throws IOException {
+        final Long offset = offsets.get(entry.getName());
+        if (null == offset) {
+            throw new ZipException("No such entry: " + entry.getName());
+        }
+        final ByteBuffer loc = read(offset, LOC_SIZE);
+        if (LOC_SIG != loc.getInt(0)) {
+            throw new ZipException("Invalid local file header: " + entry.getName());
+        }
+        final long start = offset + LOC_SIZE + (loc.getShort(26) & 0xffff) + (loc.getShort(28) & 0xffff);
+        final long end = start + entry.getCompressedSize();
+        return new InputStream() {
+
+            long position = start;
+
+            @Override
+            public int read() throws IOException {
+                final byte[] b = new byte[1];
+                return 1 == read(b, 0, 1) ? b[0] & 0xff : -1;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                if (end <= position) {
+                    return -1;
+                }
+                final int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                position += read;
+                return read;
+            }
+
+            @Override
+            public long skip(final long n) {
+                final long skipped = Math.max(0, Math.min(n, end - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() { return (int) Math.min(end - position, Integer.MAX_VALUE); }
+        };
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException { channel.close(); }
+}
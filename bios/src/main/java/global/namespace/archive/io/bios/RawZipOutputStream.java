@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import global.namespace.fun.io.api.Store;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes ZIP entries with content which has already been compressed, which is not supported by the
+ * {@link java.util.zip.ZipOutputStream}.
+ * The CRC-32 checksum, size, compressed size and method of each ZIP entry must be set before writing it, so no data
+ * descriptors are required.
+ * ZIP64 extensions get written if and only if required.
+ *
+ * @author Christian Schlichtherle
+ */
+final class RawZipOutputStream implements Closeable {
+
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    private static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001, JAR_MAGIC = 0xcafe;
+
+    private static final int LOC_SIG = 0x04034b50, CEN_SIG = 0x02014b50, END_SIG = 0x06054b50;
+
+    private static final int ZIP64_END_SIG = 0x06064b50, ZIP64_LOC_SIG = 0x07064b50;
+
+    private static final int VERSION = 20, ZIP64_VERSION = 45;
+
+    /** The general purpose bit flag for UTF-8 encoded names and comments. */
+    private static final int UTF8_FLAG = 0x0800;
+
+    private final List<Central> central = new ArrayList<>();
+
+    private final OutputStream out;
+
+    private final boolean jar;
+
+    private long written;
+
+    RawZipOutputStream(final OutputStream out, final boolean jar) {
+        this.out = new BufferedOutputStream(requireNonNull(out));
+        this.jar = jar;
+    }
+
+    /**
+     * Writes the given ZIP entry with the compressed content read from the given input stream.
+     *
+     * @throws ZipException if the length of the content is not the compressed size of the ZIP entry.
+     */
+    void write(final ZipEntry entry, final InputStream content) throws IOException {
+        final Central c = new Central(entry, written, jar && central.isEmpty());
+        final boolean zip64 = ZIP64_MAGIC <= c.size || ZIP64_MAGIC <= c.compressedSize;
+        writeInt(LOC_SIG);
+        writeShort(zip64 ? ZIP64_VERSION : VERSION);
+        writeShort(UTF8_FLAG);
+        writeShort(c.method);
+        writeInt(c.dosTime);
+        writeInt(c.crc);
+        if (zip64) {
+            writeInt(ZIP64_MAGIC);
+            writeInt(ZIP64_MAGIC);
+        } else {
+            writeInt(c.compressedSize);
+            writeInt(c.size);
+        }
+        writeShort(c.name.length);
+        writeShort(c.extra.length + (zip64 ? 20 : 0));
+        writeBytes(c.name);
+        if (zip64) {
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(16);
+            writeLong(c.size);
+            writeLong(c.compressedSize);
+        }
+        writeBytes(c.extra);
+        final byte[] buffer = new byte[Store.BUFSIZE];
+        long length = 0;
+        for (int read; -1 != (read = content.read(buffer)); length += read) {
+            out.write(buffer, 0, read);
+        }
+        written += length;
+        if (length != c.compressedSize) {
+            throw new ZipException("invalid entry compressed size (expected " + c.compressedSize + " but got " +
+                    length + " bytes)");
+        }
+        central.add(c);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (OutputStream out = this.out) {
+            final long start = written;
+            for (final Central c : central) {
+                c.write();
+            }
+            final long size = written - start, end = written;
+            final int count = central.size();
+            if (ZIP64_MAGIC_COUNT <= count || ZIP64_MAGIC <= start || ZIP64_MAGIC <= size) {
+                writeInt(ZIP64_END_SIG);
+                writeLong(44);
+                writeShort(ZIP64_VERSION);
+                writeShort(ZIP64_VERSION);
+                writeInt(0);
+                writeInt(0);
+                writeLong(count);
+                writeLong(count);
+                writeLong(size);
+                writeLong(start);
+                writeInt(ZIP64_LOC_SIG);
+                writeInt(0);
+                writeLong(end);
+                writeInt(1);
+            }
+            writeInt(END_SIG);
+            writeShort(0);
+            writeShort(0);
+            writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+            writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+            writeInt(Math.min(size, ZIP64_MAGIC));
+            writeInt(Math.min(start, ZIP64_MAGIC));
+            writeShort(0);
+            out.flush();
+        }
+    }
+
+    private void writeShort(final int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        written += 2;
+    }
+
+    private void writeInt(final long value) throws IOException {
+        writeShort((int) value);
+        writeShort((int) (value >>> 16));
+    }
+
+    private void writeLong(final long value) throws IOException {
+        writeInt(value);
+        writeInt(value >>> 32);
+    }
+
+    private void writeBytes(final byte[] b) throws IOException {
+        out.write(b);
+        written += b.length;
+    }
+
+    /** The central directory record of a ZIP entry. */
+    private final class Central {
+
+        final byte[] name, extra, comment;
+
+        final int method;
+
+        final long dosTime, crc, size, compressedSize, offset;
+
+        Central(final ZipEntry entry, final long offset, final boolean first) {
+            this.name = entry.getName().getBytes(UTF_8);
+            this.extra = extraOf(entry, first);
+            this.comment = null == entry.getComment() ? new byte[0] : entry.getComment().getBytes(UTF_8);
+            this.method = entry.getMethod();
+            final long time = entry.getTime();
+            this.dosTime = dosTime(-1 == time ? System.currentTimeMillis() : time);
+            this.crc = entry.getCrc();
+            this.size = entry.getSize();
+            this.compressedSize = entry.getCompressedSize();
+            this.offset = offset;
+        }
+
+        void write() throws IOException {
+            final int zip64 = (ZIP64_MAGIC <= size ? 8 : 0) + (ZIP64_MAGIC <= compressedSize ? 8 : 0) +
+                    (ZIP64_MAGIC <= offset ? 8 : 0);
+            final int version = 0 < zip64 ? ZIP64_VERSION : VERSION;
+            writeInt(CEN_SIG);
+            writeShort(version);
+            writeShort(version);
+            writeShort(UTF8_FLAG);
+            writeShort(method);
+            writeInt(dosTime);
+            writeInt(crc);
+            writeInt(Math.min(compressedSize, ZIP64_MAGIC));
+            writeInt(Math.min(size, ZIP64_MAGIC));
+            writeShort(name.length);
+            writeShort(extra.length + (0 < zip64 ? 4 + zip64 : 0));
+            writeShort(comment.length);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(Math.min(offset, ZIP64_MAGIC));
+            writeBytes(name);
+            if (0 < zip64) {
+                writeShort(ZIP64_EXTRA_ID);
+                writeShort(zip64);
+                if (ZIP64_MAGIC <= size) {
+                    writeLong(size);
+                }
+                if (ZIP64_MAGIC <= compressedSize) {
+                    writeLong(compressedSize);
+                }
+                if (ZIP64_MAGIC <= offset) {
+                    writeLong(offset);
+                }
+            }
+            writeBytes(extra);
+            writeBytes(comment);
+        }
+    }
+
+    /**
+     * Returns the extra fields of the given ZIP entry without any ZIP64 extended information, which gets written as
+     * required.
+     * If this is the first entry in a JAR file, then the JAR magic number gets added, like the
+     * {@link java.util.jar.JarOutputStream} does.
+     */
+    private static byte[] extraOf(final ZipEntry entry, final boolean first) {
+        final byte[] extra = null == entry.getExtra() ? new byte[0] : entry.getExtra();
+        final byte[] result = new byte[extra.length + 4];
+        int length = 0;
+        boolean magic = false;
+        for (int i = 0; i + 4 <= extra.length; ) {
+            final int id = extra[i] & 0xff | (extra[i + 1] & 0xff) << 8;
+            final int size = Math.min(extra[i + 2] & 0xff | (extra[i + 3] & 0xff) << 8, extra.length - i - 4);
+            if (ZIP64_EXTRA_ID != id) {
+                System.arraycopy(extra, i, result, length, 4 + size);
+                length += 4 + size;
+                magic |= JAR_MAGIC == id;
+            }
+            i += 4 + size;
+        }
+        if (first && !magic) {
+            System.arraycopy(result, 0, result, 4, length);
+            result[0] = (byte) JAR_MAGIC;
+            result[1] = (byte) (JAR_MAGIC >>> 8);
+            result[2] = result[3] = 0;
+            length += 4;
+        }
+        final byte[] copy = new byte[length];
+        System.arraycopy(result, 0, copy, 0, length);
+        return copy;
+    }
+
+    private static long dosTime(final long time) {
+        final LocalDateTime d = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        final int year = d.getYear();
+        if (year < 1980) {
+            return 1 << 21 | 1 << 16; // 1980-01-01T00:00:00
+        } else if (2107 < year) {
+            return 127L << 25 | 12 << 21 | 31 << 16 | 23 << 11 | 59 << 5 | 29; // 2107-12-31T23:59:58
+        }
+        return (year - 1980L) << 25 | d.getMonthValue() << 21 | d.getDayOfMonth() << 16 | d.getHour() << 11 |
+                d.getMinute() << 5 | d.getSecond() >> 1;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import global.namespace.fun.io.api.Store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Spools the content written to it in memory up to {@value #THRESHOLD} bytes and in a temporary file beyond that.
+ * Once closed, the content can get read any number of times until it gets {@linkplain #delete() deleted}.
+ *
+ * @author Christian Schlichtherle
+ */
+class Spool extends OutputStream {
+
+    /** The maximum number of bytes to hold in memory, which is {@value}. */
+    static final int THRESHOLD = 1 << 20;
+
+    private Buffer memory = new Buffer();
+
+    private Path file;
+
+    private OutputStream out = memory;
+
+    private long size;
+
+    /** Returns the number of bytes written to this spool. */
+    long size() { return size; }
+
+    @Override
+    public void write(int b) throws IOException { write(new byte[] { (byte) b }, 0, 1); }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (null == file && THRESHOLD - len < size) {
+            file = Files.createTempFile("spool", null);
+            out = Files.newOutputStream(file);
+            memory.writeTo(out);
+            memory = null;
+        }
+        out.write(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void close() throws IOException { out.close(); }
+
+    /** Returns a new input stream for reading the content of this closed spool. */
+    InputStream input() throws IOException {
+        return null == file ? memory.input() : Files.newInputStream(file);
+    }
+
+    /** Deletes the temporary file of this spool, if any. */
+    void delete() throws IOException {
+        memory = null;
+        if (null != file) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() { super(Store.BUFSIZE); }
+
+        InputStream input() { return new ByteArrayInputStream(buf, 0, count); }
+    }
+}
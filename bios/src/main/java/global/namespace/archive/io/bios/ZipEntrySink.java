@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import global.namespace.archive.io.api.ArchiveEntrySink;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * Supports writing the raw content of an underlying ZIP entry.
+ *
+ * @author Christian Schlichtherle
+ */
+abstract class ZipEntrySink extends ArchiveEntrySink<ZipEntry> {
+
+    abstract void copyFrom(ZipEntrySource source) throws Exception;
+}
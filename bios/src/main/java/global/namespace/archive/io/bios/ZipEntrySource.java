@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios;
+
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Source;
+
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.zip.ZipEntry;
+
+/**
+ * Supports reading the raw content of an underlying ZIP entry.
+ *
+ * @author Christian Schlichtherle
+ */
+abstract class ZipEntrySource extends ArchiveEntrySource<ZipEntry> {
+
+    abstract Socket<InputStream> rawInput();
+
+    @Override
+    public OptionalLong size() { return ifKnown(entry().getSize()); }
+
+    @Override
+    public OptionalLong crc() { return ifKnown(entry().getCrc()); }
+
+    @Override
+    public OptionalLong time() { return ifKnown(entry().getTime()); }
+
+    @Override
+    public Optional<Source> rawSource() { return Optional.of(this::rawInput); }
+
+    private static OptionalLong ifKnown(long value) { return -1 == value ? OptionalLong.empty() : OptionalLong.of(value); }
+}
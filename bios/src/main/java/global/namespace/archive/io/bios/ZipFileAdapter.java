@@ -11,9 +11,12 @@ import global.namespace.fun.io.api.Socket;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -29,6 +32,8 @@ final class ZipFileAdapter implements ArchiveFileInput<ZipEntry> {
 
     private final ZipFile zip;
 
+    private RawZipFile raw;
+
     ZipFileAdapter(final ZipFile input) { this.zip = requireNonNull(input); }
 
     @Override
@@ -43,13 +48,28 @@ final class ZipFileAdapter implements ArchiveFileInput<ZipEntry> {
         };
     }
 
+    /** Returns a sized spliterator. */
+    @Override
+    public Spliterator<ArchiveEntrySource<ZipEntry>> spliterator() {
+        return Spliterators.spliterator(iterator(), zip.size(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * Returns {@code true}.
+     * The {@link ZipFile} synchronizes reading each chunk of the raw data of an archive entry, but not inflating it, so
+     * inflating and digesting archive entries runs concurrently.
+     * The raw ZIP file uses positional reads only.
+     */
+    @Override
+    public boolean isConcurrent() { return true; }
+
     @Override
     public Optional<ArchiveEntrySource<ZipEntry>> source(String name) {
         return Optional.ofNullable(zip.getEntry(name)).map(this::source);
     }
 
-    private ArchiveEntrySource<ZipEntry> source(ZipEntry entry) {
-        return new ArchiveEntrySource<ZipEntry>() {
+    private ZipEntrySource source(ZipEntry entry) {
+        return new ZipEntrySource() {
 
             public String name() { return entry.getName(); }
 
@@ -59,10 +79,38 @@ final class ZipFileAdapter implements ArchiveFileInput<ZipEntry> {
 
             public Socket<InputStream> input() { return () -> zip.getInputStream(entry); }
 
-            public void copyTo(ArchiveEntrySink<?> sink) throws Exception { copy(this, sink); }
+            Socket<InputStream> rawInput() { return () -> raw().input(entry); }
+
+            public void copyTo(final ArchiveEntrySink<?> sink) throws Exception {
+                if (sink instanceof ZipEntrySink) {
+                    copyTo((ZipEntrySink) sink);
+                } else {
+                    copy(this, sink);
+                }
+            }
+
+            void copyTo(ZipEntrySink sink) throws Exception {
+                sink.copyFrom(this);
+            }
         };
     }
 
+    private synchronized RawZipFile raw() throws IOException {
+        final RawZipFile raw = this.raw;
+        return null != raw ? raw : (this.raw = new RawZipFile(Paths.get(zip.getName())));
+    }
+
+    /** Closes the ZIP file and the raw ZIP file, if any, while holding the same lock as {@link #raw()}. */
     @Override
-    public void close() throws IOException { zip.close(); }
+    public synchronized void close() throws IOException {
+        final RawZipFile raw = this.raw;
+        this.raw = null;
+        try {
+            zip.close();
+        } finally {
+            if (null != raw) {
+                raw.close();
+            }
+        }
+    }
 }
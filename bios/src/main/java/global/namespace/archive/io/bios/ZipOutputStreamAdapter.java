@@ -4,13 +4,20 @@
  */
 package global.namespace.archive.io.bios;
 
+import global.namespace.archive.io.api.ArchiveEntryOptions;
 import global.namespace.archive.io.api.ArchiveEntrySink;
 import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.archive.io.api.SamplingOutputStream;
 import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Store;
 
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.OptionalLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -18,6 +25,12 @@ import static java.util.Objects.requireNonNull;
 
 /**
  * Adapts a {@link ZipOutputStream} to an {@link ArchiveFileOutput}.
+ * Because the local file header of a stored archive entry contains its size and CRC-32 checksum, the content of a
+ * stored archive entry gets {@linkplain Spool spooled} unless these are known in advance.
+ * If the compression method is {@link ArchiveEntryOptions.Method#AUTO} and a sample of the content proves to be
+ * incompressible, then the content gets stored if it fits into the sample or its size and CRC-32 checksum are known in
+ * advance.
+ * Otherwise, it gets deflated without compression, which is almost as fast as storing it.
  *
  * @author Christian Schlichtherle
  */
@@ -30,9 +43,14 @@ class ZipOutputStreamAdapter implements ArchiveFileOutput<ZipEntry> {
     /** Returns {@code false}. */
     public boolean isJar() { return false; }
 
-    public ArchiveEntrySink<ZipEntry> sink(String name) { return sink(new ZipEntry(name)); }
+    public ArchiveEntrySink<ZipEntry> sink(String name) { return sink(name, ArchiveEntryOptions.none()); }
 
-    ArchiveEntrySink<ZipEntry> sink(ZipEntry entry) {
+    @Override
+    public ArchiveEntrySink<ZipEntry> sink(String name, ArchiveEntryOptions options) {
+        return sink(new ZipEntry(name), options);
+    }
+
+    ArchiveEntrySink<ZipEntry> sink(final ZipEntry entry, final ArchiveEntryOptions options) {
         return new ArchiveEntrySink<ZipEntry>() {
 
             public String name() { return entry.getName(); }
@@ -43,23 +61,108 @@ class ZipOutputStreamAdapter implements ArchiveFileOutput<ZipEntry> {
 
             public Socket<OutputStream> output() {
                 return () -> {
+                    options.time().ifPresent(entry::setTime);
                     if (entry.isDirectory()) {
-                        entry.setMethod(ZipOutputStream.STORED);
-                        entry.setSize(0);
-                        entry.setCompressedSize(0);
-                        entry.setCrc(0);
+                        return stored(entry, 0, 0);
                     }
-                    zip.putNextEntry(entry);
-                    return new FilterOutputStream(zip) {
+                    final int level = options.level().orElse(Deflater.DEFAULT_COMPRESSION);
+                    final OptionalLong size = options.size(), crc = options.crc();
+                    switch (options.method().orElse(ArchiveEntryOptions.Method.DEFLATED)) {
+                        case STORED:
+                            if (size.isPresent() && crc.isPresent()) {
+                                return stored(entry, size.getAsLong(), crc.getAsLong());
+                            } else {
+                                return buffered(entry);
+                            }
+                        case AUTO:
+                            return new SamplingOutputStream() {
 
-                        @Override
-                        public void close() throws IOException { ((ZipOutputStream) out).closeEntry(); }
-                    };
+                                protected OutputStream target(byte[] sample, int length, boolean complete)
+                                        throws IOException {
+                                    if (isCompressible(sample, 0, length)) {
+                                        return deflated(entry, level);
+                                    } else if (complete) {
+                                        final CRC32 checksum = new CRC32();
+                                        checksum.update(sample, 0, length);
+                                        return stored(entry, length, checksum.getValue());
+                                    } else if (size.isPresent() && crc.isPresent()) {
+                                        return stored(entry, size.getAsLong(), crc.getAsLong());
+                                    } else {
+                                        return deflated(entry, Deflater.NO_COMPRESSION);
+                                    }
+                                }
+                            };
+                        default:
+                            return deflated(entry, level);
+                    }
                 };
             }
         };
     }
 
+    private OutputStream stored(final ZipEntry entry, final long size, final long crc) throws IOException {
+        entry.setMethod(ZipOutputStream.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+        return open(entry);
+    }
+
+    private OutputStream deflated(final ZipEntry entry, final int level) throws IOException {
+        entry.setMethod(ZipOutputStream.DEFLATED);
+        zip.setLevel(level);
+        return open(entry);
+    }
+
+    /**
+     * Returns an output stream which spools the content of the given archive entry while computing its CRC-32
+     * checksum and then stores it.
+     */
+    private OutputStream buffered(final ZipEntry entry) {
+        return new Spool() {
+
+            final CRC32 crc = new CRC32();
+
+            boolean closed;
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                super.write(b, off, len);
+                crc.update(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    try {
+                        super.close();
+                        final byte[] buffer = new byte[Store.BUFSIZE];
+                        try (InputStream in = input(); OutputStream out = stored(entry, size(), crc.getValue())) {
+                            for (int read; -1 != (read = in.read(buffer)); ) {
+                                out.write(buffer, 0, read);
+                            }
+                        }
+                    } finally {
+                        delete();
+                    }
+                }
+            }
+        };
+    }
+
+    private OutputStream open(final ZipEntry entry) throws IOException {
+        zip.putNextEntry(entry);
+        return new FilterOutputStream(zip) {
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+
+            @Override
+            public void close() throws IOException { ((ZipOutputStream) out).closeEntry(); }
+        };
+    }
+
     @Override
     public void close() throws IOException { zip.close(); }
 }
@@ -4,7 +4,9 @@
  */
 package global.namespace.archive.io.bios
 
-import java.nio.file.Paths
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{FileAlreadyExistsException, Files, InvalidPathException, Path, Paths}
+import java.util.Spliterator
 
 import org.scalatest.Matchers._
 import org.scalatest.WordSpec
@@ -19,11 +21,115 @@ class DirectoryStoreSpec extends WordSpec {
       "contain the parent directory and this class file" in {
         val clazz = classOf[DirectoryStoreSpec]
         val dir: String = (clazz.getPackage.getName split "\\.").last
-        val store = new DirectoryStore(Paths get (clazz getResource "..").toURI)
+        val store = new DirectoryStore(Paths get (clazz getResource "..").toURI, false)
         store acceptReader { input =>
           input.asScala.map(_.name) should (contain(dir) and contain(dir + "/DirectoryStoreSpec.class"))
         }
       }
+
+      "provide a parallel stream of the same entries" in {
+        val store = new DirectoryStore(Paths get (classOf[DirectoryStoreSpec] getResource "..").toURI, false)
+        store acceptReader { input =>
+          input.isConcurrent shouldBe true
+          input.spliterator.hasCharacteristics(Spliterator.SIZED) shouldBe true
+          input.spliterator.hasCharacteristics(Spliterator.CONCURRENT) shouldBe false
+          input.parallelStream.isParallel shouldBe true
+          input.parallelStream.toArray.toSet shouldBe input.asScala.toSet
+        }
+      }
+    }
+
+    "writing a file which is hard-linked to another file" should {
+      "replace the file rather than writing through the link" in {
+        withTempDir { dir =>
+          val original = dir resolve "original"
+          val link = dir resolve "link"
+          Files.write(original, "original" getBytes UTF_8)
+          Files.createLink(link, original)
+          new DirectoryStore(dir, true) acceptWriter {
+            _ sink "link" acceptWriter { _ write ("changed" getBytes UTF_8) }
+          }
+          new String(Files readAllBytes original, UTF_8) shouldBe "original"
+          new String(Files readAllBytes link, UTF_8) shouldBe "changed"
+          Files.isSameFile(original, link) shouldBe false
+        }
+      }
+    }
+
+    "updating in place" should {
+      "replace a file with a directory of the same name" in {
+        withTempDir { dir =>
+          Files.write(dir resolve "foo", "file" getBytes UTF_8)
+          new DirectoryStore(dir, false).inPlaceOutput accept { output =>
+            output delete "foo"
+            output sink "foo/bar" acceptWriter { _ write ("child" getBytes UTF_8) }
+            output.commit()
+          }
+          new String(Files readAllBytes (dir resolve "foo/bar"), UTF_8) shouldBe "child"
+        }
+      }
+
+      "replace a directory with a file of the same name" in {
+        withTempDir { dir =>
+          Files createDirectory (dir resolve "foo")
+          Files.write(dir resolve "foo/bar", "child" getBytes UTF_8)
+          new DirectoryStore(dir, false).inPlaceOutput accept { output =>
+            output delete "foo/bar"
+            output delete "foo"
+            output sink "foo" acceptWriter { _ write ("file" getBytes UTF_8) }
+            output.commit()
+          }
+          new String(Files readAllBytes (dir resolve "foo"), UTF_8) shouldBe "file"
+        }
+      }
+
+      "leave the directory as it was if the commit fails" in {
+        withTempDir { dir =>
+          Files.write(dir resolve "changed", "1" getBytes UTF_8)
+          Files.write(dir resolve "removed", "removed" getBytes UTF_8)
+          Files.write(dir resolve "file", "file" getBytes UTF_8)
+          new DirectoryStore(dir, false).inPlaceOutput accept { output =>
+            output delete "removed"
+            output sink "added" acceptWriter { _ write ("added" getBytes UTF_8) }
+            output sink "changed" acceptWriter { _ write ("2" getBytes UTF_8) }
+            // This fails because the file doesn't get deleted:
+            output sink "file/child" acceptWriter { _ write ("child" getBytes UTF_8) }
+            intercept[FileAlreadyExistsException](output.commit())
+          }
+          Files exists (dir resolve "added") shouldBe false
+          new String(Files readAllBytes (dir resolve "changed"), UTF_8) shouldBe "1"
+          new String(Files readAllBytes (dir resolve "removed"), UTF_8) shouldBe "removed"
+          new String(Files readAllBytes (dir resolve "file"), UTF_8) shouldBe "file"
+        }
+      }
+
+      "hide the staging directory from the input" in {
+        withTempDir { dir =>
+          val store = new DirectoryStore(dir, false)
+          store.inPlaceOutput accept { output =>
+            output sink "foo" acceptWriter { _ write ("foo" getBytes UTF_8) }
+            store acceptReader { _.asScala.map(_.name) shouldBe empty }
+          }
+        }
+      }
+
+      "reject entry names outside of the directory" in {
+        withTempDir { dir =>
+          new DirectoryStore(dir, false).inPlaceOutput accept { output =>
+            intercept[InvalidPathException](output sink "../foo")
+            intercept[InvalidPathException](output delete "../foo")
+          }
+        }
+      }
+    }
+  }
+
+  private def withTempDir(test: Path => Unit): Unit = {
+    val dir = Files createTempDirectory "tmp"
+    try {
+      test(dir)
+    } finally {
+      Files.walk(dir).iterator.asScala.toList.reverse foreach Files.delete
     }
   }
 }
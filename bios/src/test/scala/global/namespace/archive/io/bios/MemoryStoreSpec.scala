@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.bios
+
+import java.io.File
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.Random
+import java.util.zip.{Deflater, ZipEntry}
+
+import global.namespace.archive.io.api.ArchiveEntryOptions.Method
+import global.namespace.archive.io.api.{ArchiveEntryOptions, ArchiveFileSource}
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+import org.scalatest.prop.TableDrivenPropertyChecks._
+
+import scala.collection.JavaConverters._
+
+/** @author Christian Schlichtherle */
+class MemoryStoreSpec extends WordSpec {
+
+  private val content = "Hello world!\n" * 1000
+
+  private def contentOf(source: ArchiveFileSource[ZipEntry], name: String): String = {
+    source applyReader { input =>
+      input.source(name).get applyReader { in =>
+        new String(Stream.continually(in.read).takeWhile(_ != -1).map(_.toByte).toArray, UTF_8)
+      }
+    }
+  }
+
+  "A memory store" should {
+    "read the archive entries which have been written to it" in {
+      val levels = Table("level", Deflater.NO_COMPRESSION, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION)
+      forAll(levels) { level =>
+        val store = new MemoryStore(level)
+        store acceptWriter { output =>
+          output sink "dir/" acceptWriter { _ => }
+          output sink "file" acceptWriter { _ write (content getBytes UTF_8) }
+        }
+        store acceptReader { input =>
+          input.asScala.map(_.name).toList shouldBe List("dir/", "file")
+          input.parallelStream.isParallel shouldBe true
+          val entry = input.source("file").get.entry
+          entry.getSize shouldBe content.length
+          entry.getMethod shouldBe (if (Deflater.NO_COMPRESSION == level) ZipEntry.STORED else ZipEntry.DEFLATED)
+        }
+        contentOf(store, "file") shouldBe content
+      }
+    }
+
+    "honour the compression method and the last modification time of the archive entry options" in {
+      val random = {
+        val b = new Array[Byte](10000)
+        new Random(0) nextBytes b
+        b
+      }
+      val time = 1000000000000L
+      val store = new MemoryStore(Deflater.NO_COMPRESSION)
+      store acceptWriter { output =>
+        output sink ("deflated", ArchiveEntryOptions.builder.method(Method.DEFLATED).time(time).build) acceptWriter {
+          _ write (content getBytes UTF_8)
+        }
+        output sink ("compressible", ArchiveEntryOptions.builder.method(Method.AUTO).build) acceptWriter {
+          _ write (content getBytes UTF_8)
+        }
+        output sink ("incompressible", ArchiveEntryOptions.builder.method(Method.AUTO).build) acceptWriter {
+          _ write random
+        }
+      }
+      store acceptReader { input =>
+        val deflated = input.source("deflated").get.entry
+        deflated.getMethod shouldBe ZipEntry.DEFLATED
+        deflated.getTime shouldBe time
+        input.source("compressible").get.entry.getMethod shouldBe ZipEntry.DEFLATED
+        input.source("incompressible").get.entry.getMethod shouldBe ZipEntry.STORED
+      }
+      contentOf(store, "deflated") shouldBe content
+      contentOf(store, "compressible") shouldBe content
+    }
+
+    "take a snapshot into a ZIP file" in {
+      val store = new MemoryStore(Deflater.DEFAULT_COMPRESSION)
+      store acceptWriter { _ sink "file" acceptWriter { _ write (content getBytes UTF_8) } }
+      val file = File.createTempFile("tmp", ".zip")
+      try {
+        BIOS.copy(store, BIOS parallelZip file)
+        contentOf(BIOS zip file, "file") shouldBe content
+      } finally {
+        file.delete()
+      }
+    }
+  }
+}
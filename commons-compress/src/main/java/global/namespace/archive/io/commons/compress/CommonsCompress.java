@@ -6,20 +6,28 @@ package global.namespace.archive.io.commons.compress;
 
 import global.namespace.archive.io.api.ArchiveFileInput;
 import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.archive.io.api.ArchiveFileSink;
 import global.namespace.archive.io.api.ArchiveFileStore;
+import global.namespace.fun.io.api.Sink;
 import global.namespace.fun.io.api.Socket;
 import org.apache.commons.compress.archivers.jar.JarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import static java.util.Objects.requireNonNull;
 
 /**
- * Provides access to JAR and ZIP files.
+ * Provides access to JAR, TAR and ZIP files.
  * This package depends on Apache Commons Compress and provides best performance for diffing and patching.
  *
  * @author Christian Schlichtherle
@@ -61,4 +69,193 @@ public class CommonsCompress {
             }
         };
     }
+
+    /**
+     * Returns an archive file store for the given TAR file.
+     * Reading the TAR file scans the headers of its archive entries once in order to build an index of the offsets of
+     * their content, so that the archive entries can get read in any order and concurrently.
+     * Writing the TAR file spools the content of each archive entry because its size needs to get written first.
+     */
+    public static ArchiveFileStore<TarArchiveEntry> tar(final File file) {
+        requireNonNull(file);
+        return new ArchiveFileStore<TarArchiveEntry>() {
+
+            @Override
+            public Socket<ArchiveFileInput<TarArchiveEntry>> input() {
+                return () -> TarFileAdapter.open(file.toPath());
+            }
+
+            @Override
+            public Socket<ArchiveFileOutput<TarArchiveEntry>> output() {
+                return () -> new TarArchiveOutputStreamAdapter(new TarArchiveOutputStream(new FileOutputStream(file)));
+            }
+        };
+    }
+
+    /**
+     * Returns an archive file store for the given gzip compressed TAR file.
+     * Reading the TAR file inflates it once in order to index the offsets of the content of its archive entries and
+     * to record checkpoints for resuming inflation, so that the content of each archive entry gets inflated from the
+     * last checkpoint before it rather than from the start of the file.
+     * Apart from this, the archive file store behaves like a {@linkplain #tar(File) TAR file store}.
+     */
+    public static ArchiveFileStore<TarArchiveEntry> tarGz(final File file) {
+        requireNonNull(file);
+        return new ArchiveFileStore<TarArchiveEntry>() {
+
+            @Override
+            public Socket<ArchiveFileInput<TarArchiveEntry>> input() {
+                return () -> TarFileAdapter.inflate(file.toPath());
+            }
+
+            @Override
+            public Socket<ArchiveFileOutput<TarArchiveEntry>> output() {
+                return () -> new TarArchiveOutputStreamAdapter(new TarArchiveOutputStream(
+                        new GzipCompressorOutputStream(new FileOutputStream(file))));
+            }
+        };
+    }
+
+    /**
+     * Returns an archive file sink for writing a JAR file to the given sink, e.g. the body of an HTTP response, without
+     * creating a temporary file.
+     */
+    public static ArchiveFileSink<ZipArchiveEntry> jar(final Sink sink) {
+        requireNonNull(sink);
+        return new ArchiveFileSink<ZipArchiveEntry>() {
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipArchiveEntry>> output() {
+                return () -> new JarArchiveOutputStreamAdapter(new JarArchiveOutputStream(sink.output().get()));
+            }
+        };
+    }
+
+    /**
+     * Returns an archive file sink for writing a JAR file to the given channel.
+     * Closing the archive file output closes the channel, so the archive file sink can only get used once.
+     */
+    public static ArchiveFileSink<ZipArchiveEntry> jar(WritableByteChannel channel) { return jar(sink(channel)); }
+
+    /**
+     * Returns an archive file sink for writing a ZIP file to the given sink, e.g. the body of an HTTP response, without
+     * creating a temporary file.
+     */
+    public static ArchiveFileSink<ZipArchiveEntry> zip(final Sink sink) {
+        requireNonNull(sink);
+        return new ArchiveFileSink<ZipArchiveEntry>() {
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipArchiveEntry>> output() {
+                return () -> new ZipArchiveOutputStreamAdapter(new ZipArchiveOutputStream(sink.output().get()));
+            }
+        };
+    }
+
+    /**
+     * Returns an archive file sink for writing a ZIP file to the given channel.
+     * Closing the archive file output closes the channel, so the archive file sink can only get used once.
+     *
+     * @see #zip(SeekableByteChannel)
+     */
+    public static ArchiveFileSink<ZipArchiveEntry> zip(WritableByteChannel channel) { return zip(sink(channel)); }
+
+    /**
+     * Returns an archive file sink for writing a ZIP file to the given seekable channel, e.g. an in-memory buffer.
+     * Unlike writing to a plain sink or channel, this allows to update the local file headers with the sizes and
+     * CRC-32 checksums of the archive entries, so no data descriptors are needed.
+     * Closing the archive file output closes the channel, so the archive file sink can only get used once.
+     */
+    public static ArchiveFileSink<ZipArchiveEntry> zip(final SeekableByteChannel channel) {
+        requireNonNull(channel);
+        return new ArchiveFileSink<ZipArchiveEntry>() {
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipArchiveEntry>> output() {
+                return () -> new ZipArchiveOutputStreamAdapter(new ZipArchiveOutputStream(channel));
+            }
+        };
+    }
+
+    private static Sink sink(final WritableByteChannel channel) {
+        requireNonNull(channel);
+        return () -> () -> Channels.newOutputStream(channel);
+    }
+
+    /**
+     * Returns an archive file store for the given JAR file which compresses the archive entries in parallel using as
+     * many threads as there are available processors.
+     *
+     * @see #parallelJar(File, int)
+     */
+    public static ArchiveFileStore<ZipArchiveEntry> parallelJar(File file) {
+        return parallelJar(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns an archive file store for the given JAR file which compresses the archive entries in parallel using the
+     * given number of threads.
+     * The content of each archive entry gets spooled to memory or, if it is large, to a temporary file and compressed
+     * by a worker thread.
+     * The compressed archive entries get written in the same order as they have been written to the archive file
+     * output, so the manifest of the JAR file stays in front.
+     */
+    public static ArchiveFileStore<ZipArchiveEntry> parallelJar(final File file, final int threads) {
+        requireNonNull(file);
+        requirePositive(threads);
+        return new ArchiveFileStore<ZipArchiveEntry>() {
+
+            @Override
+            public Socket<ArchiveFileInput<ZipArchiveEntry>> input() {
+                return () -> new ZipFileAdapter(new ZipFile(file));
+            }
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipArchiveEntry>> output() {
+                return () -> new ParallelJarArchiveOutputStreamAdapter(
+                        new JarArchiveOutputStream(new FileOutputStream(file)), threads);
+            }
+        };
+    }
+
+    /**
+     * Returns an archive file store for the given ZIP file which compresses the archive entries in parallel using as
+     * many threads as there are available processors.
+     *
+     * @see #parallelZip(File, int)
+     */
+    public static ArchiveFileStore<ZipArchiveEntry> parallelZip(File file) {
+        return parallelZip(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns an archive file store for the given ZIP file which compresses the archive entries in parallel using the
+     * given number of threads.
+     * The content of each archive entry gets spooled to memory or, if it is large, to a temporary file and compressed
+     * by a worker thread.
+     * The compressed archive entries get written in the same order as they have been written to the archive file
+     * output.
+     */
+    public static ArchiveFileStore<ZipArchiveEntry> parallelZip(final File file, final int threads) {
+        requireNonNull(file);
+        requirePositive(threads);
+        return new ArchiveFileStore<ZipArchiveEntry>() {
+
+            @Override
+            public Socket<ArchiveFileInput<ZipArchiveEntry>> input() {
+                return () -> new ZipFileAdapter(new ZipFile(file));
+            }
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipArchiveEntry>> output() {
+                return () -> new ParallelZipArchiveOutputStreamAdapter(new ZipArchiveOutputStream(file), threads);
+            }
+        };
+    }
+
+    private static void requirePositive(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(threads + " < 1");
+        }
+    }
 }
@@ -0,0 +1,731 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An index of checkpoints for inflating a gzip compressed file from an arbitrary offset of its content, like the
+ * {@code zran} example of zlib.
+ * The index gets built by {@linkplain #scan() scanning} the file once.
+ * Whenever at least {@value #SPAN} bytes of content have been inflated since the last checkpoint, the next deflate
+ * block or gzip member gets recorded as a checkpoint.
+ * A checkpoint consists of the offset of the content, the bit offset in the file and the last 32 KiB of content,
+ * which is the dictionary for inflating the deflate block.
+ * Afterwards, {@linkplain #input(long, long) inflating a range} of the content resumes at the last checkpoint before
+ * it or at the end of a previously inflated range if that is closer, so that reading ranges in ascending order
+ * inflates the content once only.
+ * <p>
+ * This class uses its own decoder because {@link Inflater} can neither tell the bit offset of a deflate block nor
+ * resume inflating at it.
+ * The decoder produces the same content as an {@link Inflater}, which {@code GzipIndexSpec} checks for real-world and
+ * random gzip files.
+ * The file channel gets read using positional reads only, so ranges can get inflated concurrently.
+ * <p>
+ * The decoder takes about 1.5 times as long as an {@link Inflater} for deflated content and up to twice as long for
+ * stored content, which gets copied in bulk, as measured by {@code GzipIndexBenchmark}.
+ * This pays off for content of more than {@value #SPAN} bytes as soon as more than one range gets inflated out of
+ * order: With an {@link Inflater}, each of them would need to get inflated from the start of the file, which is half
+ * of the content on average, while with this index, it's no more than {@value #SPAN} bytes.
+ * For content of up to {@value #SPAN} bytes, there is only one checkpoint, so inflating a range costs about as much as
+ * with an {@link Inflater}, but reading the ranges in ascending order still inflates the content once only.
+ *
+ * @author Christian Schlichtherle
+ */
+final class GzipIndex {
+
+    /** The minimum number of bytes of content between checkpoints, which is {@value}. */
+    static final int SPAN = 1 << 22;
+
+    private static final int WSIZE = 1 << 15, WMASK = WSIZE - 1;
+
+    private static final int BUFSIZE = 1 << 13;
+
+    private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors();
+
+    private static final int MAXBITS = 15, FASTBITS = 10;
+
+    private static final int MEMBER = 0, BLOCK = 1, STORED = 2, CODES = 3, TRAILER = 4, END = 5;
+
+    private static final int[] LBASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195,
+            227, 258
+    };
+
+    private static final int[] LEXT = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+
+    private static final int[] DBASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097,
+            6145, 8193, 12289, 16385, 24577
+    };
+
+    private static final int[] DEXT = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+
+    private static final int[] ORDER = {16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+    private static final Huffman FIXED_LENGTHS, FIXED_DISTANCES;
+
+    static {
+        final byte[] lengths = new byte[288 + 30];
+        Arrays.fill(lengths, 0, 144, (byte) 8);
+        Arrays.fill(lengths, 144, 256, (byte) 9);
+        Arrays.fill(lengths, 256, 280, (byte) 7);
+        Arrays.fill(lengths, 280, 288, (byte) 8);
+        Arrays.fill(lengths, 288, 288 + 30, (byte) 5);
+        try {
+            FIXED_LENGTHS = new Huffman(lengths, 0, 288);
+            FIXED_DISTANCES = new Huffman(lengths, 288, 30);
+        } catch (ZipException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    private final Deque<Decoder> idle = new ArrayDeque<>();
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private final int span;
+
+    GzipIndex(FileChannel channel) throws IOException { this(channel, SPAN); }
+
+    GzipIndex(final FileChannel channel, final int span) throws IOException {
+        this.channel = requireNonNull(channel);
+        this.size = channel.size();
+        this.span = span;
+    }
+
+    /**
+     * Returns an input stream for inflating the entire content of the gzip compressed file and recording the
+     * checkpoints of this index.
+     * This method must get called once before calling {@link #input(long, long)}.
+     */
+    InputStream scan() {
+        checkpoints.add(new Checkpoint(0, 0, null, 0));
+        return new Range(new Decoder(checkpoints.get(0), true), Long.MAX_VALUE);
+    }
+
+    /** Returns an input stream for inflating the content of the gzip compressed file in the given range. */
+    InputStream input(final long start, final long end) throws IOException {
+        return start < end ? new Range(decoder(start), end) : new ByteArrayInputStream(new byte[0]);
+    }
+
+    private Decoder decoder(final long start) throws IOException {
+        final Checkpoint checkpoint = checkpoint(start);
+        Decoder decoder = null;
+        synchronized (idle) {
+            for (final Decoder d : idle) {
+                if (checkpoint.position <= d.position && d.position <= start &&
+                        (null == decoder || decoder.position < d.position)) {
+                    decoder = d;
+                }
+            }
+            if (null != decoder) {
+                idle.remove(decoder);
+            }
+        }
+        if (null == decoder) {
+            decoder = new Decoder(checkpoint, false);
+        }
+        final long skip = start - decoder.position;
+        if (decoder.skip(skip) < skip) {
+            throw new EOFException("Unexpected end of gzip file");
+        }
+        return decoder;
+    }
+
+    private Checkpoint checkpoint(final long position) {
+        int low = 0, high = checkpoints.size() - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (checkpoints.get(mid).position <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return checkpoints.get(low);
+    }
+
+    private void release(final Decoder decoder) {
+        synchronized (idle) {
+            if (MAX_IDLE <= idle.size()) {
+                idle.removeFirst();
+            }
+            idle.addLast(decoder);
+        }
+    }
+
+    /** A position in the content where inflating can resume. */
+    private static final class Checkpoint {
+
+        final long position, bit;
+
+        /** The deflated dictionary plus a dummy byte, or {@code null} if this is the start of a gzip member. */
+        final byte[] window;
+
+        final int windowSize;
+
+        Checkpoint(final long position, final long bit, final byte[] window, final int windowSize) {
+            this.position = position;
+            this.bit = bit;
+            this.window = window;
+            this.windowSize = windowSize;
+        }
+    }
+
+    /** An input stream for a range of the content which releases its decoder for reuse when closed. */
+    private final class Range extends InputStream {
+
+        private final long end;
+
+        private Decoder decoder;
+
+        private boolean reusable;
+
+        Range(final Decoder decoder, final long end) {
+            this.decoder = decoder;
+            this.end = end;
+            this.reusable = !decoder.scan;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return 1 == read(b, 0, 1) ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final Decoder decoder = decoder();
+            if (0 == len) {
+                return 0;
+            }
+            if (end <= decoder.position) {
+                return -1;
+            }
+            try {
+                return decoder.read(b, off, (int) Math.min(len, end - decoder.position));
+            } catch (IOException | RuntimeException e) {
+                reusable = false;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final Decoder decoder = decoder();
+            try {
+                return decoder.skip(Math.max(0, Math.min(n, end - decoder.position)));
+            } catch (IOException | RuntimeException e) {
+                reusable = false;
+                throw e;
+            }
+        }
+
+        private Decoder decoder() throws IOException {
+            if (null == decoder) {
+                throw new IOException("Input stream closed.");
+            }
+            return decoder;
+        }
+
+        @Override
+        public void close() {
+            if (null != decoder) {
+                if (reusable) {
+                    release(decoder);
+                }
+                decoder = null;
+            }
+        }
+    }
+
+    /** Inflates the content of the gzip compressed file from a checkpoint. */
+    private final class Decoder {
+
+        final boolean scan;
+
+        /** The offset of the next byte of content. */
+        long position;
+
+        private final byte[] buf = new byte[BUFSIZE];
+
+        private int bufPos, bufEnd;
+
+        private long filePos;
+
+        private long bitBuf;
+
+        private int bitCnt;
+
+        private final byte[] window = new byte[WSIZE];
+
+        private int windowPos;
+
+        /** The offset of the content where the history in the window begins. */
+        private long origin;
+
+        private int state;
+
+        private boolean last;
+
+        private int stored;
+
+        private Huffman lengths, distances;
+
+        private int copyLength, copyDistance;
+
+        private final CRC32 crc = new CRC32();
+
+        private boolean verify;
+
+        private long memberStart;
+
+        private long nextCheckpoint;
+
+        private byte[] skipBuf;
+
+        Decoder(final Checkpoint checkpoint, final boolean scan) {
+            this.scan = scan;
+            position = checkpoint.position;
+            nextCheckpoint = position + span;
+            filePos = checkpoint.bit >>> 3;
+            bitCnt = -(int) (checkpoint.bit & 7);
+            if (null == checkpoint.window) {
+                state = MEMBER;
+            } else {
+                final Inflater inflater = new Inflater(true);
+                try {
+                    inflater.setInput(checkpoint.window);
+                    if (inflater.inflate(window, 0, checkpoint.windowSize) != checkpoint.windowSize) {
+                        throw new AssertionError();
+                    }
+                } catch (DataFormatException e) {
+                    throw new AssertionError(e);
+                } finally {
+                    inflater.end();
+                }
+                windowPos = checkpoint.windowSize & WMASK;
+                origin = position - checkpoint.windowSize;
+                state = BLOCK;
+            }
+        }
+
+        long skip(final long n) throws IOException {
+            if (null == skipBuf) {
+                skipBuf = new byte[BUFSIZE];
+            }
+            long remaining = n;
+            for (int read; 0 < remaining && 0 <= (read = read(skipBuf, 0, (int) Math.min(remaining, BUFSIZE))); ) {
+                remaining -= read;
+            }
+            return n - remaining;
+        }
+
+        int read(final byte[] b, final int off, final int len) throws IOException {
+            final long base = position - off;
+            final int end = off + len;
+            int o = off, mark = off;
+            loop:
+            while (o < end) {
+                if (0 < copyLength) {
+                    final int n = Math.min(copyLength, end - o);
+                    copyLength -= n;
+                    for (int i = 0; i < n; i++) {
+                        b[o++] = window[windowPos] = window[(windowPos - copyDistance) & WMASK];
+                        windowPos = (windowPos + 1) & WMASK;
+                    }
+                    continue;
+                }
+                switch (state) {
+                    case MEMBER:
+                        if (scan) {
+                            checkpoint(base + o, false);
+                        }
+                        if (!header()) {
+                            state = END;
+                            break loop;
+                        }
+                        crc.reset();
+                        mark = o;
+                        verify = true;
+                        origin = memberStart = base + o;
+                        state = BLOCK;
+                        break;
+                    case BLOCK:
+                        if (scan) {
+                            checkpoint(base + o, true);
+                        }
+                        block();
+                        break;
+                    case STORED:
+                        if (0 == stored) {
+                            state = last ? TRAILER : BLOCK;
+                        } else {
+                            final int n = Math.min(stored, end - o);
+                            stored -= n;
+                            o = copy(b, o, n);
+                        }
+                        break;
+                    case CODES:
+                        o = codes(b, o, end, base);
+                        break;
+                    case TRAILER:
+                        bits(bitCnt & 7);
+                        final long checksum = bits(16) | (long) bits(16) << 16;
+                        final long length = bits(16) | (long) bits(16) << 16;
+                        if (verify) {
+                            crc.update(b, mark, o - mark);
+                            if (crc.getValue() != checksum) {
+                                throw new ZipException("CRC-32 mismatch in gzip file.");
+                            }
+                            if (((base + o - memberStart) & 0xffffffffL) != length) {
+                                throw new ZipException("Length mismatch in gzip file.");
+                            }
+                        }
+                        mark = o;
+                        state = MEMBER;
+                        break;
+                    default:
+                        break loop;
+                }
+            }
+            if (verify) {
+                crc.update(b, mark, o - mark);
+            }
+            position += o - off;
+            return o == off && 0 < len ? -1 : o - off;
+        }
+
+        private void checkpoint(final long position, final boolean block) {
+            if (nextCheckpoint <= position) {
+                final long bit = (filePos - bufEnd + bufPos) * 8 - bitCnt;
+                if (block) {
+                    final int size = (int) Math.min(WSIZE, position - origin);
+                    final byte[] history = new byte[size];
+                    final int start = (windowPos - size) & WMASK;
+                    final int first = Math.min(size, WSIZE - start);
+                    System.arraycopy(window, start, history, 0, first);
+                    System.arraycopy(window, 0, history, first, size - first);
+                    checkpoints.add(new Checkpoint(position, bit, deflate(history), size));
+                } else {
+                    checkpoints.add(new Checkpoint(position, bit, null, 0));
+                }
+                nextCheckpoint = position + span;
+            }
+        }
+
+        private boolean header() throws IOException {
+            if (0 == bitCnt && bufPos == bufEnd && filePos == size) {
+                return false;
+            }
+            if (0x1f != bits(8) || 0x8b != bits(8) || Deflater.DEFLATED != bits(8)) {
+                throw new ZipException("Not in gzip format.");
+            }
+            final int flags = bits(8);
+            if (0 != (flags & 0xe0)) {
+                throw new ZipException("Reserved flags in gzip header.");
+            }
+            skipBytes(6); // MTIME, XFL, OS
+            if (0 != (flags & 4)) { // FEXTRA
+                skipBytes(bits(16));
+            }
+            if (0 != (flags & 8)) { // FNAME
+                while (0 != bits(8)) {
+                }
+            }
+            if (0 != (flags & 16)) { // FCOMMENT
+                while (0 != bits(8)) {
+                }
+            }
+            if (0 != (flags & 2)) { // FHCRC
+                skipBytes(2);
+            }
+            return true;
+        }
+
+        private void block() throws IOException {
+            last = 1 == bits(1);
+            switch (bits(2)) {
+                case 0:
+                    bits(bitCnt & 7);
+                    stored = bits(16);
+                    if (stored != (~bits(16) & 0xffff)) {
+                        throw new ZipException("Invalid stored block length.");
+                    }
+                    state = STORED;
+                    break;
+                case 1:
+                    lengths = FIXED_LENGTHS;
+                    distances = FIXED_DISTANCES;
+                    state = CODES;
+                    break;
+                case 2:
+                    dynamic();
+                    state = CODES;
+                    break;
+                default:
+                    throw new ZipException("Invalid block type.");
+            }
+        }
+
+        private void dynamic() throws IOException {
+            final int nlen = bits(5) + 257, ndist = bits(5) + 1, ncode = bits(4) + 4;
+            if (286 < nlen || 30 < ndist) {
+                throw new ZipException("Too many length or distance codes.");
+            }
+            final byte[] codeLengths = new byte[19];
+            for (int i = 0; i < ncode; i++) {
+                codeLengths[ORDER[i]] = (byte) bits(3);
+            }
+            final Huffman codes = new Huffman(codeLengths, 0, 19);
+            final byte[] lengths = new byte[nlen + ndist];
+            for (int i = 0; i < lengths.length; ) {
+                final int symbol = decode(codes);
+                if (symbol < 16) {
+                    lengths[i++] = (byte) symbol;
+                } else {
+                    final byte length;
+                    int repeat;
+                    if (16 == symbol) {
+                        if (0 == i) {
+                            throw new ZipException("Repeated length without first length.");
+                        }
+                        length = lengths[i - 1];
+                        repeat = 3 + bits(2);
+                    } else {
+                        length = 0;
+                        repeat = 17 == symbol ? 3 + bits(3) : 11 + bits(7);
+                    }
+                    if (lengths.length < i + repeat) {
+                        throw new ZipException("Too many code lengths.");
+                    }
+                    while (0 < repeat--) {
+                        lengths[i++] = length;
+                    }
+                }
+            }
+            if (0 == lengths[256]) {
+                throw new ZipException("Missing end-of-block code.");
+            }
+            this.lengths = new Huffman(lengths, 0, nlen);
+            this.distances = new Huffman(lengths, nlen, ndist);
+        }
+
+        private int codes(final byte[] b, int o, final int end, final long base) throws IOException {
+            while (o < end) {
+                int symbol = decode(lengths);
+                if (symbol < 256) {
+                    b[o++] = window[windowPos] = (byte) symbol;
+                    windowPos = (windowPos + 1) & WMASK;
+                } else if (256 == symbol) {
+                    state = last ? TRAILER : BLOCK;
+                    break;
+                } else {
+                    symbol -= 257;
+                    if (LBASE.length <= symbol) {
+                        throw new ZipException("Invalid length code.");
+                    }
+                    final int length = LBASE[symbol] + bits(LEXT[symbol]);
+                    symbol = decode(distances);
+                    if (DBASE.length <= symbol) {
+                        throw new ZipException("Invalid distance code.");
+                    }
+                    final int distance = DBASE[symbol] + bits(DEXT[symbol]);
+                    if (Math.min(WSIZE, base + o - origin) < distance) {
+                        throw new ZipException("Invalid distance too far back.");
+                    }
+                    copyLength = length;
+                    copyDistance = distance;
+                    break;
+                }
+            }
+            return o;
+        }
+
+        /**
+         * Copies the given number of bytes of a stored block from the byte aligned input to the given array at the
+         * given offset and to the window and returns the offset after them.
+         * Any whole bytes left in the bit buffer get copied first and then the rest gets copied from the input buffer
+         * in bulk.
+         */
+        private int copy(final byte[] b, final int off, final int len) throws IOException {
+            final int end = off + len;
+            int o = off;
+            while (o < end && 0 < bitCnt) {
+                b[o++] = (byte) bits(8);
+            }
+            while (o < end) {
+                if (bufPos == bufEnd) {
+                    refill();
+                }
+                final int n = Math.min(end - o, bufEnd - bufPos);
+                System.arraycopy(buf, bufPos, b, o, n);
+                bufPos += n;
+                o += n;
+            }
+            final int n = Math.min(len, WSIZE), start = (windowPos + len - n) & WMASK;
+            final int first = Math.min(n, WSIZE - start);
+            System.arraycopy(b, end - n, window, start, first);
+            System.arraycopy(b, end - n + first, window, 0, n - first);
+            windowPos = (windowPos + len) & WMASK;
+            return end;
+        }
+
+        private int decode(final Huffman huffman) throws IOException {
+            fill(FASTBITS);
+            final int entry = huffman.table[(int) bitBuf & ((1 << FASTBITS) - 1)];
+            if (0 != entry) {
+                final int length = entry & 0xf;
+                bitBuf >>>= length;
+                bitCnt -= length;
+                return entry >>> 4;
+            }
+            int code = 0, first = 0, index = 0;
+            for (int length = 1; length <= MAXBITS; length++) {
+                code |= bits(1);
+                final int count = huffman.count[length];
+                if (code - count < first) {
+                    return huffman.symbol[index + (code - first)];
+                }
+                index += count;
+                first = (first + count) << 1;
+                code <<= 1;
+            }
+            throw new ZipException("Invalid Huffman code.");
+        }
+
+        private void skipBytes(int n) throws IOException {
+            while (0 < n--) {
+                bits(8);
+            }
+        }
+
+        private int bits(final int n) throws IOException {
+            fill(n);
+            final int value = (int) bitBuf & ((1 << n) - 1);
+            bitBuf >>>= n;
+            bitCnt -= n;
+            return value;
+        }
+
+        private void fill(final int n) throws IOException {
+            while (bitCnt < n) {
+                if (bitCnt < 0) {
+                    bitBuf = nextByte() >>> -bitCnt;
+                } else {
+                    bitBuf |= (long) nextByte() << bitCnt;
+                }
+                bitCnt += 8;
+            }
+        }
+
+        private int nextByte() throws IOException {
+            if (bufPos == bufEnd) {
+                refill();
+            }
+            return buf[bufPos++] & 0xff;
+        }
+
+        private void refill() throws IOException {
+            final int read = channel.read(ByteBuffer.wrap(buf), filePos);
+            if (read <= 0) {
+                throw new EOFException("Unexpected end of gzip file.");
+            }
+            filePos += read;
+            bufPos = 0;
+            bufEnd = read;
+        }
+    }
+
+    private static byte[] deflate(final byte[] b) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(b);
+            deflater.finish();
+            byte[] out = new byte[b.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            // Add a dummy byte for the inflater:
+            return Arrays.copyOf(out, length + 1);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** A canonical Huffman code with a lookup table for the codes of up to {@value #FASTBITS} bits. */
+    private static final class Huffman {
+
+        final short[] count = new short[MAXBITS + 1];
+
+        final short[] symbol;
+
+        /** Maps the next {@value #FASTBITS} bits to the symbol shifted left by four bits plus its code length. */
+        final int[] table = new int[1 << FASTBITS];
+
+        Huffman(final byte[] lengths, final int off, final int n) throws ZipException {
+            symbol = new short[n];
+            for (int i = 0; i < n; i++) {
+                count[lengths[off + i]]++;
+            }
+            int left = 1;
+            for (int length = 1; length <= MAXBITS; length++) {
+                left = (left << 1) - count[length];
+                if (left < 0) {
+                    throw new ZipException("Over-subscribed Huffman code.");
+                }
+            }
+            final int[] offsets = new int[MAXBITS + 1], codes = new int[MAXBITS + 1];
+            for (int length = 1, offset = 0, code = 0; length <= MAXBITS; length++) {
+                offsets[length] = offset;
+                offset += count[length];
+                codes[length] = code;
+                code = (code + count[length]) << 1;
+            }
+            for (int i = 0; i < n; i++) {
+                final int length = lengths[off + i];
+                if (0 != length) {
+                    symbol[offsets[length]++] = (short) i;
+                    final int code = codes[length]++;
+                    if (length <= FASTBITS) {
+                        for (int j = Integer.reverse(code) >>> (32 - length); j < 1 << FASTBITS; j += 1 << length) {
+                            table[j] = i << 4 | length;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@
  */
 package global.namespace.archive.io.commons.compress;
 
+import global.namespace.archive.io.api.ArchiveEntryOptions;
 import global.namespace.archive.io.api.ArchiveEntrySink;
 import global.namespace.archive.io.api.ArchiveFileOutput;
 import org.apache.commons.compress.archivers.jar.JarArchiveEntry;
@@ -24,5 +25,7 @@ final class JarArchiveOutputStreamAdapter extends ZipArchiveOutputStreamAdapter
     public boolean isJar() { return true; }
 
     @Override
-    public ArchiveEntrySink<ZipArchiveEntry> sink(String name) { return sink(new JarArchiveEntry(name)); }
+    public ArchiveEntrySink<ZipArchiveEntry> sink(String name, ArchiveEntryOptions options) {
+        return sink(new JarArchiveEntry(name), options);
+    }
 }
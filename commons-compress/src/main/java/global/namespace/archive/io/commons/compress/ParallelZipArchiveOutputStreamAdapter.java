@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress;
+
+import global.namespace.archive.io.api.ArchiveEntryOptions;
+import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.archive.io.api.SamplingOutputStream;
+import org.apache.commons.compress.archivers.zip.*;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import static global.namespace.archive.io.api.ArchiveEntryOptions.Method.AUTO;
+import static global.namespace.archive.io.api.ArchiveEntryOptions.Method.STORED;
+import static global.namespace.archive.io.api.SamplingOutputStream.SAMPLE_SIZE;
+import static global.namespace.fun.io.bios.BIOS.copy;
+import static org.apache.commons.compress.archivers.zip.ZipArchiveEntryRequest.createZipArchiveEntryRequest;
+
+/**
+ * Adapts a {@link ZipArchiveOutputStream} to an {@link ArchiveFileOutput} which compresses the archive entries in
+ * parallel.
+ * Similar to the {@link ParallelScatterZipCreator}, the content of each archive entry gets buffered and compressed
+ * into a {@link ScatterZipOutputStream} by a pool of worker threads.
+ * Unlike the {@code ParallelScatterZipCreator}, the compressed archive entries get written to the ZIP archive output
+ * stream in the same order as they have been written to this archive file output, so that the manifest of a JAR file
+ * stays in front.
+ * Raw copies of archive entries from a ZIP file get buffered and written in order, too.
+ * All buffers are {@linkplain SpoolBackingStore spool backing stores}, which hold up to
+ * {@value SpoolBackingStore#THRESHOLD} bytes in memory and spill any more to a temporary file, so archive entries of
+ * any size can get written.
+ * To limit the memory and disk space consumption, the writing thread waits for the oldest archive entry whenever more
+ * than twice as many archive entries as there are worker threads or more than {@value #MAX_PENDING_SIZE} bytes of
+ * content are pending.
+ *
+ * @author Christian Schlichtherle
+ */
+class ParallelZipArchiveOutputStreamAdapter extends ZipArchiveOutputStreamAdapter {
+
+    /** The maximum total size of the content of the pending archive entries, which is {@value}. */
+    static final long MAX_PENDING_SIZE = 64L << 20;
+
+    private final Deque<Pending> pending = new ArrayDeque<>();
+
+    private final ExecutorService service;
+
+    private final int maxPending;
+
+    private long pendingSize;
+
+    ParallelZipArchiveOutputStreamAdapter(final ZipArchiveOutputStream zip, final int threads) {
+        super(zip);
+        this.service = new ForkJoinPool(threads);
+        this.maxPending = 2 * threads;
+    }
+
+    /**
+     * Returns an output stream which buffers the content of the given archive entry and compresses it in parallel.
+     * If the compression method is {@link ArchiveEntryOptions.Method#AUTO} and a sample of the content proves to be
+     * incompressible, then the content gets stored instead.
+     */
+    @Override
+    OutputStream open(final ZipArchiveEntry entry, final ArchiveEntryOptions options) {
+        if (!entry.isDirectory()) {
+            options.method().ifPresent(method -> entry.setMethod(STORED == method
+                    ? ZipArchiveOutputStream.STORED
+                    : ZipArchiveOutputStream.DEFLATED));
+        }
+        final int level = options.level().orElse(Deflater.DEFAULT_COMPRESSION);
+        final boolean auto = options.method().filter(AUTO::equals).isPresent();
+        final SpoolBackingStore content = new SpoolBackingStore();
+        return new FilterOutputStream(content.output()) {
+
+            boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    out.close();
+                    if (-1 == entry.getMethod()) {
+                        entry.setMethod(ZipArchiveOutputStream.DEFLATED);
+                    }
+                    enqueue(content.size(), service.submit(() -> compress(entry, level, auto, content)));
+                }
+            }
+        };
+    }
+
+    /**
+     * Compresses the given content of the given archive entry with the given compression level.
+     * If {@code auto} is {@code true} and a sample of the content proves to be incompressible, then the content gets
+     * stored instead.
+     */
+    private static Compressed compress(final ZipArchiveEntry entry, final int level, final boolean auto,
+                                       final SpoolBackingStore content) throws IOException {
+        try {
+            if (auto && !isCompressible(content)) {
+                entry.setMethod(ZipArchiveOutputStream.STORED);
+            }
+            final SpoolBackingStore store = new SpoolBackingStore();
+            final ScatterZipOutputStream scatter = new ScatterZipOutputStream(store,
+                    StreamCompressor.create(level, store));
+            try {
+                scatter.addArchiveEntry(createZipArchiveEntryRequest(entry, () -> {
+                    try {
+                        return content.getInputStream();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } catch (IOException | RuntimeException e) {
+                scatter.close();
+                throw e;
+            }
+            return new Compressed() {
+
+                public void writeTo(ZipArchiveOutputStream zip) throws IOException { scatter.writeTo(zip); }
+
+                public void close() throws IOException { scatter.close(); }
+            };
+        } finally {
+            content.close();
+        }
+    }
+
+    /** Returns {@code true} if and only if a sample from the start of the given content is compressible. */
+    private static boolean isCompressible(final SpoolBackingStore content) throws IOException {
+        final byte[] sample = new byte[(int) Math.min(content.size(), SAMPLE_SIZE)];
+        try (DataInputStream in = new DataInputStream(content.getInputStream())) {
+            in.readFully(sample);
+        }
+        return SamplingOutputStream.isCompressible(sample, 0, sample.length);
+    }
+
+    @Override
+    void copyRaw(final ZipArchiveEntrySource source) throws Exception {
+        final ZipArchiveEntry origin = source.entry();
+        final SpoolBackingStore raw = new SpoolBackingStore();
+        try {
+            copy(source::rawInput, () -> raw::output);
+        } catch (Exception e) {
+            raw.close();
+            throw e;
+        }
+        final Compressed compressed = new Compressed() {
+
+            public void writeTo(final ZipArchiveOutputStream zip) throws IOException {
+                try (InputStream in = raw.getInputStream()) {
+                    zip.addRawArchiveEntry(origin, in);
+                }
+            }
+
+            public void close() throws IOException { raw.close(); }
+        };
+        enqueue(raw.size(), service.submit(() -> compressed));
+    }
+
+    private void enqueue(final long size, final Future<Compressed> future) throws IOException {
+        pending.addLast(new Pending(size, future));
+        pendingSize += size;
+        while (!pending.isEmpty() && (maxPending < pending.size() || MAX_PENDING_SIZE < pendingSize ||
+                pending.getFirst().future.isDone())) {
+            gather();
+        }
+    }
+
+    private void gather() throws IOException {
+        final Pending p = pending.removeFirst();
+        pendingSize -= p.size;
+        try (Compressed compressed = p.get()) {
+            compressed.writeTo(zip);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            try {
+                while (!pending.isEmpty()) {
+                    gather();
+                }
+            } finally {
+                try {
+                    discard();
+                } finally {
+                    super.close();
+                }
+            }
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
+    /** Waits for any pending archive entries after a failure and deletes their buffers. */
+    private void discard() throws IOException {
+        for (Pending p; null != (p = pending.pollFirst()); ) {
+            final Compressed compressed;
+            try {
+                compressed = p.get();
+            } catch (IOException e) {
+                continue; // The worker thread has deleted its buffers already.
+            }
+            compressed.close();
+        }
+    }
+
+    /** A pending archive entry with the given size of its content. */
+    private static final class Pending {
+
+        final long size;
+
+        final Future<Compressed> future;
+
+        Pending(final long size, final Future<Compressed> future) {
+            this.size = size;
+            this.future = future;
+        }
+
+        Compressed get() throws IOException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * An archive entry with its compressed content, ready to get written to the ZIP archive output stream.
+     * Closing it deletes its buffers.
+     */
+    private interface Compressed extends Closeable {
+
+        void writeTo(ZipArchiveOutputStream zip) throws IOException;
+    }
+}
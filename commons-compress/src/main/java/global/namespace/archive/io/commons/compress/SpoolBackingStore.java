@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress;
+
+import global.namespace.fun.io.api.Store;
+import org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore;
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * A scatter gather backing store which holds up to {@value #THRESHOLD} bytes in memory and spills any more to a
+ * {@link FileBasedScatterGatherBackingStore}.
+ * Closing it deletes the temporary file, if any.
+ *
+ * @author Christian Schlichtherle
+ */
+final class SpoolBackingStore implements ScatterGatherBackingStore {
+
+    /** The maximum number of bytes to hold in memory, which is {@value}. */
+    static final int THRESHOLD = 1 << 20;
+
+    private Buffer memory = new Buffer();
+
+    private ScatterGatherBackingStore file;
+
+    private long size;
+
+    /** Returns the number of bytes written to this backing store. */
+    long size() { return size; }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return null == file ? memory.input() : file.getInputStream();
+    }
+
+    @Override
+    public void writeOut(final byte[] data, final int offset, final int length) throws IOException {
+        if (null == file && THRESHOLD - length < size) {
+            file = new FileBasedScatterGatherBackingStore(Files.createTempFile("spool", null).toFile());
+            file.writeOut(memory.buf(), 0, memory.size());
+            memory = null;
+        }
+        if (null == file) {
+            memory.write(data, offset, length);
+        } else {
+            file.writeOut(data, offset, length);
+        }
+        size += length;
+    }
+
+    @Override
+    public void closeForWriting() throws IOException {
+        if (null != file) {
+            file.closeForWriting();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        memory = null;
+        if (null != file) {
+            file.close();
+        }
+    }
+
+    /** Returns an output stream which writes to this backing store and closes it for writing when closed. */
+    OutputStream output() {
+        return new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException { write(new byte[] { (byte) b }, 0, 1); }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException { writeOut(b, off, len); }
+
+            @Override
+            public void close() throws IOException { closeForWriting(); }
+        };
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() { super(Store.BUFSIZE); }
+
+        byte[] buf() { return buf; }
+
+        InputStream input() { return new ByteArrayInputStream(buf, 0, count); }
+    }
+}
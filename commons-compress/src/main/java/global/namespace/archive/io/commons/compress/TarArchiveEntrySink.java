@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress;
+
+import global.namespace.archive.io.api.ArchiveEntrySink;
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+
+/**
+ * Supports writing the content of an underlying TAR archive entry with the header of another TAR archive entry.
+ *
+ * @author Christian Schlichtherle
+ */
+abstract class TarArchiveEntrySink extends ArchiveEntrySink<TarArchiveEntry> {
+
+    abstract void copyFrom(ArchiveEntrySource<TarArchiveEntry> source) throws Exception;
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress;
+
+import global.namespace.archive.io.api.ArchiveEntrySink;
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.fun.io.api.Socket;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static global.namespace.fun.io.bios.BIOS.copy;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Adapts a {@link TarArchiveOutputStream} to an {@link ArchiveFileOutput}.
+ * Because the header of a TAR archive entry contains the size of its content, the content gets spooled before writing
+ * it unless its size is known in advance.
+ * Up to {@value #SPOOL_THRESHOLD} bytes get spooled in memory, and more to a temporary file.
+ *
+ * @author Christian Schlichtherle
+ */
+final class TarArchiveOutputStreamAdapter implements ArchiveFileOutput<TarArchiveEntry> {
+
+    static final int SPOOL_THRESHOLD = 1 << 20;
+
+    private final TarArchiveOutputStream tar;
+
+    TarArchiveOutputStreamAdapter(final TarArchiveOutputStream tar) {
+        this.tar = requireNonNull(tar);
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tar.setAddPaxHeadersForNonAsciiNames(true);
+    }
+
+    /** Returns {@code false}. */
+    public boolean isJar() { return false; }
+
+    public ArchiveEntrySink<TarArchiveEntry> sink(final String name) {
+        final TarArchiveEntry entry = new TarArchiveEntry(name);
+        return new TarArchiveEntrySink() {
+
+            public String name() { return entry.getName(); }
+
+            public boolean isDirectory() { return entry.isDirectory(); }
+
+            public TarArchiveEntry entry() { return entry; }
+
+            public Socket<OutputStream> output() {
+                return () -> {
+                    if (entry.isDirectory()) {
+                        entry.setSize(0);
+                        return open(entry);
+                    } else {
+                        return new SpoolOutputStream(entry);
+                    }
+                };
+            }
+
+            void copyFrom(final ArchiveEntrySource<TarArchiveEntry> source) throws Exception {
+                final TarArchiveEntry origin = source.entry();
+                if (origin.getName().equals(entry.getName())) {
+                    copy(source, () -> () -> open(origin));
+                } else {
+                    copy(source, this);
+                }
+            }
+        };
+    }
+
+    /** Returns an output stream for writing the content of the given archive entry. */
+    private OutputStream open(TarArchiveEntry entry) throws IOException {
+        tar.putArchiveEntry(entry);
+        return new FilterOutputStream(tar) {
+
+            boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    ((TarArchiveOutputStream) out).closeArchiveEntry(); // not idempotent!
+                }
+            }
+        };
+    }
+
+    /** Spools the content of an archive entry and writes it upon closing this output stream. */
+    private final class SpoolOutputStream extends OutputStream {
+
+        final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+
+        final TarArchiveEntry entry;
+
+        Path file;
+
+        OutputStream out = memory;
+
+        long size;
+
+        boolean closed;
+
+        SpoolOutputStream(final TarArchiveEntry entry) { this.entry = entry; }
+
+        @Override
+        public void write(int b) throws IOException { write(new byte[] { (byte) b }, 0, 1); }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (null == file && SPOOL_THRESHOLD - len < size) {
+                file = Files.createTempFile(null, null);
+                out = Files.newOutputStream(file);
+                memory.writeTo(out);
+                memory.reset();
+            }
+            out.write(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    out.close();
+                    entry.setSize(size);
+                    try (OutputStream out = open(entry)) {
+                        if (null == file) {
+                            memory.writeTo(out);
+                        } else {
+                            Files.copy(file, out);
+                        }
+                    }
+                } finally {
+                    if (null != file) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException { tar.close(); }
+}
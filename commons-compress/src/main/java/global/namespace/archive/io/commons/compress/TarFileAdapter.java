@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress;
+
+import global.namespace.archive.io.api.ArchiveEntrySink;
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.archive.io.api.ArchiveFileInput;
+import global.namespace.fun.io.api.Socket;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.*;
+
+import static global.namespace.fun.io.bios.BIOS.copy;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Adapts a TAR file or a gzip compressed TAR file to an {@link ArchiveFileInput}.
+ * Upon construction, the headers of the archive entries get scanned once in order to build an index of the offsets of
+ * their content.
+ * For a TAR file, the content gets skipped without reading it, so scanning is fast even for large TAR files.
+ * Afterwards, the content of each archive entry gets read from its offset using positional reads of the file channel,
+ * so the archive entries can get read in any order and concurrently.
+ * For a gzip compressed TAR file, scanning inflates the entire file once in order to build a {@link GzipIndex} of
+ * checkpoints.
+ * Afterwards, the content of each archive entry gets inflated from the last checkpoint before its offset, so reading
+ * an archive entry inflates up to {@value GzipIndex#SPAN} bytes of preceding content, but never the entire file.
+ *
+ * @author Christian Schlichtherle
+ */
+final class TarFileAdapter implements ArchiveFileInput<TarArchiveEntry> {
+
+    private final Map<String, ArchiveEntrySource<TarArchiveEntry>> sources = new LinkedHashMap<>();
+
+    private final FileChannel channel;
+
+    private final GzipIndex index;
+
+    /** Returns an archive file input for the given TAR file. */
+    static TarFileAdapter open(Path file) throws IOException {
+        return new TarFileAdapter(FileChannel.open(file, READ), false);
+    }
+
+    /** Returns an archive file input for the given gzip compressed TAR file. */
+    static TarFileAdapter inflate(Path file) throws IOException {
+        return new TarFileAdapter(FileChannel.open(file, READ), true);
+    }
+
+    private TarFileAdapter(final FileChannel channel, final boolean gzip) throws IOException {
+        this.channel = requireNonNull(channel);
+        try {
+            this.index = gzip ? new GzipIndex(channel) : null;
+            final CountingInputStream in = new CountingInputStream(
+                    gzip ? index.scan() : new ChannelInputStream(0, channel.size()));
+            final TarArchiveInputStream tar = new TarArchiveInputStream(in);
+            for (TarArchiveEntry entry; null != (entry = tar.getNextTarEntry()); ) {
+                sources.put(entry.getName(), source(entry, in.position));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Iterator<ArchiveEntrySource<TarArchiveEntry>> iterator() {
+        return Collections.unmodifiableCollection(sources.values()).iterator();
+    }
+
+    @Override
+    public Spliterator<ArchiveEntrySource<TarArchiveEntry>> spliterator() {
+        return Spliterators.spliterator(sources.values().toArray(), Spliterator.ORDERED | Spliterator.DISTINCT |
+                Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /** Returns {@code true}. */
+    @Override
+    public boolean isConcurrent() { return true; }
+
+    @Override
+    public Optional<ArchiveEntrySource<TarArchiveEntry>> source(String name) {
+        return Optional.ofNullable(sources.get(name));
+    }
+
+    private ArchiveEntrySource<TarArchiveEntry> source(final TarArchiveEntry entry, final long offset) {
+        return new ArchiveEntrySource<TarArchiveEntry>() {
+
+            public String name() { return entry.getName(); }
+
+            public boolean isDirectory() { return entry.isDirectory(); }
+
+            public TarArchiveEntry entry() { return entry; }
+
+            public Socket<InputStream> input() {
+                final long end = offset + (entry.isFile() ? entry.getSize() : 0);
+                return null == index ? () -> new ChannelInputStream(offset, end) : () -> index.input(offset, end);
+            }
+
+            @Override
+            public OptionalLong size() { return OptionalLong.of(entry.isFile() ? entry.getSize() : 0); }
+
+            @Override
+            public OptionalLong time() { return OptionalLong.of(entry.getModTime().getTime()); }
+
+            public void copyTo(final ArchiveEntrySink<?> sink) throws Exception {
+                if (sink instanceof TarArchiveEntrySink) {
+                    ((TarArchiveEntrySink) sink).copyFrom(this);
+                } else {
+                    copy(this, sink);
+                }
+            }
+        };
+    }
+
+    /** Reads a range of the file channel using positional reads, so that it doesn't change its position. */
+    private final class ChannelInputStream extends InputStream {
+
+        long position;
+
+        final long end;
+
+        ChannelInputStream(final long start, final long end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return 1 == read(b, 0, 1) ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            if (end <= position) {
+                return -1;
+            }
+            final int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (0 < read) {
+                position += read;
+            }
+            return read;
+        }
+
+        /** Skips the given number of bytes without reading them. */
+        @Override
+        public long skip(final long n) {
+            final long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() { return (int) Math.min(end - position, Integer.MAX_VALUE); }
+    }
+
+    /** Counts the bytes read or skipped in order to tell the offset of the content of each archive entry. */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        long position;
+
+        CountingInputStream(InputStream in) { super(in); }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (0 <= b) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (0 < read) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = in.skip(n);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() { return false; }
+    }
+
+    @Override
+    public void close() throws IOException { channel.close(); }
+}
@@ -6,9 +6,12 @@ package global.namespace.archive.io.commons.compress;
 
 import global.namespace.archive.io.api.ArchiveEntrySource;
 import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Source;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 
 import java.io.InputStream;
+import java.util.Optional;
+import java.util.OptionalLong;
 
 /**
  * Supports writing the content of an underlying ZIP archive entry.
@@ -18,4 +21,18 @@ import java.io.InputStream;
 abstract class ZipArchiveEntrySource extends ArchiveEntrySource<ZipArchiveEntry> {
 
     abstract Socket<InputStream> rawInput();
+
+    @Override
+    public OptionalLong size() { return ifKnown(entry().getSize()); }
+
+    @Override
+    public OptionalLong crc() { return ifKnown(entry().getCrc()); }
+
+    @Override
+    public OptionalLong time() { return ifKnown(entry().getTime()); }
+
+    @Override
+    public Optional<Source> rawSource() { return Optional.of(this::rawInput); }
+
+    private static OptionalLong ifKnown(long value) { return -1 == value ? OptionalLong.empty() : OptionalLong.of(value); }
 }
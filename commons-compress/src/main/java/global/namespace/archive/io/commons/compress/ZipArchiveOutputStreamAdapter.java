@@ -4,36 +4,56 @@
  */
 package global.namespace.archive.io.commons.compress;
 
+import global.namespace.archive.io.api.ArchiveEntryOptions;
 import global.namespace.archive.io.api.ArchiveEntrySink;
 import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.archive.io.api.SamplingOutputStream;
 import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Store;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 
 import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.OptionalLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
+import static global.namespace.archive.io.api.SamplingOutputStream.isCompressible;
 import static global.namespace.fun.io.bios.BIOS.copy;
 import static java.util.Objects.requireNonNull;
 
 /**
  * Adapts a {@link ZipArchiveOutputStream} to an {@link ArchiveFileOutput}.
+ * Unless the ZIP archive output stream is seekable, the local file header of a stored archive entry must contain its
+ * size and CRC-32 checksum, so the content of a stored archive entry gets spooled to a
+ * {@linkplain SpoolBackingStore spool backing store} unless these are known in advance.
+ * If the compression method is {@link ArchiveEntryOptions.Method#AUTO} and a sample of the content proves to be
+ * incompressible, then the content gets stored if the ZIP archive output stream is seekable, the content fits into
+ * the sample or its size and CRC-32 checksum are known in advance.
+ * Otherwise, it gets deflated without compression, which is almost as fast as storing it.
  *
  * @author Christian Schlichtherle
  */
 class ZipArchiveOutputStreamAdapter implements ArchiveFileOutput<ZipArchiveEntry> {
 
-    private final ZipArchiveOutputStream zip;
+    final ZipArchiveOutputStream zip;
 
     ZipArchiveOutputStreamAdapter(final ZipArchiveOutputStream zip) { this.zip = requireNonNull(zip); }
 
     /** Returns {@code false}. */
     public boolean isJar() { return false; }
 
-    public ArchiveEntrySink<ZipArchiveEntry> sink(String name) { return sink(new ZipArchiveEntry(name)); }
+    public ArchiveEntrySink<ZipArchiveEntry> sink(String name) { return sink(name, ArchiveEntryOptions.none()); }
 
-    ZipArchiveEntrySink sink(ZipArchiveEntry entry) {
+    @Override
+    public ArchiveEntrySink<ZipArchiveEntry> sink(String name, ArchiveEntryOptions options) {
+        return sink(new ZipArchiveEntry(name), options);
+    }
+
+    ZipArchiveEntrySink sink(final ZipArchiveEntry entry, final ArchiveEntryOptions options) {
         return new ZipArchiveEntrySink() {
 
             public String name() { return entry.getName(); }
@@ -44,32 +64,21 @@ class ZipArchiveOutputStreamAdapter implements ArchiveFileOutput<ZipArchiveEntry
 
             public Socket<OutputStream> output() {
                 return () -> {
+                    options.time().ifPresent(entry::setTime);
                     if (entry.isDirectory()) {
                         entry.setMethod(ZipArchiveOutputStream.STORED);
                         entry.setSize(0);
                         entry.setCompressedSize(0);
                         entry.setCrc(0);
                     }
-                    zip.putArchiveEntry(entry);
-                    return new FilterOutputStream(zip) {
-
-                        boolean closed;
-
-                        @Override
-                        public void close() throws IOException {
-                            if (!closed) {
-                                closed = true;
-                                ((ZipArchiveOutputStream) out).closeArchiveEntry(); // not idempotent!
-                            }
-                        }
-                    };
+                    return open(entry, options);
                 };
             }
 
             void copyFrom(ZipArchiveEntrySource source) throws Exception {
                 final ZipArchiveEntry origin = source.entry();
                 if (origin.getName().equals(entry.getName())) {
-                    source.rawInput().accept(in -> zip.addRawArchiveEntry(origin, in));
+                    copyRaw(source);
                 } else {
                     copy(source, this);
                 }
@@ -77,6 +86,130 @@ class ZipArchiveOutputStreamAdapter implements ArchiveFileOutput<ZipArchiveEntry
         };
     }
 
+    /** Returns an output stream for writing the content of the given archive entry with the given options. */
+    OutputStream open(final ZipArchiveEntry entry, final ArchiveEntryOptions options) throws IOException {
+        if (entry.isDirectory()) {
+            return open(entry);
+        }
+        final int level = options.level().orElse(Deflater.DEFAULT_COMPRESSION);
+        final OptionalLong size = options.size(), crc = options.crc();
+        switch (options.method().orElse(ArchiveEntryOptions.Method.DEFLATED)) {
+            case STORED:
+                if (zip.isSeekable()) {
+                    return stored(entry);
+                } else if (size.isPresent() && crc.isPresent()) {
+                    return stored(entry, size.getAsLong(), crc.getAsLong());
+                } else {
+                    return buffered(entry);
+                }
+            case AUTO:
+                return new SamplingOutputStream() {
+
+                    protected OutputStream target(byte[] sample, int length, boolean complete) throws IOException {
+                        if (isCompressible(sample, 0, length)) {
+                            return deflated(entry, level);
+                        } else if (zip.isSeekable()) {
+                            return stored(entry);
+                        } else if (complete) {
+                            final CRC32 checksum = new CRC32();
+                            checksum.update(sample, 0, length);
+                            return stored(entry, length, checksum.getValue());
+                        } else if (size.isPresent() && crc.isPresent()) {
+                            return stored(entry, size.getAsLong(), crc.getAsLong());
+                        } else {
+                            return deflated(entry, Deflater.NO_COMPRESSION);
+                        }
+                    }
+                };
+            default:
+                return deflated(entry, level);
+        }
+    }
+
+    private OutputStream stored(final ZipArchiveEntry entry) throws IOException {
+        entry.setMethod(ZipArchiveOutputStream.STORED);
+        return open(entry);
+    }
+
+    private OutputStream stored(final ZipArchiveEntry entry, final long size, final long crc) throws IOException {
+        entry.setSize(size);
+        entry.setCrc(crc);
+        return stored(entry);
+    }
+
+    private OutputStream deflated(final ZipArchiveEntry entry, final int level) throws IOException {
+        entry.setMethod(ZipArchiveOutputStream.DEFLATED);
+        zip.setLevel(level);
+        return open(entry);
+    }
+
+    /**
+     * Returns an output stream which spools the content of the given archive entry while computing its CRC-32
+     * checksum and then stores it.
+     */
+    private OutputStream buffered(final ZipArchiveEntry entry) {
+        final SpoolBackingStore spool = new SpoolBackingStore();
+        return new OutputStream() {
+
+            final CRC32 crc = new CRC32();
+
+            boolean closed;
+
+            @Override
+            public void write(int b) throws IOException { write(new byte[] { (byte) b }, 0, 1); }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                spool.writeOut(b, off, len);
+                crc.update(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    try {
+                        spool.closeForWriting();
+                        final byte[] buffer = new byte[Store.BUFSIZE];
+                        try (InputStream in = spool.getInputStream();
+                             OutputStream out = stored(entry, spool.size(), crc.getValue())) {
+                            for (int read; -1 != (read = in.read(buffer)); ) {
+                                out.write(buffer, 0, read);
+                            }
+                        }
+                    } finally {
+                        spool.close();
+                    }
+                }
+            }
+        };
+    }
+
+    /** Returns an output stream for writing the content of the given archive entry. */
+    private OutputStream open(ZipArchiveEntry entry) throws IOException {
+        zip.putArchiveEntry(entry);
+        return new FilterOutputStream(zip) {
+
+            boolean closed;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    ((ZipArchiveOutputStream) out).closeArchiveEntry(); // not idempotent!
+                }
+            }
+        };
+    }
+
+    /** Copies the raw content of the given archive entry source without recompressing it. */
+    void copyRaw(ZipArchiveEntrySource source) throws Exception {
+        source.rawInput().accept(in -> zip.addRawArchiveEntry(source.entry(), in));
+    }
+
     @Override
     public void close() throws IOException { zip.close(); }
 }
@@ -13,9 +13,12 @@ import org.apache.commons.compress.archivers.zip.ZipFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
 
 import static global.namespace.fun.io.bios.BIOS.copy;
 import static java.util.Objects.requireNonNull;
@@ -42,6 +45,21 @@ final class ZipFileAdapter implements ArchiveFileInput<ZipArchiveEntry> {
         };
     }
 
+    /** Returns a sized spliterator. */
+    @Override
+    public Spliterator<ArchiveEntrySource<ZipArchiveEntry>> spliterator() {
+        return Spliterators.spliterator(Collections.list(zip.getEntries()).stream().map(this::source).toArray(),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT);
+    }
+
+    /**
+     * Returns {@code true}.
+     * The {@link ZipFile} reads the content of its archive entries using positional reads of its file channel and
+     * inflates it using a separate inflater for each input stream, so the archive entries can get read concurrently.
+     */
+    @Override
+    public boolean isConcurrent() { return true; }
+
     public Optional<ArchiveEntrySource<ZipArchiveEntry>> source(String name) {
         return Optional.ofNullable(zip.getEntry(name)).map(this::source);
     }
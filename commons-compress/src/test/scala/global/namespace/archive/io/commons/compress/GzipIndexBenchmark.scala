@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress
+
+import java.io.InputStream
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption.READ
+import java.util.zip.{Deflater, GZIPInputStream}
+
+import global.namespace.archive.io.commons.compress.GzipIndexSpec._
+
+/**
+ * Compares the time for scanning a gzip file with a gzip index to the time for inflating it with an inflater.
+ * The content is 64 MiB of real-world class files, stored or deflated with the default compression level.
+ * Run it with `sbt "commonsCompress/test:runMain global.namespace.archive.io.commons.compress.GzipIndexBenchmark"`.
+ *
+ * @author Christian Schlichtherle
+ */
+object GzipIndexBenchmark {
+
+  private val Size = 64 << 20
+
+  private val Rounds = 5
+
+  def main(args: Array[String]): Unit = {
+    val sample = realWorldContent
+    val content = Array.tabulate[Byte](Size)(i => sample(i % sample.length))
+    Seq(Deflater.NO_COMPRESSION, Deflater.DEFAULT_COMPRESSION) foreach { level =>
+      withGzipFileOf(content, level, Deflater.DEFAULT_STRATEGY, None) { file =>
+        val inflater = best(drain(new GZIPInputStream(Files.newInputStream(file), 1 << 16)))
+        val index = best {
+          val channel = FileChannel.open(file, READ)
+          try {
+            drain(new GzipIndex(channel).scan())
+          } finally {
+            channel.close()
+          }
+        }
+        println(f"level $level%2d: inflater $inflater%5d ms, gzip index $index%5d ms, " +
+          f"ratio ${index.toDouble / inflater}%.2f")
+      }
+    }
+  }
+
+  /** Returns the best time of the given number of rounds of the given block in milliseconds. */
+  private def best(block: => Unit): Long = {
+    (1 to Rounds).map { _ =>
+      val start = System.nanoTime
+      block
+      (System.nanoTime - start) / 1000000
+    }.min
+  }
+
+  private def drain(in: InputStream): Unit = {
+    try {
+      val buffer = new Array[Byte](1 << 16)
+      while (-1 != in.read(buffer)) {
+      }
+    } finally {
+      in.close()
+    }
+  }
+}
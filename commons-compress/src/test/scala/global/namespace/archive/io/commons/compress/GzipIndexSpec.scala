@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress
+
+import java.io.{ByteArrayOutputStream, InputStream}
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption.READ
+import java.nio.file.{Files, Path}
+import java.util.Random
+import java.util.zip.{Deflater, GZIPInputStream, GZIPOutputStream, Inflater, ZipException}
+
+import global.namespace.archive.io.commons.compress.GzipIndexSpec._
+import org.apache.commons.compress.compressors.gzip.{GzipCompressorOutputStream, GzipParameters}
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+
+/** @author Christian Schlichtherle */
+class GzipIndexSpec extends WordSpec {
+
+  "A gzip index" should {
+    "inflate any range of the content from a checkpoint" in {
+      withGzipFile { (file, content) =>
+        withIndex(file) { index =>
+          readAll(index.scan()) shouldBe content
+          val random = new Random(0)
+          val ranges = for (_ <- 1 to 100) yield {
+            val start = random nextInt content.length
+            start -> (start + random.nextInt(content.length - start + 1))
+          }
+          ranges foreach { case (start, end) =>
+            readAll(index.input(start, end)) shouldBe content.slice(start, end)
+          }
+          ranges.sorted foreach { case (start, end) =>
+            readAll(index.input(start, end)) shouldBe content.slice(start, end)
+          }
+          ranges.par foreach { case (start, end) =>
+            readAll(index.input(start, end)) shouldBe content.slice(start, end)
+          }
+        }
+      }
+    }
+
+    "inflate the same content as an inflater for real-world and random gzip files" in {
+      val random = new Random(0)
+      for {
+        level <- Seq(Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION,
+          Deflater.BEST_COMPRESSION)
+        strategy <- Seq(Deflater.DEFAULT_STRATEGY, Deflater.FILTERED, Deflater.HUFFMAN_ONLY)
+        content <- Seq(realWorldContent, randomContent(random))
+        flushes <- Seq(None, Some(random))
+      } {
+        withGzipFileOf(content, level, strategy, flushes) { file =>
+          val inflated = readAll(new GZIPInputStream(Files newInputStream file))
+          inflated shouldBe content
+          withIndex(file) { index =>
+            readAll(index.scan()) shouldBe inflated
+            for (_ <- 1 to 10) {
+              val start = random nextInt inflated.length
+              val end = start + random.nextInt(inflated.length - start + 1)
+              readAll(index.input(start, end)) shouldBe inflated.slice(start, end)
+            }
+          }
+        }
+      }
+    }
+
+    "detect a corrupt gzip file when scanning it" in {
+      withGzipFile { (file, _) =>
+        val bytes = Files readAllBytes file
+        bytes(bytes.length - 5) = (bytes(bytes.length - 5) ^ 1).toByte
+        Files.write(file, bytes)
+        withIndex(file) { index =>
+          intercept[ZipException] {
+            readAll(index.scan())
+          }
+        }
+      }
+    }
+  }
+}
+
+private object GzipIndexSpec {
+
+  /**
+   * Writes a gzip file with two members, where the first has a file name and a comment in its header.
+   * Flushing often yields many small deflate blocks with fixed and dynamic Huffman codes and stored blocks, both
+   * with compressible and incompressible content.
+   */
+  def withGzipFile(test: (Path, Array[Byte]) => Any): Unit = {
+    val random = new Random(0)
+    val text = ("Hello world!\n" * 20000).getBytes
+    val noise = new Array[Byte](100000)
+    random nextBytes noise
+    val file = Files.createTempFile("tmp", ".gz")
+    try {
+      val out = Files newOutputStream file
+      try {
+        val parameters = new GzipParameters
+        parameters setFilename "first"
+        parameters setComment "The first member."
+        val first = new GzipCompressorOutputStream(out, parameters) {
+          override def close(): Unit = finish()
+        }
+        first write text
+        first write noise
+        first.close()
+        val second = new GZIPOutputStream(out, true)
+        Seq(text, noise, text) foreach { b =>
+          b.grouped(1 + random.nextInt(5000)) foreach { chunk =>
+            second write chunk
+            second.flush()
+          }
+        }
+        second.finish()
+      } finally {
+        out.close()
+      }
+      test(file, text ++ noise ++ text ++ noise ++ text)
+    } finally {
+      Files delete file
+    }
+  }
+
+  /**
+   * Writes a gzip file with the given content using the given compression level and strategy.
+   * If a random number generator is given, then the content gets written in chunks of random size with a sync flush
+   * after each of them.
+   */
+  def withGzipFileOf(content: Array[Byte], level: Int, strategy: Int, flushes: Option[Random])
+                    (test: Path => Any): Unit = {
+    val file = Files.createTempFile("tmp", ".gz")
+    try {
+      val out = new GZIPOutputStream(Files.newOutputStream(file), true) {
+        `def` setLevel level
+        `def` setStrategy strategy
+      }
+      try {
+        flushes match {
+          case Some(random) =>
+            content grouped (1 + random.nextInt(100000)) foreach { chunk =>
+              out write chunk
+              out.flush()
+            }
+          case None =>
+            out write content
+        }
+      } finally {
+        out.close()
+      }
+      test(file)
+    } finally {
+      Files delete file
+    }
+  }
+
+  /** Returns the concatenated class files of some classes of the JRE, Scala and this project. */
+  def realWorldContent: Array[Byte] = {
+    Seq(classOf[String], classOf[java.util.HashMap[_, _]], classOf[Inflater], classOf[WordSpec], classOf[GzipIndex])
+      .map(c => readAll(c getResourceAsStream ("/" + c.getName.replace('.', '/') + ".class")))
+      .reduce(_ ++ _)
+  }
+
+  /** Returns about 500 KB of content which alternates between chunks of random bytes and of random text. */
+  def randomContent(random: Random): Array[Byte] = {
+    val alphabet = "abcdefgh \n".getBytes
+    val out = new ByteArrayOutputStream
+    while (out.size < 500000) {
+      val chunk = new Array[Byte](1 + random.nextInt(50000))
+      if (random.nextBoolean) {
+        random nextBytes chunk
+      } else {
+        chunk.indices foreach { i => chunk(i) = alphabet(random nextInt alphabet.length) }
+      }
+      out write chunk
+    }
+    out.toByteArray
+  }
+
+  def withIndex(file: Path)(test: GzipIndex => Any): Unit = {
+    val channel = FileChannel.open(file, READ)
+    try {
+      test(new GzipIndex(channel, 1000))
+    } finally {
+      channel.close()
+    }
+  }
+
+  def readAll(in: InputStream): Array[Byte] = {
+    try {
+      val out = new ByteArrayOutputStream
+      val buffer = new Array[Byte](1 + new Random().nextInt(10000))
+      Stream.continually(in read buffer).takeWhile(_ != -1).foreach(out.write(buffer, 0, _))
+      out.toByteArray
+    } finally {
+      in.close()
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress
+
+import java.io.OutputStream
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{Files, Path}
+
+import global.namespace.archive.io.api.ArchiveEntrySource
+import global.namespace.archive.io.commons.compress.TarFileAdapterSpec._
+import org.apache.commons.compress.archivers.tar.{TarArchiveEntry, TarArchiveOutputStream, TarConstants}
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+import org.scalatest.prop.TableDrivenPropertyChecks._
+
+import scala.collection.JavaConverters._
+
+/** @author Christian Schlichtherle */
+class TarFileAdapterSpec extends WordSpec {
+
+  "A TAR file adapter" should {
+    "index all entries and read the content of each file entry from its offset" in {
+      forAll(LongFileModes) { mode =>
+        forAll(Formats) { (suffix, compress, open) =>
+          withTempFile(suffix) { file =>
+            writeTo(file, mode, compress)
+            val input = open(file)
+            try {
+              input.asScala.map(_.name).toList shouldBe Entries.map(_.name)
+              // Read in reverse order to make sure that each entry gets read from its own offset:
+              Entries.reverse foreach { e =>
+                val source = input.source(e.name).get
+                source.isDirectory shouldBe e.isDirectory
+                source.size.getAsLong shouldBe e.content.length
+                contentOf(source) shouldBe e.content
+              }
+              input.source(Symlink.name).get.entry.getLinkName shouldBe "first"
+              input.isConcurrent shouldBe true
+              input.parallelStream.iterator.asScala.map(s => s.name -> contentOf(s)).toMap shouldBe
+                Entries.map(e => e.name -> e.content).toMap
+            } finally {
+              input.close()
+            }
+          }
+        }
+      }
+    }
+  }
+}
+
+private object TarFileAdapterSpec {
+
+  final case class Entry(name: String, content: String = "", kind: Byte = TarConstants.LF_NORMAL) {
+
+    def isDirectory: Boolean = TarConstants.LF_DIR == kind
+  }
+
+  val Symlink = Entry("link", kind = TarConstants.LF_SYMLINK)
+
+  /**
+   * The entries, including a name which requires a GNU long name or PAX header, a non-ASCII name which requires a PAX
+   * header and non-file entries, each followed by a file entry.
+   */
+  val Entries = List(
+    Entry("first", "Hello world!\n" * 100),
+    Entry(("long/" * 30) + "name", "Long name\n"),
+    Entry("dir/", kind = TarConstants.LF_DIR),
+    Entry("dir/file", "In dir\n" * 1000),
+    Symlink,
+    Entry("grüße", "Non-ASCII name\n"),
+    Entry("empty"),
+    Entry("last", "The end.\n" * 10)
+  )
+
+  val LongFileModes = Table("long file mode", TarArchiveOutputStream.LONGFILE_GNU, TarArchiveOutputStream.LONGFILE_POSIX)
+
+  val Formats = Table[String, OutputStream => OutputStream, Path => TarFileAdapter](
+    ("suffix", "compress", "open"),
+    (".tar", identity, TarFileAdapter.open),
+    (".tar.gz", new GzipCompressorOutputStream(_), TarFileAdapter.inflate)
+  )
+
+  def writeTo(file: Path, mode: Int, compress: OutputStream => OutputStream): Unit = {
+    val tar = new TarArchiveOutputStream(compress(Files newOutputStream file))
+    try {
+      tar setLongFileMode mode
+      tar setAddPaxHeadersForNonAsciiNames true
+      Entries foreach { e =>
+        val entry = new TarArchiveEntry(e.name, e.kind)
+        val content = e.content getBytes UTF_8
+        if (TarConstants.LF_NORMAL == e.kind) {
+          entry setSize content.length
+        } else if (TarConstants.LF_SYMLINK == e.kind) {
+          entry setLinkName "first"
+        }
+        tar putArchiveEntry entry
+        tar write content
+        tar closeArchiveEntry ()
+      }
+    } finally {
+      tar close ()
+    }
+  }
+
+  def contentOf(source: ArchiveEntrySource[TarArchiveEntry]): String = {
+    source applyReader { in =>
+      new String(Stream.continually(in.read).takeWhile(_ != -1).map(_.toByte).toArray, UTF_8)
+    }
+  }
+
+  def withTempFile(suffix: String)(test: Path => Any): Unit = {
+    val file = Files.createTempFile("tmp", suffix)
+    try {
+      test(file)
+    } finally {
+      Files delete file
+    }
+  }
+}
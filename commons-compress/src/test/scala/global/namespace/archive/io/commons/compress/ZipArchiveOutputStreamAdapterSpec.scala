@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.commons.compress
+
+import java.io.{File, FileOutputStream}
+import java.nio.channels.Channels
+import java.util.Random
+import java.util.zip.{ZipEntry, ZipFile}
+
+import global.namespace.archive.io.api.ArchiveEntryOptions.Method
+import global.namespace.archive.io.api.{ArchiveEntryOptions, ArchiveFileSink}
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+import org.scalatest.prop.TableDrivenPropertyChecks._
+
+import scala.collection.JavaConverters._
+
+/** @author Christian Schlichtherle */
+class ZipArchiveOutputStreamAdapterSpec extends WordSpec {
+
+  private val incompressible = {
+    val b = new Array[Byte](10000)
+    new Random(0) nextBytes b
+    b
+  }
+
+  private val compressible = ("Hello world!\n" * 10000).getBytes
+
+  private val auto = ArchiveEntryOptions.builder.method(Method.AUTO).build
+
+  "A ZIP file" when {
+    "writing archive entries with the AUTO compression method" should {
+      "store the incompressible ones and deflate the others" in {
+        val factories = Table[File => ArchiveFileSink[ZipArchiveEntry]]("archive file sink factory",
+          CommonsCompress.zip(_: File), CommonsCompress.parallelZip(_: File))
+        forAll(factories) { factory =>
+          val file = File.createTempFile("tmp", ".zip")
+          try {
+            factory(file) acceptWriter { output =>
+              output sink ("incompressible", auto) acceptWriter { _ write incompressible }
+              output sink ("compressible", auto) acceptWriter { _ write compressible }
+            }
+            val zip = new ZipFile(file)
+            try {
+              zip.getEntry("incompressible").getMethod shouldBe ZipEntry.STORED
+              zip.getEntry("compressible").getMethod shouldBe ZipEntry.DEFLATED
+            } finally {
+              zip.close()
+            }
+          } finally {
+            file.delete()
+          }
+        }
+      }
+    }
+
+    "writing stored archive entries of unknown size which exceed the spool threshold" should {
+      "spool them to temporary files and store them completely" in {
+        val large = {
+          val b = new Array[Byte](3 * SpoolBackingStore.THRESHOLD)
+          new Random(0) nextBytes b
+          b
+        }
+        val stored = ArchiveEntryOptions.builder.method(Method.STORED).build
+        val file = File.createTempFile("tmp", ".zip")
+        try {
+          CommonsCompress.zip(Channels newChannel new FileOutputStream(file)) acceptWriter { output =>
+            output sink ("large", stored) acceptWriter { _ write large }
+            output sink ("small", stored) acceptWriter { _ write compressible }
+          }
+          val zip = new ZipFile(file)
+          try {
+            zip.getEntry("large").getMethod shouldBe ZipEntry.STORED
+            zip.getEntry("small").getMethod shouldBe ZipEntry.STORED
+            contentOf(zip, "large") shouldBe large
+            contentOf(zip, "small") shouldBe compressible
+          } finally {
+            zip.close()
+          }
+        } finally {
+          file.delete()
+        }
+      }
+    }
+
+    "reading archive entries" should {
+      "provide a sized parallel stream of them" in {
+        val file = File.createTempFile("tmp", ".zip")
+        try {
+          CommonsCompress.zip(file) acceptWriter { output =>
+            output sink ("incompressible", auto) acceptWriter { _ write incompressible }
+            output sink ("compressible", auto) acceptWriter { _ write compressible }
+          }
+          CommonsCompress.zip(file) acceptReader { input =>
+            input.isConcurrent shouldBe true
+            input.spliterator.getExactSizeIfKnown shouldBe 2
+            input.parallelStream.isParallel shouldBe true
+            input.parallelStream.iterator.asScala.map(_.name).toSet shouldBe Set("incompressible", "compressible")
+          }
+        } finally {
+          file.delete()
+        }
+      }
+    }
+  }
+
+  private def contentOf(zip: ZipFile, name: String): Array[Byte] = {
+    val in = zip getInputStream (zip getEntry name)
+    try {
+      Stream.continually(in.read).takeWhile(_ != -1).map(_.toByte).toArray
+    } finally {
+      in.close()
+    }
+  }
+}
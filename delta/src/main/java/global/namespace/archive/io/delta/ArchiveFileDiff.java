@@ -8,17 +8,30 @@ import global.namespace.archive.io.api.*;
 import global.namespace.archive.io.delta.model.DeltaModel;
 import global.namespace.archive.io.delta.model.EntryNameAndDigestValue;
 import global.namespace.archive.io.delta.model.EntryNameAndTwoDigestValues;
+import global.namespace.archive.io.delta.model.EntryNamesAndDigestValue;
 import global.namespace.fun.io.api.Source;
+import global.namespace.fun.io.api.Store;
 import global.namespace.fun.io.api.function.XFunction;
 
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.TreeMap;
+import java.util.OptionalLong;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static global.namespace.archive.io.delta.Delta.encodeModel;
 import static global.namespace.archive.io.delta.MessageDigests.updateDigestFrom;
 import static global.namespace.archive.io.delta.MessageDigests.valueOf;
+import static global.namespace.fun.io.bios.BIOS.copy;
+import static global.namespace.fun.io.bios.BIOS.memory;
+import static global.namespace.fun.io.bios.BIOS.path;
+import static java.nio.file.Files.createTempFile;
 
 /**
  * Compares a base archive file to an update archive file and generates a delta archive file.
@@ -27,9 +40,54 @@ import static global.namespace.archive.io.delta.MessageDigests.valueOf;
  */
 abstract class ArchiveFileDiff<F, S, D> {
 
-    abstract MessageDigest digest();
+    /**
+     * The maximum number of binary deltas to encode concurrently.
+     * Encoding a binary delta may hold up to {@value BinaryDeltas#MAX_ENCODER_MEMORY} bytes on the heap, so this is
+     * limited to use at most half of the maximum heap size.
+     */
+    static final int MAX_ENCODERS = (int) Math.max(1,
+            Math.min(Runtime.getRuntime().maxMemory() / (2L * BinaryDeltas.MAX_ENCODER_MEMORY), 1 << 10));
 
-    abstract ArchiveFileSource<F> baseSource();
+    /**
+     * The maximum size of an entry in the update archive file for spooling its content in memory rather than in a
+     * temporary file when diffing in a single pass, which is {@value}.
+     */
+    static final long MEMORY_SPOOL_THRESHOLD = 1 << 20;
+
+    /**
+     * The maximum total size of the spools in memory, which is {@value}.
+     * Once it's reached, any further entries get spooled to temporary files until some spools in memory have been
+     * consumed.
+     */
+    static final long MEMORY_SPOOL_BUDGET = 64L << 20;
+
+    abstract Supplier<MessageDigest> digestFactory();
+
+    abstract Optional<Executor> executor();
+
+    abstract int parallelism();
+
+    abstract ComparisonPolicy comparisonPolicy();
+
+    abstract boolean singlePass();
+
+    abstract boolean binaryDeltas();
+
+    abstract boolean detectMoves();
+
+    abstract Optional<DigestCache> digestCache();
+
+    abstract Optional<String> baseIdentity();
+
+    abstract Optional<String> updateIdentity();
+
+    abstract ModelFormat modelFormat();
+
+    abstract Optional<DeltaModel> baseManifest();
+
+    abstract Function<String, ArchiveEntryOptions> entryOptions();
+
+    abstract Optional<ArchiveFileSource<F>> baseSource();
 
     abstract ArchiveFileSource<S> updateSource();
 
@@ -42,52 +100,184 @@ abstract class ArchiveFileDiff<F, S, D> {
         });
     }
 
-    private <T> T apply(XFunction<Engine, T> function) throws Exception {
-        return baseSource().applyReader(baseInput -> updateSource().applyReader(updateInput -> function.apply(
-                new Engine() {
+    private <T> T apply(final XFunction<Engine, T> function) throws Exception {
+        final Optional<Executor> executor = executor();
+        final int parallelism = parallelism();
+        try {
+            if (executor.isPresent() || 1 == parallelism) {
+                return apply(executor, function);
+            } else {
+                final ExecutorService service = new ForkJoinPool(parallelism);
+                try {
+                    return apply(Optional.of(service), function);
+                } finally {
+                    service.shutdownNow();
+                }
+            }
+        } finally {
+            final Optional<DigestCache> cache = digestCache();
+            if (cache.isPresent()) {
+                cache.get().flush();
+            }
+        }
+    }
 
-                    ArchiveFileInput<F> baseInput() { return baseInput; }
+    private <T> T apply(final Optional<Executor> executor, final XFunction<Engine, T> function) throws Exception {
+        if (baseManifest().isPresent()) {
+            return updateSource().applyReader(updateInput ->
+                    function.apply(engine(executor, Optional.empty(), updateInput)));
+        } else {
+            return baseSource().get().applyReader(baseInput -> updateSource().applyReader(updateInput ->
+                    function.apply(engine(executor, Optional.of(baseInput), updateInput))));
+        }
+    }
 
-                    ArchiveFileInput<S> updateInput() { return updateInput; }
-                }
-        )));
+    /**
+     * Returns an engine which uses the given executor, if any, unless any of the given archive file inputs is not
+     * {@linkplain ArchiveFileInput#isConcurrent() concurrent}.
+     */
+    private Engine engine(final Optional<Executor> anyExecutor,
+                          final Optional<ArchiveFileInput<F>> baseInput,
+                          final ArchiveFileInput<S> updateInput) {
+        final Optional<Executor> executor = updateInput.isConcurrent() &&
+                baseInput.map(ArchiveFileInput::isConcurrent).orElse(true) ? anyExecutor : Optional.empty();
+        return new Engine() {
+
+            Optional<Executor> executor() { return executor; }
+
+            Optional<ArchiveFileInput<F>> baseInput() { return baseInput; }
+
+            ArchiveFileInput<S> updateInput() { return updateInput; }
+        };
+    }
+
+    /** A task which may get executed on another thread. */
+    private interface Task {
+
+        void run() throws Exception;
     }
 
     private abstract class Engine {
 
-        abstract ArchiveFileInput<F> baseInput();
+        /** The sizes reserved for the spools in memory. */
+        final Map<Store, Long> memorySpools = new ConcurrentHashMap<>();
+
+        /** The total size reserved for the spools in memory. */
+        final AtomicLong memorySpoolSize = new AtomicLong();
+
+        /**
+         * Returns the executor for computing the message digests of archive entries, if any.
+         * If empty, then all message digests get computed on the calling thread.
+         */
+        abstract Optional<Executor> executor();
+
+        /** Returns the input for reading the base archive file, unless diffing against a base manifest. */
+        abstract Optional<ArchiveFileInput<F>> baseInput();
 
         abstract ArchiveFileInput<S> updateInput();
 
         void to(final ArchiveFileOutput<D> deltaOutput) throws Exception {
 
+            final Map<String, Store> spools = new ConcurrentHashMap<>();
+
             final class Streamer {
 
-                private final DeltaModel model = toModel();
+                private final DeltaModel model =
+                        singlePass() || binaryDeltas() ? toModel(Optional.of(spools)) : toModel();
 
-                private Streamer() throws Exception { encodeModel(deltaOutput, model); }
+                private Streamer() throws Exception {
+                    final String name = modelFormat().entryName();
+                    encodeModel(deltaOutput, model, modelFormat(), entryOptions().apply(name));
+                }
 
                 private void stream() throws Exception {
                     for (final ArchiveEntrySource<S> updateEntry : updateInput()) {
                         final String name = updateEntry.name();
                         if (changedOrAdded(name)) {
-                            updateEntry.copyTo(deltaOutput.sink(name));
+                            final Store spool = spools.remove(name);
+                            if (null != spool) {
+                                try {
+                                    copy(spool, sink(name));
+                                } finally {
+                                    delete(spool);
+                                }
+                            } else {
+                                updateEntry.copyTo(sink(name));
+                            }
                         }
                     }
                 }
 
+                private ArchiveEntrySink<D> sink(String name) {
+                    return deltaOutput.sink(name, entryOptions().apply(name));
+                }
+
                 private boolean changedOrAdded(String name) {
                     return null != model.changed(name) || null != model.added(name);
                 }
             }
 
-            new Streamer().stream();
+            try {
+                new Streamer().stream();
+            } finally {
+                for (final Store spool : spools.values()) {
+                    delete(spool);
+                }
+            }
+        }
+
+        /**
+         * Returns a new spool for the content of an entry in the update archive file with the given size, if known.
+         * The spool is in memory if the entry is small and the {@value #MEMORY_SPOOL_BUDGET} bytes for all spools in
+         * memory have not been used up yet, or otherwise in a temporary file.
+         */
+        Store spool(final OptionalLong size) throws Exception {
+            if (size.isPresent() && size.getAsLong() <= MEMORY_SPOOL_THRESHOLD) {
+                final long length = size.getAsLong();
+                for (long reserved; (reserved = memorySpoolSize.get()) <= MEMORY_SPOOL_BUDGET - length; ) {
+                    if (memorySpoolSize.compareAndSet(reserved, reserved + length)) {
+                        final Store spool = memory();
+                        memorySpools.put(spool, length);
+                        return spool;
+                    }
+                }
+            }
+            return path(createTempFile("spool", null));
         }
 
-        DeltaModel toModel() throws Exception {
-            final Assembly assembly = new Assembly();
+        /** Deletes the given spool and releases the size reserved for it if it's in memory. */
+        void delete(final Store spool) throws Exception {
+            try {
+                spool.delete();
+            } finally {
+                final Long length = memorySpools.remove(spool);
+                if (null != length) {
+                    memorySpoolSize.addAndGet(-length);
+                }
+            }
+        }
 
-            for (final ArchiveEntrySource<F> baseEntry : baseInput()) {
+        DeltaModel toModel() throws Exception { return toModel(Optional.empty()); }
+
+        /**
+         * Computes the delta model.
+         * If a map of spools is present, then it gets populated with the content to stream to the delta archive file
+         * for any changed or added entry in the update archive file:
+         * If diffing in a {@linkplain #singlePass() single pass}, then the content of each added entry and of each
+         * entry which may have changed gets copied to a spool while digesting it, so that it doesn't need to get read
+         * again.
+         * If encoding {@linkplain #binaryDeltas() binary deltas}, then the binary delta of each changed entry gets
+         * written to a spool if it's smaller than the entry.
+         */
+        DeltaModel toModel(final Optional<Map<String, Store>> spools) throws Exception {
+            final Assembly assembly = new Assembly(spools);
+
+            final Optional<ArchiveFileInput<F>> baseInput = baseInput();
+            if (!baseInput.isPresent()) {
+                return toModel(assembly, baseManifest().get());
+            }
+
+            for (final ArchiveEntrySource<F> baseEntry : baseInput.get()) {
                 if (!baseEntry.isDirectory()) {
                     final Optional<ArchiveEntrySource<S>> updateEntry = updateInput().source(baseEntry.name());
                     if (updateEntry.isPresent()) {
@@ -100,7 +290,7 @@ abstract class ArchiveFileDiff<F, S, D> {
 
             for (final ArchiveEntrySource<S> updateEntry : updateInput()) {
                 if (!updateEntry.isDirectory()) {
-                    final Optional<ArchiveEntrySource<F>> baseEntry = baseInput().source(updateEntry.name());
+                    final Optional<ArchiveEntrySource<F>> baseEntry = baseInput.get().source(updateEntry.name());
                     if (!baseEntry.isPresent()) {
                         assembly.visitEntryInUpdateFile(updateEntry);
                     }
@@ -110,28 +300,115 @@ abstract class ArchiveFileDiff<F, S, D> {
             return assembly.deltaModel();
         }
 
+        /**
+         * Computes the delta model using the message digest values from the given base manifest instead of reading
+         * the base archive file.
+         */
+        DeltaModel toModel(final Assembly assembly, final DeltaModel baseManifest) throws Exception {
+            final String algorithm = assembly.digests.get().getAlgorithm();
+            if (!algorithm.equals(baseManifest.digestAlgorithmName())) {
+                throw new IllegalArgumentException("The base manifest uses the message digest algorithm " +
+                        baseManifest.digestAlgorithmName() + ", but this diff uses " + algorithm + ".");
+            }
+            final Map<String, String> baseValues = digestValuesOf(baseManifest);
+
+            for (final Map.Entry<String, String> baseEntry : baseValues.entrySet()) {
+                final String name = baseEntry.getKey();
+                final Optional<ArchiveEntrySource<S>> updateEntry = updateInput().source(name);
+                if (updateEntry.isPresent()) {
+                    assembly.visitManifestEntryAndEntryInUpdateFile(baseEntry.getValue(), updateEntry.get());
+                } else {
+                    assembly.visitManifestEntry(name, baseEntry.getValue());
+                }
+            }
+
+            for (final ArchiveEntrySource<S> updateEntry : updateInput()) {
+                if (!updateEntry.isDirectory() && !baseValues.containsKey(updateEntry.name())) {
+                    assembly.visitEntryInUpdateFile(updateEntry);
+                }
+            }
+
+            return assembly.deltaModel();
+        }
+
+        /**
+         * Returns a map of the entry names to the message digest values of the entries in the update archive file
+         * described by the given delta model.
+         */
+        Map<String, String> digestValuesOf(final DeltaModel model) {
+            final Map<String, String> values = new HashMap<>();
+            for (final EntryNameAndDigestValue entry : model.unchangedEntries()) {
+                values.put(entry.name(), entry.digestValue());
+            }
+            for (final EntryNameAndTwoDigestValues entry : model.changedEntries()) {
+                values.put(entry.name(), entry.updateDigestValue());
+            }
+            for (final EntryNameAndDigestValue entry : model.addedEntries()) {
+                values.put(entry.name(), entry.digestValue());
+            }
+            for (final EntryNamesAndDigestValue entry : model.copiedEntries()) {
+                values.put(entry.name(), entry.digestValue());
+            }
+            return values;
+        }
+
         /**
          * A visitor of two archive files.
          * Note that the order of the calls to the visitor methods is undefined, so you should not depend on the
          * behavior of the current implementation in order to ensure compatibility with future versions.
+         * <p>
+         * If an {@linkplain #executor() executor} is present, then the visitor methods return before the archive
+         * entries have been digested.
+         * In this case, each worker thread uses its own message digest and the results get sorted into concurrent
+         * maps, so that the resulting delta model is the same as if all entries had been visited on the calling
+         * thread.
          */
         class Assembly {
 
-            final Map<String, EntryNameAndTwoDigestValues> changed = new TreeMap<>();
+            final Optional<Map<String, Store>> spools;
+
+            final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(digestFactory());
+
+            final List<CompletableFuture<Void>> tasks = new ArrayList<>();
+
+            final Map<String, EntryNameAndTwoDigestValues> changed = new ConcurrentSkipListMap<>();
 
             final Map<String, EntryNameAndDigestValue>
-                    unchanged = new TreeMap<>(),
-                    added = new TreeMap<>(),
-                    removed = new TreeMap<>();
+                    unchanged = new ConcurrentSkipListMap<>(),
+                    added = new ConcurrentSkipListMap<>(),
+                    removed = new ConcurrentSkipListMap<>();
 
-            DeltaModel deltaModel() {
+            final Map<String, EntryNamesAndDigestValue> copied = new ConcurrentSkipListMap<>();
+
+            Assembly(final Optional<Map<String, Store>> spools) { this.spools = spools; }
+
+            DeltaModel deltaModel() throws Exception {
+                awaitTasks();
+                if (detectMoves()) {
+                    detectCopies();
+                }
+                if (binaryDeltas() && spools.isPresent()) {
+                    final Semaphore encoders = new Semaphore(MAX_ENCODERS);
+                    for (final EntryNameAndTwoDigestValues entry : new ArrayList<>(changed.values())) {
+                        execute(() -> {
+                            encoders.acquire();
+                            try {
+                                encodeBinaryDelta(entry);
+                            } finally {
+                                encoders.release();
+                            }
+                        });
+                    }
+                    awaitTasks();
+                }
                 return DeltaModel
                         .builder()
-                        .messageDigest(digest())
+                        .messageDigest(digests.get())
                         .changedEntries(changed.values())
                         .unchangedEntries(unchanged.values())
                         .addedEntries(added.values())
                         .removedEntries(removed.values())
+                        .copiedEntries(copied.values())
                         .build();
             }
 
@@ -146,9 +423,42 @@ abstract class ArchiveFileDiff<F, S, D> {
                     throws Exception {
                 final String name = baseEntry.name();
                 assert name.equals(updateEntry.name());
-                final String baseValue = digestValueOf(baseEntry);
-                final String updateValue = digestValueOf(updateEntry);
+                execute(() -> {
+                    final String baseValue = baseDigestValueOf(baseEntry);
+                    final String updateValue = comparisonPolicy().provenEqual(baseEntry, updateEntry)
+                            ? baseValue
+                            : spooledDigestValueOf(updateEntry, !likelyEqual(baseEntry, updateEntry));
+                    compare(name, baseValue, updateValue);
+                });
+            }
+
+            /**
+             * Visits an entry in the base manifest and the archive entry with the equal name in the update archive
+             * file.
+             *
+             * @param baseValue the message digest value of the entry in the base manifest.
+             * @param updateEntry the source for reading the archive entry in the update archive file.
+             */
+            void visitManifestEntryAndEntryInUpdateFile(final String baseValue,
+                                                        final ArchiveEntrySource<S> updateEntry)
+                    throws Exception {
+                final String name = updateEntry.name();
+                execute(() -> compare(name, baseValue, spooledDigestValueOf(updateEntry, true)));
+            }
+
+            /**
+             * Visits an entry which is present in the base manifest, but not in the update archive file.
+             *
+             * @param name the entry name.
+             * @param baseValue the message digest value of the entry in the base manifest.
+             */
+            void visitManifestEntry(String name, String baseValue) {
+                removed.put(name, new EntryNameAndDigestValue(name, baseValue));
+            }
+
+            void compare(final String name, final String baseValue, final String updateValue) throws Exception {
                 if (baseValue.equals(updateValue)) {
+                    discardSpool(name);
                     unchanged.put(name, new EntryNameAndDigestValue(name, baseValue));
                 } else {
                     changed.put(name, new EntryNameAndTwoDigestValues(name, baseValue, updateValue));
@@ -162,7 +472,7 @@ abstract class ArchiveFileDiff<F, S, D> {
              */
             void visitEntryInBaseFile(final ArchiveEntrySource<F> baseEntry) throws Exception {
                 final String name = baseEntry.name();
-                removed.put(name, new EntryNameAndDigestValue(name, digestValueOf(baseEntry)));
+                execute(() -> removed.put(name, new EntryNameAndDigestValue(name, baseDigestValueOf(baseEntry))));
             }
 
             /**
@@ -172,15 +482,210 @@ abstract class ArchiveFileDiff<F, S, D> {
              */
             void visitEntryInUpdateFile(final ArchiveEntrySource<S> updateEntry) throws Exception {
                 final String name = updateEntry.name();
-                added.put(name, new EntryNameAndDigestValue(name, digestValueOf(updateEntry)));
+                execute(() -> added.put(name, new EntryNameAndDigestValue(name,
+                        spooledDigestValueOf(updateEntry, true))));
             }
 
             String digestValueOf(final Source source) throws Exception {
-                final MessageDigest digest = digest();
+                final MessageDigest digest = digests.get();
                 digest.reset();
                 updateDigestFrom(digest, source);
                 return valueOf(digest);
             }
+
+            /** Returns the message digest value of the given archive entry in the base archive file. */
+            String baseDigestValueOf(final ArchiveEntrySource<F> baseEntry) throws Exception {
+                return cachedDigestValueOf(baseIdentity(), baseEntry, () -> digestValueOf(baseEntry));
+            }
+
+            /**
+             * Returns the message digest value of the given archive entry in the update archive file.
+             * If spooling and the given flag is {@code true}, then its content gets copied to a new spool while
+             * digesting it, unless the value is cached.
+             * The spool is in memory if the entry is small and the budget for spools in memory allows it, or otherwise
+             * in a temporary file.
+             */
+            String spooledDigestValueOf(final ArchiveEntrySource<S> updateEntry, final boolean spool)
+                    throws Exception {
+                return cachedDigestValueOf(updateIdentity(), updateEntry,
+                        () -> spooledDigestValueOf0(updateEntry, spool));
+            }
+
+            private String spooledDigestValueOf0(final ArchiveEntrySource<S> updateEntry, final boolean spool)
+                    throws Exception {
+                if (!spool || !singlePass() || !spools.isPresent()) {
+                    return digestValueOf(updateEntry);
+                }
+                final Store store = spool(updateEntry.size());
+                spools.get().put(updateEntry.name(), store);
+                final MessageDigest digest = digests.get();
+                digest.reset();
+                updateDigestFrom(digest, updateEntry, store);
+                return valueOf(digest);
+            }
+
+            /**
+             * Returns {@code true} if the size and CRC-32 checksum of the given archive entries are known and equal, so
+             * their content is most likely equal, too.
+             * In this case, their content doesn't get spooled and if it's different after all, then the entry in the
+             * update archive file gets read again when writing the delta archive file.
+             */
+            boolean likelyEqual(final ArchiveEntrySource<F> baseEntry, final ArchiveEntrySource<S> updateEntry) {
+                final OptionalLong baseSize = baseEntry.size(), baseCrc = baseEntry.crc();
+                return baseSize.isPresent() && baseSize.equals(updateEntry.size()) &&
+                        baseCrc.isPresent() && baseCrc.equals(updateEntry.crc());
+            }
+
+            /**
+             * Returns the message digest value of the given archive entry from the digest cache, if any.
+             * Otherwise, the value gets computed by the given callable and put into the digest cache, if any.
+             * The digest cache only gets used if the identity of the archive file is present and the entry metadata is
+             * sufficient to detect any change of its content.
+             */
+            String cachedDigestValueOf(final Optional<String> archive,
+                                       final ArchiveEntrySource<?> entry,
+                                       final Callable<String> compute) throws Exception {
+                final Optional<DigestCache> cache = digestCache();
+                final OptionalLong size = entry.size(), crc = entry.crc(), time = entry.time();
+                if (!cache.isPresent() || !archive.isPresent() || !size.isPresent() ||
+                        !crc.isPresent() && !time.isPresent()) {
+                    return compute.call();
+                }
+                final DigestCache.Key key = new DigestCache.Key(archive.get(), entry.name(), size.getAsLong(), crc,
+                        time, digests.get().getAlgorithm());
+                final Optional<String> cached = cache.get().get(key);
+                if (cached.isPresent()) {
+                    return cached.get();
+                }
+                final String value = compute.call();
+                cache.get().put(key, value);
+                return value;
+            }
+
+            /**
+             * Moves any changed or added entries which have the same content as an entry with another name in the
+             * base archive file to the copied entries.
+             * If there is more than one such entry in the base archive file, then the one with the least name gets
+             * selected.
+             */
+            void detectCopies() throws Exception {
+                final Map<String, String> baseNames = new HashMap<>();
+                for (final EntryNameAndDigestValue entry : unchanged.values()) {
+                    baseNames.merge(entry.digestValue(), entry.name(), this::least);
+                }
+                for (final EntryNameAndTwoDigestValues entry : changed.values()) {
+                    baseNames.merge(entry.baseDigestValue(), entry.name(), this::least);
+                }
+                for (final EntryNameAndDigestValue entry : removed.values()) {
+                    baseNames.merge(entry.digestValue(), entry.name(), this::least);
+                }
+                for (final EntryNameAndTwoDigestValues entry : new ArrayList<>(changed.values())) {
+                    final String baseName = baseNames.get(entry.updateDigestValue());
+                    if (null != baseName) {
+                        putCopied(entry.name(), baseName, entry.updateDigestValue());
+                        changed.remove(entry.name());
+                    }
+                }
+                for (final EntryNameAndDigestValue entry : new ArrayList<>(added.values())) {
+                    final String baseName = baseNames.get(entry.digestValue());
+                    if (null != baseName) {
+                        putCopied(entry.name(), baseName, entry.digestValue());
+                        added.remove(entry.name());
+                    }
+                }
+            }
+
+            void putCopied(final String name, final String baseName, final String digestValue) throws Exception {
+                copied.put(name, new EntryNamesAndDigestValue(name, baseName, digestValue));
+                discardSpool(name);
+            }
+
+            /**
+             * Encodes a binary delta for the given changed entry to a new spool.
+             * If it's smaller than the entry in the update archive file, then it replaces any existing spool and the
+             * changed entry gets attributed accordingly.
+             * Otherwise, the new spool gets discarded.
+             * If the entry in the base or update archive file is known to be smaller than
+             * {@value BinaryDeltas#MIN_SIZE} bytes, then nothing gets encoded.
+             */
+            void encodeBinaryDelta(final EntryNameAndTwoDigestValues entry) throws Exception {
+                final String name = entry.name();
+                final Map<String, Store> spools = this.spools.get();
+                final ArchiveEntrySource<F> base =
+                        baseInput().get().source(name).orElseThrow(IllegalStateException::new);
+                final ArchiveEntrySource<S> updateEntry =
+                        updateInput().source(name).orElseThrow(IllegalStateException::new);
+                if (base.size().orElse(Long.MAX_VALUE) < BinaryDeltas.MIN_SIZE ||
+                        updateEntry.size().orElse(Long.MAX_VALUE) < BinaryDeltas.MIN_SIZE) {
+                    return;
+                }
+                final Store spool = spools.get(name);
+                final Source update = null != spool ? spool : updateEntry;
+                final Store delta = path(createTempFile("delta", null));
+                boolean encoded = false;
+                try {
+                    encoded = BinaryDeltas.encode(base, update, delta);
+                } finally {
+                    if (!encoded) {
+                        delta.delete();
+                    }
+                }
+                if (encoded) {
+                    spools.put(name, delta);
+                    if (null != spool) {
+                        delete(spool);
+                    }
+                    changed.put(name, new EntryNameAndTwoDigestValues(
+                            name, entry.baseDigestValue(), entry.updateDigestValue(), true));
+                }
+            }
+
+            /** Deletes the spool for the archive entry with the given name, if any. */
+            void discardSpool(final String name) throws Exception {
+                if (spools.isPresent()) {
+                    final Store spool = spools.get().remove(name);
+                    if (null != spool) {
+                        delete(spool);
+                    }
+                }
+            }
+
+            String least(String first, String second) { return first.compareTo(second) <= 0 ? first : second; }
+
+            /** Runs the given task on the executor, if any, or otherwise on the calling thread. */
+            void execute(final Task task) throws Exception {
+                final Optional<Executor> executor = executor();
+                if (executor.isPresent()) {
+                    tasks.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            task.run();
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }, executor.get()));
+                } else {
+                    task.run();
+                }
+            }
+
+            /**
+             * Waits until all tasks have completed.
+             * If any task has failed, then its exception gets rethrown.
+             */
+            void awaitTasks() throws Exception {
+                try {
+                    CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+                } catch (CompletionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    } else {
+                        throw e;
+                    }
+                } finally {
+                    tasks.clear();
+                }
+            }
         }
     }
 }
@@ -1,35 +1,247 @@
 package global.namespace.archive.io.delta;
 
+import global.namespace.archive.io.api.ArchiveEntryOptions;
+import global.namespace.archive.io.api.ArchiveFileInput;
 import global.namespace.archive.io.api.ArchiveFileSink;
 import global.namespace.archive.io.api.ArchiveFileSource;
 import global.namespace.archive.io.delta.model.DeltaModel;
+import global.namespace.fun.io.api.Sink;
 
 import java.security.MessageDigest;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static java.util.Optional.empty;
 
 /**
  * A builder for an archive file diff.
  * The default message digest is SHA-1.
+ * The default comparison policy is {@link ComparisonPolicy#FULL_DIGEST}.
+ * By default, all archive entries get digested on the calling thread.
  *
  * @author Christian Schlichtherle
  */
 @SuppressWarnings({"OptionalUsedAsFieldOrParameterType", "ConstantConditions"})
 public class ArchiveFileDiffBuilder {
 
-    private Optional<MessageDigest> digest = empty();
+    private Optional<Supplier<MessageDigest>> digestFactory = empty();
+
+    private Optional<Executor> executor = empty();
+
+    private int parallelism = 1;
+
+    private Optional<ComparisonPolicy> comparisonPolicy = empty();
+
+    private boolean singlePass, binaryDeltas, detectMoves;
+
+    private Optional<DigestCache> digestCache = empty();
+
+    private Optional<String> baseIdentity = empty(), updateIdentity = empty();
+
+    private Optional<ModelFormat> modelFormat = empty();
+
+    private Optional<DeltaModel> baseManifest = empty();
+
+    private Function<String, ArchiveEntryOptions> entryOptions = name -> ArchiveEntryOptions.none();
 
     private Optional<ArchiveFileSource<?>> base = empty(), update = empty();
 
     ArchiveFileDiffBuilder() { }
 
-    /** Returns this archive file diff builder with the given message digest. */
-    public ArchiveFileDiffBuilder digest(final MessageDigest digest) {
-        this.digest = Optional.of(digest);
+    /**
+     * Returns this archive file diff builder with the given message digest.
+     * When diffing in parallel, each worker thread uses its own copy of the given message digest.
+     */
+    public ArchiveFileDiffBuilder digest(MessageDigest digest) {
+        return digestFactory(MessageDigests.copiesOf(digest));
+    }
+
+    /**
+     * Returns this archive file diff builder with the given factory for message digests.
+     * The factory gets called at most once per worker thread and must return a new message digest for the same
+     * algorithm on each call.
+     */
+    public ArchiveFileDiffBuilder digestFactory(final Supplier<MessageDigest> digestFactory) {
+        this.digestFactory = Optional.of(digestFactory);
         return this;
     }
 
+    /**
+     * Returns this archive file diff builder with the given executor for digesting the archive entries in parallel.
+     * This only helps if the archive file inputs {@linkplain ArchiveFileInput#isConcurrent() are concurrent}, which is
+     * the case for the directories, memory stores and JAR, ZIP and TAR files provided by this project.
+     * Otherwise, the archive entries get read sequentially on the calling thread.
+     * The given executor takes precedence over any {@linkplain #parallelism(int) parallelism level}.
+     * It does not get shut down by the archive file diff.
+     */
+    public ArchiveFileDiffBuilder executor(final Executor executor) {
+        this.executor = Optional.of(executor);
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder with the given parallelism level for digesting the archive entries.
+     * If greater than one and no {@linkplain #executor(Executor) executor} has been set, then a thread pool of the
+     * given size gets created for each diff and shut down when it's done.
+     * As with an executor, this only helps if the archive file inputs
+     * {@linkplain ArchiveFileInput#isConcurrent() are concurrent}.
+     */
+    public ArchiveFileDiffBuilder parallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(parallelism + " < 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /** Returns this archive file diff builder with the given policy for comparing archive entries. */
+    public ArchiveFileDiffBuilder comparisonPolicy(final ComparisonPolicy comparisonPolicy) {
+        this.comparisonPolicy = Optional.of(comparisonPolicy);
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder which reads each entry in the update archive file at most once if and
+     * only if the given flag is {@code true}.
+     * When writing a delta archive file in a single pass, the content of each added entry and of each entry which may
+     * have changed gets copied to a spool while digesting it and then gets copied from there to the delta archive file.
+     * An entry may have changed unless its size and CRC-32 checksum are known and equal to the entry with the same name
+     * in the base archive file.
+     * If it has changed after all, then it gets read again.
+     * The spool is in memory for entries of up to 1 MiB as long as all spools in memory total no more than 64 MiB,
+     * and in a temporary file otherwise.
+     * This trades some memory and temporary disk space for not inflating the entry twice, which is beneficial if the
+     * update archive file is large and doesn't support copying raw entry data to the delta archive file.
+     * The default is {@code false}.
+     */
+    public ArchiveFileDiffBuilder singlePass(final boolean singlePass) {
+        this.singlePass = singlePass;
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder which encodes changed entries as binary deltas if and only if the given
+     * flag is {@code true}.
+     * A binary delta contains instructions for reconstructing the entry in the update archive file from the entry in
+     * the base archive file.
+     * It's only used if it's smaller than the entry in the update archive file, otherwise the entry gets copied in full
+     * as usual.
+     * Entries which are known to be smaller than 64 KiB in the base or update archive file get copied in full without
+     * trying.
+     * The entry in the base archive file gets read from a temporary file, unless it provides a file channel, e.g. for a
+     * file in a directory, and the entry in the update archive file gets streamed against an index of its blocks, so
+     * neither of them gets loaded into memory.
+     * An entry in the base archive file which is larger than 2 GiB can't be used for a binary delta, so the entry in
+     * the update archive file gets copied in full then.
+     * The number of binary deltas which get encoded concurrently is limited by the maximum heap size.
+     * The default is {@code false}.
+     */
+    public ArchiveFileDiffBuilder binaryDeltas(final boolean binaryDeltas) {
+        this.binaryDeltas = binaryDeltas;
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder which detects moved entries if and only if the given flag is {@code true}.
+     * If a changed or added entry in the update archive file has the same message digest as an entry with another
+     * name in the base archive file, then it's recorded as a <i>copied</i> entry in the delta model.
+     * Its content is not included in the delta archive file because it gets copied from the entry in the base archive
+     * file when patching.
+     * The default is {@code false}.
+     */
+    public ArchiveFileDiffBuilder detectMoves(final boolean detectMoves) {
+        this.detectMoves = detectMoves;
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder with the given cache for the message digest values of archive entries.
+     * The cache only gets used for the base and update archive file if their {@linkplain #baseIdentity(String) base}
+     * or {@linkplain #updateIdentity(String) update identity} has been set and only for archive entries with a known
+     * size and a known CRC-32 checksum or last modification time.
+     * For the archive entries which are found in the cache, the message digest values don't need to get computed
+     * again, so the time for diffing an archive file against many others scales with the size of the changes.
+     */
+    public ArchiveFileDiffBuilder digestCache(final DigestCache digestCache) {
+        this.digestCache = Optional.of(digestCache);
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder with the given identity of the base archive file for looking up its
+     * message digest values in the {@linkplain #digestCache(DigestCache) digest cache}, e.g. its canonical path.
+     */
+    public ArchiveFileDiffBuilder baseIdentity(final String baseIdentity) {
+        this.baseIdentity = Optional.of(baseIdentity);
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder with the given identity of the update archive file for looking up its
+     * message digest values in the {@linkplain #digestCache(DigestCache) digest cache}, e.g. its canonical path.
+     */
+    public ArchiveFileDiffBuilder updateIdentity(final String updateIdentity) {
+        this.updateIdentity = Optional.of(updateIdentity);
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder with the given format for encoding the delta model in the delta archive
+     * file.
+     * The default is {@link ModelFormat#JSON}.
+     */
+    public ArchiveFileDiffBuilder modelFormat(final ModelFormat modelFormat) {
+        this.modelFormat = Optional.of(modelFormat);
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder with the given digest manifest of the base archive file.
+     * If set, then the base archive file doesn't get read at all, which halves the I/O and enables generating a delta
+     * archive file without having the base archive file at hand.
+     * Instead, the entry names and message digest values of the base archive file get taken from the given delta
+     * model:
+     * The digest manifest is the set of all unchanged, changed, added and copied entries which the delta model
+     * describes for <em>its</em> update archive file.
+     * So the delta model of any earlier diff with the current base archive file as its update archive file can be used,
+     * e.g. the model of a delta archive file which has been saved with {@link Delta#encodeModel(Sink, DeltaModel)}.
+     * For a fresh digest manifest of an archive file, diff it against an empty delta model and use the result.
+     * <p>
+     * The given delta model must use the same message digest algorithm as this diff.
+     * Note that some features need the content of the base archive file, so a base manifest cannot get combined with
+     * {@linkplain #binaryDeltas(boolean) binary deltas} and the {@linkplain #comparisonPolicy(ComparisonPolicy)
+     * comparison policy} has no effect.
+     * The base manifest takes precedence over any base archive file.
+     */
+    public ArchiveFileDiffBuilder baseManifest(final DeltaModel baseManifest) {
+        this.baseManifest = Optional.of(baseManifest);
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder with the given function which maps the name of each entry in the delta
+     * archive file to the options for writing it, e.g. {@link ArchiveEntryOptions.Method#AUTO} for storing
+     * incompressible entries without compression.
+     * This applies to the delta model and to the changed and added entries, including any binary deltas.
+     * Entries which an archive entry source copies raw from the update archive file keep their compression method.
+     * Archive file outputs which don't support options simply ignore them.
+     * By default, no options are set.
+     */
+    public ArchiveFileDiffBuilder entryOptions(final Function<String, ArchiveEntryOptions> entryOptions) {
+        this.entryOptions = entryOptions;
+        return this;
+    }
+
+    /**
+     * Returns this archive file diff builder with the given options for writing each entry in the delta archive
+     * file.
+     */
+    public ArchiveFileDiffBuilder entryOptions(ArchiveEntryOptions entryOptions) {
+        return entryOptions(name -> entryOptions);
+    }
+
     /**
      * Returns this archive file diff builder with the given source for reading the base archive file.
      * This is an alias for {@link #base(ArchiveFileSource)}.
@@ -68,17 +280,60 @@ public class ArchiveFileDiffBuilder {
     public void to(ArchiveFileSink<?> delta) throws Exception { build().to(delta); }
 
     private ArchiveFileDiff build() {
-        return create(digest.orElseGet(MessageDigests::sha1), base.get(), update.get());
+        if (baseManifest.isPresent() && binaryDeltas) {
+            throw new IllegalStateException("Binary deltas need the base archive file, not a base manifest.");
+        }
+        final Optional<ArchiveFileSource<?>> base = baseManifest.isPresent() ? empty() : Optional.of(this.base.get());
+        return create(digestFactory.orElse(MessageDigests::sha1), executor, parallelism,
+                comparisonPolicy.orElse(ComparisonPolicy.FULL_DIGEST), singlePass, binaryDeltas, detectMoves,
+                digestCache, baseIdentity, updateIdentity, modelFormat.orElse(ModelFormat.JSON), baseManifest,
+                entryOptions, base, update.get());
     }
 
-    private static ArchiveFileDiff create(MessageDigest digest,
-                                          ArchiveFileSource<?> baseSource,
+    private static ArchiveFileDiff create(Supplier<MessageDigest> digestFactory,
+                                          Optional<Executor> executor,
+                                          int parallelism,
+                                          ComparisonPolicy comparisonPolicy,
+                                          boolean singlePass,
+                                          boolean binaryDeltas,
+                                          boolean detectMoves,
+                                          Optional<DigestCache> digestCache,
+                                          Optional<String> baseIdentity,
+                                          Optional<String> updateIdentity,
+                                          ModelFormat modelFormat,
+                                          Optional<DeltaModel> baseManifest,
+                                          Function<String, ArchiveEntryOptions> entryOptions,
+                                          Optional<ArchiveFileSource<?>> baseSource,
                                           ArchiveFileSource<?> updateSource) {
         return new ArchiveFileDiff() {
 
-            MessageDigest digest() { return digest; }
+            Supplier<MessageDigest> digestFactory() { return digestFactory; }
+
+            Optional<Executor> executor() { return executor; }
+
+            int parallelism() { return parallelism; }
+
+            ComparisonPolicy comparisonPolicy() { return comparisonPolicy; }
+
+            boolean singlePass() { return singlePass; }
+
+            boolean binaryDeltas() { return binaryDeltas; }
+
+            boolean detectMoves() { return detectMoves; }
+
+            Optional<DigestCache> digestCache() { return digestCache; }
+
+            Optional<String> baseIdentity() { return baseIdentity; }
+
+            Optional<String> updateIdentity() { return updateIdentity; }
+
+            ModelFormat modelFormat() { return modelFormat; }
+
+            Optional<DeltaModel> baseManifest() { return baseManifest; }
+
+            Function<String, ArchiveEntryOptions> entryOptions() { return entryOptions; }
 
-            ArchiveFileSource<?> baseSource() { return baseSource; }
+            Optional<ArchiveFileSource<?>> baseSource() { return baseSource; }
 
             ArchiveFileSource<?> updateSource() { return updateSource; }
         };
@@ -7,23 +7,47 @@ package global.namespace.archive.io.delta;
 import global.namespace.archive.io.api.*;
 import global.namespace.archive.io.delta.model.DeltaModel;
 import global.namespace.archive.io.delta.model.EntryNameAndDigestValue;
+import global.namespace.archive.io.delta.model.EntryNameAndTwoDigestValues;
+import global.namespace.archive.io.delta.model.EntryNamesAndDigestValue;
 import global.namespace.fun.io.api.Sink;
 import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Store;
 import global.namespace.fun.io.api.function.XConsumer;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 import static global.namespace.archive.io.delta.Delta.decodeModel;
+import static global.namespace.archive.io.delta.MessageDigests.forEachMappedRegion;
+import static global.namespace.archive.io.delta.MessageDigests.updateDigestFrom;
 import static global.namespace.archive.io.delta.MessageDigests.valueOf;
 import static global.namespace.fun.io.bios.BIOS.copy;
+import static global.namespace.fun.io.bios.BIOS.path;
+import static java.nio.file.Files.createTempFile;
 import static java.util.Arrays.asList;
 
 /**
@@ -33,18 +57,62 @@ import static java.util.Arrays.asList;
  */
 abstract class ArchiveFilePatch<F, D, S> {
 
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    /** The size of the blocks of written content which get digested on the background threads, which is {@value}. */
+    static final int BLOCK_SIZE = 1 << 16;
+
+    /** The maximum total size of the content of the pending background verifications, which is {@value}. */
+    static final long MAX_PENDING_SIZE = 64L << 20;
+
     abstract ArchiveFileSource<F> baseSource();
 
     abstract ArchiveFileSource<D> deltaSource();
 
+    abstract boolean streaming();
+
+    abstract boolean rawCopy();
+
+    abstract VerificationPolicy verificationPolicy();
+
+    abstract int parallelism();
+
+    abstract Function<String, ArchiveEntryOptions> entryOptions();
+
     void to(ArchiveFileSink<S> update) throws Exception {
         accept(engine -> update.acceptWriter(engine::to));
     }
 
+    /**
+     * Updates the given base archive file in place, which must be the source for reading the base archive file.
+     * Only the changed, added and copied entries get written and the removed entries get deleted.
+     */
+    void inPlace(final InPlaceArchiveFileStore<S> update) throws Exception {
+        accept(engine -> update.inPlaceOutput().accept(output -> {
+            engine.to(output);
+            output.commit();
+        }));
+    }
+
     private void accept(final XConsumer<Engine> consumer) throws Exception {
+        if (verificationPolicy().background() || rawCopy()) {
+            final ExecutorService service = new ForkJoinPool(parallelism());
+            try {
+                accept(Optional.of(service), consumer);
+            } finally {
+                service.shutdownNow();
+            }
+        } else {
+            accept(Optional.empty(), consumer);
+        }
+    }
+
+    private void accept(final Optional<ExecutorService> verifier, final XConsumer<Engine> consumer) throws Exception {
         baseSource().acceptReader(baseInput -> deltaSource().acceptReader(deltaInput -> consumer.accept(
                 new Engine() {
 
+                    Optional<ExecutorService> verifier() { return verifier; }
+
                     ArchiveFileInput<F> baseInput() { return baseInput; }
 
                     ArchiveFileInput<D> deltaInput() { return deltaInput; }
@@ -52,18 +120,79 @@ abstract class ArchiveFilePatch<F, D, S> {
         )));
     }
 
+    /**
+     * Applies the delta archive file.
+     * To limit the memory consumption, the writing thread waits for the oldest background verification whenever more
+     * than twice as many verifications as there are background threads or more than {@value #MAX_PENDING_SIZE} bytes
+     * of written content are pending.
+     */
     private abstract class Engine {
 
+        final Deque<Pending> pending = new ArrayDeque<>();
+
+        final int maxPending = 2 * parallelism();
+
+        long pendingSize;
+
         DeltaModel model;
 
+        String digestAlgorithmName;
+
+        abstract Optional<ExecutorService> verifier();
+
         abstract ArchiveFileInput<F> baseInput();
 
         abstract ArchiveFileInput<D> deltaInput();
 
         void to(final ArchiveFileOutput<S> updateOutput) throws Exception {
-            for (Predicate<String> filter : passFilters(updateOutput)) {
+            for (Predicate<String> filter : sequential()
+                    ? Collections.<Predicate<String>>singletonList(t -> true)
+                    : passFilters(updateOutput)) {
                 to(updateOutput, filter);
             }
+            awaitVerifications();
+        }
+
+        /**
+         * Returns {@code true} if and only if the delta archive file can only get read
+         * {@linkplain ArchiveFileInput#isSequential() sequentially}.
+         * Then its entries need to get applied in the order of the stream and the update archive file gets written in
+         * a single pass.
+         */
+        boolean sequential() { return deltaInput().isSequential(); }
+
+        /**
+         * Waits until all background verifications have completed.
+         * If any verification has failed, then its exception gets rethrown.
+         */
+        void awaitVerifications() throws IOException {
+            try {
+                while (!pending.isEmpty()) {
+                    gather();
+                }
+            } finally {
+                pending.clear();
+                pendingSize = 0;
+            }
+        }
+
+        /**
+         * Adds the given background verification with the given size of written content which it holds in memory and
+         * waits for the oldest ones while there are too many of them or they are done already.
+         */
+        void enqueue(final long size, final CompletableFuture<?> future) throws IOException {
+            pending.addLast(new Pending(size, future));
+            pendingSize += size;
+            while (!pending.isEmpty() && (maxPending < pending.size() || MAX_PENDING_SIZE < pendingSize ||
+                    pending.getFirst().future.isDone())) {
+                gather();
+            }
+        }
+
+        void gather() throws IOException {
+            final Pending p = pending.removeFirst();
+            pendingSize -= p.size;
+            p.join();
         }
 
         /**
@@ -84,7 +213,7 @@ abstract class ArchiveFilePatch<F, D, S> {
                 // Thus, by copying the unchanged entries before the changed
                 // entries, the directory entry "META-INF/" will always appear
                 // before the file entry "META-INF/MANIFEST.MF".
-                final Predicate<String> manifestFilter = "META-INF/MANIFEST.MF"::equals;
+                final Predicate<String> manifestFilter = MANIFEST_NAME::equals;
                 return asList(manifestFilter, manifestFilter.negate());
             } else {
                 return Collections.singletonList(t -> true);
@@ -93,35 +222,181 @@ abstract class ArchiveFilePatch<F, D, S> {
 
         void to(final ArchiveFileOutput<S> updateOutput, final Predicate<String> filter) throws Exception {
 
+            final boolean inPlace = updateOutput instanceof InPlaceArchiveFileOutput;
+
             class MyArchiveEntrySink implements Sink {
 
                 private final EntryNameAndDigestValue entryNameAndDigest;
 
-                MyArchiveEntrySink(final EntryNameAndDigestValue entryNameAndDigest) {
+                private final boolean digest;
+
+                private final OptionalLong checksum;
+
+                private final Optional<Function<Throwable, IOException>> background;
+
+                /**
+                 * Constructs a sink which verifies the message digest of the written content if and only if
+                 * {@code digest} is {@code true} and its CRC-32 checksum if and only if {@code checksum} is present.
+                 */
+                MyArchiveEntrySink(EntryNameAndDigestValue entryNameAndDigest,
+                                   boolean digest,
+                                   OptionalLong checksum) {
+                    this(entryNameAndDigest, digest, checksum, Optional.empty());
+                }
+
+                /**
+                 * Constructs a sink which verifies the written content like the other constructor, but tees it in
+                 * blocks to the background threads and wraps any verification failure with the given function.
+                 */
+                MyArchiveEntrySink(EntryNameAndDigestValue entryNameAndDigest,
+                                   boolean digest,
+                                   OptionalLong checksum,
+                                   Function<Throwable, IOException> ioException) {
+                    this(entryNameAndDigest, digest, checksum, Optional.of(ioException));
+                }
+
+                private MyArchiveEntrySink(final EntryNameAndDigestValue entryNameAndDigest,
+                                           final boolean digest,
+                                           final OptionalLong checksum,
+                                           final Optional<Function<Throwable, IOException>> background) {
                     assert null != entryNameAndDigest;
                     this.entryNameAndDigest = entryNameAndDigest;
+                    this.digest = digest;
+                    this.checksum = checksum;
+                    this.background = background;
                 }
 
                 @Override
                 public Socket<OutputStream> output() {
-                    return updateOutput.sink(entryNameAndDigest.name()).output().map(out -> {
-                        final MessageDigest digest = digest();
-                        digest.reset();
-                        return new DigestOutputStream(out, digest) {
+                    final Socket<OutputStream> output = sink(updateOutput, entryNameAndDigest.name()).output();
+                    if (!digest && !checksum.isPresent()) {
+                        return output;
+                    }
+                    return output.map(out -> {
+                        final Optional<MessageDigest> digest = this.digest ? Optional.of(digest()) : Optional.empty();
+                        final Optional<CRC32> crc = checksum.isPresent() ? Optional.of(new CRC32()) : Optional.empty();
+                        if (background.isPresent()) {
+                            return new BackgroundVerifyingOutputStream(out, digest, crc, background.get());
+                        }
+                        return new FilterOutputStream(out) {
+
+                            @Override
+                            public void write(int b) throws IOException {
+                                out.write(b);
+                                digest.ifPresent(d -> d.update((byte) b));
+                                crc.ifPresent(c -> c.update(b));
+                            }
+
+                            @Override
+                            public void write(byte[] b, int off, int len) throws IOException {
+                                out.write(b, off, len);
+                                digest.ifPresent(d -> d.update(b, off, len));
+                                crc.ifPresent(c -> c.update(b, off, len));
+                            }
 
                             @Override
                             public void close() throws IOException {
                                 super.close();
-                                if (!valueOfDigest().equals(entryNameAndDigest.digestValue())) {
-                                    throw new WrongMessageDigestException(entryNameAndDigest.name());
-                                }
+                                check(digest, crc);
                             }
-
-                            String valueOfDigest() { return valueOf(digest); }
                         };
                     });
                 }
 
+                void check(final Optional<MessageDigest> digest, final Optional<CRC32> crc)
+                        throws WrongMessageDigestException, WrongChecksumException {
+                    final String name = entryNameAndDigest.name();
+                    if (digest.isPresent() && !valueOf(digest.get()).equals(entryNameAndDigest.digestValue())) {
+                        throw new WrongMessageDigestException(name);
+                    }
+                    if (crc.isPresent() && crc.get().getValue() != checksum.getAsLong()) {
+                        throw new WrongChecksumException(name);
+                    }
+                }
+
+                /**
+                 * Tees the written content in blocks to a chain of tasks on the background threads, which update the
+                 * message digest and CRC-32 checksum in order and finally check them.
+                 */
+                final class BackgroundVerifyingOutputStream extends FilterOutputStream {
+
+                    final Optional<MessageDigest> digest;
+
+                    final Optional<CRC32> crc;
+
+                    final Function<Throwable, IOException> ioException;
+
+                    CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+
+                    byte[] block = new byte[BLOCK_SIZE];
+
+                    int length;
+
+                    BackgroundVerifyingOutputStream(final OutputStream out,
+                                                    final Optional<MessageDigest> digest,
+                                                    final Optional<CRC32> crc,
+                                                    final Function<Throwable, IOException> ioException) {
+                        super(out);
+                        this.digest = digest;
+                        this.crc = crc;
+                        this.ioException = ioException;
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                        if (BLOCK_SIZE == length) {
+                            submit();
+                        }
+                        block[length++] = (byte) b;
+                    }
+
+                    @Override
+                    public void write(final byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                        while (0 < len) {
+                            if (BLOCK_SIZE == length) {
+                                submit();
+                            }
+                            final int n = Math.min(len, BLOCK_SIZE - length);
+                            System.arraycopy(b, off, block, length, n);
+                            length += n;
+                            off += n;
+                            len -= n;
+                        }
+                    }
+
+                    void submit() throws IOException {
+                        final byte[] block = this.block;
+                        final int length = this.length;
+                        this.block = new byte[BLOCK_SIZE];
+                        this.length = 0;
+                        enqueue(length, chain = chain.thenRunAsync(() -> {
+                            digest.ifPresent(d -> d.update(block, 0, length));
+                            crc.ifPresent(c -> c.update(block, 0, length));
+                        }, verifier().get()));
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        if (null == block) {
+                            return;
+                        }
+                        final byte[] block = this.block;
+                        final int length = this.length;
+                        this.block = null;
+                        enqueue(length, chain.thenRunAsync(() -> {
+                            digest.ifPresent(d -> d.update(block, 0, length));
+                            crc.ifPresent(c -> c.update(block, 0, length));
+                            try {
+                                check(digest, crc);
+                            } catch (WrongMessageDigestException | WrongChecksumException e) {
+                                throw new CompletionException(ioException.apply(e));
+                            }
+                        }, verifier().get()));
+                    }
+                }
             }
 
             abstract class Patch<E> {
@@ -132,20 +407,103 @@ abstract class ArchiveFilePatch<F, D, S> {
 
                 final void apply(final Collection<EntryNameAndDigestValue> collection) throws Exception {
                     for (final EntryNameAndDigestValue entryNameAndDigestValue : collection) {
-                        final String name = entryNameAndDigestValue.name();
-                        if (filter.test(name)) {
-                            final Optional<ArchiveEntrySource<E>> entry = input().source(name);
-                            try {
-                                copy(
-                                        entry.orElseThrow(() -> ioException(new MissingArchiveEntryException(name))),
-                                        new MyArchiveEntrySink(entryNameAndDigestValue)
-                                );
-                            } catch (WrongMessageDigestException e) {
-                                throw ioException(e);
-                            }
+                        apply(entryNameAndDigestValue.name(), entryNameAndDigestValue);
+                    }
+                }
+
+                final void applyCopies(final Collection<EntryNamesAndDigestValue> collection) throws Exception {
+                    for (final EntryNamesAndDigestValue entryNamesAndDigestValue : collection) {
+                        apply(entryNamesAndDigestValue.baseName(), new EntryNameAndDigestValue(
+                                entryNamesAndDigestValue.name(), entryNamesAndDigestValue.digestValue()));
+                    }
+                }
+
+                /**
+                 * Transfers the content of the archive entry with the given source name in the input to the archive
+                 * entry with the given name in the update archive file and verifies its message digest.
+                 */
+                final void apply(final String sourceName, final EntryNameAndDigestValue entryNameAndDigestValue)
+                        throws Exception {
+                    if (filter.test(entryNameAndDigestValue.name())) {
+                        final Optional<ArchiveEntrySource<E>> entry = input().source(sourceName);
+                        apply(entry.orElseThrow(() -> ioException(new MissingArchiveEntryException(sourceName))),
+                                entryNameAndDigestValue);
+                    }
+                }
+
+                /**
+                 * Transfers the content of the given archive entry source to the archive entry with the given name in
+                 * the update archive file and verifies its message digest.
+                 */
+                final void apply(final ArchiveEntrySource<E> source,
+                                 final EntryNameAndDigestValue entryNameAndDigestValue) throws Exception {
+                    try {
+                        transfer(source, entryNameAndDigestValue);
+                    } catch (WrongMessageDigestException | WrongChecksumException e) {
+                        throw ioException(e);
+                    }
+                }
+
+                /**
+                 * Transfers the content of the given archive entry source to the archive entry with the given name in
+                 * the update archive file and verifies it according to the verification policy.
+                 * If raw copying is enabled, then the archive entry source copies itself, which may transfer its raw
+                 * data without decompressing and compressing it again, and then its content gets read again to
+                 * verify its message digest, if required.
+                 * Its CRC-32 checksum gets copied along with its raw data, so it's not worth reading it again just to
+                 * check this.
+                 * If verifying in the background, then the written content gets teed to the background threads.
+                 */
+                void transfer(final ArchiveEntrySource<E> source,
+                              final EntryNameAndDigestValue entryNameAndDigestValue) throws Exception {
+                    final VerificationPolicy policy = verificationPolicy();
+                    final boolean digest = policy.digest(fromDelta());
+                    final OptionalLong checksum = policy.checksum(fromDelta(), rawCopy())
+                            ? source.crc()
+                            : OptionalLong.empty();
+                    if (rawCopy()) {
+                        source.copyTo(sink(updateOutput, entryNameAndDigestValue.name()));
+                        if (digest) {
+                            verifyAgain(source, entryNameAndDigestValue, true, checksum);
                         }
+                    } else if (verifier().isPresent()) {
+                        copy(source, new MyArchiveEntrySink(entryNameAndDigestValue, digest, checksum,
+                                this::ioException));
+                    } else {
+                        copy(source, new MyArchiveEntrySink(entryNameAndDigestValue, digest, checksum));
                     }
                 }
+
+                /**
+                 * Verifies the content of the given archive entry source, if required.
+                 * This reads the archive entry source again, on a background thread if there is a verifier and the
+                 * input of this patch supports {@linkplain ArchiveFileInput#isConcurrent() concurrent reading}, or on
+                 * the calling thread otherwise.
+                 */
+                final void verifyAgain(final ArchiveEntrySource<E> source,
+                                       final EntryNameAndDigestValue entryNameAndDigestValue,
+                                       final boolean digest,
+                                       final OptionalLong checksum) throws Exception {
+                    if (!digest && !checksum.isPresent()) {
+                        return;
+                    }
+                    if (!verifier().isPresent() || !input().isConcurrent()) {
+                        verify(source, entryNameAndDigestValue, digest, checksum);
+                        return;
+                    }
+                    enqueue(0, CompletableFuture.runAsync(() -> {
+                        try {
+                            verify(source, entryNameAndDigestValue, digest, checksum);
+                        } catch (WrongMessageDigestException | WrongChecksumException e) {
+                            throw new CompletionException(ioException(e));
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    }, verifier().get()));
+                }
+
+                /** Returns {@code true} if and only if the input of this patch is the delta archive file. */
+                abstract boolean fromDelta();
             }
 
             class OnBaseInputPatch extends Patch<F> {
@@ -155,6 +513,28 @@ abstract class ArchiveFilePatch<F, D, S> {
 
                 @Override
                 IOException ioException(Throwable cause) { return new WrongBaseArchiveFileException(cause); }
+
+                @Override
+                boolean fromDelta() { return false; }
+            }
+
+            /**
+             * Leaves the unchanged entries of the base archive file untouched when updating it in place.
+             * Their content only gets read if the verification policy requires it.
+             * This happens on a background thread only if the base archive file input supports concurrent reading.
+             * Either way, all verifications complete before the in place output gets committed, so no unchanged entry
+             * gets read while the base archive file gets modified.
+             */
+            class InPlaceOnBaseInputPatch extends OnBaseInputPatch {
+
+                @Override
+                void transfer(final ArchiveEntrySource<F> source,
+                              final EntryNameAndDigestValue entryNameAndDigestValue) throws Exception {
+                    final VerificationPolicy policy = verificationPolicy();
+                    final boolean digest = policy.digest(false);
+                    final OptionalLong checksum = policy.checksum(false, true) ? source.crc() : OptionalLong.empty();
+                    verifyAgain(source, entryNameAndDigestValue, digest, checksum);
+                }
             }
 
             class OnDeltaInputPatch extends Patch<D> {
@@ -164,18 +544,349 @@ abstract class ArchiveFilePatch<F, D, S> {
 
                 @Override
                 IOException ioException(Throwable cause) { return new InvalidDeltaArchiveFileException(cause); }
+
+                @Override
+                boolean fromDelta() { return true; }
+            }
+
+            /**
+             * Applies the entries of a delta archive file which can only get read sequentially, so they never get
+             * copied raw and their content gets verified as the verification policy says while writing it, because it
+             * can't get read again.
+             */
+            class OnDeltaStreamPatch extends OnDeltaInputPatch {
+
+                @Override
+                void transfer(final ArchiveEntrySource<D> source,
+                              final EntryNameAndDigestValue entryNameAndDigestValue) throws Exception {
+                    final VerificationPolicy policy = verificationPolicy();
+                    copy(source, new MyArchiveEntrySink(entryNameAndDigestValue, policy.digest(true),
+                            policy.checksum(true, false) ? source.crc() : OptionalLong.empty()));
+                }
+            }
+
+            /**
+             * Decodes the binary deltas of changed entries in the delta archive file against their base entries.
+             * The content of each base entry always gets verified against its message digest before decoding, so that
+             * a wrong base archive file gets reported as such rather than as an invalid delta archive file.
+             */
+            class BinaryDeltaPatch {
+
+                void apply(final Collection<EntryNameAndTwoDigestValues> changes) throws Exception {
+                    for (final EntryNameAndTwoDigestValues change : changes) {
+                        apply(change);
+                    }
+                }
+
+                void apply(final EntryNameAndTwoDigestValues change) throws Exception {
+                    final String name = change.name();
+                    if (filter.test(name)) {
+                        apply(deltaInput().source(name).orElseThrow(() -> new InvalidDeltaArchiveFileException(
+                                new MissingArchiveEntryException(name))), change);
+                    }
+                }
+
+                void apply(final ArchiveEntrySource<D> delta, final EntryNameAndTwoDigestValues change)
+                        throws Exception {
+                    final String name = change.name();
+                    final ArchiveEntrySource<F> base = baseInput()
+                            .source(name)
+                            .orElseThrow(() -> new WrongBaseArchiveFileException(
+                                    new MissingArchiveEntryException(name)));
+                    BinaryDeltas.applyBaseChannel(base, channel -> {
+                        if (BinaryDeltas.MAX_BASE_SIZE < channel.size()) {
+                            throw new WrongBaseArchiveFileException(new IOException("Base content is too large."));
+                        }
+                        final MessageDigest digest = digest();
+                        updateDigestFrom(digest, channel);
+                        if (!valueOf(digest).equals(change.baseDigestValue())) {
+                            throw new WrongBaseArchiveFileException(new WrongMessageDigestException(name));
+                        }
+                        try {
+                            BinaryDeltas.decode(channel, delta, new MyArchiveEntrySink(
+                                    new EntryNameAndDigestValue(name, change.updateDigestValue()), true,
+                                    OptionalLong.empty()));
+                        } catch (IOException e) {
+                            throw new InvalidDeltaArchiveFileException(e);
+                        }
+                        return null;
+                    });
+                }
+            }
+
+            /**
+             * Applies the changed and added entries in the order of the sequential delta archive file.
+             * If an entry is accepted by the given filter, then any preceding entries get spooled to temporary files
+             * until it has been written.
+             */
+            class SequentialPatch {
+
+                final Patch<D> onDeltaStreamPatch = new OnDeltaStreamPatch();
+
+                final BinaryDeltaPatch binaryDeltaPatch = new BinaryDeltaPatch();
+
+                void apply(final Predicate<String> first) throws Exception {
+                    final Set<String> pending = new HashSet<>();
+                    model().changedEntries().forEach(entry -> pending.add(entry.name()));
+                    model().addedEntries().forEach(entry -> pending.add(entry.name()));
+                    pending.removeIf(filter.negate());
+                    boolean deferring = pending.stream().anyMatch(first);
+                    final Map<ArchiveEntrySource<D>, Store> spools = new LinkedHashMap<>();
+                    try {
+                        for (final Iterator<ArchiveEntrySource<D>> it = deltaInput().iterator(); hasNext(it); ) {
+                            final ArchiveEntrySource<D> source = it.next();
+                            if (!pending.remove(source.name())) {
+                                continue;
+                            }
+                            if (deferring && !first.test(source.name())) {
+                                final Store spool = path(createTempFile("spool", null));
+                                spools.put(source, spool);
+                                copy(source, spool);
+                            } else {
+                                apply(source);
+                                if (deferring) {
+                                    deferring = false;
+                                    for (final Map.Entry<ArchiveEntrySource<D>, Store> entry : spools.entrySet()) {
+                                        apply(spooled(entry.getKey(), entry.getValue()));
+                                    }
+                                }
+                            }
+                        }
+                    } finally {
+                        for (final Store spool : spools.values()) {
+                            spool.delete();
+                        }
+                    }
+                    if (!pending.isEmpty()) {
+                        throw new InvalidDeltaArchiveFileException(
+                                new MissingArchiveEntryException(pending.iterator().next()));
+                    }
+                }
+
+                void apply(final ArchiveEntrySource<D> source) throws Exception {
+                    final String name = source.name();
+                    final EntryNameAndTwoDigestValues changed = model().changed(name);
+                    if (null == changed) {
+                        onDeltaStreamPatch.apply(source, model().added(name));
+                    } else if (changed.binaryDelta()) {
+                        binaryDeltaPatch.apply(source, changed);
+                    } else {
+                        onDeltaStreamPatch.apply(source,
+                                new EntryNameAndDigestValue(name, changed.updateDigestValue()));
+                    }
+                }
+
+                /**
+                 * Returns {@code true} if and only if the given iterator of the sequential delta archive file has
+                 * another entry.
+                 * Any {@link UncheckedIOException} from reading the stream gets unwrapped.
+                 */
+                boolean hasNext(final Iterator<ArchiveEntrySource<D>> it) throws IOException {
+                    try {
+                        return it.hasNext();
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                }
+
+                /** Returns an archive entry source which reads the content of the given one from the given spool. */
+                ArchiveEntrySource<D> spooled(final ArchiveEntrySource<D> source, final Store spool) {
+                    return new ArchiveEntrySource<D>() {
+
+                        public String name() { return source.name(); }
+
+                        public boolean isDirectory() { return source.isDirectory(); }
+
+                        public D entry() { return source.entry(); }
+
+                        public Socket<InputStream> input() { return spool.input(); }
+
+                        public void copyTo(ArchiveEntrySink<?> sink) throws Exception { copy(this, sink); }
+                    };
+                }
+            }
+
+            if (sequential()) {
+                digestAlgorithmName = model().digestAlgorithmName();
+                final Patch<F> unchangedPatch = inPlace ? new InPlaceOnBaseInputPatch() : new OnBaseInputPatch();
+                final Patch<F> onBaseInputPatch = new OnBaseInputPatch();
+
+                // A JAR file needs to start with the manifest, so write it first if it's in the base archive file:
+                final Predicate<String> first = updateOutput.isJar() ? MANIFEST_NAME::equals : name -> false;
+                unchangedPatch.apply(select(model().unchangedEntries(), first));
+                onBaseInputPatch.applyCopies(selectCopies(model().copiedEntries(), first));
+
+                new SequentialPatch().apply(first);
+
+                unchangedPatch.apply(select(model().unchangedEntries(), first.negate()));
+                onBaseInputPatch.applyCopies(selectCopies(model().copiedEntries(), first.negate()));
+                if (inPlace) {
+                    for (final EntryNameAndDigestValue entry : model().removedEntries()) {
+                        delete(updateOutput, entry, filter);
+                    }
+                }
+            } else if (streaming()) {
+                // Apply each entry as soon as it has been parsed, so the model never gets materialized:
+                final Patch<F> onBaseInputPatch = new OnBaseInputPatch();
+                final Patch<F> unchangedPatch = inPlace ? new InPlaceOnBaseInputPatch() : onBaseInputPatch;
+                final Patch<D> onDeltaInputPatch = new OnDeltaInputPatch();
+                final BinaryDeltaPatch binaryDeltaPatch = new BinaryDeltaPatch();
+                decodeModel(deltaInput(), new ModelVisitor() {
+
+                    @Override
+                    public boolean requiresDigestAlgorithmNameFirst() { return true; }
+
+                    @Override
+                    public void visitDigestAlgorithmName(String name) { digestAlgorithmName = name; }
+
+                    @Override
+                    public void visitChanged(final EntryNameAndTwoDigestValues entry) throws Exception {
+                        if (entry.binaryDelta()) {
+                            binaryDeltaPatch.apply(entry);
+                        } else {
+                            onDeltaInputPatch.apply(entry.name(),
+                                    new EntryNameAndDigestValue(entry.name(), entry.updateDigestValue()));
+                        }
+                    }
+
+                    @Override
+                    public void visitUnchanged(EntryNameAndDigestValue entry) throws Exception {
+                        unchangedPatch.apply(entry.name(), entry);
+                    }
+
+                    @Override
+                    public void visitAdded(EntryNameAndDigestValue entry) throws Exception {
+                        onDeltaInputPatch.apply(entry.name(), entry);
+                    }
+
+                    @Override
+                    public void visitRemoved(EntryNameAndDigestValue entry) throws Exception {
+                        if (inPlace) {
+                            delete(updateOutput, entry, filter);
+                        }
+                    }
+
+                    @Override
+                    public void visitCopied(EntryNamesAndDigestValue entry) throws Exception {
+                        onBaseInputPatch.apply(entry.baseName(),
+                                new EntryNameAndDigestValue(entry.name(), entry.digestValue()));
+                    }
+                });
+            } else {
+                digestAlgorithmName = model().digestAlgorithmName();
+
+                // Order is important here!
+                (inPlace ? new InPlaceOnBaseInputPatch() : new OnBaseInputPatch()).apply(model().unchangedEntries());
+                new OnBaseInputPatch().applyCopies(model().copiedEntries());
+                new OnDeltaInputPatch().apply(updateDigestValues(model().changedEntries()
+                        .stream()
+                        .filter(change -> !change.binaryDelta())));
+                new BinaryDeltaPatch().apply(model().changedEntries()
+                        .stream()
+                        .filter(EntryNameAndTwoDigestValues::binaryDelta)
+                        .collect(Collectors.toList()));
+                new OnDeltaInputPatch().apply(model().addedEntries());
+                if (inPlace) {
+                    for (final EntryNameAndDigestValue entry : model().removedEntries()) {
+                        delete(updateOutput, entry, filter);
+                    }
+                }
             }
+        }
+
+        /** Returns a sink for writing the entry with the given name to the given update archive file output. */
+        ArchiveEntrySink<S> sink(ArchiveFileOutput<S> updateOutput, String name) {
+            return updateOutput.sink(name, entryOptions().apply(name));
+        }
+
+        /** Deletes the given removed entry from the given in-place update archive file output. */
+        void delete(final ArchiveFileOutput<S> updateOutput,
+                    final EntryNameAndDigestValue entry,
+                    final Predicate<String> filter) throws Exception {
+            if (filter.test(entry.name())) {
+                ((InPlaceArchiveFileOutput<S>) updateOutput).delete(entry.name());
+            }
+        }
+
+        /**
+         * Verifies the message digest of the content of the given archive entry source if and only if {@code digest}
+         * is {@code true} and its CRC-32 checksum and size, if known, if and only if {@code checksum} is present.
+         */
+        void verify(final ArchiveEntrySource<?> source,
+                    final EntryNameAndDigestValue entryNameAndDigestValue,
+                    final boolean digest,
+                    final OptionalLong checksum) throws Exception {
+            if (!digest && !checksum.isPresent()) {
+                return;
+            }
+            final Optional<MessageDigest> md = digest ? Optional.of(digest()) : Optional.empty();
+            final CRC32 crc = new CRC32();
+            final long[] size = new long[1];
+            if (!forEachMappedRegion(source, buffer -> {
+                md.ifPresent(d -> d.update(buffer.duplicate()));
+                size[0] += buffer.remaining();
+                crc.update(buffer);
+            })) {
+                source.acceptReader(in -> {
+                    final byte[] buffer = new byte[Store.BUFSIZE];
+                    for (int read; 0 <= (read = in.read(buffer)); ) {
+                        if (md.isPresent()) {
+                            md.get().update(buffer, 0, read);
+                        }
+                        crc.update(buffer, 0, read);
+                        size[0] += read;
+                    }
+                });
+            }
+            final String name = entryNameAndDigestValue.name();
+            if (md.isPresent() && !valueOf(md.get()).equals(entryNameAndDigestValue.digestValue())) {
+                throw new WrongMessageDigestException(name);
+            }
+            if (checksum.isPresent() && (checksum.getAsLong() != crc.getValue() ||
+                    source.size().isPresent() && source.size().getAsLong() != size[0])) {
+                throw new WrongChecksumException(name);
+            }
+        }
+
+        /** A pending background verification with the given size of written content which it holds in memory. */
+        final class Pending {
+
+            final long size;
+
+            final CompletableFuture<?> future;
+
+            Pending(final long size, final CompletableFuture<?> future) {
+                this.size = size;
+                this.future = future;
+            }
+
+            void join() throws IOException {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    final Throwable cause = e.getCause();
+                    throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
+
+        Collection<EntryNameAndDigestValue> select(Collection<EntryNameAndDigestValue> entries,
+                                                   Predicate<String> filter) {
+            return entries.stream().filter(entry -> filter.test(entry.name())).collect(Collectors.toList());
+        }
+
+        Collection<EntryNamesAndDigestValue> selectCopies(Collection<EntryNamesAndDigestValue> entries,
+                                                          Predicate<String> filter) {
+            return entries.stream().filter(entry -> filter.test(entry.name())).collect(Collectors.toList());
+        }
 
-            // Order is important here!
-            new OnBaseInputPatch().apply(model().unchangedEntries());
-            new OnDeltaInputPatch().apply(model().changedEntries()
-                    .stream()
+        Collection<EntryNameAndDigestValue> updateDigestValues(Stream<EntryNameAndTwoDigestValues> changes) {
+            return changes
                     .map(change -> new EntryNameAndDigestValue(change.name(), change.updateDigestValue()))
-                    .collect(Collectors.toList()));
-            new OnDeltaInputPatch().apply(model().addedEntries());
+                    .collect(Collectors.toList());
         }
 
-        MessageDigest digest() throws Exception { return MessageDigest.getInstance(model().digestAlgorithmName()); }
+        MessageDigest digest() throws Exception { return MessageDigests.newDigest(digestAlgorithmName); }
 
         DeltaModel model() throws Exception {
             final DeltaModel model = this.model;
@@ -1,14 +1,20 @@
 package global.namespace.archive.io.delta;
 
+import global.namespace.archive.io.api.ArchiveEntryOptions;
 import global.namespace.archive.io.api.ArchiveFileSink;
 import global.namespace.archive.io.api.ArchiveFileSource;
+import global.namespace.archive.io.api.InPlaceArchiveFileStore;
+import global.namespace.fun.io.api.Source;
 
 import java.util.Optional;
+import java.util.function.Function;
 
 import static java.util.Optional.empty;
 
 /**
  * A builder for an archive file patch.
+ * The default verification policy is {@link VerificationPolicy#FULL_DIGEST}, except when updating the base archive
+ * file {@linkplain #inPlace(InPlaceArchiveFileStore) in place}.
  *
  * @author Christian Schlichtherle
  */
@@ -17,6 +23,14 @@ public class ArchiveFilePatchBuilder {
 
     private Optional<ArchiveFileSource<?>> base = empty(), delta = empty();
 
+    private Optional<VerificationPolicy> verificationPolicy = empty();
+
+    private boolean streaming, rawCopy;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private Function<String, ArchiveEntryOptions> entryOptions = name -> ArchiveEntryOptions.none();
+
     ArchiveFilePatchBuilder() { }
 
     /**
@@ -37,18 +51,160 @@ public class ArchiveFilePatchBuilder {
         return this;
     }
 
+    /**
+     * Returns this archive file patch builder with the given source for reading the delta archive file sequentially,
+     * e.g. while downloading it.
+     * The delta archive file must be a JAR or ZIP file which starts with the delta model, which is the case for any
+     * delta archive file generated by an archive file diff.
+     * Its entries get applied in the order of the stream and then the remaining entries get copied from the base
+     * archive file, so the update archive file gets written in a single pass.
+     * The entries in the delta archive file never get copied raw and their content gets verified as the verification
+     * policy says while writing it, because the stream can't get read again.
+     * In particular, {@link VerificationPolicy#BACKGROUND_DIGEST} verifies them in the foreground.
+     * If the update archive file is a JAR file and its manifest is in the delta archive file, then any entries
+     * preceding it in the stream get spooled to temporary files.
+     */
+    public ArchiveFilePatchBuilder deltaStream(Source delta) { return delta(ZipInputStreamAdapter.source(delta)); }
+
+    /**
+     * Returns this archive file patch builder which applies each entry of the delta model while parsing it if and
+     * only if the given flag is {@code true}.
+     * This way, the delta model never gets loaded into memory, so the memory consumption is independent of the number
+     * of entries.
+     * However, the entries get written to the update archive file in the order of the delta model rather than grouped
+     * by their kind and the delta model gets parsed once for each pass over the delta archive file, e.g. twice for
+     * JAR files.
+     * This requires the message digest algorithm name to precede the entries of a JSON delta model, which is the case
+     * for any delta archive file generated by an archive file diff.
+     * The default is {@code false}.
+     */
+    public ArchiveFilePatchBuilder streaming(final boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    /**
+     * Returns this archive file patch builder which lets the archive entry sources copy themselves to the update
+     * archive file if and only if the given flag is {@code true}.
+     * This way, an archive entry source may transfer its raw data without decompressing and compressing it again,
+     * e.g. when copying entries between ZIP files with Apache Commons Compress.
+     * If the verification policy requires verifying the message digest of an archive entry source, then its content
+     * gets read again after copying it to verify its message digest in the delta model and its CRC-32 checksum and
+     * size, if known.
+     * This happens on a {@linkplain #parallelism(int) pool of background threads} if the archive file input supports
+     * {@linkplain global.namespace.archive.io.api.ArchiveFileInput#isConcurrent() concurrent reading}, or on the
+     * calling thread otherwise.
+     * So with {@link VerificationPolicy#FULL_DIGEST} or {@link VerificationPolicy#BACKGROUND_DIGEST}, every raw entry
+     * still gets decompressed for verification and raw copying only saves compressing it again, while with
+     * {@link VerificationPolicy#DELTA_DIGEST} the raw entries of the base archive file and with
+     * {@link VerificationPolicy#CRC} all raw entries get copied without decompressing them at all.
+     * Their CRC-32 checksums get copied along with their raw data, so they get checked whenever the update archive
+     * file gets read.
+     * Any verification failure on the background threads gets reported when all archive entries have been written,
+     * but before the update archive file gets closed.
+     * Entries which have been encoded as binary deltas are always decoded and compressed again.
+     * The default is {@code false}.
+     */
+    public ArchiveFilePatchBuilder rawCopy(final boolean rawCopy) {
+        this.rawCopy = rawCopy;
+        return this;
+    }
+
+    /**
+     * Returns this archive file patch builder with the given parallelism level for verifying archive entries in the
+     * background, i.e. when {@linkplain #rawCopy(boolean) copying them raw} or using
+     * {@link VerificationPolicy#BACKGROUND_DIGEST}.
+     * Then a thread pool of the given size gets created for each patch and shut down when it's done.
+     * The default is the number of available processors.
+     */
+    public ArchiveFilePatchBuilder parallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(parallelism + " < 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Returns this archive file patch builder with the given function which maps the name of each entry in the update
+     * archive file to the options for writing it, e.g. {@link ArchiveEntryOptions.Method#AUTO} for storing
+     * incompressible entries without compression.
+     * Entries which an archive entry source {@linkplain #rawCopy(boolean) copies raw} keep their compression method.
+     * Archive file outputs which don't support options simply ignore them.
+     * By default, no options are set.
+     */
+    public ArchiveFilePatchBuilder entryOptions(final Function<String, ArchiveEntryOptions> entryOptions) {
+        this.entryOptions = entryOptions;
+        return this;
+    }
+
+    /**
+     * Returns this archive file patch builder with the given options for writing each entry in the update archive
+     * file.
+     */
+    public ArchiveFilePatchBuilder entryOptions(ArchiveEntryOptions entryOptions) {
+        return entryOptions(name -> entryOptions);
+    }
+
+    /**
+     * Returns this archive file patch builder with the given policy for verifying archive entries.
+     * The default is {@link VerificationPolicy#FULL_DIGEST} when writing an update archive file and
+     * {@link VerificationPolicy#DELTA_DIGEST} when updating the base archive file in place.
+     * Note that {@link VerificationPolicy#CRC} does not detect a wrong base archive file, except for the base entries
+     * of binary deltas, so it should only be used if the base archive file is known to be the right one.
+     */
+    public ArchiveFilePatchBuilder verificationPolicy(final VerificationPolicy verificationPolicy) {
+        this.verificationPolicy = Optional.of(verificationPolicy);
+        return this;
+    }
+
     /** Writes the update archive file computed from the base and delta archive file to the given sink. */
     @SuppressWarnings("unchecked")
-    public void to(ArchiveFileSink<?> update) throws Exception { build().to(update); }
+    public void to(ArchiveFileSink<?> update) throws Exception { build(VerificationPolicy.FULL_DIGEST).to(update); }
 
-    private ArchiveFilePatch build() { return create(base.get(), delta.get()); }
+    /**
+     * Updates the given base archive file in place, e.g. a directory.
+     * The given store replaces any source for reading the base archive file which has been set before.
+     * Only the changed, added and copied entries get written and the removed entries get deleted, while the unchanged
+     * entries stay untouched.
+     * Unless a verification policy has been set, this uses {@link VerificationPolicy#DELTA_DIGEST}, so the unchanged
+     * entries don't even get read.
+     * Any other policy reads the content of the unchanged entries for verification, e.g.
+     * {@link VerificationPolicy#FULL_DIGEST} computes their message digests.
+     */
+    @SuppressWarnings("unchecked")
+    public void inPlace(final InPlaceArchiveFileStore<?> base) throws Exception {
+        this.base = Optional.of(base);
+        build(VerificationPolicy.DELTA_DIGEST).inPlace(base);
+    }
+
+    private ArchiveFilePatch build(VerificationPolicy defaultVerificationPolicy) {
+        return create(base.get(), delta.get(), streaming, rawCopy, parallelism, entryOptions,
+                verificationPolicy.orElse(defaultVerificationPolicy));
+    }
 
-    private static ArchiveFilePatch create(ArchiveFileSource<?> baseSource, ArchiveFileSource<?> deltaSource) {
+    private static ArchiveFilePatch create(ArchiveFileSource<?> baseSource,
+                                           ArchiveFileSource<?> deltaSource,
+                                           boolean streaming,
+                                           boolean rawCopy,
+                                           int parallelism,
+                                           Function<String, ArchiveEntryOptions> entryOptions,
+                                           VerificationPolicy verificationPolicy) {
         return new ArchiveFilePatch() {
 
             ArchiveFileSource<?> baseSource() { return baseSource; }
 
             ArchiveFileSource<?> deltaSource() { return deltaSource; }
+
+            boolean streaming() { return streaming; }
+
+            boolean rawCopy() { return rawCopy; }
+
+            int parallelism() { return parallelism; }
+
+            Function<String, ArchiveEntryOptions> entryOptions() { return entryOptions; }
+
+            VerificationPolicy verificationPolicy() { return verificationPolicy; }
         };
     }
 }
@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.fun.io.api.Sink;
+import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Source;
+import global.namespace.fun.io.api.Store;
+import global.namespace.fun.io.api.function.XFunction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static java.nio.file.Files.copy;
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Provides functions for encoding and decoding binary deltas between the content of two archive entries.
+ * <p>
+ * A binary delta is a sequence of instructions for reconstructing the update content from the base content:
+ * Each instruction either copies a range of bytes from the base content or inserts some literal bytes.
+ * The encoder finds the copy instructions by looking up blocks of the update content in a hash table of the blocks of
+ * the base content, similar to VCDIFF or rsync.
+ * <p>
+ * Neither the base nor the update content gets loaded into memory:
+ * The base content gets read from a file channel, which is either provided by the archive entry source, e.g. for a
+ * file in a directory, or a temporary file which the base content gets spooled to.
+ * The hash table gets built by streaming over the base content and has at most {@value #MAX_TABLE_SIZE} slots, so
+ * for larger base content, later blocks replace earlier blocks with the same slot.
+ * The update content gets streamed through a window against the hash table.
+ * Because copy instructions address the base content with 32 bit offsets, the base content is limited to
+ * {@value #MAX_BASE_SIZE} bytes.
+ * <p>
+ * The format is the magic number {@code 0x41494F44}, followed by a list of instructions and terminated by the opcode
+ * {@code 0}.
+ * The opcode {@code 1} is followed by the unsigned variable-length offset and length of a range to copy from the
+ * base content.
+ * The opcode {@code 2} is followed by the unsigned variable-length length of the literal bytes and the literal bytes
+ * to insert.
+ *
+ * @author Christian Schlichtherle
+ */
+class BinaryDeltas {
+
+    private BinaryDeltas() { }
+
+    /** The maximum size of the base content for encoding or decoding a binary delta, which is {@value}. */
+    static final long MAX_BASE_SIZE = Integer.MAX_VALUE;
+
+    /** The maximum number of slots in the hash table of the blocks of the base content, which is {@value}. */
+    static final int MAX_TABLE_SIZE = 1 << 22;
+
+    /**
+     * The minimum size of the base and update content for encoding a binary delta, which is {@value}.
+     * Smaller entries don't save enough to pay for the temporary files and the hash table.
+     */
+    static final int MIN_SIZE = 1 << 16;
+
+    /**
+     * The maximum initial size of the window of the update content, which is {@value}.
+     * The window is no larger than the base content, but at least {@value #MIN_SIZE} bytes, and the length of an insert
+     * instruction is limited to half of its initial size.
+     */
+    static final int WINDOW_SIZE = 1 << 20;
+
+    /** The size of the cache for reading the base content, which is {@value}. */
+    static final int CACHE_SIZE = 1 << 16;
+
+    /**
+     * The maximum number of bytes on the heap for encoding a binary delta, which is {@value}: This is the hash table,
+     * the window of the update content and the cache of the base content.
+     */
+    static final long MAX_ENCODER_MEMORY = 8L * MAX_TABLE_SIZE + WINDOW_SIZE + CACHE_SIZE;
+
+    private static final int MAGIC = 0x41494F44;
+
+    private static final int END = 0, COPY = 1, INSERT = 2;
+
+    private static final int BLOCK_SIZE = 16;
+
+    private static final int PRIME = 16777619;
+
+    /**
+     * Encodes a binary delta from the content of the given base and update sources to the given sink if and only if it
+     * is smaller than the update content.
+     * If the base content is larger than {@value #MAX_BASE_SIZE} bytes, then nothing gets written.
+     *
+     * @return {@code true} if and only if the binary delta has been written to the given sink.
+     */
+    static boolean encode(final ArchiveEntrySource<?> base, final Source update, final Sink delta) throws Exception {
+        if (MAX_BASE_SIZE < base.size().orElse(0)) {
+            return false;
+        }
+        return applyBaseChannel(base, channel -> channel.size() <= MAX_BASE_SIZE &&
+                update.applyReader(in -> delta.applyWriter(out -> encode(channel, in, out))));
+    }
+
+    /**
+     * Calls the given function with a file channel for reading the content of the given base source and returns its
+     * result.
+     * If the base source doesn't provide a file channel, then its content gets spooled to a temporary file first,
+     * which gets deleted afterwards.
+     */
+    static <T> T applyBaseChannel(final ArchiveEntrySource<?> base, final XFunction<FileChannel, T> function)
+            throws Exception {
+        final Optional<Socket<FileChannel>> channel = base.channel();
+        if (channel.isPresent()) {
+            return channel.get().apply(function);
+        }
+        final Path spool = createTempFile("base", null);
+        try {
+            base.acceptReader(in -> copy(in, spool, REPLACE_EXISTING));
+            try (FileChannel c = FileChannel.open(spool, READ)) {
+                return function.apply(c);
+            }
+        } finally {
+            deleteIfExists(spool);
+        }
+    }
+
+    /**
+     * Decodes the binary delta from the given source against the base content from the given file channel and writes
+     * the update content to the given sink.
+     */
+    static void decode(final FileChannel base, final Source delta, final Sink update) throws Exception {
+        delta.acceptReader(in -> update.acceptWriter(out -> decode(base, in, out)));
+    }
+
+    /**
+     * Encodes a binary delta from the base content of the given file channel and the update content of the given input
+     * stream to the given output stream.
+     *
+     * @return {@code true} if and only if the binary delta is smaller than the update content.
+     */
+    static boolean encode(final FileChannel baseChannel, final InputStream updateStream, final OutputStream out)
+            throws IOException {
+        final Base base = new Base(baseChannel);
+        if (MAX_BASE_SIZE < base.size) {
+            throw new IOException("Base content is too large.");
+        }
+        final CountingOutputStream counter = new CountingOutputStream(out);
+        final DataOutputStream data = new DataOutputStream(counter);
+        data.writeInt(MAGIC);
+
+        final int tableSize = Math.min(Integer.highestOneBit((int) Math.max(base.size / BLOCK_SIZE, 1)) << 1,
+                MAX_TABLE_SIZE);
+        final int shift = Integer.numberOfLeadingZeros(tableSize) + 1;
+        final long[] table = base.table(tableSize, shift);
+
+        final Window update = new Window(updateStream, (int) Math.min(WINDOW_SIZE, Math.max(base.size, MIN_SIZE)));
+        final int maxInsertSize = update.buffer.length / 2;
+        long literal = 0, position = 0;
+        int hash = update.has(BLOCK_SIZE - 1, literal) ? update.hash(position) : 0;
+        final int power = power();
+        while (update.has(position + BLOCK_SIZE - 1, literal)) {
+            final long slot = table[index(hash, shift)];
+            int offset = (int) slot - 1;
+            if (0 <= offset && (int) (slot >>> 32) == hash && base.regionMatches(offset, update, position)) {
+                int length = BLOCK_SIZE;
+                while (0 < offset && literal < position && base.get(offset - 1) == update.get(position - 1)) {
+                    offset--;
+                    position--;
+                    length++;
+                }
+                writeInsert(data, update, literal, position);
+                // Matching bytes don't need to stay in the window:
+                while (offset + length < base.size && update.has(position + length, position + length) &&
+                        base.get(offset + length) == update.get(position + length)) {
+                    length++;
+                }
+                data.writeByte(COPY);
+                writeVarInt(data, offset);
+                writeVarInt(data, length);
+                position += length;
+                literal = position;
+                if (update.has(position + BLOCK_SIZE - 1, literal)) {
+                    hash = update.hash(position);
+                }
+            } else {
+                if (update.has(position + BLOCK_SIZE, literal)) {
+                    hash = (hash - (update.get(position) & 0xff) * power) * PRIME +
+                            (update.get(position + BLOCK_SIZE) & 0xff);
+                }
+                position++;
+                if (maxInsertSize <= position - literal) {
+                    writeInsert(data, update, literal, position);
+                    literal = position;
+                }
+            }
+        }
+        final long end = update.end();
+        writeInsert(data, update, literal, end);
+        data.writeByte(END);
+        data.flush();
+        return counter.count < end;
+    }
+
+    /**
+     * Decodes the binary delta from the given input stream against the base content from the given file channel and
+     * writes the update content to the given output stream.
+     */
+    static void decode(final FileChannel base, final InputStream in, final OutputStream out) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (MAGIC != data.readInt()) {
+            throw new IOException("Not a binary delta.");
+        }
+        final long size = base.size();
+        final byte[] buffer = new byte[Store.BUFSIZE];
+        for (int opcode; END != (opcode = data.readUnsignedByte()); ) {
+            if (COPY == opcode) {
+                final int offset = readVarInt(data), length = readVarInt(data);
+                if (size - length < offset) {
+                    throw new IOException("Copy instruction out of bounds.");
+                }
+                for (long position = offset, end = position + length; position < end; ) {
+                    final ByteBuffer b = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+                    while (b.hasRemaining()) {
+                        if (base.read(b, position + b.position()) < 0) {
+                            throw new EOFException();
+                        }
+                    }
+                    out.write(buffer, 0, b.position());
+                    position += b.position();
+                }
+            } else if (INSERT == opcode) {
+                for (int remaining = readVarInt(data); 0 < remaining; ) {
+                    final int read = Math.min(remaining, buffer.length);
+                    data.readFully(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } else {
+                throw new IOException("Unknown opcode " + opcode + ".");
+            }
+        }
+    }
+
+    private static void writeInsert(final DataOutputStream data, final Window update, final long from, final long to)
+            throws IOException {
+        if (from < to) {
+            data.writeByte(INSERT);
+            writeVarInt(data, (int) (to - from));
+            update.writeTo(data, from, to);
+        }
+    }
+
+    /** Writes the given non-negative integer in unsigned variable-length format. */
+    static void writeVarInt(final DataOutputStream data, int value) throws IOException {
+        while (0 != (value & ~0x7f)) {
+            data.writeByte(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+
+    /** Reads a non-negative integer in unsigned variable-length format. */
+    static int readVarInt(final DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = data.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if (0 == (b & 0x80)) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer.");
+    }
+
+    private static int hash(final byte[] b, final int offset) {
+        int hash = 0;
+        for (int i = offset, end = offset + BLOCK_SIZE; i < end; i++) {
+            hash = hash * PRIME + (b[i] & 0xff);
+        }
+        return hash;
+    }
+
+    /** Returns {@code PRIME} to the power of {@code BLOCK_SIZE - 1}. */
+    private static int power() {
+        int power = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++) {
+            power *= PRIME;
+        }
+        return power;
+    }
+
+    private static int index(int hash, int shift) { return hash * 0x9e3779b1 >>> shift; }
+
+    /** Reads the base content from a file channel through a cache of {@value #CACHE_SIZE} bytes. */
+    private static final class Base {
+
+        final FileChannel channel;
+
+        final long size;
+
+        final ByteBuffer cache = ByteBuffer.allocate(CACHE_SIZE);
+
+        long cacheStart = -CACHE_SIZE;
+
+        Base(final FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * Returns a hash table of the given size which maps the hash of each block of the base content to the hash in
+         * the upper and its offset plus one in the lower 32 bits, so that zero means empty and the base content only
+         * needs to get read if the hashes are equal.
+         */
+        long[] table(final int tableSize, final int shift) throws IOException {
+            final long[] table = new long[tableSize];
+            final byte[] b = cache.array();
+            for (long at = 0; at < size; at += CACHE_SIZE) {
+                fill(at);
+                for (int i = 0; i + BLOCK_SIZE <= cache.limit(); i += BLOCK_SIZE) {
+                    final int hash = hash(b, i);
+                    table[index(hash, shift)] = (long) hash << 32 | at + i + 1;
+                }
+            }
+            return table;
+        }
+
+        byte get(final long position) throws IOException {
+            if (position < cacheStart || cacheStart + cache.limit() <= position) {
+                fill(position & -CACHE_SIZE);
+            }
+            return cache.get((int) (position - cacheStart));
+        }
+
+        boolean regionMatches(final int offset, final Window update, final long position) throws IOException {
+            if (size - BLOCK_SIZE < offset) {
+                return false;
+            }
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                if (get(offset + i) != update.get(position + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void fill(final long at) throws IOException {
+            cache.clear();
+            while (cache.hasRemaining()) {
+                if (channel.read(cache, at + cache.position()) < 0) {
+                    break;
+                }
+            }
+            cache.flip();
+            cacheStart = at;
+        }
+    }
+
+    /**
+     * A window of the update content which gets streamed from an input stream.
+     * The window holds the bytes from a given position on, so it only grows if the caller keeps too many of them.
+     */
+    private static final class Window {
+
+        final InputStream in;
+
+        byte[] buffer;
+
+        long start;
+
+        int limit;
+
+        boolean eof;
+
+        Window(final InputStream in, final int size) {
+            this.in = in;
+            this.buffer = new byte[size];
+        }
+
+        /**
+         * Returns {@code true} if and only if the byte at the given position is available.
+         * Any bytes before the given position to keep may get discarded.
+         */
+        boolean has(final long position, final long keep) throws IOException {
+            while (start + limit <= position) {
+                if (eof) {
+                    return false;
+                }
+                if (buffer.length == limit) {
+                    final int discard = (int) (keep - start);
+                    if (0 < discard) {
+                        System.arraycopy(buffer, discard, buffer, 0, limit - discard);
+                        start = keep;
+                        limit -= discard;
+                    } else {
+                        buffer = Arrays.copyOf(buffer, buffer.length << 1);
+                    }
+                }
+                final int read = in.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    limit += read;
+                }
+            }
+            return true;
+        }
+
+        byte get(long position) { return buffer[(int) (position - start)]; }
+
+        int hash(long position) { return BinaryDeltas.hash(buffer, (int) (position - start)); }
+
+        /** Returns the size of the update content, which requires the end of the stream to have been reached. */
+        long end() {
+            assert eof;
+            return start + limit;
+        }
+
+        void writeTo(OutputStream out, long from, long to) throws IOException {
+            out.write(buffer, (int) (from - start), (int) (to - from));
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) { super(out); }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
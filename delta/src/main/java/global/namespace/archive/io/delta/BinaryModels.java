@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import global.namespace.archive.io.delta.model.DeltaModel;
+import global.namespace.archive.io.delta.model.EntryNameAndDigestValue;
+import global.namespace.archive.io.delta.model.EntryNameAndTwoDigestValues;
+import global.namespace.archive.io.delta.model.EntryNamesAndDigestValue;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+import static global.namespace.archive.io.delta.BinaryDeltas.readVarInt;
+import static global.namespace.archive.io.delta.BinaryDeltas.writeVarInt;
+
+/**
+ * Provides functions for encoding and decoding delta models in a compact binary format.
+ * <p>
+ * The format is the magic number {@code 0x41494F4D}, followed by the version number {@code 1}, the message digest
+ * algorithm name in modified UTF-8, the unsigned variable-length message digest byte length and the lists of changed,
+ * unchanged, added, removed and copied entries, in this order.
+ * Each list is the unsigned variable-length number of entries, followed by the entries sorted by name.
+ * Each entry name is encoded as the unsigned variable-length number of leading bytes shared with the UTF-8 encoding
+ * of the previous entry name in the same list, followed by the unsigned variable-length number of the remaining
+ * bytes and the remaining bytes.
+ * Each message digest value is encoded as raw bytes of the message digest byte length.
+ * Changed entries have a base and an update message digest value and a flag byte for binary deltas.
+ * Copied entries have the UTF-8 encoded base entry name, prefixed with its unsigned variable-length byte length, and a
+ * message digest value.
+ *
+ * @author Christian Schlichtherle
+ */
+class BinaryModels {
+
+    private BinaryModels() { }
+
+    private static final int MAGIC = 0x41494F4D;
+
+    private static final int VERSION = 1;
+
+    /** Returns {@code true} if and only if the given bytes start with the magic number of the binary format. */
+    static boolean isBinary(final byte[] header) {
+        return 4 <= header.length && MAGIC == ((header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 |
+                (header[2] & 0xff) << 8 | header[3] & 0xff);
+    }
+
+    /** Encodes the given delta model to the given output stream. */
+    static void encode(final DeltaModel model, final OutputStream out) throws Exception {
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        final int length = model.digestByteLength()
+                .orElse(MessageDigests.newDigest(model.digestAlgorithmName()).getDigestLength());
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeUTF(model.digestAlgorithmName());
+        writeVarInt(data, length);
+        final Writer writer = new Writer(data, length);
+        writer.writeList(model.changedEntries(), EntryNameAndTwoDigestValues::name, entry -> {
+            writer.writeDigestValue(entry.baseDigestValue());
+            writer.writeDigestValue(entry.updateDigestValue());
+            data.writeBoolean(entry.binaryDelta());
+        });
+        writer.writeList(model.unchangedEntries(), EntryNameAndDigestValue::name,
+                entry -> writer.writeDigestValue(entry.digestValue()));
+        writer.writeList(model.addedEntries(), EntryNameAndDigestValue::name,
+                entry -> writer.writeDigestValue(entry.digestValue()));
+        writer.writeList(model.removedEntries(), EntryNameAndDigestValue::name,
+                entry -> writer.writeDigestValue(entry.digestValue()));
+        writer.writeList(model.copiedEntries(), EntryNamesAndDigestValue::name, entry -> {
+            writer.writeBytes(entry.baseName().getBytes(StandardCharsets.UTF_8));
+            writer.writeDigestValue(entry.digestValue());
+        });
+        data.flush();
+    }
+
+    /** Decodes a delta model from the given input stream and calls the given visitor for each part of it. */
+    static void decode(final InputStream in, final ModelVisitor visitor) throws Exception {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (MAGIC != data.readInt()) {
+            throw new IOException("Not a binary delta model.");
+        }
+        final int version = data.readUnsignedByte();
+        if (VERSION != version) {
+            throw new IOException("Unsupported binary delta model version " + version + ".");
+        }
+        visitor.visitDigestAlgorithmName(data.readUTF());
+        final Reader reader = new Reader(data, readVarInt(data));
+        reader.readList(name -> visitor.visitChanged(new EntryNameAndTwoDigestValues(
+                name, reader.readDigestValue(), reader.readDigestValue(), data.readBoolean())));
+        reader.readList(name -> visitor.visitUnchanged(new EntryNameAndDigestValue(name, reader.readDigestValue())));
+        reader.readList(name -> visitor.visitAdded(new EntryNameAndDigestValue(name, reader.readDigestValue())));
+        reader.readList(name -> visitor.visitRemoved(new EntryNameAndDigestValue(name, reader.readDigestValue())));
+        reader.readList(name -> visitor.visitCopied(new EntryNamesAndDigestValue(
+                name, new String(reader.readBytes(), StandardCharsets.UTF_8), reader.readDigestValue())));
+    }
+
+    private interface EntryWriter<T> {
+
+        void write(T entry) throws IOException;
+    }
+
+    private interface EntryReader {
+
+        void read(String name) throws Exception;
+    }
+
+    private static final class Writer {
+
+        private final DataOutputStream data;
+        private final byte[] digestValue;
+
+        Writer(final DataOutputStream data, final int length) {
+            this.data = data;
+            this.digestValue = new byte[length];
+        }
+
+        <T> void writeList(final Collection<T> entries, final Function<T, String> name, final EntryWriter<T> writer)
+                throws IOException {
+            final List<T> sorted = new ArrayList<>(entries);
+            sorted.sort(Comparator.comparing(name));
+            writeVarInt(data, sorted.size());
+            byte[] previous = new byte[0];
+            for (final T entry : sorted) {
+                final byte[] current = name.apply(entry).getBytes(StandardCharsets.UTF_8);
+                final int shared = sharedPrefixLength(previous, current);
+                writeVarInt(data, shared);
+                writeVarInt(data, current.length - shared);
+                data.write(current, shared, current.length - shared);
+                writer.write(entry);
+                previous = current;
+            }
+        }
+
+        void writeBytes(final byte[] bytes) throws IOException {
+            writeVarInt(data, bytes.length);
+            data.write(bytes);
+        }
+
+        /**
+         * Writes the given message digest value, which must be a positive, big-endian integer in hexadecimal string
+         * notation without leading zeros, as raw bytes.
+         */
+        void writeDigestValue(final String value) throws IOException {
+            final int length = value.length();
+            if (0 == length || 1 < length && '0' == value.charAt(0) || digestValue.length * 2 < length) {
+                throw notCanonical(value);
+            }
+            Arrays.fill(digestValue, (byte) 0);
+            for (int i = 0; i < length; i++) {
+                final int nibble = Character.digit(value.charAt(length - 1 - i), 16);
+                if (nibble < 0 || Character.isUpperCase(value.charAt(length - 1 - i))) {
+                    throw notCanonical(value);
+                }
+                digestValue[digestValue.length - 1 - i / 2] |= nibble << (i % 2 * 4);
+            }
+            data.write(digestValue);
+        }
+
+        private static IllegalArgumentException notCanonical(String value) {
+            return new IllegalArgumentException("Not a canonical message digest value: " + value);
+        }
+
+        private static int sharedPrefixLength(final byte[] b1, final byte[] b2) {
+            final int max = Math.min(b1.length, b2.length);
+            int i = 0;
+            while (i < max && b1[i] == b2[i]) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    private static final class Reader {
+
+        private final DataInputStream data;
+        private final byte[] digestValue;
+
+        Reader(final DataInputStream data, final int length) {
+            this.data = data;
+            this.digestValue = new byte[length];
+        }
+
+        void readList(final EntryReader reader) throws Exception {
+            final int size = readVarInt(data);
+            byte[] name = new byte[0];
+            for (int i = 0; i < size; i++) {
+                final int shared = readVarInt(data), remaining = readVarInt(data);
+                if (name.length < shared) {
+                    throw new IOException("Malformed entry name.");
+                }
+                final byte[] current = new byte[shared + remaining];
+                System.arraycopy(name, 0, current, 0, shared);
+                data.readFully(current, shared, remaining);
+                reader.read(new String(current, StandardCharsets.UTF_8));
+                name = current;
+            }
+        }
+
+        byte[] readBytes() throws IOException {
+            final byte[] bytes = new byte[readVarInt(data)];
+            data.readFully(bytes);
+            return bytes;
+        }
+
+        /** Reads a message digest value and returns it in its canonical representation. */
+        String readDigestValue() throws IOException {
+            data.readFully(digestValue);
+            return MessageDigests.valueOf(digestValue);
+        }
+    }
+}
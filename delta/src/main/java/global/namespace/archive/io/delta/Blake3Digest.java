@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * A pure Java implementation of the cryptographic hash function BLAKE3 in its default hash mode with a 256 bit output.
+ * This is a straightforward port of the BLAKE3 reference implementation, without SIMD parallelism.
+ *
+ * @author Christian Schlichtherle
+ */
+final class Blake3Digest extends MessageDigest implements Cloneable {
+
+    static final String ALGORITHM = "BLAKE3";
+
+    private static final int[] IV = {
+            0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+    };
+
+    private static final int[] PERMUTATION = { 2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8 };
+
+    /** The indexes of the message words for each round, that is the permutation applied zero to six times. */
+    private static final int[][] SCHEDULE = schedule();
+
+    private static final int CHUNK_START = 1, CHUNK_END = 2, PARENT = 4, ROOT = 8;
+
+    private static final int BLOCK_LEN = 64, CHUNK_LEN = 1024;
+
+    /** The chaining values of the completed subtrees, at most one per level of the tree. */
+    private int[][] stack = new int[54][];
+
+    private int stackSize;
+
+    private int[] chainingValue = new int[8];
+
+    private byte[] block = new byte[BLOCK_LEN];
+
+    private int blockLen, blocksCompressed;
+
+    private long chunkCounter;
+
+    private int[] words = new int[16];
+
+    Blake3Digest() {
+        super(ALGORITHM);
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() { return 32; }
+
+    @Override
+    protected void engineUpdate(byte input) { engineUpdate(new byte[] { input }, 0, 1); }
+
+    @Override
+    protected void engineUpdate(final byte[] input, int off, int len) {
+        while (0 < len) {
+            if (BLOCK_LEN == blockLen) {
+                if (CHUNK_LEN == BLOCK_LEN * (blocksCompressed + 1)) {
+                    // The current chunk is complete and more input follows, so it's not the root:
+                    addChunkChainingValue(output(chainingValue, block, chunkCounter, flags() | CHUNK_END));
+                    startChunk(chunkCounter + 1);
+                } else {
+                    compress(chainingValue, block, chunkCounter, BLOCK_LEN, flags(), chainingValue);
+                    blocksCompressed++;
+                    blockLen = 0;
+                }
+            }
+            final int n = Math.min(BLOCK_LEN - blockLen, len);
+            System.arraycopy(input, off, block, blockLen, n);
+            blockLen += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        Arrays.fill(block, blockLen, BLOCK_LEN, (byte) 0);
+        int[] input = chainingValue;
+        byte[] block = this.block;
+        long counter = chunkCounter;
+        int len = blockLen, flags = flags() | CHUNK_END;
+        for (int i = stackSize; 0 < i--; ) {
+            final int[] right = new int[8];
+            compress(input, block, counter, len, flags, right);
+            block = parentBlock(stack[i], right);
+            input = IV;
+            counter = 0;
+            len = BLOCK_LEN;
+            flags = PARENT;
+        }
+        final int[] out = new int[8];
+        compress(input, block, counter, len, flags | ROOT, out);
+        final byte[] digest = new byte[32];
+        for (int i = 0; i < 8; i++) {
+            writeInt(digest, 4 * i, out[i]);
+        }
+        engineReset();
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        stackSize = 0;
+        startChunk(0);
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final Blake3Digest clone = (Blake3Digest) super.clone();
+        clone.stack = stack.clone();
+        clone.chainingValue = chainingValue.clone();
+        clone.block = block.clone();
+        clone.words = new int[16];
+        return clone;
+    }
+
+    private void startChunk(final long counter) {
+        System.arraycopy(IV, 0, chainingValue, 0, 8);
+        blockLen = 0;
+        blocksCompressed = 0;
+        chunkCounter = counter;
+    }
+
+    private int flags() { return 0 == blocksCompressed ? CHUNK_START : 0; }
+
+    private int[] output(final int[] input, final byte[] block, final long counter, final int flags) {
+        final int[] out = new int[8];
+        compress(input, block, counter, BLOCK_LEN, flags, out);
+        return out;
+    }
+
+    /** Merges the completed subtrees as far as the total number of chunks so far allows and pushes the result. */
+    private void addChunkChainingValue(int[] value) {
+        for (long totalChunks = chunkCounter + 1; 0 == (totalChunks & 1); totalChunks >>>= 1) {
+            value = output(IV, parentBlock(stack[--stackSize], value), 0, PARENT);
+        }
+        stack[stackSize++] = value;
+    }
+
+    private static byte[] parentBlock(final int[] left, final int[] right) {
+        final byte[] block = new byte[BLOCK_LEN];
+        for (int i = 0; i < 8; i++) {
+            writeInt(block, 4 * i, left[i]);
+            writeInt(block, 32 + 4 * i, right[i]);
+        }
+        return block;
+    }
+
+    private void compress(final int[] chainingValue, final byte[] block, final long counter, final int blockLen,
+                          final int flags, final int[] out) {
+        final int[] m = words;
+        for (int i = 0; i < 16; i++) {
+            m[i] = readInt(block, 4 * i);
+        }
+        int v0 = chainingValue[0], v1 = chainingValue[1], v2 = chainingValue[2], v3 = chainingValue[3],
+                v4 = chainingValue[4], v5 = chainingValue[5], v6 = chainingValue[6], v7 = chainingValue[7],
+                v8 = IV[0], v9 = IV[1], v10 = IV[2], v11 = IV[3],
+                v12 = (int) counter, v13 = (int) (counter >>> 32), v14 = blockLen, v15 = flags;
+        for (final int[] s : SCHEDULE) {
+            // Mix the columns and then the diagonals:
+            v0 += v4 + m[s[0]];
+            v12 = Integer.rotateRight(v12 ^ v0, 16);
+            v8 += v12;
+            v4 = Integer.rotateRight(v4 ^ v8, 12);
+            v0 += v4 + m[s[1]];
+            v12 = Integer.rotateRight(v12 ^ v0, 8);
+            v8 += v12;
+            v4 = Integer.rotateRight(v4 ^ v8, 7);
+            v1 += v5 + m[s[2]];
+            v13 = Integer.rotateRight(v13 ^ v1, 16);
+            v9 += v13;
+            v5 = Integer.rotateRight(v5 ^ v9, 12);
+            v1 += v5 + m[s[3]];
+            v13 = Integer.rotateRight(v13 ^ v1, 8);
+            v9 += v13;
+            v5 = Integer.rotateRight(v5 ^ v9, 7);
+            v2 += v6 + m[s[4]];
+            v14 = Integer.rotateRight(v14 ^ v2, 16);
+            v10 += v14;
+            v6 = Integer.rotateRight(v6 ^ v10, 12);
+            v2 += v6 + m[s[5]];
+            v14 = Integer.rotateRight(v14 ^ v2, 8);
+            v10 += v14;
+            v6 = Integer.rotateRight(v6 ^ v10, 7);
+            v3 += v7 + m[s[6]];
+            v15 = Integer.rotateRight(v15 ^ v3, 16);
+            v11 += v15;
+            v7 = Integer.rotateRight(v7 ^ v11, 12);
+            v3 += v7 + m[s[7]];
+            v15 = Integer.rotateRight(v15 ^ v3, 8);
+            v11 += v15;
+            v7 = Integer.rotateRight(v7 ^ v11, 7);
+            v0 += v5 + m[s[8]];
+            v15 = Integer.rotateRight(v15 ^ v0, 16);
+            v10 += v15;
+            v5 = Integer.rotateRight(v5 ^ v10, 12);
+            v0 += v5 + m[s[9]];
+            v15 = Integer.rotateRight(v15 ^ v0, 8);
+            v10 += v15;
+            v5 = Integer.rotateRight(v5 ^ v10, 7);
+            v1 += v6 + m[s[10]];
+            v12 = Integer.rotateRight(v12 ^ v1, 16);
+            v11 += v12;
+            v6 = Integer.rotateRight(v6 ^ v11, 12);
+            v1 += v6 + m[s[11]];
+            v12 = Integer.rotateRight(v12 ^ v1, 8);
+            v11 += v12;
+            v6 = Integer.rotateRight(v6 ^ v11, 7);
+            v2 += v7 + m[s[12]];
+            v13 = Integer.rotateRight(v13 ^ v2, 16);
+            v8 += v13;
+            v7 = Integer.rotateRight(v7 ^ v8, 12);
+            v2 += v7 + m[s[13]];
+            v13 = Integer.rotateRight(v13 ^ v2, 8);
+            v8 += v13;
+            v7 = Integer.rotateRight(v7 ^ v8, 7);
+            v3 += v4 + m[s[14]];
+            v14 = Integer.rotateRight(v14 ^ v3, 16);
+            v9 += v14;
+            v4 = Integer.rotateRight(v4 ^ v9, 12);
+            v3 += v4 + m[s[15]];
+            v14 = Integer.rotateRight(v14 ^ v3, 8);
+            v9 += v14;
+            v4 = Integer.rotateRight(v4 ^ v9, 7);
+        }
+        out[0] = v0 ^ v8;
+        out[1] = v1 ^ v9;
+        out[2] = v2 ^ v10;
+        out[3] = v3 ^ v11;
+        out[4] = v4 ^ v12;
+        out[5] = v5 ^ v13;
+        out[6] = v6 ^ v14;
+        out[7] = v7 ^ v15;
+    }
+
+    private static int[][] schedule() {
+        final int[][] schedule = new int[7][16];
+        for (int i = 0; i < 16; i++) {
+            schedule[0][i] = i;
+        }
+        for (int round = 1; round < 7; round++) {
+            for (int i = 0; i < 16; i++) {
+                schedule[round][i] = schedule[round - 1][PERMUTATION[i]];
+            }
+        }
+        return schedule;
+    }
+
+    private static int readInt(final byte[] b, final int off) {
+        return b[off] & 0xff | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    private static void writeInt(final byte[] b, final int off, final int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.fun.io.api.Source;
+import global.namespace.fun.io.api.Store;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Defines how the archive file diff compares two archive entries with equal names in the base and update archive
+ * file.
+ * <p>
+ * Note that the delta model always needs a message digest value for each archive entry, so even if the metadata of
+ * two archive entries proves that they are different, both still need to be digested.
+ * However, if the metadata proves that they are equal, then only the archive entry in the base archive file needs to be
+ * digested.
+ * The metadata is provided by the archive entry sources, e.g. the size and CRC-32 checksum of an archive entry in the
+ * central directory of a ZIP file.
+ * If it's not available, then all policies fall back to {@link #FULL_DIGEST}.
+ *
+ * @author Christian Schlichtherle
+ */
+public enum ComparisonPolicy {
+
+    /** Compares the message digests of the content of both archive entries. This is the default policy. */
+    FULL_DIGEST {
+
+        @Override
+        boolean provenEqual(ArchiveEntrySource<?> baseEntry, ArchiveEntrySource<?> updateEntry) { return false; }
+    },
+
+    /**
+     * Pre-screens the size and CRC-32 checksum of both archive entries.
+     * If they are equal, then the raw data of both archive entries gets compared without decompressing it.
+     * If it's equal, too, then the archive entries are considered equal.
+     * Otherwise, the message digests of the content of both archive entries get compared.
+     */
+    PRESCREEN_SIZE_AND_CRC {
+
+        @Override
+        boolean provenEqual(final ArchiveEntrySource<?> baseEntry, final ArchiveEntrySource<?> updateEntry)
+                throws Exception {
+            if (!sizeAndCrcEqual(baseEntry, updateEntry)) {
+                return false;
+            }
+            final Optional<Source> baseRaw = baseEntry.rawSource(), updateRaw = updateEntry.rawSource();
+            return baseRaw.isPresent() && updateRaw.isPresent() && contentEquals(baseRaw.get(), updateRaw.get());
+        }
+    },
+
+    /**
+     * Considers both archive entries to be equal if their size and CRC-32 checksum are equal.
+     * Otherwise, the message digests of the content of both archive entries get compared.
+     * This is the fastest policy, but it's susceptible to CRC-32 collisions, so it should only be used with trusted
+     * archive files.
+     */
+    TRUST_CRC {
+
+        @Override
+        boolean provenEqual(ArchiveEntrySource<?> baseEntry, ArchiveEntrySource<?> updateEntry) {
+            return sizeAndCrcEqual(baseEntry, updateEntry);
+        }
+    };
+
+    /**
+     * Returns {@code true} if the given archive entries are proven to have equal content without digesting them.
+     * Returns {@code false} if their message digests need to be compared.
+     */
+    abstract boolean provenEqual(ArchiveEntrySource<?> baseEntry, ArchiveEntrySource<?> updateEntry) throws Exception;
+
+    private static boolean sizeAndCrcEqual(ArchiveEntrySource<?> baseEntry, ArchiveEntrySource<?> updateEntry) {
+        return knownAndEqual(baseEntry.size(), updateEntry.size()) && knownAndEqual(baseEntry.crc(), updateEntry.crc());
+    }
+
+    private static boolean knownAndEqual(OptionalLong first, OptionalLong second) {
+        return first.isPresent() && first.equals(second);
+    }
+
+    private static boolean contentEquals(final Source first, final Source second) throws Exception {
+        return first.applyReader(in1 -> second.applyReader(in2 -> {
+            final byte[] buffer1 = new byte[Store.BUFSIZE], buffer2 = new byte[Store.BUFSIZE];
+            while (true) {
+                final int read1 = readFully(in1, buffer1), read2 = readFully(in2, buffer2);
+                // Any stale bytes after a short read are still equal from the previous round:
+                if (read1 != read2 || !Arrays.equals(buffer1, buffer2)) {
+                    return false;
+                } else if (read1 < buffer1.length) {
+                    return true;
+                }
+            }
+        }));
+    }
+
+    private static int readFully(final InputStream in, final byte[] buffer) throws Exception {
+        int total = 0;
+        for (int read; total < buffer.length && 0 <= (read = in.read(buffer, total, buffer.length - total)); ) {
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.function.Supplier;
+
+/**
+ * Provides fast content hashes as message digests for use with an
+ * {@linkplain ArchiveFileDiffBuilder#digest(MessageDigest) archive file diff}.
+ * <p>
+ * The content hashes are implemented in pure Java and plugged into the Java Cryptography Architecture via the
+ * {@linkplain #provider() provider} of this class, so they can be used wherever a message digest is expected.
+ * Their algorithm names get recorded in the delta model, e.g. {@code "algorithm":"XXH3-128"} in
+ * {@code META-INF/delta.json}, and patching a delta archive file finds them without registering the provider with
+ * {@link java.security.Security}.
+ * However, other tools which need to look up the algorithm by its name may require registering the provider.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class ContentHashes {
+
+    private ContentHashes() { }
+
+    private static final Provider PROVIDER = new ContentHashProvider();
+
+    /**
+     * Returns a new message digest for the 128 bit variant of the non-cryptographic hash function XXH3.
+     * It's much faster than any cryptographic hash function, but it's only suitable for detecting accidental changes,
+     * so it should only be used for archive files from trusted sources.
+     * The algorithm name is {@code "XXH3-128"}.
+     */
+    public static MessageDigest xxh3_128() { return getInstance(Xxh3Digest.ALGORITHM); }
+
+    /**
+     * Returns a new message digest for the cryptographic hash function BLAKE3 with a 256 bit output.
+     * The algorithm name is {@code "BLAKE3"}.
+     */
+    public static MessageDigest blake3() { return getInstance(Blake3Digest.ALGORITHM); }
+
+    /** Returns the provider of the content hashes. */
+    public static Provider provider() { return PROVIDER; }
+
+    private static MessageDigest getInstance(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm, PROVIDER);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class ContentHashProvider extends Provider {
+
+        private static final long serialVersionUID = 0L;
+
+        @SuppressWarnings("deprecation")
+        ContentHashProvider() {
+            super("ArchiveIO", 1.0, "Fast content hashes for archive-io (XXH3-128, BLAKE3)");
+            putMessageDigest(Xxh3Digest.ALGORITHM, Xxh3Digest.class, Xxh3Digest::new);
+            putMessageDigest(Blake3Digest.ALGORITHM, Blake3Digest.class, Blake3Digest::new);
+        }
+
+        private void putMessageDigest(final String algorithm,
+                                      final Class<? extends MessageDigest> type,
+                                      final Supplier<MessageDigest> factory) {
+            putService(new Service(this, "MessageDigest", algorithm, type.getName(), null, null) {
+
+                @Override
+                public Object newInstance(Object constructorParameter) { return factory.get(); }
+            });
+        }
+    }
+}
@@ -4,28 +4,16 @@
  */
 package global.namespace.archive.io.delta;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import global.namespace.archive.io.api.ArchiveEntryOptions;
+import global.namespace.archive.io.api.ArchiveEntrySource;
 import global.namespace.archive.io.api.ArchiveFileInput;
 import global.namespace.archive.io.api.ArchiveFileOutput;
-import global.namespace.archive.io.delta.dto.DeltaDTO;
-import global.namespace.archive.io.delta.dto.EntryNameAndDigestValueDTO;
-import global.namespace.archive.io.delta.dto.EntryNameAndTwoDigestValuesDTO;
 import global.namespace.archive.io.delta.model.DeltaModel;
-import global.namespace.archive.io.delta.model.EntryNameAndDigestValue;
-import global.namespace.archive.io.delta.model.EntryNameAndTwoDigestValues;
-import global.namespace.fun.io.api.Codec;
 import global.namespace.fun.io.api.Sink;
 import global.namespace.fun.io.api.Source;
 
-import java.security.MessageDigest;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
-import java.util.stream.Collectors;
-
-import static global.namespace.fun.io.jackson.Jackson.json;
-import static java.util.Collections.emptyList;
+import java.io.PushbackInputStream;
+import java.util.Optional;
 
 /**
  * Diffs and patches archive files.
@@ -36,8 +24,6 @@ public class Delta {
 
     private Delta() { }
 
-    private static final String META_INF_DELTA_JSON = "META-INF/delta.json";
-
     /**
      * Returns a builder for comparing a base archive file to an update archive file and generating a delta archive
      * file.
@@ -47,99 +33,82 @@ public class Delta {
     /** Returns a builder for patching a base archive file to an update archive file using a delta archive file. */
     public static ArchiveFilePatchBuilder patch() { return new ArchiveFilePatchBuilder(); }
 
-    static <E> void encodeModel(ArchiveFileOutput<E> output, DeltaModel model) throws Exception {
-        encodeModel(output.sink(META_INF_DELTA_JSON), model);
+    static <E> void encodeModel(ArchiveFileOutput<E> output,
+                                DeltaModel model,
+                                ModelFormat format,
+                                ArchiveEntryOptions options) throws Exception {
+        encodeModel(output.sink(format.entryName(), options), model, format);
     }
 
     static <E> DeltaModel decodeModel(ArchiveFileInput<E> input) throws Exception {
-        return decodeModel(input.source(META_INF_DELTA_JSON).orElseThrow(() ->
-                new InvalidDeltaArchiveFileException(new MissingArchiveEntryException(META_INF_DELTA_JSON))));
-    }
-
-    /** Encodes the given delta model to the given sink. */
-    static void encodeModel(Sink sink, DeltaModel model) throws Exception { encodeDTO(sink, marshal(model)); }
-
-    /** Decodes a delta model from the given source. */
-    static DeltaModel decodeModel(Source source) throws Exception { return unmarshal(decodeDTO(source)); }
-
-    private static void encodeDTO(Sink sink, DeltaDTO dto) throws Exception { jsonCodec().encoder(sink).encode(dto); }
-
-    private static DeltaDTO decodeDTO(Source source) throws Exception {
-        return jsonCodec().decoder(source).decode(DeltaDTO.class);
-    }
-
-    private static Codec jsonCodec() {
-        final ObjectMapper mapper = new ObjectMapper();
-        mapper.setSerializationInclusion(JsonInclude.Include.NON_DEFAULT);
-        return json(mapper);
+        final ModelCollector collector = new ModelCollector();
+        decodeModel(input, collector);
+        return collector.deltaModel();
     }
 
-    private static DeltaDTO marshal(final DeltaModel model) {
-        if (null == model) {
-            return null;
-        } else {
-            final DeltaDTO dto = new DeltaDTO();
-            dto.algorithm = model.digestAlgorithmName();
-            dto.numBytes = model.digestByteLength().orElse(0);
-            dto.changed = marshal2(model.changedEntries());
-            dto.unchanged = marshal(model.unchangedEntries());
-            dto.added = marshal(model.addedEntries());
-            dto.removed = marshal(model.removedEntries());
-            return dto;
+    /**
+     * Decodes the delta model from the given delta archive file input and calls the given visitor for each part of it
+     * while parsing.
+     */
+    static <E> void decodeModel(final ArchiveFileInput<E> input, final ModelVisitor visitor) throws Exception {
+        for (final ModelFormat format : ModelFormat.values()) {
+            final Optional<ArchiveEntrySource<E>> source = input.source(format.entryName());
+            if (source.isPresent()) {
+                decodeModel(source.get(), visitor);
+                return;
+            }
         }
+        throw new InvalidDeltaArchiveFileException(new MissingArchiveEntryException(ModelFormat.JSON.entryName()));
     }
 
-    private static DeltaModel unmarshal(final DeltaDTO dto) throws Exception {
-        if (null == dto) {
-            return null;
-        } else {
-            return DeltaModel
-                    .builder()
-                    .messageDigest(MessageDigest.getInstance(dto.algorithm))
-                    .changedEntries(unmarshal2(dto.changed))
-                    .unchangedEntries(unmarshal(dto.unchanged))
-                    .addedEntries(unmarshal(dto.added))
-                    .removedEntries(unmarshal(dto.removed))
-                    .build();
-        }
+    /**
+     * Encodes the given delta model as JSON to the given sink.
+     * This is the same format as the {@code META-INF/delta.json} entry of a delta archive file, so this can get used
+     * to save a delta model as the {@linkplain ArchiveFileDiffBuilder#baseManifest(DeltaModel) base manifest} for a
+     * future diff.
+     */
+    public static void encodeModel(Sink sink, DeltaModel model) throws Exception {
+        encodeModel(sink, model, ModelFormat.JSON);
     }
 
-    private static EntryNameAndTwoDigestValuesDTO[] marshal2(final Collection<EntryNameAndTwoDigestValues> c) {
-        if (null == c || c.isEmpty()) {
-            return null;
+    /** Encodes the given delta model in the given format to the given sink. */
+    public static void encodeModel(final Sink sink, final DeltaModel model, final ModelFormat format)
+            throws Exception {
+        if (ModelFormat.BINARY == format) {
+            sink.acceptWriter(out -> BinaryModels.encode(model, out));
         } else {
-            return c.stream().map(values -> {
-                final EntryNameAndTwoDigestValuesDTO dto = new EntryNameAndTwoDigestValuesDTO();
-                dto.name = values.name();
-                dto.first = values.baseDigestValue();
-                dto.second = values.updateDigestValue();
-                return dto;
-            }).toArray(EntryNameAndTwoDigestValuesDTO[]::new);
+            sink.acceptWriter(out -> JsonModels.encode(model, out));
         }
     }
 
-    private static List<EntryNameAndTwoDigestValues> unmarshal2(EntryNameAndTwoDigestValuesDTO[] c) {
-        return null == c ? emptyList() : Arrays.stream(c)
-                .map(dto -> new EntryNameAndTwoDigestValues(dto.name, dto.first, dto.second))
-                .collect(Collectors.toList());
-    }
-
-    private static EntryNameAndDigestValueDTO[] marshal(final Collection<EntryNameAndDigestValue> c) {
-        if (null == c || c.isEmpty()) {
-            return null;
-        } else {
-            return c.stream().map(value -> {
-                final EntryNameAndDigestValueDTO dto = new EntryNameAndDigestValueDTO();
-                dto.name = value.name();
-                dto.digest = value.digestValue();
-                return dto;
-            }).toArray(EntryNameAndDigestValueDTO[]::new);
-        }
+    /**
+     * Decodes a delta model from the given source, e.g. a saved base manifest.
+     * The format gets detected automatically.
+     */
+    public static DeltaModel decodeModel(Source source) throws Exception {
+        final ModelCollector collector = new ModelCollector();
+        decodeModel(source, collector);
+        return collector.deltaModel();
     }
 
-    private static List<EntryNameAndDigestValue> unmarshal(EntryNameAndDigestValueDTO[] c) {
-        return null == c ? emptyList() : Arrays.stream(c)
-                .map(dto -> new EntryNameAndDigestValue(dto.name, dto.digest))
-                .collect(Collectors.toList());
+    /**
+     * Decodes a delta model from the given source and calls the given visitor for each part of it while parsing.
+     * The format gets detected automatically.
+     */
+    static void decodeModel(final Source source, final ModelVisitor visitor) throws Exception {
+        source.acceptReader(in -> {
+            final PushbackInputStream pin = new PushbackInputStream(in, 4);
+            final byte[] header = new byte[4];
+            int read = 0;
+            for (int n; read < header.length && 0 <= (n = pin.read(header, read, header.length - read)); ) {
+                read += n;
+            }
+            pin.unread(header, 0, read);
+            if (read == header.length && BinaryModels.isBinary(header)) {
+                BinaryModels.decode(pin, visitor);
+            } else {
+                JsonModels.decode(pin, visitor);
+            }
+        });
     }
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A cache for message digest values of archive entries.
+ * The values are keyed by the identity of the archive file, the entry name, size, CRC-32 checksum, last modification
+ * time and the message digest algorithm name, so that the archive entries don't need to get digested again when the
+ * same archive file gets diffed again.
+ * Implementations must be thread-safe.
+ *
+ * @see DigestCaches
+ * @author Christian Schlichtherle
+ */
+public abstract class DigestCache implements Flushable {
+
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    /** Returns the cached message digest value for the given key, if any, and updates the hit or miss counter. */
+    public final Optional<String> get(final Key key) throws Exception {
+        final Optional<String> value = lookup(key);
+        (value.isPresent() ? hits : misses).incrementAndGet();
+        return value;
+    }
+
+    /** Puts the given message digest value for the given key into this cache. */
+    public abstract void put(Key key, String digestValue) throws Exception;
+
+    /** Returns the cached message digest value for the given key, if any. */
+    protected abstract Optional<String> lookup(Key key) throws Exception;
+
+    /**
+     * Writes any buffered message digest values to persistent storage.
+     * An archive file diff calls this method when it's done.
+     * The default implementation does nothing.
+     */
+    @Override
+    public void flush() throws IOException { }
+
+    /** Returns the number of cache hits so far. */
+    public long hits() { return hits.get(); }
+
+    /** Returns the number of cache misses so far. */
+    public long misses() { return misses.get(); }
+
+    /**
+     * A Value Object which represents the key for a message digest value in a digest cache.
+     * The size is required, but either the CRC-32 checksum or the last modification time may be unknown.
+     */
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    public static final class Key {
+
+        private final String archive, name, algorithm;
+
+        private final long size;
+
+        private final OptionalLong crc, time;
+
+        Key(final String archive, final String name, final long size, final OptionalLong crc,
+            final OptionalLong time, final String algorithm) {
+            this.archive = requireNonNull(archive);
+            this.name = requireNonNull(name);
+            this.size = size;
+            this.crc = requireNonNull(crc);
+            this.time = requireNonNull(time);
+            this.algorithm = requireNonNull(algorithm);
+            assert crc.isPresent() || time.isPresent();
+        }
+
+        /** Returns the identity of the archive file. */
+        public String archive() { return archive; }
+
+        /** Returns the archive entry name. */
+        public String name() { return name; }
+
+        /** Returns the size of the uncompressed data of the archive entry. */
+        public long size() { return size; }
+
+        /** Returns the CRC-32 checksum of the uncompressed data of the archive entry, if known. */
+        public OptionalLong crc() { return crc; }
+
+        /** Returns the last modification time of the archive entry in milliseconds since the epoch, if known. */
+        public OptionalLong time() { return time; }
+
+        /** Returns the message digest algorithm name. */
+        public String algorithm() { return algorithm; }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) obj;
+            return  this.archive.equals(that.archive) &&
+                    this.name.equals(that.name) &&
+                    this.size == that.size &&
+                    this.crc.equals(that.crc) &&
+                    this.time.equals(that.time) &&
+                    this.algorithm.equals(that.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 17;
+            hash = 31 * hash + archive.hashCode();
+            hash = 31 * hash + name.hashCode();
+            hash = 31 * hash + Long.hashCode(size);
+            hash = 31 * hash + crc.hashCode();
+            hash = 31 * hash + time.hashCode();
+            hash = 31 * hash + algorithm.hashCode();
+            return hash;
+        }
+    }
+}
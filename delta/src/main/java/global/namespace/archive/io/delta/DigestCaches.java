@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Provides digest caches.
+ *
+ * @author Christian Schlichtherle
+ */
+public class DigestCaches {
+
+    private DigestCaches() { }
+
+    /**
+     * Returns a new in-memory digest cache which holds at most the given number of message digest values.
+     * If the cache is full, then the least recently used value gets evicted.
+     */
+    public static DigestCache memory(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(capacity + " < 1");
+        }
+        return new MemoryDigestCache(capacity);
+    }
+
+    /** Returns a new digest cache which persists the message digest values in the given file. */
+    public static DigestCache file(File file) { return path(file.toPath()); }
+
+    /**
+     * Returns a new digest cache which persists the message digest values in the given file.
+     * The file gets loaded when the cache is first used and each new value gets appended to it when the diff is done,
+     * so it can get shared by subsequent diffs, even in different processes, but not concurrently.
+     */
+    public static DigestCache path(Path path) { return new FileDigestCache(requireNonNull(path)); }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * A digest cache which persists the message digest values in a text file.
+ * Each line consists of the SHA-1 digest value of the key and the message digest value, separated by a space
+ * character.
+ * Hashing the key avoids escaping the entry name and keeps the lines short.
+ * If a key is present on more than one line, then the last line wins.
+ * <p>
+ * The file gets loaded into a concurrent map when the cache is first used, so that looking up values doesn't need any
+ * locking.
+ * Putting a value updates the map and appends a line to the file while holding a lock.
+ * If more than {@value #MAX_LINES_PER_VALUE} lines per value get loaded, then the file gets rewritten with one line per
+ * value.
+ * New values get appended to the file using a buffered writer, which gets closed when the cache gets
+ * {@linkplain #flush() flushed}.
+ *
+ * @author Christian Schlichtherle
+ */
+final class FileDigestCache extends DigestCache {
+
+    /** The maximum number of lines per value in the loaded file before it gets rewritten, which is {@value}. */
+    private static final int MAX_LINES_PER_VALUE = 2;
+
+    private final Path path;
+
+    private volatile Map<String, String> map;
+
+    private Writer writer;
+
+    FileDigestCache(final Path path) { this.path = path.toAbsolutePath(); }
+
+    @Override
+    public void put(final Key key, final String digestValue) throws Exception {
+        final String hash = hash(key);
+        final Map<String, String> map = map();
+        // Update the map and append the line under the same lock, so that the last line for each key in the file
+        // always has the same value as the map:
+        synchronized (this) {
+            if (!digestValue.equals(map.put(hash, digestValue))) {
+                writer().write(hash + ' ' + digestValue + '\n');
+            }
+        }
+    }
+
+    @Override
+    protected Optional<String> lookup(Key key) throws Exception { return Optional.ofNullable(map().get(hash(key))); }
+
+    /** Writes any new values to the file and closes it. */
+    @Override
+    public synchronized void flush() throws IOException {
+        final Writer writer = this.writer;
+        if (null != writer) {
+            this.writer = null;
+            writer.close();
+        }
+    }
+
+    private Writer writer() throws IOException {
+        Writer writer = this.writer;
+        if (null == writer) {
+            createParentDirectories();
+            this.writer = writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, CREATE, APPEND);
+        }
+        return writer;
+    }
+
+    private Map<String, String> map() throws IOException {
+        Map<String, String> map = this.map;
+        if (null == map) {
+            synchronized (this) {
+                map = this.map;
+                if (null == map) {
+                    this.map = map = load();
+                }
+            }
+        }
+        return map;
+    }
+
+    private Map<String, String> load() throws IOException {
+        final Map<String, String> map = new ConcurrentHashMap<>();
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            for (String line; null != (line = reader.readLine()); lines++) {
+                final int space = line.indexOf(' ');
+                if (0 < space) {
+                    map.put(line.substring(0, space), line.substring(space + 1));
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+        }
+        if ((long) MAX_LINES_PER_VALUE * map.size() < lines) {
+            compact(map);
+        }
+        return map;
+    }
+
+    /** Rewrites the file with one line per value of the given map. */
+    private void compact(final Map<String, String> map) throws IOException {
+        createParentDirectories();
+        final Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), null);
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (final Map.Entry<String, String> entry : map.entrySet()) {
+                    writer.write(entry.getKey() + ' ' + entry.getValue() + '\n');
+                }
+            }
+            try {
+                Files.move(temp, path, ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void createParentDirectories() throws IOException {
+        final Path parent = path.getParent();
+        if (null != parent) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private static String hash(final Key key) {
+        final MessageDigest digest = MessageDigests.sha1();
+        update(digest, key.archive());
+        update(digest, key.name());
+        update(digest, Long.toString(key.size()));
+        update(digest, key.crc().isPresent() ? Long.toString(key.crc().getAsLong()) : "");
+        update(digest, key.time().isPresent() ? Long.toString(key.time().getAsLong()) : "");
+        update(digest, key.algorithm());
+        return MessageDigests.valueOf(digest);
+    }
+
+    private static void update(final MessageDigest digest, final String field) {
+        digest.update(field.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+}
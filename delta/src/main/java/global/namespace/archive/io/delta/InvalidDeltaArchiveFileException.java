@@ -15,5 +15,7 @@ public class InvalidDeltaArchiveFileException extends IOException {
 
     private static final long serialVersionUID = 0L;
 
+    InvalidDeltaArchiveFileException(String message) { super(message); }
+
     InvalidDeltaArchiveFileException(Throwable cause) { super(cause); }
 }
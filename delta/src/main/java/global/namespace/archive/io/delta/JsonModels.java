@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import global.namespace.archive.io.delta.model.DeltaModel;
+import global.namespace.archive.io.delta.model.EntryNameAndDigestValue;
+import global.namespace.archive.io.delta.model.EntryNameAndTwoDigestValues;
+import global.namespace.archive.io.delta.model.EntryNamesAndDigestValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+/**
+ * Provides functions for encoding and decoding delta models in JSON using the Jackson streaming API.
+ * The JSON format is defined by the {@linkplain global.namespace.archive.io.delta.dto.DeltaDTO DTO classes}, but no
+ * DTOs or JSON trees get created, so the memory consumption for decoding is independent of the number of entries
+ * unless the visitor collects them.
+ *
+ * @author Christian Schlichtherle
+ */
+class JsonModels {
+
+    private JsonModels() { }
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    /** Encodes the given delta model to the given output stream. */
+    static void encode(final DeltaModel model, final OutputStream out) throws IOException {
+        try (JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeStringField("algorithm", model.digestAlgorithmName());
+            final int numBytes = model.digestByteLength().orElse(0);
+            if (0 != numBytes) {
+                generator.writeNumberField("numBytes", numBytes);
+            }
+            writeArray(generator, "changed", model.changedEntries(), entry -> {
+                generator.writeStringField("name", entry.name());
+                generator.writeStringField("first", entry.baseDigestValue());
+                generator.writeStringField("second", entry.updateDigestValue());
+                if (entry.binaryDelta()) {
+                    generator.writeBooleanField("binaryDelta", true);
+                }
+            });
+            writeArray(generator, "unchanged", model.unchangedEntries(), entry -> writeFields(generator, entry));
+            writeArray(generator, "added", model.addedEntries(), entry -> writeFields(generator, entry));
+            writeArray(generator, "removed", model.removedEntries(), entry -> writeFields(generator, entry));
+            writeArray(generator, "copied", model.copiedEntries(), entry -> {
+                generator.writeStringField("name", entry.name());
+                generator.writeStringField("base", entry.baseName());
+                generator.writeStringField("digest", entry.digestValue());
+            });
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Decodes a delta model from the given input stream and calls the given visitor for each part of it.
+     * The fields may appear in any order, unless the visitor
+     * {@linkplain ModelVisitor#requiresDigestAlgorithmNameFirst() requires} the message digest algorithm name to
+     * precede the lists of entries, which is the case for any delta model encoded by this class or by the Jackson
+     * object mapper for the DTO classes.
+     */
+    static void decode(final InputStream in, final ModelVisitor visitor) throws Exception {
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            boolean algorithm = false;
+            while (JsonToken.FIELD_NAME == parser.nextToken()) {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("algorithm".equals(field)) {
+                    visitor.visitDigestAlgorithmName(parser.getValueAsString());
+                    algorithm = true;
+                } else if (JsonToken.START_ARRAY == value && isEntryList(field)) {
+                    if (!algorithm && visitor.requiresDigestAlgorithmNameFirst()) {
+                        throw new IOException("The algorithm must precede the entries of the delta model.");
+                    }
+                    readArray(parser, field, visitor);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            expect(parser, parser.getCurrentToken(), JsonToken.END_OBJECT);
+            if (!algorithm) {
+                throw new IOException("Missing algorithm in delta model.");
+            }
+        }
+    }
+
+    private static boolean isEntryList(final String field) {
+        switch (field) {
+            case "changed":
+            case "unchanged":
+            case "added":
+            case "removed":
+            case "copied":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void readArray(final JsonParser parser, final String field, final ModelVisitor visitor)
+            throws Exception {
+        while (JsonToken.START_OBJECT == parser.nextToken()) {
+            String name = null, first = null, second = null, base = null, digest = null;
+            boolean binaryDelta = false;
+            while (JsonToken.FIELD_NAME == parser.nextToken()) {
+                final String property = parser.getCurrentName();
+                parser.nextToken();
+                switch (property) {
+                    case "name":
+                        name = parser.getValueAsString();
+                        break;
+                    case "first":
+                        first = parser.getValueAsString();
+                        break;
+                    case "second":
+                        second = parser.getValueAsString();
+                        break;
+                    case "base":
+                        base = parser.getValueAsString();
+                        break;
+                    case "digest":
+                        digest = parser.getValueAsString();
+                        break;
+                    case "binaryDelta":
+                        binaryDelta = parser.getValueAsBoolean();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            require(parser, field, "name", name);
+            switch (field) {
+                case "changed":
+                    visitor.visitChanged(new EntryNameAndTwoDigestValues(name,
+                            require(parser, field, "first", first), require(parser, field, "second", second),
+                            binaryDelta));
+                    break;
+                case "unchanged":
+                    visitor.visitUnchanged(new EntryNameAndDigestValue(name, require(parser, field, "digest", digest)));
+                    break;
+                case "added":
+                    visitor.visitAdded(new EntryNameAndDigestValue(name, require(parser, field, "digest", digest)));
+                    break;
+                case "removed":
+                    visitor.visitRemoved(new EntryNameAndDigestValue(name, require(parser, field, "digest", digest)));
+                    break;
+                default:
+                    visitor.visitCopied(new EntryNamesAndDigestValue(name, require(parser, field, "base", base),
+                            require(parser, field, "digest", digest)));
+            }
+        }
+        expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+    }
+
+    private static String require(final JsonParser parser,
+                                  final String field,
+                                  final String property,
+                                  final String value) throws InvalidDeltaArchiveFileException {
+        if (null == value) {
+            throw new InvalidDeltaArchiveFileException("Missing " + property + " of an entry in the " + field +
+                    " entries of the delta model at " + parser.getCurrentLocation() + ".");
+        }
+        return value;
+    }
+
+    private static void expect(final JsonParser parser, final JsonToken actual, final JsonToken expected)
+            throws IOException {
+        if (expected != actual) {
+            throw new IOException("Expected " + expected + ", but got " + actual + " at " +
+                    parser.getCurrentLocation() + ".");
+        }
+    }
+
+    private interface FieldsWriter<T> {
+
+        void write(T entry) throws IOException;
+    }
+
+    private static <T> void writeArray(final JsonGenerator generator,
+                                       final String field,
+                                       final Collection<T> entries,
+                                       final FieldsWriter<T> writer) throws IOException {
+        if (!entries.isEmpty()) {
+            generator.writeArrayFieldStart(field);
+            for (final T entry : entries) {
+                generator.writeStartObject();
+                writer.write(entry);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private static void writeFields(final JsonGenerator generator, final EntryNameAndDigestValue entry)
+            throws IOException {
+        generator.writeStringField("name", entry.name());
+        generator.writeStringField("digest", entry.digestValue());
+    }
+}
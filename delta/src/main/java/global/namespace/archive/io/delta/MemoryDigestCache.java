@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A digest cache which holds a limited number of message digest values in memory and evicts the least recently used
+ * value when full.
+ *
+ * @author Christian Schlichtherle
+ */
+final class MemoryDigestCache extends DigestCache {
+
+    private final Map<Key, String> map;
+
+    MemoryDigestCache(final int capacity) {
+        this.map = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) { return capacity < size(); }
+        };
+    }
+
+    @Override
+    public void put(final Key key, final String digestValue) {
+        synchronized (map) {
+            map.put(key, digestValue);
+        }
+    }
+
+    @Override
+    protected Optional<String> lookup(final Key key) {
+        synchronized (map) {
+            return Optional.ofNullable(map.get(key));
+        }
+    }
+}
@@ -4,12 +4,22 @@
  */
 package global.namespace.archive.io.delta;
 
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.fun.io.api.Sink;
+import global.namespace.fun.io.api.Socket;
 import global.namespace.fun.io.api.Source;
 import global.namespace.fun.io.api.Store;
+import global.namespace.fun.io.api.function.XConsumer;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.function.Supplier;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
 
 /**
  * Provides message digest functions.
@@ -29,6 +39,50 @@ class MessageDigests {
         }
     }
 
+    /**
+     * Returns a new message digest for the given algorithm name.
+     * If no installed provider supports the algorithm, then the {@linkplain ContentHashes#provider() content hash
+     * provider} gets tried.
+     */
+    static MessageDigest newDigest(final String algorithm) throws NoSuchAlgorithmException {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            try {
+                return MessageDigest.getInstance(algorithm, ContentHashes.provider());
+            } catch (NoSuchAlgorithmException ignored) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns a supplier of new message digests which are copies of the given prototype.
+     * If the prototype cannot get cloned, then the supplier returns new message digests for the same algorithm
+     * instead.
+     */
+    static Supplier<MessageDigest> copiesOf(final MessageDigest prototype) {
+        try {
+            prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            final String algorithm = prototype.getAlgorithm();
+            return () -> {
+                try {
+                    return newDigest(algorithm);
+                } catch (NoSuchAlgorithmException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            };
+        }
+        return () -> {
+            try {
+                return (MessageDigest) prototype.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        };
+    }
+
     /**
      * Returns a positive, big-endian integer in hexadecimal string notation representing the value of the given message
      * digest.
@@ -38,10 +92,29 @@ class MessageDigests {
      * @return a positive, big-endian integer in hexadecimal string notation representing the value of the message
      *         digest.
      */
-    static String valueOf(MessageDigest digest) {
-        return new BigInteger(1, digest.digest()).toString(16);
+    static String valueOf(MessageDigest digest) { return valueOf(digest.digest()); }
+
+    /**
+     * Returns a positive, big-endian integer in hexadecimal string notation without leading zeros representing the
+     * value of the given bytes.
+     * This is equivalent to {@code new BigInteger(1, bytes).toString(16)}, but much faster.
+     */
+    static String valueOf(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        int length = 0;
+        for (final byte b : bytes) {
+            if (0 != length || 0 != (b & 0xf0)) {
+                chars[length++] = HEX[b >> 4 & 0xf];
+            }
+            if (0 != length || 0 != (b & 0xf)) {
+                chars[length++] = HEX[b & 0xf];
+            }
+        }
+        return 0 == length ? "0" : new String(chars, 0, length);
     }
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     /**
      * Updates the given message digest with the binary data from the given source.
      *
@@ -49,6 +122,10 @@ class MessageDigests {
      * @param source the source for reading the binary data.
      */
     static void updateDigestFrom(final MessageDigest digest, final Source source) throws Exception {
+        if (source instanceof ArchiveEntrySource &&
+                forEachMappedRegion((ArchiveEntrySource<?>) source, digest::update)) {
+            return;
+        }
         source.acceptReader(in -> {
             final byte[] buffer = new byte[Store.BUFSIZE];
             for (int read; 0 <= (read = in.read(buffer)); ) {
@@ -56,4 +133,64 @@ class MessageDigests {
             }
         });
     }
+
+    /**
+     * Updates the given message digest with the binary data from the given file channel, using positional reads.
+     *
+     * @param digest the message digest to update.
+     * @param channel the file channel for reading the binary data.
+     */
+    static void updateDigestFrom(final MessageDigest digest, final FileChannel channel) throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocate(Store.BUFSIZE);
+        for (long position = 0; 0 <= channel.read(buffer, position); buffer.clear()) {
+            buffer.flip();
+            position += buffer.remaining();
+            digest.update(buffer);
+        }
+    }
+
+    /**
+     * Maps the content of the given archive entry source into memory and passes each mapped region to the given
+     * consumer if the source provides a file channel and its size is at least {@value #MAP_THRESHOLD} bytes.
+     * Otherwise, nothing happens.
+     * This avoids copying large files to the heap just for reading them.
+     *
+     * @return {@code true} if and only if the content has been mapped.
+     */
+    static boolean forEachMappedRegion(final ArchiveEntrySource<?> source, final XConsumer<ByteBuffer> consumer)
+            throws Exception {
+        final Optional<Socket<FileChannel>> channel = source.channel();
+        final OptionalLong size = source.size();
+        if (!channel.isPresent() || !size.isPresent() || size.getAsLong() < MAP_THRESHOLD) {
+            return false;
+        }
+        channel.get().accept(c -> {
+            for (long position = 0, end = c.size(); position < end; position += MAP_REGION) {
+                consumer.accept(c.map(READ_ONLY, position, Math.min(MAP_REGION, end - position)));
+            }
+        });
+        return true;
+    }
+
+    /** The minimum size of an archive entry for mapping its content into memory, which is {@value}. */
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    private static final long MAP_REGION = 1 << 30;
+
+    /**
+     * Updates the given message digest with the binary data from the given source while copying it to the given sink.
+     *
+     * @param digest the message digest to update.
+     * @param source the source for reading the binary data.
+     * @param sink the sink for writing a copy of the binary data.
+     */
+    static void updateDigestFrom(final MessageDigest digest, final Source source, final Sink sink) throws Exception {
+        source.acceptReader(in -> sink.acceptWriter(out -> {
+            final byte[] buffer = new byte[Store.BUFSIZE];
+            for (int read; 0 <= (read = in.read(buffer)); ) {
+                digest.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+        }));
+    }
 }
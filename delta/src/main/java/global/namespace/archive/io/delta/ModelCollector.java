@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import global.namespace.archive.io.delta.model.DeltaModel;
+import global.namespace.archive.io.delta.model.EntryNameAndDigestValue;
+import global.namespace.archive.io.delta.model.EntryNameAndTwoDigestValues;
+import global.namespace.archive.io.delta.model.EntryNamesAndDigestValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A model visitor which collects the visited parts into a delta model.
+ *
+ * @author Christian Schlichtherle
+ */
+final class ModelCollector implements ModelVisitor {
+
+    private final DeltaModel.Builder builder = DeltaModel.builder();
+
+    private final List<EntryNameAndTwoDigestValues> changed = new ArrayList<>();
+
+    private final List<EntryNameAndDigestValue>
+            unchanged = new ArrayList<>(),
+            added = new ArrayList<>(),
+            removed = new ArrayList<>();
+
+    private final List<EntryNamesAndDigestValue> copied = new ArrayList<>();
+
+    @Override
+    public void visitDigestAlgorithmName(String name) throws Exception {
+        builder.messageDigest(MessageDigests.newDigest(name));
+    }
+
+    @Override
+    public void visitChanged(EntryNameAndTwoDigestValues entry) { changed.add(entry); }
+
+    @Override
+    public void visitUnchanged(EntryNameAndDigestValue entry) { unchanged.add(entry); }
+
+    @Override
+    public void visitAdded(EntryNameAndDigestValue entry) { added.add(entry); }
+
+    @Override
+    public void visitRemoved(EntryNameAndDigestValue entry) { removed.add(entry); }
+
+    @Override
+    public void visitCopied(EntryNamesAndDigestValue entry) { copied.add(entry); }
+
+    /** Returns the collected delta model. */
+    DeltaModel deltaModel() {
+        return builder
+                .changedEntries(changed)
+                .unchangedEntries(unchanged)
+                .addedEntries(added)
+                .removedEntries(removed)
+                .copiedEntries(copied)
+                .build();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+/**
+ * Defines the format of the delta model in a delta archive file.
+ * When patching, the format gets detected automatically, so delta archive files in any format can get patched.
+ *
+ * @author Christian Schlichtherle
+ */
+public enum ModelFormat {
+
+    /**
+     * Encodes the delta model as JSON in the entry {@code META-INF/delta.json}.
+     * This is the default format.
+     */
+    JSON("META-INF/delta.json"),
+
+    /**
+     * Encodes the delta model in a compact binary format in the entry {@code META-INF/delta.bin}.
+     * The entry names get sorted and prefix-compressed and the message digest values get stored as raw bytes, which
+     * makes it much smaller and faster to decode than JSON for archive files with many entries.
+     * This format requires the message digest values to be in their canonical representation, which is the case for
+     * any delta model computed by an archive file diff.
+     */
+    BINARY("META-INF/delta.bin");
+
+    private final String entryName;
+
+    ModelFormat(final String entryName) { this.entryName = entryName; }
+
+    /** Returns the name of the entry for the delta model in a delta archive file. */
+    String entryName() { return entryName; }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import global.namespace.archive.io.delta.model.EntryNameAndDigestValue;
+import global.namespace.archive.io.delta.model.EntryNameAndTwoDigestValues;
+import global.namespace.archive.io.delta.model.EntryNamesAndDigestValue;
+
+/**
+ * A visitor of the parts of a delta model while it gets decoded.
+ * The message digest algorithm name gets visited first if it precedes the entries in the encoded delta model, which
+ * is the case for any delta model encoded by this package.
+ * Note that the order of the calls to the other visitor methods is undefined.
+ *
+ * @author Christian Schlichtherle
+ */
+interface ModelVisitor {
+
+    /**
+     * Returns {@code true} if and only if the message digest algorithm name must get visited before any entry.
+     * If so, decoding a delta model where the algorithm name follows the entries fails.
+     * The default implementation returns {@code false}.
+     */
+    default boolean requiresDigestAlgorithmNameFirst() { return false; }
+
+    void visitDigestAlgorithmName(String name) throws Exception;
+
+    void visitChanged(EntryNameAndTwoDigestValues entry) throws Exception;
+
+    void visitUnchanged(EntryNameAndDigestValue entry) throws Exception;
+
+    void visitAdded(EntryNameAndDigestValue entry) throws Exception;
+
+    void visitRemoved(EntryNameAndDigestValue entry) throws Exception;
+
+    void visitCopied(EntryNamesAndDigestValue entry) throws Exception;
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+/**
+ * Defines how the archive file patch verifies the archive entries which it writes to the update archive file.
+ * <p>
+ * Note that the content of archive entries which have been encoded as binary deltas always gets verified against its
+ * message digest because there is no CRC-32 checksum to check it against.
+ * The content of their base entries always gets verified against its message digest, too, so that decoding a binary
+ * delta against a wrong base archive file fails with a {@link WrongBaseArchiveFileException}.
+ *
+ * @author Christian Schlichtherle
+ */
+public enum VerificationPolicy {
+
+    /**
+     * Verifies the message digest of the content of each archive entry.
+     * When copying raw entries, the CRC-32 checksum of each archive entry gets verified, too.
+     * This is the default policy, except when updating the base archive file in place.
+     */
+    FULL_DIGEST {
+
+        @Override
+        boolean digest(boolean fromDelta) { return true; }
+
+        @Override
+        boolean checksum(boolean fromDelta, boolean rawCopy) { return rawCopy; }
+    },
+
+    /**
+     * Verifies the message digest of the content of each archive entry from the delta archive file, but trusts the
+     * base archive file.
+     * This saves reading the unchanged entries twice when copying raw entries and digesting them otherwise.
+     * This is the default policy when updating the base archive file in place, so that the unchanged entries don't get
+     * read at all.
+     */
+    DELTA_DIGEST {
+
+        @Override
+        boolean digest(boolean fromDelta) { return fromDelta; }
+
+        @Override
+        boolean checksum(boolean fromDelta, boolean rawCopy) { return fromDelta && rawCopy; }
+    },
+
+    /**
+     * Verifies the CRC-32 checksum of the content of each archive entry, if known, but not its message digest.
+     * This is much faster than computing a cryptographic message digest, but it only detects accidental corruption of
+     * the base or delta archive file.
+     * In particular, it does not detect a wrong base archive file, because the CRC-32 checksum of each archive entry
+     * only gets checked against the header of the same archive entry, so patching a wrong base archive file succeeds
+     * and writes a wrong update archive file.
+     * Only the base entries of binary deltas get verified against their message digests.
+     * When copying raw entries, their content doesn't get read at all because their CRC-32 checksums get copied along
+     * with their raw data.
+     */
+    CRC {
+
+        @Override
+        boolean digest(boolean fromDelta) { return false; }
+
+        @Override
+        boolean checksum(boolean fromDelta, boolean rawCopy) { return true; }
+    },
+
+    /**
+     * Verifies the message digest of the content of each archive entry like {@link #FULL_DIGEST}, but on a pool of
+     * background threads, so that writing the update archive file doesn't need to wait for it.
+     * The written content gets teed in blocks to the pool, so no archive entry gets read twice, except for the
+     * unchanged entries when updating the base archive file in place, which aren't written at all.
+     * The size of the pool is the {@linkplain ArchiveFilePatchBuilder#parallelism(int) parallelism level} of the
+     * patch.
+     * Any verification failure gets reported when all archive entries have been written, but before the update
+     * archive file gets closed.
+     */
+    BACKGROUND_DIGEST {
+
+        @Override
+        boolean digest(boolean fromDelta) { return true; }
+
+        @Override
+        boolean checksum(boolean fromDelta, boolean rawCopy) { return rawCopy; }
+
+        @Override
+        boolean background() { return true; }
+    };
+
+    /** Returns {@code true} if and only if the message digest of an archive entry should get verified. */
+    abstract boolean digest(boolean fromDelta);
+
+    /** Returns {@code true} if and only if the CRC-32 checksum of an archive entry should get verified. */
+    abstract boolean checksum(boolean fromDelta, boolean rawCopy);
+
+    /** Returns {@code true} if and only if archive entries should get verified on a pool of background threads. */
+    boolean background() { return false; }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import java.io.IOException;
+
+/**
+ * Indicates that the CRC-32 checksum of the content of an archive entry did not match the checksum in its metadata.
+ *
+ * @author Christian Schlichtherle
+ */
+public class WrongChecksumException extends IOException {
+
+    private static final long serialVersionUID = 0L;
+
+    WrongChecksumException(String message) { super(message); }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * A pure Java implementation of the 128 bit variant of the non-cryptographic hash function XXH3 with the default
+ * secret and seed zero, compatible with {@code XXH3_128bits} of xxHash 0.8.
+ * The message digest value is the canonical representation, that is the high and then the low 64 bits in big-endian
+ * order.
+ *
+ * @author Christian Schlichtherle
+ */
+final class Xxh3Digest extends MessageDigest implements Cloneable {
+
+    static final String ALGORITHM = "XXH3-128";
+
+    private static final long PRIME32_1 = 0x9E3779B1L, PRIME32_2 = 0x85EBCA77L, PRIME32_3 = 0xC2B2AE3DL;
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L, PRIME64_2 = 0xC2B2AE3D27D4EB4FL,
+            PRIME64_3 = 0x165667B19E3779F9L, PRIME64_4 = 0x85EBCA77C2B2AE63L, PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private static final long PRIME_MX1 = 0x165667919E3779F9L, PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    private static final byte[] SECRET = bytes(
+            "b8fe6c3923a44bbe7c01812cf721ad1cded46de9839097db7240a4a4b7b3671f" +
+            "cb79e64eccc0e578825ad07dccff7221b8084674f743248ee03590e6813a264c" +
+            "3c2852bb91c300cb88d0658b1b532ea371644897a20df94e3819ef46a9deacd8" +
+            "a8fa763fe39c343ff9dcbbc7c70b4f1d8a51e04bcdb45931c89f7ec9d9787364" +
+            "eac5ac8334d3ebc3c581a0fffa1363eb170ddd51b7f0da49d316552629d4689e" +
+            "2b16be587d47a1fc8ff8b8d17ad031ce45cb3a8f95160428afd7fbcabb4b407e");
+
+    /** The secret as little-endian longs for the stripes, which are aligned to multiples of eight bytes. */
+    private static final long[] SECRET_LONGS = longs(SECRET);
+
+    private static final int STRIPE_LEN = 64, STRIPES_PER_BLOCK = (SECRET.length - STRIPE_LEN) / 8;
+
+    private static final int MIDSIZE_MAX = 240, BUFFER_SIZE = 256;
+
+    private long[] acc = new long[8];
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int bufferedSize, stripesSoFar;
+
+    private long totalLen;
+
+    Xxh3Digest() {
+        super(ALGORITHM);
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() { return 16; }
+
+    @Override
+    protected void engineUpdate(final byte input) {
+        if (bufferedSize < BUFFER_SIZE) {
+            buffer[bufferedSize++] = input;
+            totalLen++;
+        } else {
+            engineUpdate(new byte[] { input }, 0, 1);
+        }
+    }
+
+    @Override
+    protected void engineUpdate(final byte[] input, int off, int len) {
+        totalLen += len;
+        if (bufferedSize + len <= BUFFER_SIZE) {
+            System.arraycopy(input, off, buffer, bufferedSize, len);
+            bufferedSize += len;
+            return;
+        }
+        if (0 < bufferedSize) {
+            final int fill = BUFFER_SIZE - bufferedSize;
+            System.arraycopy(input, off, buffer, bufferedSize, fill);
+            consumeStripes(acc, buffer, 0, BUFFER_SIZE / STRIPE_LEN);
+            bufferedSize = 0;
+            off += fill;
+            len -= fill;
+        }
+        if (BUFFER_SIZE < len) {
+            // Keep at least one byte for the last stripe and the last consumed stripe for catching up:
+            final int stripes = (len - 1) / STRIPE_LEN, consumed = stripes * STRIPE_LEN;
+            consumeStripes(acc, input, off, stripes);
+            System.arraycopy(input, off + consumed - STRIPE_LEN, buffer, BUFFER_SIZE - STRIPE_LEN, STRIPE_LEN);
+            off += consumed;
+            len -= consumed;
+        }
+        System.arraycopy(input, off, buffer, 0, len);
+        bufferedSize = len;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final long low, high;
+        final int len = (int) Math.min(totalLen, Integer.MAX_VALUE);
+        if (totalLen <= 16) {
+            if (0 == totalLen) {
+                low = avalanche64(readLong(SECRET, 64) ^ readLong(SECRET, 72));
+                high = avalanche64(readLong(SECRET, 80) ^ readLong(SECRET, 88));
+            } else if (totalLen <= 3) {
+                final int c1 = buffer[0] & 0xff, c2 = buffer[len >> 1] & 0xff, c3 = buffer[len - 1] & 0xff;
+                final int combinedLow = c1 << 16 | c2 << 24 | c3 | len << 8;
+                final int combinedHigh = Integer.rotateLeft(Integer.reverseBytes(combinedLow), 13);
+                final long bitflipLow = (readInt(SECRET, 0) ^ readInt(SECRET, 4)) & 0xffffffffL;
+                final long bitflipHigh = (readInt(SECRET, 8) ^ readInt(SECRET, 12)) & 0xffffffffL;
+                low = avalanche64((combinedLow & 0xffffffffL) ^ bitflipLow);
+                high = avalanche64((combinedHigh & 0xffffffffL) ^ bitflipHigh);
+            } else if (totalLen <= 8) {
+                final long input = (readInt(buffer, 0) & 0xffffffffL) + ((long) readInt(buffer, len - 4) << 32);
+                final long keyed = input ^ (readLong(SECRET, 16) ^ readLong(SECRET, 24));
+                final long multiplier = PRIME64_1 + ((long) len << 2);
+                long mLow = keyed * multiplier, mHigh = multiplyHigh(keyed, multiplier);
+                mHigh += mLow << 1;
+                mLow ^= mHigh >>> 3;
+                mLow = xorShift(mLow, 35);
+                mLow *= PRIME_MX2;
+                mLow = xorShift(mLow, 28);
+                low = mLow;
+                high = avalanche(mHigh);
+            } else {
+                final long bitflipLow = readLong(SECRET, 32) ^ readLong(SECRET, 40);
+                final long bitflipHigh = readLong(SECRET, 48) ^ readLong(SECRET, 56);
+                final long inputLow = readLong(buffer, 0);
+                long inputHigh = readLong(buffer, len - 8);
+                final long keyed = inputLow ^ inputHigh ^ bitflipLow;
+                long mLow = keyed * PRIME64_1, mHigh = multiplyHigh(keyed, PRIME64_1);
+                mLow += (long) (len - 1) << 54;
+                inputHigh ^= bitflipHigh;
+                mHigh += inputHigh + (inputHigh & 0xffffffffL) * (PRIME32_2 - 1);
+                mLow ^= Long.reverseBytes(mHigh);
+                final long hLow = mLow * PRIME64_2;
+                final long hHigh = multiplyHigh(mLow, PRIME64_2) + mHigh * PRIME64_2;
+                low = avalanche(hLow);
+                high = avalanche(hHigh);
+            }
+        } else if (totalLen <= MIDSIZE_MAX) {
+            long accLow = totalLen * PRIME64_1, accHigh = 0;
+            if (totalLen <= 128) {
+                for (int i = (len - 1) / 32; 0 <= i; i--) {
+                    final long[] mixed = mix32(accLow, accHigh, buffer, 16 * i, len - 16 * (i + 1), 32 * i, 0);
+                    accLow = mixed[0];
+                    accHigh = mixed[1];
+                }
+            } else {
+                final int rounds = len / 32;
+                for (int i = 0; i < 4; i++) {
+                    final long[] mixed = mix32(accLow, accHigh, buffer, 32 * i, 32 * i + 16, 32 * i, 0);
+                    accLow = mixed[0];
+                    accHigh = mixed[1];
+                }
+                accLow = avalanche(accLow);
+                accHigh = avalanche(accHigh);
+                for (int i = 4; i < rounds; i++) {
+                    final long[] mixed = mix32(accLow, accHigh, buffer, 32 * i, 32 * i + 16, 3 + 32 * (i - 4), 0);
+                    accLow = mixed[0];
+                    accHigh = mixed[1];
+                }
+                final long[] mixed = mix32(accLow, accHigh, buffer, len - 16, len - 32, 136 - 17 - 16, 0);
+                accLow = mixed[0];
+                accHigh = mixed[1];
+            }
+            low = avalanche(accLow + accHigh);
+            high = -avalanche(accLow * PRIME64_1 + accHigh * PRIME64_4 + totalLen * PRIME64_2);
+        } else {
+            final byte[] lastStripe;
+            final int lastStripeOff;
+            if (STRIPE_LEN <= bufferedSize) {
+                consumeStripes(acc, buffer, 0, (bufferedSize - 1) / STRIPE_LEN);
+                lastStripe = buffer;
+                lastStripeOff = bufferedSize - STRIPE_LEN;
+            } else {
+                final int catchUp = STRIPE_LEN - bufferedSize;
+                lastStripe = new byte[STRIPE_LEN];
+                System.arraycopy(buffer, BUFFER_SIZE - catchUp, lastStripe, 0, catchUp);
+                System.arraycopy(buffer, 0, lastStripe, catchUp, bufferedSize);
+                lastStripeOff = 0;
+            }
+            accumulate(acc, lastStripe, lastStripeOff, SECRET.length - STRIPE_LEN - 7);
+            low = mergeAccs(acc, 11, totalLen * PRIME64_1);
+            high = mergeAccs(acc, SECRET.length - STRIPE_LEN - 11, ~(totalLen * PRIME64_2));
+        }
+        final byte[] digest = new byte[16];
+        writeLong(digest, 0, high);
+        writeLong(digest, 8, low);
+        engineReset();
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        acc[0] = PRIME32_3;
+        acc[1] = PRIME64_1;
+        acc[2] = PRIME64_2;
+        acc[3] = PRIME64_3;
+        acc[4] = PRIME64_4;
+        acc[5] = PRIME32_2;
+        acc[6] = PRIME64_5;
+        acc[7] = PRIME32_1;
+        bufferedSize = 0;
+        stripesSoFar = 0;
+        totalLen = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final Xxh3Digest clone = (Xxh3Digest) super.clone();
+        clone.acc = acc.clone();
+        clone.buffer = buffer.clone();
+        return clone;
+    }
+
+    private void consumeStripes(final long[] acc, final byte[] input, final int off, final int stripes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < stripes; i++) {
+            final int stripeOff = off + i * STRIPE_LEN, secretOff = stripesSoFar;
+            for (int j = 0; j < 8; j++) {
+                final long value = buffer.getLong(stripeOff + 8 * j);
+                final long key = value ^ SECRET_LONGS[secretOff + j];
+                acc[j ^ 1] += value;
+                acc[j] += (key & 0xffffffffL) * (key >>> 32);
+            }
+            if (STRIPES_PER_BLOCK == ++stripesSoFar) {
+                scramble(acc);
+                stripesSoFar = 0;
+            }
+        }
+    }
+
+    private static void accumulate(final long[] acc, final byte[] input, final int off, final int secretOff) {
+        for (int i = 0; i < 8; i++) {
+            final long value = readLong(input, off + 8 * i);
+            final long key = value ^ readLong(SECRET, secretOff + 8 * i);
+            acc[i ^ 1] += value;
+            acc[i] += (key & 0xffffffffL) * (key >>> 32);
+        }
+    }
+
+    private static void scramble(final long[] acc) {
+        final int secretOff = (SECRET.length - STRIPE_LEN) / 8;
+        for (int i = 0; i < 8; i++) {
+            acc[i] = (xorShift(acc[i], 47) ^ SECRET_LONGS[secretOff + i]) * PRIME32_1;
+        }
+    }
+
+    private static long mergeAccs(final long[] acc, final int secretOff, long result) {
+        for (int i = 0; i < 4; i++) {
+            result += multiplyFold(acc[2 * i] ^ readLong(SECRET, secretOff + 16 * i),
+                    acc[2 * i + 1] ^ readLong(SECRET, secretOff + 16 * i + 8));
+        }
+        return avalanche(result);
+    }
+
+    private static long[] mix32(long accLow, long accHigh, final byte[] input, final int off1, final int off2,
+                                final int secretOff, final long seed) {
+        accLow += mix16(input, off1, secretOff, seed);
+        accLow ^= readLong(input, off2) + readLong(input, off2 + 8);
+        accHigh += mix16(input, off2, secretOff + 16, seed);
+        accHigh ^= readLong(input, off1) + readLong(input, off1 + 8);
+        return new long[] { accLow, accHigh };
+    }
+
+    private static long mix16(final byte[] input, final int off, final int secretOff, final long seed) {
+        return multiplyFold(readLong(input, off) ^ (readLong(SECRET, secretOff) + seed),
+                readLong(input, off + 8) ^ (readLong(SECRET, secretOff + 8) - seed));
+    }
+
+    private static long multiplyFold(long a, long b) { return a * b ^ multiplyHigh(a, b); }
+
+    /** Returns the high 64 bits of the unsigned 128 bit product of the given values. */
+    private static long multiplyHigh(final long a, final long b) {
+        final long aLow = a & 0xffffffffL, aHigh = a >>> 32, bLow = b & 0xffffffffL, bHigh = b >>> 32;
+        final long lowLow = aLow * bLow;
+        final long highLow = aHigh * bLow + (lowLow >>> 32);
+        final long lowHigh = aLow * bHigh + (highLow & 0xffffffffL);
+        return aHigh * bHigh + (highLow >>> 32) + (lowHigh >>> 32);
+    }
+
+    private static long xorShift(long value, int shift) { return value ^ value >>> shift; }
+
+    private static long avalanche(long h) {
+        h = xorShift(h, 37);
+        h *= PRIME_MX1;
+        return xorShift(h, 32);
+    }
+
+    private static long avalanche64(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ h >>> 32;
+    }
+
+    private static int readInt(final byte[] b, final int off) {
+        return b[off] & 0xff | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    private static long readLong(final byte[] b, final int off) {
+        return readInt(b, off) & 0xffffffffL | (long) readInt(b, off + 4) << 32;
+    }
+
+    private static void writeLong(final byte[] b, final int off, final long value) {
+        for (int i = 0; i < 8; i++) {
+            b[off + i] = (byte) (value >>> 56 - 8 * i);
+        }
+    }
+
+    private static long[] longs(final byte[] bytes) {
+        final long[] longs = new long[bytes.length / 8];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = readLong(bytes, 8 * i);
+        }
+        return longs;
+    }
+
+    private static byte[] bytes(final String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
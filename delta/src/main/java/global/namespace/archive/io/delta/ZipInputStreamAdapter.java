@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta;
+
+import global.namespace.archive.io.api.ArchiveEntrySink;
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.archive.io.api.ArchiveFileInput;
+import global.namespace.archive.io.api.ArchiveFileSource;
+import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Source;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static global.namespace.fun.io.bios.BIOS.copy;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Adapts a {@link ZipInputStream} to an {@link ArchiveFileInput} which can only get read sequentially.
+ * Looking up an archive entry by its name only succeeds if it's the next entry in the stream, so looking it up
+ * consumes it.
+ * Iterating the archive entries starts at the next entry in the stream, too.
+ * The content of an archive entry can only get read until the next archive entry gets consumed.
+ *
+ * @author Christian Schlichtherle
+ */
+final class ZipInputStreamAdapter implements ArchiveFileInput<ZipEntry> {
+
+    private final ZipInputStream zip;
+
+    /** The next entry in the stream or {@code null} if it hasn't been read yet. */
+    @SuppressWarnings("OptionalUsedAsFieldOrParameterType")
+    private Optional<ZipEntry> next;
+
+    /** The number of entries read from the stream so far. */
+    private int position;
+
+    ZipInputStreamAdapter(final ZipInputStream input) { this.zip = requireNonNull(input); }
+
+    /** Returns an archive file source which reads the ZIP file from the given source sequentially. */
+    static ArchiveFileSource<ZipEntry> source(final Source source) {
+        requireNonNull(source);
+        return () -> () -> new ZipInputStreamAdapter(new ZipInputStream(source.input().get()));
+    }
+
+    /** Returns {@code true}. */
+    @Override
+    public boolean isSequential() { return true; }
+
+    /** Returns and consumes the next archive entry in the stream, if any. */
+    Optional<ArchiveEntrySource<ZipEntry>> next() throws IOException {
+        final Optional<ZipEntry> entry = peek();
+        this.next = null;
+        return entry.map(this::source);
+    }
+
+    private Optional<ZipEntry> peek() throws IOException {
+        final Optional<ZipEntry> next = this.next;
+        if (null != next) {
+            return next;
+        }
+        position++;
+        return this.next = Optional.ofNullable(zip.getNextEntry());
+    }
+
+    @Override
+    public Iterator<ArchiveEntrySource<ZipEntry>> iterator() {
+        return new Iterator<ArchiveEntrySource<ZipEntry>>() {
+
+            public boolean hasNext() {
+                try {
+                    return peek().isPresent();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            public ArchiveEntrySource<ZipEntry> next() {
+                try {
+                    return ZipInputStreamAdapter.this.next().orElseThrow(NoSuchElementException::new);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public Optional<ArchiveEntrySource<ZipEntry>> source(final String name) {
+        try {
+            return peek().filter(entry -> entry.getName().equals(name)).isPresent() ? next() : Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ArchiveEntrySource<ZipEntry> source(final ZipEntry entry) {
+        final int position = this.position;
+        return new ArchiveEntrySource<ZipEntry>() {
+
+            public String name() { return entry.getName(); }
+
+            public boolean isDirectory() { return entry.isDirectory(); }
+
+            public ZipEntry entry() { return entry; }
+
+            public Socket<InputStream> input() {
+                return () -> {
+                    if (position != ZipInputStreamAdapter.this.position) {
+                        throw new IOException("The archive entry has already been passed: " + entry.getName());
+                    }
+                    return new FilterInputStream(zip) {
+
+                        @Override
+                        public void close() { }
+                    };
+                };
+            }
+
+            public void copyTo(ArchiveEntrySink<?> sink) throws Exception { copy(this, sink); }
+        };
+    }
+
+    @Override
+    public void close() throws IOException { zip.close(); }
+}
@@ -16,4 +16,6 @@ public final class DeltaDTO implements Serializable {
     public EntryNameAndTwoDigestValuesDTO[] changed;
 
     public EntryNameAndDigestValueDTO[] unchanged, added, removed;
+
+    public EntryNamesAndDigestValueDTO[] copied;
 }
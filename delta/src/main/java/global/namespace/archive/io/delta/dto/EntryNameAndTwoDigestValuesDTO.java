@@ -10,4 +10,6 @@ import java.io.Serializable;
 public final class EntryNameAndTwoDigestValuesDTO implements Serializable {
 
     public String name, first, second;
+
+    public boolean binaryDelta;
 }
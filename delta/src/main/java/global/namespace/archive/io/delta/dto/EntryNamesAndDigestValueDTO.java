@@ -0,0 +1,13 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta.dto;
+
+import java.io.Serializable;
+
+/** @author Christian Schlichtherle */
+public final class EntryNamesAndDigestValueDTO implements Serializable {
+
+    public String name, base, digest;
+}
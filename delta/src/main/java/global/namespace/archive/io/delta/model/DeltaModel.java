@@ -6,6 +6,7 @@ package global.namespace.archive.io.delta.model;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -19,9 +20,9 @@ import static java.util.Optional.of;
 
 /**
  * A Value Object which represents the meta data in a delta-archive file.
- * It encapsulates unmodifiable collections of changed, unchanged, added and
- * removed entry names and message digests in canonical string notation,
- * attributed with the message digest algorithm name and byte length.
+ * It encapsulates unmodifiable collections of changed, unchanged, added,
+ * removed and copied entry names and message digests in canonical string
+ * notation, attributed with the message digest algorithm name and byte length.
  *
  * @author Christian Schlichtherle
  */
@@ -36,6 +37,8 @@ public final class DeltaModel {
 
     private final Map<String, EntryNameAndDigestValue> unchanged, added, removed;
 
+    private final Map<String, EntryNamesAndDigestValue> copied;
+
     private DeltaModel(final Builder b) {
         final MessageDigest digest = b.messageDigest.get();
         this.digestAlgorithmName = digest.getAlgorithm();
@@ -44,6 +47,7 @@ public final class DeltaModel {
         this.unchanged = unchangedMap(b.unchanged);
         this.added = unchangedMap(b.added);
         this.removed = unchangedMap(b.removed);
+        this.copied = copiedMap(b.copied);
     }
 
     /** Returns a new builder for a delta model. */
@@ -52,7 +56,10 @@ public final class DeltaModel {
     private static Optional<Integer> lengthBytes(final MessageDigest digest) {
         final MessageDigest clone;
         try {
-            clone = MessageDigest.getInstance(digest.getAlgorithm());
+            final Provider provider = digest.getProvider();
+            clone = null != provider
+                    ? MessageDigest.getInstance(digest.getAlgorithm(), provider)
+                    : MessageDigest.getInstance(digest.getAlgorithm());
         } catch (NoSuchAlgorithmException e) {
             throw new AssertionError(e);
         }
@@ -79,6 +86,14 @@ public final class DeltaModel {
         return unmodifiableMap(map);
     }
 
+    private static Map<String, EntryNamesAndDigestValue> copiedMap(final Collection<EntryNamesAndDigestValue> entries) {
+        final Map<String, EntryNamesAndDigestValue> map = new LinkedHashMap<>(initialCapacity(entries));
+        for (EntryNamesAndDigestValue entryNamesAndDigestValue : entries) {
+            map.put(entryNamesAndDigestValue.name(), entryNamesAndDigestValue);
+        }
+        return unmodifiableMap(map);
+    }
+
     private static int initialCapacity(Collection<?> c) { return HashMaps.initialCapacity(c.size()); }
 
     /** Returns the message digest algorithm name. */
@@ -129,6 +144,18 @@ public final class DeltaModel {
     @Deprecated
     public EntryNameAndDigestValue removed(String name) { return removed.get(name); }
 
+    /**
+     * Returns a collection of the entry names and message digest for the
+     * <i>copied</i> entries.
+     * These are entries in the update archive file which are not unchanged,
+     * but have the same content as an entry with another name in the base
+     * archive file.
+     */
+    public Collection<EntryNamesAndDigestValue> copiedEntries() { return copied.values(); }
+
+    /** Looks up the given entry name in the <i>copied</i> entries. */
+    public EntryNamesAndDigestValue copied(String name) { return copied.get(name); }
+
     @SuppressWarnings("AccessingNonPublicFieldOfAnotherObject")
     @Override
     public boolean equals(final Object obj) {
@@ -144,7 +171,8 @@ public final class DeltaModel {
                 this.changed.equals(that.changed) &&
                 this.unchanged.equals(that.unchanged) &&
                 this.added.equals(that.added) &&
-                this.removed.equals(that.removed);
+                this.removed.equals(that.removed) &&
+                this.copied.equals(that.copied);
     }
 
     @Override
@@ -156,20 +184,22 @@ public final class DeltaModel {
         hash = 31 * hash + unchanged.hashCode();
         hash = 31 * hash + added.hashCode();
         hash = 31 * hash + removed.hashCode();
+        hash = 31 * hash + copied.hashCode();
         return hash;
     }
 
     /**
      * A builder for a delta model.
      * The default value for the collection of <i>unchanged</i>, <i>changed</i>,
-     * <i>added</i> and <i>removed</i> entry names and message digests is an
-     * empty collection.
+     * <i>added</i>, <i>removed</i> and <i>copied</i> entry names and message
+     * digests is an empty collection.
      */
     public static final class Builder {
 
         private Optional<MessageDigest> messageDigest = empty();
         private Collection<EntryNameAndTwoDigestValues> changed = emptyList();
         private Collection<EntryNameAndDigestValue> unchanged = emptyList(), added = emptyList(), removed = emptyList();
+        private Collection<EntryNamesAndDigestValue> copied = emptyList();
 
         private Builder() { }
 
@@ -198,6 +228,11 @@ public final class DeltaModel {
             return this;
         }
 
+        public Builder copiedEntries(final Collection<EntryNamesAndDigestValue> copied) {
+            this.copied = requireNonNull(copied);
+            return this;
+        }
+
         public DeltaModel build() { return new DeltaModel(this); }
     }
 }
@@ -15,6 +15,8 @@ public final class EntryNameAndTwoDigestValues {
 
     private final String name, baseDigestValue, updateDigestValue;
 
+    private final boolean binaryDelta;
+
     /**
      * Default constructor.
      * The first and second message digest should not be equal.
@@ -23,9 +25,22 @@ public final class EntryNameAndTwoDigestValues {
             final String name,
             final String baseDigestValue,
             final String updateDigestValue) {
+        this(name, baseDigestValue, updateDigestValue, false);
+    }
+
+    /**
+     * Constructs an entry name and two message digests which may be attributed as being encoded as a binary delta.
+     * The first and second message digest should not be equal.
+     */
+    public EntryNameAndTwoDigestValues(
+            final String name,
+            final String baseDigestValue,
+            final String updateDigestValue,
+            final boolean binaryDelta) {
         this.name = requireNonNull(name);
         this.baseDigestValue = requireNonNull(baseDigestValue);
         this.updateDigestValue = requireNonNull(updateDigestValue);
+        this.binaryDelta = binaryDelta;
         assert !baseDigestValue.equals(updateDigestValue);
     }
 
@@ -38,6 +53,14 @@ public final class EntryNameAndTwoDigestValues {
     /** Returns the message digest value of the archive entry in the update archive file. */
     public String updateDigestValue() { return updateDigestValue; }
 
+    /**
+     * Returns {@code true} if and only if the archive entry in the delta archive file is a binary delta which needs to
+     * get applied to the archive entry in the base archive file in order to reconstruct the archive entry in the update
+     * archive file.
+     * Otherwise, the archive entry in the delta archive file is a copy of the archive entry in the update archive file.
+     */
+    public boolean binaryDelta() { return binaryDelta; }
+
     @Override
     public boolean equals(final Object obj) {
         if (this == obj) {
@@ -49,7 +72,8 @@ public final class EntryNameAndTwoDigestValues {
         final EntryNameAndTwoDigestValues that = (EntryNameAndTwoDigestValues) obj;
         return  this.name().equals(that.name()) &&
                 this.baseDigestValue().equals(that.baseDigestValue()) &&
-                this.updateDigestValue().equals(that.updateDigestValue());
+                this.updateDigestValue().equals(that.updateDigestValue()) &&
+                this.binaryDelta() == that.binaryDelta();
     }
 
     @Override
@@ -58,6 +82,7 @@ public final class EntryNameAndTwoDigestValues {
         hash = 31 * hash + name().hashCode();
         hash = 31 * hash + baseDigestValue().hashCode();
         hash = 31 * hash + updateDigestValue().hashCode();
+        hash = 31 * hash + Boolean.hashCode(binaryDelta());
         return hash;
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta.model;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A Value Object which represents an archive entry name in the update archive file, the name of an archive entry with
+ * equal content in the base archive file and their message digest in canonical string notation.
+ *
+ * @author Christian Schlichtherle
+ */
+public final class EntryNamesAndDigestValue {
+
+    private final String name, baseName, digestValue;
+
+    /**
+     * Default constructor.
+     * The entry names should not be equal.
+     */
+    public EntryNamesAndDigestValue(final String name, final String baseName, final String digestValue) {
+        this.name = requireNonNull(name);
+        this.baseName = requireNonNull(baseName);
+        this.digestValue = requireNonNull(digestValue);
+        assert !name.equals(baseName);
+    }
+
+    /** Returns the archive entry name in the update archive file. */
+    public String name() { return name; }
+
+    /** Returns the archive entry name in the base archive file. */
+    public String baseName() { return baseName; }
+
+    /** Returns the value of the message digest. */
+    public String digestValue() { return digestValue; }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof EntryNamesAndDigestValue)) {
+            return false;
+        }
+        final EntryNamesAndDigestValue that = (EntryNamesAndDigestValue) obj;
+        return  this.name().equals(that.name()) &&
+                this.baseName().equals(that.baseName()) &&
+                this.digestValue().equals(that.digestValue());
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 17;
+        hash = 31 * hash + name().hashCode();
+        hash = 31 * hash + baseName().hashCode();
+        hash = 31 * hash + digestValue().hashCode();
+        return hash;
+    }
+}
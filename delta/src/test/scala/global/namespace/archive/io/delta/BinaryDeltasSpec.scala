@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream}
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+
+import global.namespace.archive.io.delta.BinaryDeltas._
+import global.namespace.archive.io.delta.BinaryDeltasSpec._
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+import org.scalatest.prop.PropertyChecks._
+
+import scala.util.Random
+
+class BinaryDeltasSpec extends WordSpec {
+
+  "A binary delta" should {
+    "reconstruct the update content from the base content" in {
+      forAll { (base: Array[Byte], update: Array[Byte]) =>
+        roundTrip(base, update) shouldBe update
+      }
+    }
+
+    "reconstruct a slightly modified update content from the base content and be much smaller" in {
+      val base = new Array[Byte](100000)
+      new Random(0) nextBytes base
+      val update = base.clone
+      update(1000) = (update(1000) ^ 1).toByte
+      update(50000) = (update(50000) ^ 1).toByte
+      val delta = encoded(base, update)
+      delta.length should be < 1000
+      decoded(base, delta) shouldBe update
+    }
+
+    "reconstruct a slightly modified update content which is larger than 64 MiB from the base content" in {
+      val base = new Array[Byte]((1 << 26) + (1 << 20))
+      new Random(0) nextBytes base
+      val update = base.clone
+      update(1000) = (update(1000) ^ 1).toByte
+      update(50000000) = (update(50000000) ^ 1).toByte
+      val delta = encoded(base, update)
+      delta.length should be < 1000
+      decoded(base, delta) shouldBe update
+    }
+  }
+}
+
+private object BinaryDeltasSpec {
+
+  def roundTrip(base: Array[Byte], update: Array[Byte]): Array[Byte] = decoded(base, encoded(base, update))
+
+  def encoded(base: Array[Byte], update: Array[Byte]): Array[Byte] = {
+    val out = new ByteArrayOutputStream
+    withChannel(base)(encode(_, new ByteArrayInputStream(update), out))
+    out.toByteArray
+  }
+
+  def decoded(base: Array[Byte], delta: Array[Byte]): Array[Byte] = {
+    val out = new ByteArrayOutputStream
+    withChannel(base)(decode(_, new ByteArrayInputStream(delta), out))
+    out.toByteArray
+  }
+
+  def withChannel[A](content: Array[Byte])(fun: FileChannel => A): A = {
+    val file = Files.createTempFile("base", null)
+    try {
+      Files.write(file, content)
+      val channel = FileChannel.open(file)
+      try {
+        fun(channel)
+      } finally {
+        channel.close()
+      }
+    } finally {
+      Files.delete(file)
+    }
+  }
+}
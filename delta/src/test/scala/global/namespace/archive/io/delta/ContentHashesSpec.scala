@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta
+
+import java.math.BigInteger
+import java.security.MessageDigest
+
+import global.namespace.archive.io.delta.ContentHashesSpec._
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+import org.scalatest.prop.PropertyChecks._
+
+/** @author Christian Schlichtherle */
+class ContentHashesSpec extends WordSpec {
+
+  "A content hash" should {
+    "compute the test vectors" in {
+      forAll(TestVectors) { (digest, length, value) =>
+        hex(digest() digest input(length)) shouldBe value
+      }
+    }
+
+    "compute the same value when updated in arbitrary chunks or cloned" in {
+      forAll(TestVectors) { (digest, length, value) =>
+        val in = input(length)
+        val d = digest()
+        in.grouped(7) foreach (d update _)
+        val clone = d.clone.asInstanceOf[MessageDigest]
+        hex(d.digest) shouldBe value
+        hex(clone.digest) shouldBe value
+      }
+    }
+
+    "be found by its algorithm name" in {
+      MessageDigests newDigest "XXH3-128" should not be null
+      MessageDigests newDigest "BLAKE3" should not be null
+    }
+  }
+
+  "A message digest value" should {
+    "be equal to the hexadecimal string notation of a positive big integer" in {
+      forAll { bytes: Array[Byte] =>
+        MessageDigests valueOf bytes shouldBe new BigInteger(1, bytes).toString(16)
+      }
+    }
+  }
+}
+
+private object ContentHashesSpec {
+
+  private val xxh3_128 = () => ContentHashes.xxh3_128
+
+  private val blake3 = () => ContentHashes.blake3
+
+  // The input is the sequence of bytes 0, 1, ..., 250, 0, 1, ... of the given length, like in the BLAKE3 test vectors.
+  // The XXH3-128 values have been computed with the reference implementation of xxHash 0.8.1.
+  val TestVectors = Table(
+    ("digest", "length", "value"),
+    (xxh3_128, 0, "99aa06d3014798d86001c324468d497f"),
+    (xxh3_128, 1, "a6cd5e9392000f6ac44bdff4074eecdb"),
+    (xxh3_128, 3, "e3b55f57945a17cf5f4299fc161c9cbb"),
+    (xxh3_128, 4, "eb70bf5fc779e9e6a6111d53e80a3db5"),
+    (xxh3_128, 8, "e1e4432a62217fe4cfd50c61c8bb98c1"),
+    (xxh3_128, 9, "16c769d83e4aebce907931979dca3746"),
+    (xxh3_128, 16, "72950631827607e2842812cc870dcae2"),
+    (xxh3_128, 17, "685bc458b37d057fc06e233df7729217"),
+    (xxh3_128, 128, "14792fc3af88dc6c05321a0b64d67b41"),
+    (xxh3_128, 129, "dd5e74ac6b45f54ebc30b63382b09a3b"),
+    (xxh3_128, 240, "65b5be86da5540e7c92b68e16f83bbb6"),
+    (xxh3_128, 241, "1da1cb61bcb8a2a102e8cd95421c6d02"),
+    (xxh3_128, 1024, "d0ac1f7b93bf57b9e5d78bafa45b2aa5"),
+    (xxh3_128, 1025, "2882ebca04ec915ce95c42288f28186e"),
+    (xxh3_128, 4096, "e12cd72144990fe57135ffa504f1bc71"),
+    (blake3, 0, "af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262"),
+    (blake3, 1, "2d3adedff11b61f14c886e35afa036736dcd87a74d27b5c1510225d0f592e213"),
+    (blake3, 1024, "42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7"),
+    (blake3, 1025, "d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444"),
+    (blake3, 2048, "e776b6028c7cd22a4d0ba182a8bf62205d2ef576467e838ed6f2529b85fba24a")
+  )
+
+  def input(length: Int): Array[Byte] = Array.tabulate(length)(i => (i % 251).toByte)
+
+  def hex(bytes: Array[Byte]): String = bytes map ("%02x" format _) mkString ""
+}
@@ -9,7 +9,7 @@ import java.security.MessageDigest
 
 import global.namespace.archive.io.delta.Delta._
 import global.namespace.archive.io.delta.DeltaModelCodecSpec._
-import global.namespace.archive.io.delta.model.{DeltaModel, EntryNameAndDigestValue, EntryNameAndTwoDigestValues}
+import global.namespace.archive.io.delta.model.{DeltaModel, EntryNameAndDigestValue, EntryNameAndTwoDigestValues, EntryNamesAndDigestValue}
 import global.namespace.fun.io.api.Store
 import global.namespace.fun.io.bios.BIOS.memory
 import org.scalatest.Matchers._
@@ -38,6 +38,9 @@ class DeltaModelCodecSpec extends WordSpec {
         original.removedEntries.asScala foreach { entry =>
           original removed entry.name shouldBe entry
         }
+        original.copiedEntries.asScala foreach { entry =>
+          original copied entry.name shouldBe entry
+        }
 
         val store = memory
         encodeModel(store, original)
@@ -47,6 +50,50 @@ class DeltaModelCodecSpec extends WordSpec {
         clone should not be theSameInstanceAs(original)
       }
     }
+
+    "support round-trip encoding/decoding to/from the binary format" in {
+      forAll(TestCases) { (builder, _) =>
+        val original = (builder messageDigest sha1).build
+        val store = memory
+        encodeModel(store, original, ModelFormat.BINARY)
+        val clone = decodeModel(store)
+        clone shouldBe original
+        clone should not be theSameInstanceAs(original)
+      }
+    }
+
+    "decode JSON with the fields in any order" in {
+      val store = memory
+      store.content(
+        """{"unchanged":[{"digest":"1","name":"unchanged"}],"numBytes":20,"algorithm":"SHA-1"}""" getBytes utf8)
+      decodeModel(store) shouldBe
+        (DeltaModel.builder messageDigest sha1 unchangedEntries List(new EntryNameAndDigestValue("unchanged", "1")).asJava).build
+    }
+
+    "reject JSON entries with missing fields" in {
+      forAll(Table("JSON string",
+        """{"algorithm":"SHA-1","changed":[{"name":"changed","first":"1"}]}""",
+        """{"algorithm":"SHA-1","unchanged":[{"digest":"1"}]}""",
+        """{"algorithm":"SHA-1","added":[{"name":"added"}]}""",
+        """{"algorithm":"SHA-1","removed":[{}]}""",
+        """{"algorithm":"SHA-1","copied":[{"name":"copied","digest":"1"}]}"""
+      )) { json =>
+        val store = memory
+        store content (json getBytes utf8)
+        intercept[InvalidDeltaArchiveFileException] {
+          decodeModel(store)
+        }
+      }
+    }
+
+    "reject non-canonical message digest values when encoding to the binary format" in {
+      forAll(Table("digest value", "", "01", "A", "xyz", "1" * 41)) { value =>
+        val model = (DeltaModel.builder messageDigest sha1 unchangedEntries List(new EntryNameAndDigestValue("unchanged", value)).asJava).build
+        intercept[IllegalArgumentException] {
+          encodeModel(memory, model, ModelFormat.BINARY)
+        }
+      }
+    }
   }
 }
 
@@ -59,12 +106,16 @@ private object DeltaModelCodecSpec {
       """{"algorithm":"SHA-1"}"""),
     (b changedEntries List(new EntryNameAndTwoDigestValues("changed", "1", "2")).asJava,
       """{"algorithm":"SHA-1","changed":[{"name":"changed","first":"1","second":"2"}]}"""),
+    (b changedEntries List(new EntryNameAndTwoDigestValues("changed", "1", "2", true)).asJava,
+      """{"algorithm":"SHA-1","changed":[{"name":"changed","first":"1","second":"2","binaryDelta":true}]}"""),
     (b addedEntries List(new EntryNameAndDigestValue("added", "1")).asJava,
       """{"algorithm":"SHA-1","added":[{"name":"added","digest":"1"}]}"""),
     (b removedEntries List(new EntryNameAndDigestValue("removed", "1")).asJava,
       """{"algorithm":"SHA-1","removed":[{"name":"removed","digest":"1"}]}"""),
     (b unchangedEntries List(new EntryNameAndDigestValue("unchanged", "1")).asJava,
-      """{"algorithm":"SHA-1","unchanged":[{"name":"unchanged","digest":"1"}]}""")
+      """{"algorithm":"SHA-1","unchanged":[{"name":"unchanged","digest":"1"}]}"""),
+    (b copiedEntries List(new EntryNamesAndDigestValue("copied", "base", "1")).asJava,
+      """{"algorithm":"SHA-1","copied":[{"name":"copied","base":"base","digest":"1"}]}""")
   )
 
   val sha1: MessageDigest = MessageDigest getInstance "SHA-1"
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.delta
+
+import java.nio.file.{Files, Path}
+import java.util.{Optional, OptionalLong}
+
+import global.namespace.archive.io.delta.DigestCache.Key
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+
+import scala.collection.JavaConverters._
+
+/** @author Christian Schlichtherle */
+class FileDigestCacheSpec extends WordSpec {
+
+  private def key(name: String) = new Key("archive", name, 1, OptionalLong.of(2), OptionalLong.empty, "SHA-1")
+
+  private def lines(path: Path) = Files.readAllLines(path).asScala
+
+  private def withTempFile(test: Path => Any): Unit = {
+    val dir = Files.createTempDirectory("tmp")
+    val path = dir resolve "cache" resolve "digests"
+    try {
+      test(path)
+    } finally {
+      Files deleteIfExists path
+      Files deleteIfExists path.getParent
+      Files delete dir
+    }
+  }
+
+  "A file digest cache" should {
+    "append new values to the file when it gets flushed" in {
+      withTempFile { path =>
+        val cache = new FileDigestCache(path)
+        cache put (key("a"), "1")
+        cache put (key("b"), "2")
+        cache put (key("a"), "1")
+        cache flush ()
+        lines(path) should have size 2
+
+        val other = new FileDigestCache(path)
+        other get key("a") shouldBe Optional.of("1")
+        other get key("b") shouldBe Optional.of("2")
+        other get key("c") shouldBe Optional.empty
+        other.hits shouldBe 2
+        other.misses shouldBe 1
+      }
+    }
+
+    "rewrite the file with one line per value when loading it if it has too many lines" in {
+      withTempFile { path =>
+        for (value <- 1 to 5) {
+          val cache = new FileDigestCache(path)
+          cache put (key("a"), value.toString)
+          cache flush ()
+        }
+        lines(path) should have size 3
+        val cache = new FileDigestCache(path)
+        cache get key("a") shouldBe Optional.of("5")
+        lines(path) should have size 1
+      }
+    }
+
+    "persist the same value as it holds when putting values for the same key concurrently" in {
+      withTempFile { path =>
+        val cache = new FileDigestCache(path)
+        (1 to 1000).par foreach { value => cache put (key("a"), (value % 2).toString) }
+        cache flush ()
+        new FileDigestCache(path) get key("a") shouldBe (cache get key("a"))
+      }
+    }
+  }
+}
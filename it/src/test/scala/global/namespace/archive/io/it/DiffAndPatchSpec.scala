@@ -5,16 +5,23 @@
 package global.namespace.archive.io.it
 
 import java.io._
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{Files, Path}
 import java.security.MessageDigest
+import java.util.Random
+import java.util.zip.{ZipEntry, ZipFile}
 
-import global.namespace.archive.io.api.{ArchiveFileSource, ArchiveFileStore}
+import global.namespace.archive.io.api.{ArchiveEntryOptions, ArchiveFileSource, ArchiveFileStore}
 import global.namespace.archive.io.bios.BIOS
 import global.namespace.archive.io.bios.BIOS._
 import global.namespace.archive.io.commons.compress.CommonsCompress
+import global.namespace.archive.io.delta.{ComparisonPolicy, DigestCaches, ModelFormat, VerificationPolicy, WrongBaseArchiveFileException}
 import global.namespace.archive.io.delta.Delta._
 import global.namespace.archive.io.delta.dto.DeltaDTO
 import global.namespace.archive.io.delta.model.DeltaModel
 import global.namespace.archive.io.it.DiffAndPatchSpec._
+import global.namespace.archive.io.mapped.Mapped
+import global.namespace.fun.io.bios.{BIOS => FunIoBIOS}
 import org.scalatest.Matchers._
 import org.scalatest.WordSpec
 import org.scalatest.prop.PropertyChecks._
@@ -32,18 +39,446 @@ class DiffAndPatchSpec extends WordSpec {
 
           diff first first second second digest sha1 to delta
           patch base first delta delta to clone
+          assertClone(second, clone)
+        }}
+      }}
+    }
+  }
+
+  "Diffing two archive files and patching the first with the delta while streaming the delta model" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { delta => withTempArchiveFile { clone =>
+          diff base first update second digest sha1 detectMoves true to delta
+          patch base first delta delta streaming true to clone
+          assertClone(second, clone)
+        }}
+      }}
+    }
+  }
+
+  "Diffing two archive files and patching the first with the delta while copying raw entries" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { delta => withTempArchiveFile { clone =>
+          diff base first update second digest sha1 detectMoves true to delta
+          patch base first delta delta rawCopy true to clone
+          assertClone(second, clone)
+        }}
+      }}
+    }
+
+    "report a wrong base archive file after copying its entries" in {
+      withTempDirectory { base => withTempDirectory { update =>
+        write(base, "unchanged", "1")
+        write(update, "unchanged", "1")
+        write(update, "added", "2")
+        withTempDirectory { wrong =>
+          write(wrong, "unchanged", "X")
+          forAllArchiveFiles(directory(base), directory(update)) { (first, second) => { implicit factory =>
+            withTempArchiveFile { wrongCopy => withTempArchiveFile { delta => withTempArchiveFile { clone =>
+              BIOS.copy(directory(wrong), wrongCopy)
+              diff base first update second digest sha1 to delta
+              intercept[WrongBaseArchiveFileException] {
+                patch base wrongCopy delta delta rawCopy true to clone
+              }
+            }}}
+          }}
+        }
+      }}
+    }
+  }
+
+  "Diffing two archive files and patching the first with the delta while verifying in the background" should {
+    "report a wrong base archive file after writing its entries" in {
+      withTempDirectory { base => withTempDirectory { update =>
+        val content = new Array[Byte](300000)
+        new Random(0) nextBytes content
+        Files.write(path(base, "large"), content)
+        Files.write(path(update, "large"), content)
+        write(update, "added", "2")
+        withTempDirectory { wrong =>
+          content(250000) = (content(250000) ^ 1).toByte
+          Files.write(path(wrong, "large"), content)
+          forAllArchiveFiles(directory(base), directory(update)) { (first, second) => { implicit factory =>
+            withTempArchiveFile { wrongCopy => withTempArchiveFile { delta => withTempArchiveFile { clone =>
+              BIOS.copy(directory(wrong), wrongCopy)
+              diff base first update second digest sha1 to delta
+              val policy = VerificationPolicy.BACKGROUND_DIGEST
+              patch base first delta delta verificationPolicy policy parallelism 1 to clone
+              assertClone(second, clone)
+              intercept[WrongBaseArchiveFileException] {
+                patch base wrongCopy delta delta verificationPolicy policy parallelism 1 to clone
+              }
+            }}}
+          }}
+        }
+      }}
+    }
+  }
+
+  "Diffing two archive files and patching the first with the delta using entry options" should {
+    "write the entries of the delta and update archive file with them" in {
+      withTempDirectory { base => withTempDirectory { update =>
+        val content = new Array[Byte](30000)
+        new Random(0) nextBytes content
+        Files.write(path(update, "random"), content)
+        write(update, "text", "Hello world! " * 1000)
+        val options = ArchiveEntryOptions.builder.method(ArchiveEntryOptions.Method.AUTO).build
+        val delta = File.createTempFile("delta", ".zip")
+        val clone = File.createTempFile("clone", ".zip")
+        try {
+          diff base directory(base) update directory(update) entryOptions options to zip(delta)
+          patch base directory(base) delta zip(delta) entryOptions options to zip(clone)
+          for (file <- Seq(delta, clone)) {
+            val zipFile = new ZipFile(file)
+            try {
+              zipFile.getEntry("random").getMethod shouldBe ZipEntry.STORED
+              zipFile.getEntry("text").getMethod shouldBe ZipEntry.DEFLATED
+            } finally {
+              zipFile.close()
+            }
+          }
+          assertClone(directory(update), zip(clone))
+        } finally {
+          delta.delete()
+          clone.delete()
+        }
+      }}
+    }
+  }
+
+  "Diffing two archive files and patching the first with the delta while reading it sequentially" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { clone =>
+          val delta = File.createTempFile("delta", ".zip")
+          try {
+            diff base first update second digest sha1 binaryDeltas true to BIOS.zip(delta)
+            patch base first deltaStream (FunIoBIOS file delta) to clone
+            assertClone(second, clone)
+          } finally {
+            delta delete ()
+          }
+        }
+      }}
+    }
+  }
 
-          val secondEntries: Set[String] = second.applyReader(_.asScala.filterNot(_.isDirectory).map(_.name).toSet)
+  "Diffing two archive files to a stream and patching the first with the delta from a stream" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { clone =>
+          val delta = FunIoBIOS.memory
+          diff base first update second digest sha1 to BIOS.zip(delta)
+          patch base first deltaStream delta to clone
+          assertClone(second, clone)
+        }
+      }}
+    }
+  }
+
+  "Diffing two archive files and patching the first with the delta using any verification policy" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { delta =>
+          diff base first update second digest sha1 binaryDeltas true to delta
+          VerificationPolicy.values foreach { policy =>
+            withTempArchiveFile { clone =>
+              patch base first delta delta verificationPolicy policy to clone
+              assertClone(second, clone)
+            }
+          }
+        }
+      }}
+    }
+  }
+
+  "Diffing two directories and patching a copy of the first with the delta in place" should {
+    "turn the copy into a clone of the second directory" in {
+      implicit val factory: ArchiveFileStoreFactory[_] = directory
+      val first = directory(deltaModelDirectory)
+      val second = directory(deltaDtoDirectory)
+      withTempArchiveFile { delta => withTempDirectory { dir =>
+        val clone = inPlaceDirectory(dir)
+        first acceptReader { input =>
+          clone acceptWriter { output =>
+            input.asScala filterNot (_.isDirectory) foreach { entry => entry copyTo (output sink entry.name) }
+          }
+        }
+        diff base first update second digest sha1 to delta
+        patch delta delta inPlace clone
+        assertClone(second, clone)
+      }}
+    }
+
+    "not read the unchanged files unless the verification policy says so" in {
+      implicit val factory: ArchiveFileStoreFactory[_] = directory
+      withTempDirectory { base => withTempDirectory { update =>
+        write(base, "unchanged", "1")
+        write(base, "changed", "2")
+        write(update, "unchanged", "1")
+        write(update, "changed", "3")
+        withTempArchiveFile { delta =>
+          diff base directory(base) update directory(update) digest sha1 to delta
+          // Corrupt the unchanged file, which only gets detected if it gets read:
+          write(base, "unchanged", "X")
+          intercept[WrongBaseArchiveFileException] {
+            patch delta delta verificationPolicy VerificationPolicy.FULL_DIGEST inPlace inPlaceDirectory(base)
+          }
+          read(base, "changed") shouldBe "2"
+          patch delta delta inPlace inPlaceDirectory(base)
+        }
+        read(base, "changed") shouldBe "3"
+        read(base, "unchanged") shouldBe "X"
+      }}
+    }
+  }
+
+  "Diffing two directories and patching the first with the delta while hard-linking raw entries" should {
+    "produce a clone of the second directory" in {
+      implicit val factory: ArchiveFileStoreFactory[_] = directory(_: File, true)
+      val first = directory(deltaModelDirectory)
+      val second = directory(deltaDtoDirectory)
+      withTempArchiveFile { delta => withTempArchiveFile { clone =>
+        diff base first update second digest sha1 to delta
+        patch base first delta delta rawCopy true to clone
+        assertClone(second, clone)
+      }}
+    }
+
+    "link the unchanged files and never write through a link to the base directory" in {
+      implicit val factory: ArchiveFileStoreFactory[_] = directory(_: File, true)
+      withTempDirectory { base => withTempDirectory { update => withTempDirectory { clone =>
+        write(base, "unchanged", "1")
+        write(base, "changed", "2")
+        write(update, "unchanged", "1")
+        write(update, "changed", "3")
+        withTempArchiveFile { delta =>
+          diff base directory(base) update directory(update) digest sha1 to delta
+          patch base directory(base) delta delta rawCopy true to factory(clone)
+        }
+        Files.isSameFile(path(base, "unchanged"), path(clone, "unchanged")) shouldBe true
+        Files.isSameFile(path(base, "changed"), path(clone, "changed")) shouldBe false
+        read(clone, "changed") shouldBe "3"
+
+        // Patch again over the linked files with an update which changes the unchanged file, too:
+        write(update, "unchanged", "4")
+        withTempArchiveFile { delta =>
+          diff base directory(base) update directory(update) digest sha1 to delta
+          patch base directory(base) delta delta rawCopy true to factory(clone)
+        }
+        read(clone, "unchanged") shouldBe "4"
+        read(base, "unchanged") shouldBe "1"
+        read(base, "changed") shouldBe "2"
+      }}}
+    }
+  }
+
+  "Diffing two TAR files and patching the first with the delta" should {
+    "produce a clone of the second TAR file" in {
+      forAll(Table[ArchiveFileStoreFactory[_]]("TAR file store factory", CommonsCompress.tar, CommonsCompress.tarGz)) {
+        implicit factory =>
+          withTempArchiveFile { first => withTempArchiveFile { second =>
+            BIOS.copy(BIOS jar Test1JarFile, first)
+            BIOS.copy(BIOS jar Test2JarFile, second)
+            withTempArchiveFile { delta => withTempArchiveFile { clone =>
+              diff base first update second digest sha1 to delta
+              patch base first delta delta to clone
+              assertClone(second, clone)
+            }}
+          }}
+      }
+    }
+  }
+
+  "Diffing two archive files in a single pass and patching the first with the delta" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { delta => withTempArchiveFile { clone =>
+          diff base first update second digest sha1 singlePass true to delta
+          patch base first delta delta to clone
+          assertClone(second, clone)
+        }}
+      }}
+    }
+  }
 
-          val model = (diff base second update clone digest md5).toModel
-          model.changedEntries shouldBe empty
+  "Diffing two archive files with binary deltas and patching the first with the delta" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { delta => withTempArchiveFile { clone =>
+          diff base first update second digest sha1 binaryDeltas true to delta
+          patch base first delta delta to clone
+          assertClone(second, clone)
+        }}
+      }}
+    }
+
+    "encode a large entry with a small change as a binary delta" in {
+      withTempDirectory { base => withTempDirectory { update =>
+        val content = new Array[Byte](100000)
+        new Random(0) nextBytes content
+        Files.write(path(base, "large"), content)
+        content(50000) = (content(50000) ^ 1).toByte
+        Files.write(path(update, "large"), content)
+        forAllArchiveFiles(directory(base), directory(update)) { (first, second) => { implicit factory =>
+          withTempArchiveFile { delta => withTempArchiveFile { clone =>
+            diff base first update second digest sha1 binaryDeltas true to delta
+            delta acceptReader { input =>
+              decodeModel(input.source("META-INF/delta.json").get).changed("large").binaryDelta shouldBe true
+              input.source("large").get acceptReader { in =>
+                Iterator.continually(in.read).takeWhile(_ != -1).size should be < 1000
+              }
+            }
+            patch base first delta delta to clone
+            assertClone(second, clone)
+          }}
+        }}
+      }}
+    }
+
+    "copy a small changed entry in full instead of encoding it as a binary delta" in {
+      withTempDirectory { base => withTempDirectory { update =>
+        val content = new Array[Byte](10000)
+        new Random(0) nextBytes content
+        Files.write(path(base, "small"), content)
+        content(5000) = (content(5000) ^ 1).toByte
+        Files.write(path(update, "small"), content)
+        forAllArchiveFiles(directory(base), directory(update)) { (first, second) => { implicit factory =>
+          withTempArchiveFile { delta => withTempArchiveFile { clone =>
+            diff base first update second digest sha1 binaryDeltas true to delta
+            delta acceptReader { input =>
+              decodeModel(input.source("META-INF/delta.json").get).changed("small").binaryDelta shouldBe false
+            }
+            patch base first delta delta to clone
+            assertClone(second, clone)
+          }}
+        }}
+      }}
+    }
+
+    "report a wrong base archive file when decoding a binary delta with any verification policy" in {
+      implicit val factory: ArchiveFileStoreFactory[_] = directory
+      withTempDirectory { base => withTempDirectory { update =>
+        val content = new Array[Byte](100000)
+        new Random(0) nextBytes content
+        Files.write(path(base, "large"), content)
+        content(50000) = (content(50000) ^ 1).toByte
+        Files.write(path(update, "large"), content)
+        withTempArchiveFile { delta =>
+          diff base directory(base) update directory(update) digest sha1 binaryDeltas true to delta
+          // Change the base file, which would otherwise decode to a wrong update file:
+          content(0) = (content(0) ^ 1).toByte
+          Files.write(path(base, "large"), content)
+          forAll(Table("verification policy", VerificationPolicy.values: _*)) { policy =>
+            withTempArchiveFile { clone =>
+              intercept[WrongBaseArchiveFileException] {
+                patch base directory(base) delta delta verificationPolicy policy to clone
+              }
+            }
+          }
+        }
+      }}
+    }
+  }
+
+  "Diffing two archive files with the binary model format and patching the first with the delta" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { delta => withTempArchiveFile { clone =>
+          diff base first update second digest sha1 modelFormat ModelFormat.BINARY to delta
+          patch base first delta delta to clone
+          assertClone(second, clone)
+        }}
+      }}
+    }
+  }
+
+  "Diffing two archive files with move detection and patching the first with the delta" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { delta => withTempArchiveFile { clone =>
+          diff base first update second digest sha1 detectMoves true to delta
+          patch base first delta delta to clone
+          assertClone(second, clone)
+        }}
+      }}
+    }
+
+    "detect a renamed entry and copy it from the base archive file" in {
+      withTempDirectory { base => withTempDirectory { update =>
+        val content = "Hello world!\n" * 100
+        write(base, "old", content)
+        write(base, "changed", "1")
+        write(update, "new", content)
+        write(update, "changed", "2")
+        forAllArchiveFiles(directory(base), directory(update)) { (first, second) => { implicit factory =>
+          val model = (diff base first update second digest sha1 detectMoves true).toModel
+          model.copiedEntries.asScala.map(e => e.name -> e.baseName).toList shouldBe List("new" -> "old")
           model.addedEntries shouldBe empty
-          model.removedEntries shouldBe empty
-          model.unchangedEntries.asScala.map(_.name).toSet shouldBe secondEntries
+          withTempArchiveFile { delta => withTempArchiveFile { clone =>
+            diff base first update second digest sha1 detectMoves true to delta
+            patch base first delta delta to clone
+            assertClone(second, clone)
+          }}
         }}
       }}
     }
   }
+
+  "Diffing two archive files in parallel" should {
+    "produce the same delta model as diffing them sequentially" in {
+      forAllArchiveFiles { (first, second) => { _ =>
+        // Otherwise, the archive entries would get digested sequentially anyway:
+        first applyReader (_.isConcurrent) shouldBe true
+        second applyReader (_.isConcurrent) shouldBe true
+        val sequential = (diff base first update second digest sha1).toModel
+        (diff base first update second digest sha1 parallelism 4).toModel shouldBe sequential
+      }}
+    }
+  }
+
+  "Diffing two archive files with any comparison policy" should {
+    "produce the same delta model as comparing full digests" in {
+      forAllArchiveFiles { (first, second) => { _ =>
+        val model = (diff base first update second digest sha1).toModel
+        ComparisonPolicy.values foreach { policy =>
+          (diff base first update second digest sha1 comparisonPolicy policy).toModel shouldBe model
+        }
+      }}
+    }
+  }
+
+  "Diffing a base manifest and an archive file and patching the base archive file with the delta" should {
+    "produce a clone of the second archive file" in {
+      forAllArchiveFiles { (first, second) => { implicit factory =>
+        withTempArchiveFile { delta => withTempArchiveFile { clone =>
+          val empty = DeltaModel.builder.messageDigest(sha1).build
+          val manifest = (diff baseManifest empty update first digest sha1).toModel
+          diff baseManifest manifest update second digest sha1 to delta
+          patch base first delta delta to clone
+          assertClone(second, clone)
+        }}
+      }}
+    }
+  }
+
+  "Diffing two archive files twice with a digest cache" should {
+    "produce the same delta model without digesting the archive entries again" in {
+      forAllArchiveFiles { (first, second) => { _ =>
+        val model = (diff base first update second digest sha1).toModel
+        val cache = DigestCaches memory 1000
+        def cachedModel = (diff base first update second digest sha1 digestCache cache baseIdentity "first"
+          updateIdentity "second").toModel
+        cachedModel shouldBe model
+        val misses = cache.misses
+        cachedModel shouldBe model
+        cache.misses shouldBe misses
+        cache.hits shouldBe misses
+      }}
+    }
+  }
 }
 
 private object DiffAndPatchSpec {
@@ -55,14 +490,43 @@ private object DiffAndPatchSpec {
     forAll(Factories)(factory => test(factory(Test1JarFile), factory(Test2JarFile))(factory))
   }
 
+  /** Copies the given directories to archive files of each type before running the test with them. */
+  def forAllArchiveFiles(first: ArchiveFileSource[_], second: ArchiveFileSource[_])
+                        (test: (ArchiveFileSource[_], ArchiveFileSource[_]) => ArchiveFileStoreFactory[_] => Any): Unit = {
+    test(first, second)(directory)
+    forAll(Factories) { implicit factory =>
+      withTempArchiveFile { firstCopy => withTempArchiveFile { secondCopy =>
+        BIOS.copy(first, firstCopy)
+        BIOS.copy(second, secondCopy)
+        test(firstCopy, secondCopy)(factory)
+      }}
+    }
+  }
+
   private val Factories: TableFor1[ArchiveFileStoreFactory[_]] = Table(
     "archive file store factory",
     CommonsCompress.jar,
     CommonsCompress.zip,
     BIOS.jar,
-    BIOS.zip
+    BIOS.zip,
+    CommonsCompress.parallelJar(_: File),
+    CommonsCompress.parallelZip(_: File),
+    BIOS.parallelJar(_: File),
+    BIOS.parallelZip(_: File),
+    Mapped.jar(_: File),
+    Mapped.zip(_: File)
   )
 
+  def assertClone(second: ArchiveFileSource[_], clone: ArchiveFileSource[_]): Unit = {
+    val secondEntries: Set[String] = second.applyReader(_.asScala.filterNot(_.isDirectory).map(_.name).toSet)
+
+    val model = (diff base second update clone digest md5).toModel
+    model.changedEntries shouldBe empty
+    model.addedEntries shouldBe empty
+    model.removedEntries shouldBe empty
+    model.unchangedEntries.asScala.map(_.name).toSet shouldBe secondEntries
+  }
+
   def withTempArchiveFile(test: ArchiveFileStore[_] => Any)(implicit factory: ArchiveFileStoreFactory[_]): Unit = {
     val file = File.createTempFile("temp", null)
     file delete ()
@@ -73,6 +537,21 @@ private object DiffAndPatchSpec {
     }
   }
 
+  def withTempDirectory(test: File => Any): Unit = {
+    val dir = Files.createTempDirectory("temp").toFile
+    try {
+      test(dir)
+    } finally {
+      deleteAll(dir)
+    }
+  }
+
+  def path(dir: File, name: String): Path = dir.toPath resolve name
+
+  def write(dir: File, name: String, content: String): Unit = Files.write(path(dir, name), content getBytes UTF_8)
+
+  def read(dir: File, name: String): String = new String(Files readAllBytes path(dir, name), UTF_8)
+
   private def deleteAll(file: File): Unit = {
     if (file.isDirectory) {
       file listFiles () foreach deleteAll
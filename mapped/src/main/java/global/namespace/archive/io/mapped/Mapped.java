@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.mapped;
+
+import global.namespace.archive.io.api.ArchiveFileInput;
+import global.namespace.archive.io.api.ArchiveFileOutput;
+import global.namespace.archive.io.api.ArchiveFileStore;
+import global.namespace.archive.io.bios.BIOS;
+import global.namespace.fun.io.api.Socket;
+
+import java.io.File;
+import java.util.zip.ZipEntry;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Provides access to JAR and ZIP files which get read by mapping them into memory.
+ * Unlike {@link java.util.zip.ZipFile}, the archive file input doesn't need to synchronize concurrent reads of
+ * archive entries, so it scales with the number of threads, e.g. when diffing in parallel.
+ * The archive file output is the same as for {@link BIOS}.
+ * This package depends on Java Runtime Environment (JRE) and the BIOS module only.
+ * <p>
+ * Note that the mapped memory only gets released when it gets garbage collected, which may take some time after
+ * closing the archive file input.
+ * On some platforms, e.g. Windows, the archive file cannot get deleted or overwritten until then.
+ *
+ * @author Christian Schlichtherle
+ */
+public class Mapped {
+
+    private Mapped() { }
+
+    /** Returns an archive file store for the given JAR file. */
+    public static ArchiveFileStore<ZipEntry> jar(File file) { return store(file, BIOS.jar(file)); }
+
+    /** Returns an archive file store for the given ZIP file. */
+    public static ArchiveFileStore<ZipEntry> zip(File file) { return store(file, BIOS.zip(file)); }
+
+    private static ArchiveFileStore<ZipEntry> store(final File file, final ArchiveFileStore<ZipEntry> output) {
+        requireNonNull(file);
+        return new ArchiveFileStore<ZipEntry>() {
+
+            @Override
+            public Socket<ArchiveFileInput<ZipEntry>> input() { return () -> new MappedZipFile(file.toPath()); }
+
+            @Override
+            public Socket<ArchiveFileOutput<ZipEntry>> output() { return output.output(); }
+        };
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.mapped;
+
+import global.namespace.archive.io.api.ArchiveEntrySink;
+import global.namespace.archive.io.api.ArchiveEntrySource;
+import global.namespace.archive.io.api.ArchiveFileInput;
+import global.namespace.archive.io.api.ZipInflaterInputStream;
+import global.namespace.fun.io.api.Socket;
+import global.namespace.fun.io.api.Source;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import static global.namespace.fun.io.bios.BIOS.copy;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Spliterator.*;
+
+/**
+ * Reads a ZIP file by mapping it into memory.
+ * On construction, the central directory gets parsed into a map of ZIP entries and the offsets of their local file
+ * headers.
+ * Each input stream reads from its own view of the mapped memory, so reading entries concurrently is thread-safe
+ * without any locking.
+ * Hence, this archive file input {@linkplain #isConcurrent() is concurrent}, so the parallel stream reads the entries
+ * in parallel.
+ * <p>
+ * The ZIP file gets mapped in regions of {@value #REGION_SIZE} bytes, each of which overlaps with the next, so that any
+ * slice of up to {@value #SLICE_SIZE} bytes is contained in a single region.
+ * This supports ZIP files of any size.
+ *
+ * @author Christian Schlichtherle
+ */
+final class MappedZipFile implements ArchiveFileInput<ZipEntry> {
+
+    private static final int SLICE_SIZE = 1 << 29, REGION_SIZE = SLICE_SIZE << 1;
+
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    private static final int ZIP64_MAGIC_COUNT = 0xffff;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int LOC_SIG = 0x04034b50, CEN_SIG = 0x02014b50, END_SIG = 0x06054b50;
+
+    private static final int ZIP64_END_SIG = 0x06064b50, ZIP64_LOC_SIG = 0x07064b50;
+
+    private static final int LOC_SIZE = 30, CEN_SIZE = 46, END_SIZE = 22, ZIP64_END_SIZE = 56, ZIP64_LOC_SIZE = 20;
+
+    private static final int ENCRYPTED = 1;
+
+    private final Map<String, MappedZipEntry> entries = new LinkedHashMap<>();
+
+    private final MappedByteBuffer[] regions;
+
+    private final long length;
+
+    MappedZipFile(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            length = channel.size();
+            if (length < END_SIZE) {
+                throw new ZipException("Not a ZIP file.");
+            }
+            regions = new MappedByteBuffer[(int) ((length + SLICE_SIZE - 1) / SLICE_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                final long position = (long) i * SLICE_SIZE;
+                regions[i] = channel.map(READ_ONLY, position, Math.min(REGION_SIZE, length - position));
+            }
+        }
+        readCentralDirectory();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        final long end = findEnd();
+        final ByteBuffer eocd = slice(end, END_SIZE);
+        long count = eocd.getShort(10) & 0xffff;
+        long size = eocd.getInt(12) & ZIP64_MAGIC;
+        long offset = eocd.getInt(16) & ZIP64_MAGIC;
+        long position = end;
+        // Some writers add the ZIP64 records even if the values in the end of central directory record are valid, so
+        // look for them in any case:
+        final long end64 = findZip64End(end);
+        if (0 <= end64) {
+            final ByteBuffer eocd64 = slice(end64, ZIP64_END_SIZE);
+            position = end64;
+            count = eocd64.getLong(32);
+            size = eocd64.getLong(40);
+            offset = eocd64.getLong(48);
+        } else if (ZIP64_MAGIC_COUNT == count || ZIP64_MAGIC == size || ZIP64_MAGIC == offset) {
+            throw new ZipException("Invalid ZIP64 end of central directory record.");
+        }
+        // Account for any preamble, e.g. for a self-extracting archive:
+        final long preamble = position - size - offset;
+        if (preamble < 0) {
+            throw new ZipException("Invalid central directory.");
+        }
+        long start = offset + preamble;
+        for (long i = 0; i < count; i++) {
+            final ByteBuffer cen = slice(start, CEN_SIZE);
+            if (CEN_SIG != cen.getInt(0)) {
+                throw new ZipException("Invalid central directory header.");
+            }
+            final int nameLength = cen.getShort(28) & 0xffff;
+            final int extraLength = cen.getShort(30) & 0xffff;
+            final int commentLength = cen.getShort(32) & 0xffff;
+            final ByteBuffer variable = slice(start + CEN_SIZE, nameLength + extraLength + commentLength);
+            final byte[] name = new byte[nameLength], extra = new byte[extraLength], comment = new byte[commentLength];
+            variable.get(name).get(extra).get(comment);
+
+            final ZipEntry entry = new ZipEntry(new String(name, UTF_8));
+            long csize = cen.getInt(20) & ZIP64_MAGIC, usize = cen.getInt(24) & ZIP64_MAGIC;
+            long local = cen.getInt(42) & ZIP64_MAGIC;
+            if (ZIP64_MAGIC == usize || ZIP64_MAGIC == csize || ZIP64_MAGIC == local) {
+                final ByteBuffer zip64 = zip64Extra(extra);
+                if (ZIP64_MAGIC == usize) {
+                    usize = zip64.getLong();
+                }
+                if (ZIP64_MAGIC == csize) {
+                    csize = zip64.getLong();
+                }
+                if (ZIP64_MAGIC == local) {
+                    local = zip64.getLong();
+                }
+            }
+            final int method = cen.getShort(10) & 0xffff;
+            if (ZipEntry.STORED == method || ZipEntry.DEFLATED == method) {
+                entry.setMethod(method);
+            }
+            entry.setTime(javaTime(cen.getInt(12) & ZIP64_MAGIC));
+            entry.setCrc(cen.getInt(16) & ZIP64_MAGIC);
+            entry.setSize(usize);
+            entry.setCompressedSize(csize);
+            if (0 < extraLength) {
+                entry.setExtra(extra);
+            }
+            if (0 < commentLength) {
+                entry.setComment(new String(comment, UTF_8));
+            }
+            entries.put(entry.getName(), new MappedZipEntry(entry, method, cen.getShort(8) & 0xffff, local + preamble));
+            start += CEN_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /** Returns the position of the end of central directory record. */
+    private long findEnd() throws IOException {
+        final int max = (int) Math.min(length, END_SIZE + 0xffff);
+        final ByteBuffer tail = slice(length - max, max);
+        for (int i = max - END_SIZE; 0 <= i; i--) {
+            if (END_SIG == tail.getInt(i)) {
+                return length - max + i;
+            }
+        }
+        throw new ZipException("End of central directory record not found.");
+    }
+
+    /**
+     * Returns the position of the ZIP64 end of central directory record or -1 if there is no ZIP64 end of central
+     * directory locator in front of the end of central directory record at the given position.
+     * The offset in the locator is relative to the start of the archive, so it doesn't account for any preamble.
+     * Hence, the record gets looked up right in front of the locator first.
+     */
+    private long findZip64End(final long end) throws IOException {
+        if (end < ZIP64_LOC_SIZE || ZIP64_LOC_SIG != slice(end - ZIP64_LOC_SIZE, ZIP64_LOC_SIZE).getInt(0)) {
+            return -1;
+        }
+        final long adjacent = end - ZIP64_LOC_SIZE - ZIP64_END_SIZE;
+        if (0 <= adjacent && ZIP64_END_SIG == slice(adjacent, ZIP64_END_SIZE).getInt(0)) {
+            return adjacent;
+        }
+        final long recorded = slice(end - ZIP64_LOC_SIZE, ZIP64_LOC_SIZE).getLong(8);
+        if (0 <= recorded && recorded <= length - ZIP64_END_SIZE &&
+                ZIP64_END_SIG == slice(recorded, ZIP64_END_SIZE).getInt(0)) {
+            return recorded;
+        }
+        throw new ZipException("Invalid ZIP64 end of central directory record.");
+    }
+
+    /** Returns a buffer which is positioned at the data of the ZIP64 extended information extra field. */
+    private static ByteBuffer zip64Extra(final byte[] extra) throws ZipException {
+        final ByteBuffer buffer = ByteBuffer.wrap(extra).order(LITTLE_ENDIAN);
+        for (int i = 0; i + 4 <= extra.length; ) {
+            final int id = buffer.getShort(i) & 0xffff, length = buffer.getShort(i + 2) & 0xffff;
+            if (ZIP64_EXTRA_ID == id) {
+                buffer.position(i + 4).limit(Math.min(i + 4 + length, extra.length));
+                return buffer;
+            }
+            i += 4 + length;
+        }
+        throw new ZipException("Missing ZIP64 extended information.");
+    }
+
+    /** Converts the given MS-DOS date and time to milliseconds since the epoch. */
+    private static long javaTime(final long dosTime) {
+        return LocalDateTime
+                .of((int) (dosTime >> 25 & 0x7f) + 1980, 1, 1, 0, 0)
+                .plusMonths((dosTime >> 21 & 0xf) - 1)
+                .plusDays((dosTime >> 16 & 0x1f) - 1)
+                .plusHours(dosTime >> 11 & 0x1f)
+                .plusMinutes(dosTime >> 5 & 0x3f)
+                .plusSeconds(dosTime << 1 & 0x3e)
+                .atZone(ZoneId.systemDefault())
+                .toInstant()
+                .toEpochMilli();
+    }
+
+    /**
+     * Returns a new little-endian buffer for the given slice of this ZIP file.
+     * The length must not exceed {@value #SLICE_SIZE}.
+     * The returned buffer is independent of any other buffer, so it may get used by a single thread without locking.
+     */
+    private ByteBuffer slice(final long position, final int length) throws EOFException {
+        assert 0 <= length && length <= SLICE_SIZE;
+        if (position < 0 || this.length - length < position) {
+            throw new EOFException();
+        }
+        final ByteBuffer region = regions[(int) (position / SLICE_SIZE)].duplicate();
+        final int offset = (int) (position % SLICE_SIZE);
+        region.limit(offset + length).position(offset);
+        return region.slice().order(LITTLE_ENDIAN);
+    }
+
+    @Override
+    public Iterator<ArchiveEntrySource<ZipEntry>> iterator() {
+        final Iterator<MappedZipEntry> it = entries.values().iterator();
+        return new Iterator<ArchiveEntrySource<ZipEntry>>() {
+
+            public boolean hasNext() { return it.hasNext(); }
+
+            public ArchiveEntrySource<ZipEntry> next() { return source(it.next()); }
+        };
+    }
+
+    @Override
+    public Spliterator<ArchiveEntrySource<ZipEntry>> spliterator() {
+        return Spliterators.spliterator(entries.values().stream().map(this::source).toArray(),
+                ORDERED | DISTINCT | NONNULL | IMMUTABLE);
+    }
+
+    /** Returns {@code true}. */
+    @Override
+    public boolean isConcurrent() { return true; }
+
+    @Override
+    public Optional<ArchiveEntrySource<ZipEntry>> source(String name) {
+        return Optional.ofNullable(entries.get(name)).map(this::source);
+    }
+
+    private ArchiveEntrySource<ZipEntry> source(final MappedZipEntry mapped) {
+        final ZipEntry entry = mapped.entry;
+        return new ArchiveEntrySource<ZipEntry>() {
+
+            public String name() { return entry.getName(); }
+
+            public boolean isDirectory() { return entry.isDirectory(); }
+
+            public ZipEntry entry() { return entry; }
+
+            public Socket<InputStream> input() { return () -> mapped.input(); }
+
+            public void copyTo(ArchiveEntrySink<?> sink) throws Exception { copy(this, sink); }
+
+            @Override
+            public OptionalLong size() { return OptionalLong.of(entry.getSize()); }
+
+            @Override
+            public OptionalLong crc() { return OptionalLong.of(entry.getCrc()); }
+
+            @Override
+            public OptionalLong time() { return OptionalLong.of(entry.getTime()); }
+
+            @Override
+            public Optional<Source> rawSource() { return Optional.of(() -> mapped::rawInput); }
+        };
+    }
+
+    /** A ZIP entry with the metadata for reading its data from the mapped memory. */
+    private final class MappedZipEntry {
+
+        final ZipEntry entry;
+
+        final int method, flags;
+
+        final long offset;
+
+        MappedZipEntry(final ZipEntry entry, final int method, final int flags, final long offset) {
+            this.entry = entry;
+            this.method = method;
+            this.flags = flags;
+            this.offset = offset;
+        }
+
+        InputStream input() throws IOException {
+            if (0 != (flags & ENCRYPTED)) {
+                throw new ZipException("Encrypted entry: " + entry.getName());
+            }
+            switch (method) {
+                case ZipEntry.STORED:
+                    return rawInput();
+                case ZipEntry.DEFLATED:
+                    return new ZipInflaterInputStream(rawInput());
+                default:
+                    throw new ZipException("Unsupported compression method " + method + ": " + entry.getName());
+            }
+        }
+
+        /** Returns an input stream for reading the raw data of this ZIP entry. */
+        InputStream rawInput() throws IOException {
+            final ByteBuffer loc = slice(offset, LOC_SIZE);
+            if (LOC_SIG != loc.getInt(0)) {
+                throw new ZipException("Invalid local file header: " + entry.getName());
+            }
+            final long start = offset + LOC_SIZE + (loc.getShort(26) & 0xffff) + (loc.getShort(28) & 0xffff);
+            return new MappedInputStream(start, start + entry.getCompressedSize());
+        }
+    }
+
+    /** Reads a range of the mapped memory in slices of up to {@value #SLICE_SIZE} bytes. */
+    private final class MappedInputStream extends InputStream {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+        private long position;
+
+        private final long end;
+
+        MappedInputStream(final long start, final long end) throws EOFException {
+            if (length < end) {
+                throw new EOFException();
+            }
+            this.position = start;
+            this.end = end;
+        }
+
+        private boolean fill() throws EOFException {
+            if (!buffer.hasRemaining() && position < end) {
+                final int length = (int) Math.min(SLICE_SIZE, end - position);
+                buffer = slice(position, length);
+                position += length;
+            }
+            return buffer.hasRemaining();
+        }
+
+        @Override
+        public int read() throws IOException { return fill() ? buffer.get() & 0xff : -1; }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && fill()) {
+                final int skip = (int) Math.min(n - skipped, buffer.remaining());
+                buffer.position(buffer.position() + skip);
+                skipped += skip;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(buffer.remaining() + end - position, Integer.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public void close() { }
+}
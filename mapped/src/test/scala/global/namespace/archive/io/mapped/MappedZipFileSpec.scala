@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013-2018 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package global.namespace.archive.io.mapped
+
+import java.io.OutputStream
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{Files, Path}
+import java.util.zip.{CRC32, ZipEntry, ZipOutputStream}
+
+import global.namespace.archive.io.api.ArchiveEntrySource
+import global.namespace.archive.io.mapped.MappedZipFileSpec._
+import org.apache.commons.compress.archivers.zip.{Zip64Mode, ZipArchiveEntry, ZipArchiveOutputStream}
+import org.scalatest.Matchers._
+import org.scalatest.WordSpec
+import org.scalatest.prop.TableDrivenPropertyChecks._
+
+import scala.collection.JavaConverters._
+
+/** @author Christian Schlichtherle */
+class MappedZipFileSpec extends WordSpec {
+
+  "A mapped ZIP file" should {
+    "read the entries of a ZIP file with or without ZIP64 extensions and a preamble" in {
+      val preambles = Table("preamble", "", "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n")
+      forAll(preambles) { preamble =>
+        forAll(Writers) { (_, write) =>
+          withTempFile { file =>
+            val out = Files newOutputStream file
+            try {
+              out write (preamble getBytes UTF_8)
+              write(out)
+            } finally {
+              out close ()
+            }
+            val zip = new MappedZipFile(file)
+            try {
+              zip.asScala.map(_.name).toList shouldBe Contents.keys.toList
+              Contents foreach { case (name, content) =>
+                val source = zip.source(name).get
+                source.size.getAsLong shouldBe content.length
+                contentOf(source) shouldBe content
+              }
+            } finally {
+              zip close ()
+            }
+          }
+        }
+      }
+    }
+
+    "read a ZIP file with more than 65535 entries from the ZIP64 end of central directory record" in {
+      val count = 70000
+      withTempFile { file =>
+        val zip = new ZipOutputStream(Files newOutputStream file)
+        try {
+          for (i <- 0 until count) {
+            zip putNextEntry new ZipEntry(i.toString)
+            zip write (i.toString getBytes UTF_8)
+          }
+        } finally {
+          zip close ()
+        }
+        val mapped = new MappedZipFile(file)
+        try {
+          mapped.asScala.size shouldBe count
+          contentOf(mapped.source("0").get) shouldBe "0"
+          contentOf(mapped.source((count - 1).toString).get) shouldBe (count - 1).toString
+        } finally {
+          mapped close ()
+        }
+      }
+    }
+  }
+}
+
+private object MappedZipFileSpec {
+
+  val Contents: Map[String, String] = scala.collection.immutable.ListMap(
+    "dir/" -> "",
+    "dir/deflated" -> "Hello world!\n" * 1000,
+    "stored" -> "Hello world!\n",
+    "empty" -> ""
+  )
+
+  val Writers = Table[String, OutputStream => Unit](
+    ("writer", "write"),
+    ("plain", { out =>
+      val zip = new ZipOutputStream(out)
+      Contents foreach { case (name, content) =>
+        val entry = new ZipEntry(name)
+        val bytes = content getBytes UTF_8
+        if ("stored" == name) {
+          val crc = new CRC32
+          crc update bytes
+          entry setMethod ZipEntry.STORED
+          entry setSize bytes.length
+          entry setCrc crc.getValue
+        }
+        zip putNextEntry entry
+        zip write bytes
+      }
+      zip finish ()
+    }),
+    ("ZIP64", { out =>
+      val zip = new ZipArchiveOutputStream(out)
+      zip setUseZip64 Zip64Mode.Always
+      Contents foreach { case (name, content) =>
+        val entry = new ZipArchiveEntry(name)
+        val bytes = content getBytes UTF_8
+        if ("stored" == name) {
+          val crc = new CRC32
+          crc update bytes
+          entry setMethod ZipEntry.STORED
+          entry setSize bytes.length
+          entry setCrc crc.getValue
+        }
+        zip putArchiveEntry entry
+        zip write bytes
+        zip closeArchiveEntry ()
+      }
+      zip finish ()
+    })
+  )
+
+  def contentOf(source: ArchiveEntrySource[ZipEntry]): String = {
+    source applyReader { in =>
+      new String(Stream.continually(in.read).takeWhile(_ != -1).map(_.toByte).toArray, UTF_8)
+    }
+  }
+
+  def withTempFile(test: Path => Any): Unit = {
+    val file = Files.createTempFile("tmp", ".zip")
+    try {
+      test(file)
+    } finally {
+      Files delete file
+    }
+  }
+}